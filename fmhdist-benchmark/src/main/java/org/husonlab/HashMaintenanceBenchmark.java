@@ -31,6 +31,7 @@
 
 package org.husonlab;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.TreeSet;
@@ -81,4 +82,18 @@ public class HashMaintenanceBenchmark {
         new TreeSet<>(result);
     }
 
-}
+    @Benchmark
+    public void insertPrimitiveAndSortAtEnd() {
+        long[] result = new long[1024];
+        int size = 0;
+        for (int i = 0; i < 100000; i++) {
+            long hash = LongHashFunction.farmUo(10).hashInt(i);
+            if (size == result.length) {
+                result = Arrays.copyOf(result, size * 2);
+            }
+            result[size++] = hash;
+        }
+        Arrays.sort(result, 0, size);
+    }
+
+}
\ No newline at end of file
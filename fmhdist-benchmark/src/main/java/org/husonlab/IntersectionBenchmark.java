@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2014, Oracle America, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  * Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ *  * Neither the name of Oracle nor the names of its contributors may be used
+ *    to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.husonlab;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares the linear merge of two sorted sketches with the galloping search
+ * of the values of the smaller sketch in the larger one, as in
+ * Distance.getIntersectionSize(), across different size ratios. About half of
+ * the values of the smaller sketch are shared with the larger one.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class IntersectionBenchmark {
+    // e.g. a plant genome with s = 1000
+    @Param({ "2000000" })
+    public int largeSize;
+
+    @Param({ "1", "4", "16", "32", "64", "256", "4096" })
+    public int ratio;
+
+    private long[] large;
+    private long[] small;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        this.large = new long[this.largeSize];
+        for (int i = 0; i < this.large.length; i++) {
+            this.large[i] = random.nextLong();
+        }
+        Arrays.sort(this.large);
+        this.small = new long[Math.max(1, this.largeSize / this.ratio)];
+        for (int i = 0; i < this.small.length; i++) {
+            this.small[i] = random.nextBoolean() ? this.large[random.nextInt(this.large.length)] : random.nextLong();
+        }
+        Arrays.sort(this.small);
+    }
+
+    @Benchmark
+    public int merge() {
+        long[] a = this.small;
+        long[] b = this.large;
+        int intersectionSize = 0;
+        int i = 0;
+        int j = 0;
+        while (true) {
+            if (a[i] < b[j]) {
+                if (++i >= a.length) {
+                    break;
+                }
+            } else if (a[i] > b[j]) {
+                if (++j >= b.length) {
+                    break;
+                }
+            } else {
+                intersectionSize++;
+                if (++i >= a.length || ++j >= b.length) {
+                    break;
+                }
+            }
+        }
+        return intersectionSize;
+    }
+
+    @Benchmark
+    public int galloping() {
+        long[] small = this.small;
+        long[] large = this.large;
+        int intersectionSize = 0;
+        int low = 0;
+        for (int i = 0; i < small.length && low < large.length; i++) {
+            long value = small[i];
+            if (large[low] < value) {
+                int previous = low;
+                int next = low + 1;
+                int step = 1;
+                while (next < large.length && large[next] < value) {
+                    previous = next;
+                    step <<= 1;
+                    next = previous + step;
+                }
+                int high = Math.min(next, large.length);
+                low = previous + 1;
+                while (low < high) {
+                    int middle = (low + high) >>> 1;
+                    if (large[middle] < value) {
+                        low = middle + 1;
+                    } else {
+                        high = middle;
+                    }
+                }
+            }
+            if (low < large.length && large[low] == value) {
+                intersectionSize++;
+                low++;
+            }
+        }
+        return intersectionSize;
+    }
+}
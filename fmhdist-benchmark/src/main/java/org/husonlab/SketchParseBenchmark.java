@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2014, Oracle America, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  * Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ *  * Neither the name of Oracle nor the names of its contributors may be used
+ *    to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.husonlab;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import jloda.util.ByteInputBuffer;
+import jloda.util.ByteOutputBuffer;
+
+/**
+ * Compares the load throughput (sketches per second) of decoding the hash
+ * values of a serialized FracMinHashSketch one by one with ByteInputBuffer
+ * against bulk-copying them from a little endian LongBuffer view, both from a
+ * heap array and from a direct buffer. The layout is the one of
+ * FracMinHashSketch.getBytes(): a 28 byte header, followed by the hash values.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SketchParseBenchmark {
+    private static final int HEADER_SIZE = 28;
+
+    // 10k hashes correspond to a 10 Mbp genome with s = 1000
+    @Param({ "1000", "10000", "100000" })
+    public int sketchSize;
+
+    private byte[] bytes;
+    private ByteBuffer direct;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        long[] values = new long[this.sketchSize];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextLong();
+        }
+        Arrays.sort(values);
+
+        ByteOutputBuffer output = new ByteOutputBuffer();
+        output.writeIntLittleEndian(1213415759);
+        output.writeLongLittleEndian(random.nextLong());
+        output.writeIntLittleEndian(1000);
+        output.writeIntLittleEndian(21);
+        output.writeIntLittleEndian(42);
+        output.writeIntLittleEndian(values.length);
+        for (long value : values) {
+            output.writeLongLittleEndian(value);
+        }
+        this.bytes = output.copyBytes();
+        this.direct = ByteBuffer.allocateDirect(this.bytes.length);
+        this.direct.put(this.bytes);
+        this.direct.flip();
+    }
+
+    @Benchmark
+    public long[] parsePerValue() {
+        ByteInputBuffer buffer = new ByteInputBuffer(this.bytes);
+        buffer.readIntLittleEndian();
+        buffer.readLongLittleEndian();
+        buffer.readIntLittleEndian();
+        buffer.readIntLittleEndian();
+        buffer.readIntLittleEndian();
+        long[] values = new long[buffer.readIntLittleEndian()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = buffer.readLongLittleEndian();
+        }
+        return values;
+    }
+
+    @Benchmark
+    public long[] parseBulkHeap() {
+        return parseBulk(ByteBuffer.wrap(this.bytes));
+    }
+
+    @Benchmark
+    public long[] parseBulkDirect() {
+        return parseBulk(this.direct.duplicate());
+    }
+
+    private static long[] parseBulk(ByteBuffer bytes) {
+        ByteBuffer buffer = bytes.slice().order(ByteOrder.LITTLE_ENDIAN);
+        long[] values = new long[buffer.getInt(HEADER_SIZE - 4)];
+        buffer.position(HEADER_SIZE);
+        buffer.asLongBuffer().get(values);
+        return values;
+    }
+}
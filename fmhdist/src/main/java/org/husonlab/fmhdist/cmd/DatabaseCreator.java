@@ -36,6 +36,9 @@ public class DatabaseCreator {
      * @param hashFunction the hash function that should be used to create the FracMinHash sketch
      * @param hashFunctionName the name of that hash function, it will be written to the database
      * @param randomSeed the random seed that was applied to create the hash function
+     * @param usePackedKMers if set to true, the 2-bit packed k-mer engine is used where applicable
+     * @param parallelRecords if set to true, the genomes are sketched one after another and each genome is
+     * divided into parts (byte ranges of local uncompressed files, records otherwise) that are sketched in parallel
      */
     public void run(
             String input,
@@ -44,7 +47,9 @@ public class DatabaseCreator {
             int sParameter,
             LongHashFunction hashFunction,
             String hashFunctionName,
-            int randomSeed) {
+            int randomSeed,
+            boolean usePackedKMers,
+            boolean parallelRecords) {
         Logger logger = Logger.getLogger(DatabaseCreator.class.getName());
 
         if ((new File(output)).exists()) {
@@ -70,26 +75,43 @@ public class DatabaseCreator {
                     .newFixedThreadPool(ProgramExecutorService.getNumberOfCoresToUse());
 
             try {
-                genomes.forEach(genome -> executor.submit(() -> {
-                    if (exception.isNull()) {
+                if (parallelRecords) {
+                    for (Genome genome : genomes) {
                         int retries = 5;
                         // Sometimes, the connection to NCBI breaks - this is a quick workaround
                         while (retries-- > 0) {
                             try {
-                                GenomeSketch sketch = GenomeSketch.sketch(genome, kParameter, sParameter, hashFunction, randomSeed, false);
-                                sketches.add(sketch);
+                                sketches.add(GenomeSketch.sketchRangesInParallel(genome, kParameter, sParameter,
+                                        hashFunction, randomSeed, usePackedKMers, executor,
+                                        ProgramExecutorService.getNumberOfCoresToUse()));
                                 break;
                             } catch (Exception ex) {
                                 logger.warning(ex.getMessage());
-                            } catch (Throwable e) {
-                                // Somethings wrong here - no way to recover.
-                                logger.severe(e.getMessage());
-                                exception.setIfCurrentValueIsNull(e);
-                                break;
                             }
                         }
                     }
-                }));
+                } else {
+                    genomes.forEach(genome -> executor.submit(() -> {
+                        if (exception.isNull()) {
+                            int retries = 5;
+                            // Sometimes, the connection to NCBI breaks - this is a quick workaround
+                            while (retries-- > 0) {
+                                try {
+                                    GenomeSketch sketch = GenomeSketch.sketch(genome, kParameter, sParameter, hashFunction, randomSeed, false, usePackedKMers);
+                                    sketches.add(sketch);
+                                    break;
+                                } catch (Exception ex) {
+                                    logger.warning(ex.getMessage());
+                                } catch (Throwable e) {
+                                    // Somethings wrong here - no way to recover.
+                                    logger.severe(e.getMessage());
+                                    exception.setIfCurrentValueIsNull(e);
+                                    break;
+                                }
+                            }
+                        }
+                    }));
+                }
             } finally {
                 executor.shutdown();
                 executor.awaitTermination(1000, TimeUnit.DAYS);
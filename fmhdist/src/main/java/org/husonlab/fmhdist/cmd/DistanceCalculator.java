@@ -5,15 +5,17 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
 
 import org.husonlab.fmhdist.sketch.Distance;
 import org.husonlab.fmhdist.sketch.FracMinHashSketch;
+import org.husonlab.fmhdist.sketch.PairwiseCalculator;
+import org.husonlab.fmhdist.sketch.SketchArchive;
+import org.husonlab.fmhdist.util.ByteLineReader;
 
-import jloda.thirdparty.HexUtils;
-import jloda.util.FileLineIterator;
+import jloda.util.ProgramExecutorService;
 import splitstree6.data.DistancesBlock;
 import splitstree6.data.TaxaBlock;
 import splitstree6.io.writers.distances.NexusWriter;
@@ -28,7 +30,7 @@ public class DistanceCalculator {
         try {
             String[] comp = line.replaceAll("\\s+", "").split(",");
             byte[] content = Files.readAllBytes(Paths.get(comp[0]));
-            FracMinHashSketch result = FracMinHashSketch.parse(HexUtils.decodeHexString(new String(content)));
+            FracMinHashSketch result = FracMinHashSketch.parseFile(content);
             if(comp.length > 1) {
                 result.setName(comp[1]);
             } else {
@@ -40,14 +42,34 @@ public class DistanceCalculator {
         }
     }
 
+    private List<FracMinHashSketch> readSketchList(String path) throws IOException {
+        if (SketchArchive.isArchive(path)) {
+            try (SketchArchive archive = SketchArchive.open(path)) {
+                return archive.getSketches();
+            }
+        }
+        List<FracMinHashSketch> result = new ArrayList<>();
+        try (ByteLineReader reader = new ByteLineReader(path)) {
+            while (reader.readLine()) {
+                result.add(this.lineToSketch(reader.getLineAsString()));
+            }
+        }
+        return result;
+    }
+
     /**
      * Calculates three sets evolutionary distances: Mash Distance, FracMinHash
      * containment distance and FracMinHash distance.
      * @param input A CSV of sketches that should be included in distance
-     * calculations, each line must specify the path to the sketch file
+     * calculations, each line must specify the path to the sketch file, or a
+     * sketch archive (see SketchArchive) containing all sketches. If
+     * the sketches were computed with different scaling parameters s, all of
+     * them are downsampled to the largest s.
      * @param output Path to the output FracMinHash distance in Nexus format.
      * The other two distances are stored using ".mash" and ".containment"
-     * suffixes.
+     * suffixes. If all sketches store abundances, one minus the weighted
+     * Jaccard index and one minus the cosine similarity are stored using
+     * ".weighted" and ".cosine" suffixes.
      */
     public void run(
             String input,
@@ -56,12 +78,16 @@ public class DistanceCalculator {
         Logger logger = Logger.getLogger(DistanceCalculator.class.getName());
         try {          
             logger.info("Reading queries list...");
-            FileLineIterator it = new FileLineIterator(input);
-            List<FracMinHashSketch> sketches = it
-                .stream()
-                .map(this::lineToSketch)
-                .collect(Collectors.toList());
-            it.close();
+            List<FracMinHashSketch> sketches = this.readSketchList(input);
+
+            // sketches with different s are compared at the coarsest scale
+            final int sParameter = FracMinHashSketch.getCoarsestSParam(sketches);
+            for (int i = 0; i < sketches.size(); i++) {
+                if (sketches.get(i).getSParam() != sParameter) {
+                    logger.fine(String.format("Downsampling %s to s=%d...", sketches.get(i).getName(), sParameter));
+                    sketches.set(i, sketches.get(i).downsample(sParameter));
+                }
+            }
 
             DistancesBlock distances_jaccard = new DistancesBlock();
             distances_jaccard.setNtax(sketches.size());
@@ -72,60 +98,71 @@ public class DistanceCalculator {
             DistancesBlock distances_containment = new DistancesBlock();
             distances_containment.setNtax(sketches.size());
 
-            TaxaBlock taxa = new TaxaBlock();
-            int sParameter = 0;
-            int kParameter = 0;
-            int randomSeed = 0;
-            long hashedMagicNumber = 0;
+            // weighted distances are only available if all sketches store
+            // abundances
+            final boolean hasAbundances = sketches.stream().allMatch(FracMinHashSketch::hasAbundances);
+            DistancesBlock distances_weighted = new DistancesBlock();
+            distances_weighted.setNtax(sketches.size());
 
-            List<String> emptyIntersectionLog = null;
+            DistancesBlock distances_cosine = new DistancesBlock();
+            distances_cosine.setNtax(sketches.size());
 
-            if (LOG_EMPTY_INTERSECTIONS) {
-                emptyIntersectionLog = new ArrayList<>();
+            TaxaBlock taxa = new TaxaBlock();
+            final int kParameter = sketches.isEmpty() ? 0 : sketches.get(0).getKSize();
+            final int randomSeed = sketches.isEmpty() ? 0 : sketches.get(0).getSeed();
+            final long hashedMagicNumber = sketches.isEmpty() ? 0 : sketches.get(0).getHashedMagicNumber();
+            for (FracMinHashSketch sketch : sketches) {
+                if (kParameter != sketch.getKSize() || randomSeed != sketch.getSeed() || hashedMagicNumber != sketch.getHashedMagicNumber()) {
+                    logger.severe("sketches have incompatible sketching parameters");
+                    return;
+                }
+                taxa.addTaxonByName(sketch.getName());
             }
 
-            for (int i = 0; i < sketches.size(); i++) {
-                if (sParameter != 0 || kParameter != 0 || randomSeed != 0 || hashedMagicNumber != 0) {
-                    if (sParameter != sketches.get(i).getSParam() || kParameter != sketches.get(i).getKSize() || randomSeed != sketches.get(i).getSeed() || hashedMagicNumber != sketches.get(i).getHashedMagicNumber()) {
-                        logger.severe("sketches have incompatible sketching parameters");
-                        return;
+            final List<String> emptyIntersectionLog = LOG_EMPTY_INTERSECTIONS
+                    ? Collections.synchronizedList(new ArrayList<>())
+                    : null;
+
+            logger.info("Calculating pairwise distances...");
+            // each pair is compared once by one of the threads, i.e. every
+            // cell of the distance blocks is written by a single thread
+            PairwiseCalculator.forEachPair(
+                sketches.size(),
+                PairwiseCalculator.getTileSize(sketches),
+                ProgramExecutorService.getNumberOfCoresToUse(),
+                (i, j) -> {
+                    FracMinHashSketch a = sketches.get(i);
+                    FracMinHashSketch b = sketches.get(j);
+                    Distance.PairMetrics metrics = Distance.calculatePairMetrics(a.getValues(), b.getValues(), sParameter, kParameter);
+
+                    if (metrics.getJaccardIndex() == 0 && emptyIntersectionLog != null) {
+                        emptyIntersectionLog.add(String.format("%s vs %s is empty\n", a.getName(), b.getName()));
                     }
-                } else {
-                    sParameter = sketches.get(i).getSParam();
-                    kParameter = sketches.get(i).getKSize();
-                    randomSeed = sketches.get(i).getSeed();
-                    hashedMagicNumber = sketches.get(i).getHashedMagicNumber();
-                }
 
-                taxa.addTaxonByName(sketches.get(i).getName());
-                for (int j = i; j < sketches.size(); j++) {
-                    double jaccard = Distance.calculateJaccardIndex(
-                        sketches.get(i).getValues(),
-                        sketches.get(j).getValues(), 
-                        sParameter
-                    );
+                    distances_jaccard.setBoth(i + 1, j + 1, metrics.getJaccardDistance()); // for some reason, the method is 1-based
                     // Containment is not symmetrical
-                    double containment_i = Distance.calculateContainmentIndex(
-                        sketches.get(i).getValues(),
-                        sketches.get(j).getValues(), 
-                        sParameter
-                    );
-                    double containment_j = Distance.calculateContainmentIndex(
-                        sketches.get(j).getValues(),
-                        sketches.get(i).getValues(), 
-                        sParameter
-                    );
-
-                    if (jaccard == 0 && emptyIntersectionLog != null) {
-                        emptyIntersectionLog.add(String.format("%s vs %s is empty\n", sketches.get(i).getName(), sketches.get(j).getName()));
+                    distances_containment.set(i+1, j+1, metrics.getContainmentDistanceA());
+                    distances_containment.set(j+1, i+1, metrics.getContainmentDistanceB());
+                    distances_mash.setBoth(i+1, j+1, metrics.getMashDistance());
+
+                    if (hasAbundances) {
+                        double weightedJaccard = Distance.calculateWeightedJaccardIndex(
+                            a.getValues(),
+                            a.getAbundances(),
+                            b.getValues(),
+                            b.getAbundances()
+                        );
+                        double cosine = Distance.calculateCosineSimilarity(
+                            a.getValues(),
+                            a.getAbundances(),
+                            b.getValues(),
+                            b.getAbundances()
+                        );
+                        distances_weighted.setBoth(i+1, j+1, 1.0 - weightedJaccard);
+                        distances_cosine.setBoth(i+1, j+1, 1.0 - cosine);
                     }
-
-                    distances_jaccard.setBoth(i + 1, j + 1, Distance.jaccardToDistance(jaccard, kParameter)); // for some reason, the method is 1-based
-                    distances_containment.set(i+1, j+1, Distance.containmentToDistance(containment_i, kParameter));
-                    distances_containment.set(j+1, i+1, Distance.containmentToDistance(containment_j, kParameter));
-                    distances_mash.setBoth(i+1, j+1, Distance.jaccardToMashDistance(jaccard, kParameter));
                 }
-            }
+            );
 
             logger.info("Exporting...");
             FileWriter outFile = new FileWriter(output, false);
@@ -146,6 +183,20 @@ public class DistanceCalculator {
             writer.write(outFile, taxa, distances_mash);
             outFile.close();
 
+            if (hasAbundances) {
+                outFile = new FileWriter(output + ".weighted", false);
+                outFile.write("#nexus\n");
+                writer = new NexusWriter();
+                writer.write(outFile, taxa, distances_weighted);
+                outFile.close();
+
+                outFile = new FileWriter(output + ".cosine", false);
+                outFile.write("#nexus\n");
+                writer = new NexusWriter();
+                writer.write(outFile, taxa, distances_cosine);
+                outFile.close();
+            }
+
             if (emptyIntersectionLog != null) {
                 outFile = new FileWriter(output + ".log", false);
                 for(String line : emptyIntersectionLog) {
@@ -1,6 +1,11 @@
 package org.husonlab.fmhdist.cmd;
 
+import java.util.Arrays;
+
+import org.husonlab.fmhdist.util.BgzfBlockSource;
+import org.husonlab.fmhdist.util.FastqKMerIterator;
 import org.husonlab.fmhdist.util.HashFunctionParser;
+import org.husonlab.fmhdist.util.ReadAheadBlockSource;
 
 import jloda.fx.util.ArgsOptions;
 import jloda.util.ProgramExecutorService;
@@ -84,6 +89,63 @@ public class Main {
             false
         );
 
+        final boolean binaryCoordinates = options.getOption(
+            "-cb",
+            "binaryCoordinates",
+            String.format(
+                "When running %s, save the coordinates in a compact binary format instead of CSV text",
+                SKETCH_COMMAND
+            ),
+            false
+        );
+
+        final int coordinateWindowSize = options.getOption(
+            "-cw",
+            "coordinateWindows",
+            String.format(
+                "When running %s, count the k-mers of the sketch in windows of "+
+                "this size per record while sketching and save the counts using "+
+                "<name>.sketch.windows in the output directory. 0 disables the windows. Can not be combined with "+
+                "-a or -ma",
+                SKETCH_COMMAND
+            ),
+            0
+        );
+
+        final boolean windowComplexity = options.getOption(
+            "-wc",
+            "windowComplexity",
+            "Also save the number of k-mers, the GC content and the dinucleotide entropy per window",
+            false
+        );
+
+        final boolean saveAbundances = options.getOption(
+            "-a",
+            "abundances",
+            String.format(
+                "When running %s, store how often each hash value occurs. Enables weighted distances in %s",
+                SKETCH_COMMAND, COMPARE_SKETCH_COMMAND
+            ),
+            false
+        );
+        final int minAbundance = options.getOption(
+            "-ma",
+            "minAbundance",
+            String.format(
+                "When running %s, only keep hash values that occur at least this often, e.g. 2 to drop "+
+                "sequencing errors of reads. Values above 1 imply -a",
+                SKETCH_COMMAND
+            ),
+            1
+        );
+
+        FastqKMerIterator.setMinQuality(options.getOption(
+            "-mq",
+            "minQuality",
+            "Bases of FASTQ reads with a lower Phred quality are not part of any k-mer (0 to disable)",
+            FastqKMerIterator.DEFAULT_MIN_QUALITY
+        ));
+
         options.comment("Algorithm parameters");
         final int kParameter = options.getOption(
             "-k", 
@@ -91,6 +153,16 @@ public class Main {
             "Word size k", 
             21
         );
+        final String kParameterList = options.getOption(
+            "-ks",
+            "kmerSizes",
+            String.format(
+                "When running %s, comma separated list of word sizes. Each genome is read once and sketched "+
+                "for all sizes. Overrides -k",
+                SKETCH_COMMAND
+            ),
+            ""
+        );
         final int sParameter = options.getOption(
             "-s", 
             "scalingFactor",
@@ -110,6 +182,26 @@ public class Main {
             HashFunctionParser.getSupportedFunctions(), 
             HashFunctionParser.FARM_HASH_NAME
         );
+        final String hashFunctionList = options.getOption(
+            "-hfs",
+            "hashFunctions",
+            String.format(
+                "When running %s, comma separated list of hash functions (%s). Each genome is read once and "+
+                "sketched with all functions. Overrides -hf",
+                SKETCH_COMMAND, String.join(", ", HashFunctionParser.getSupportedFunctions())
+            ),
+            ""
+        );
+        final String randomSeedList = options.getOption(
+            "-rss",
+            "randomSeeds",
+            String.format(
+                "When running %s, comma separated list of seeds. Each genome is read once and sketched with "+
+                "all seeds. Overrides -rs",
+                SKETCH_COMMAND
+            ),
+            ""
+        );
         final double maxDistance = options.getOption(
             "-md", 
             "maxDistance",
@@ -136,14 +228,124 @@ public class Main {
         options.comment("Performance options");
         ProgramExecutorService
                 .setNumberOfCoresToUse(options.getOption("-t", "threads", "Number of threads", 1));
+        final boolean usePackedKMers = options.getOption(
+            "-p",
+            "packedKMers",
+            String.format(
+                "When running %s or %s, use the 2-bit packed k-mer engine (k <= 32 only, "+
+                "not applied when saving coordinates)",
+                SKETCH_COMMAND, CREATE_DB_COMMAND
+            ),
+            false
+        );
+        final boolean parallelRecords = options.getOption(
+            "-pr",
+            "parallelRecords",
+            String.format(
+                "When running %s or %s, sketch the genomes one after another and distribute each genome "+
+                "among the threads (byte ranges of local uncompressed files, records otherwise). Useful for few "+
+                "large genomes. Each combination of k, hash function and seed reads the genome separately (not "+
+                "applied when saving coordinates)",
+                SKETCH_COMMAND, CREATE_DB_COMMAND
+            ),
+            false
+        );
+        final boolean legacyHexFormat = options.getOption(
+            "-hex",
+            "legacyHexFormat",
+            String.format(
+                "When running %s, save the sketches hex encoded as in older versions instead of the compressed format",
+                SKETCH_COMMAND
+            ),
+            false
+        );
+        final String archiveName = options.getOption(
+            "-ar",
+            "sketchArchive",
+            String.format(
+                "When running %s, save all sketches to a single archive file with this name in the output "+
+                "directory instead of one file per sketch. %s and %s accept the archive as input or database",
+                SKETCH_COMMAND, COMPARE_SKETCH_COMMAND, COMPARE_REF_SKETCH_COMMAND
+            ),
+            ""
+        );
+        final boolean scanReferences = options.getOption(
+            "-sr",
+            "scanReferences",
+            String.format(
+                "When running %s, compare each query with every reference instead of looking the references up "+
+                "in an inverted index of their hashes (less memory, slower for large databases)",
+                COMPARE_REF_SKETCH_COMMAND
+            ),
+            false
+        );
+        ReadAheadBlockSource.setBlockCount(options.getOption(
+            "-rb",
+            "readAheadBlocks",
+            "Number of blocks that compressed or remote files are read ahead on a dedicated thread (0 to disable)",
+            ReadAheadBlockSource.DEFAULT_BLOCK_COUNT
+        ));
+        ReadAheadBlockSource.setBlockSize(1024 * options.getOption(
+            "-rbs",
+            "readAheadBlockSize",
+            "Size of a single read-ahead block in KiB",
+            ReadAheadBlockSource.DEFAULT_BLOCK_SIZE / 1024
+        ));
+        BgzfBlockSource.setNumberOfThreads(options.getOption(
+            "-dt",
+            "decompressionThreads",
+            "Number of threads that inflate local BGZF files (e.g. created with bgzip) in parallel (0 to disable)",
+            BgzfBlockSource.DEFAULT_NUMBER_OF_THREADS
+        ));
 
         options.done();
 
+        int[] kParameters = new int[] { kParameter };
+        if (!kParameterList.isBlank()) {
+            try {
+                kParameters = Arrays.stream(kParameterList.split(","))
+                    .mapToInt(size -> Integer.parseInt(size.trim()))
+                    .distinct()
+                    .toArray();
+            } catch (NumberFormatException e) {
+                throw new UsageException("invalid list of word sizes: " + kParameterList);
+            }
+        }
+
+        String[] hashFunctionNames = new String[] { hashFunctionName };
+        if (!hashFunctionList.isBlank()) {
+            hashFunctionNames = Arrays.stream(hashFunctionList.split(","))
+                .map(String::trim)
+                .distinct()
+                .toArray(String[]::new);
+            for (String name : hashFunctionNames) {
+                if (!HashFunctionParser.getSupportedFunctions().contains(name)) {
+                    throw new UsageException("unknown hash function: " + name);
+                }
+            }
+        }
+
+        int[] randomSeeds = new int[] { randomSeed };
+        if (!randomSeedList.isBlank()) {
+            try {
+                randomSeeds = Arrays.stream(randomSeedList.split(","))
+                    .mapToInt(seed -> Integer.parseInt(seed.trim()))
+                    .distinct()
+                    .toArray();
+            } catch (NumberFormatException e) {
+                throw new UsageException("invalid list of seeds: " + randomSeedList);
+            }
+        }
+
+        if (coordinateWindowSize > 0 && (saveAbundances || minAbundance > 1)) {
+            throw new UsageException("coordinate windows (-cw) can not be combined with abundances (-a, -ma)");
+        }
+
         LongHashFunction hashFunction = HashFunctionParser.createHashFunction(hashFunctionName, randomSeed);
         switch (command) {
             case CREATE_DB_COMMAND:
                 DatabaseCreator dbCreator = new DatabaseCreator();
-                dbCreator.run(input, output, kParameter, sParameter, hashFunction, hashFunctionName, randomSeed);
+                dbCreator.run(input, output, kParameter, sParameter, hashFunction, hashFunctionName, randomSeed, usePackedKMers, parallelRecords);
                 break;
             case COMPARE_SKETCH_COMMAND:
                 DistanceCalculator distanceCalculator = new DistanceCalculator();
@@ -151,11 +353,11 @@ public class Main {
                 break;
             case COMPARE_REF_SKETCH_COMMAND:
                 ReferenceDistanceCalculator refDistanceCalculator = new ReferenceDistanceCalculator();
-                refDistanceCalculator.run(input, output, database, maxDistance);
+                refDistanceCalculator.run(input, output, database, maxDistance, scanReferences);
                 break;
             case SKETCH_COMMAND:
                 SequenceSketcher sketcher = new SequenceSketcher();
-                sketcher.run(input, output, kParameter, sParameter, hashFunction, randomSeed, saveCoordinates);
+                sketcher.run(input, output, kParameters, sParameter, hashFunctionNames, randomSeeds, saveCoordinates, binaryCoordinates, coordinateWindowSize, windowComplexity, saveAbundances || minAbundance > 1, minAbundance, usePackedKMers, parallelRecords, legacyHexFormat, archiveName);
                 break;
             case OUTLINE_COMMAND:
                 OutlineVisualizer visualizer = new OutlineVisualizer();
@@ -12,18 +12,18 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
 
 import org.husonlab.fmhdist.db.ReferenceDatabase;
 import org.husonlab.fmhdist.sketch.Distance;
 import org.husonlab.fmhdist.sketch.FracMinHashSketch;
 import org.husonlab.fmhdist.sketch.GenomeSketch;
 import org.husonlab.fmhdist.sketch.IncompatibleParameterException;
+import org.husonlab.fmhdist.sketch.SketchArchive;
+import org.husonlab.fmhdist.sketch.SketchIndex;
+import org.husonlab.fmhdist.util.ByteLineReader;
 import org.husonlab.fmhdist.util.HashFunctionParser;
 import org.sqlite.SQLiteException;
 
-import jloda.thirdparty.HexUtils;
-import jloda.util.FileLineIterator;
 import splitstree6.data.DistancesBlock;
 import splitstree6.data.TaxaBlock;
 import splitstree6.io.writers.distances.NexusWriter;
@@ -41,7 +41,7 @@ public class ReferenceDistanceCalculator {
         try {
             String[] splitLine = line.replaceAll("\\s+", "").split(",");
             byte[] content = Files.readAllBytes(Paths.get(splitLine[0]));
-            FracMinHashSketch result = FracMinHashSketch.parse(HexUtils.decodeHexString(new String(content)));
+            FracMinHashSketch result = FracMinHashSketch.parseFile(content);
             if (splitLine.length > 1) {
                 result.setName(splitLine[1]);
             } else {
@@ -53,6 +53,29 @@ public class ReferenceDistanceCalculator {
         }
     }
 
+    private List<FracMinHashSketch> readSketchList(String path) throws IOException {
+        if (SketchArchive.isArchive(path)) {
+            try (SketchArchive archive = SketchArchive.open(path)) {
+                return archive.getSketches();
+            }
+        }
+        List<FracMinHashSketch> result = new ArrayList<>();
+        try (ByteLineReader reader = new ByteLineReader(path)) {
+            while (reader.readLine()) {
+                result.add(this.lineToSketch(reader.getLineAsString()));
+            }
+        }
+        return result;
+    }
+
+    private List<FracMinHashSketch> downsample(List<FracMinHashSketch> sketches) {
+        List<FracMinHashSketch> result = new ArrayList<>(sketches.size());
+        for (FracMinHashSketch sketch : sketches) {
+            result.add(sketch.downsample(this.sParameter));
+        }
+        return result;
+    }
+
     private List<FracMinHashSketch> prepareGenomesFromDatabase(String database)
             throws SQLException, IncompatibleParameterException, IOException {
         ReferenceDatabase db = ReferenceDatabase.open(database);
@@ -87,12 +110,7 @@ public class ReferenceDistanceCalculator {
     }
 
     private List<FracMinHashSketch> prepareGenomesFromSketchList(String database) throws IOException {
-        FileLineIterator it = new FileLineIterator(database);
-        List<FracMinHashSketch> sketches = it
-                .stream()
-                .map(this::lineToSketch)
-                .collect(Collectors.toList());
-        it.close();
+        List<FracMinHashSketch> sketches = this.readSketchList(database);
 
         if (sketches.size() == 0) {
             throw new IOException("reference db is empty");
@@ -100,7 +118,7 @@ public class ReferenceDistanceCalculator {
 
         FracMinHashSketch first = sketches.get(0);
         this.kParameter = first.getKSize();
-        this.sParameter = first.getSParam();
+        this.sParameter = FracMinHashSketch.getCoarsestSParam(sketches);
         this.randomSeed = first.getSeed();
         this.hashedMagicNumber = first.getHashedMagicNumber();
 
@@ -111,28 +129,39 @@ public class ReferenceDistanceCalculator {
      * Calculates the distances from the input query to the closest genomes in
      * the database. Calculates three sets evolutionary distances: Mash
      * Distance, FracMinHash containment distance and FracMinHash distance.
-     * @param input Path to a CSV containing paths to sketches, one per line.
-     * This will be the query sequences.
+     * @param input Path to a CSV containing paths to sketches, one per line,
+     * or a sketch archive. This will be the query sequences.
      * @param output Path to the output FracMinHash distance in Nexus format.
      * The other two distances are stored using ".mash" and ".containment"
      * suffixes.
      * @param database Path to the database. This can be either an SQLite
-     * database or a csv file listing paths to sketches.
+     * database, a sketch archive or a csv file listing paths to sketches. If
+     * the queries and the references were computed with different scaling
+     * parameters s, all sketches are downsampled to the largest s.
      * @param maxDistance The maximum distance of a reference sequence to a
      * query sequence to be included in the output.
+     * @param scanReferences If true, each query is compared with every
+     * reference. Otherwise, the references are looked up in an inverted index
+     * of their hash values, which needs additional memory for the index.
      */
     public void run(
             String input,
             String output,
             String database,
-            double maxDistance) {
+            double maxDistance,
+            boolean scanReferences) {
         Logger logger = Logger.getLogger(DistanceCalculator.class.getName());
         try {
             logger.info("Loading reference DB...");
             logger.fine("Try to parse as SQLite...");
             List<FracMinHashSketch> refSketches;
             try {
-                refSketches = prepareGenomesFromDatabase(database);
+                if (SketchArchive.isArchive(database)) {
+                    logger.fine("Reading sketch archive...");
+                    refSketches = prepareGenomesFromSketchList(database);
+                } else {
+                    refSketches = prepareGenomesFromDatabase(database);
+                }
             } catch (SQLiteException e) {
                 logger.fine("Failed to read SQLite!");
                 logger.fine("Try to parse as CSV...");
@@ -140,34 +169,69 @@ public class ReferenceDistanceCalculator {
             }
 
             logger.info("Reading queries list...");
-            FileLineIterator it = new FileLineIterator(input);
-            List<FracMinHashSketch> sketches = it
-                    .stream()
-                    .map(this::lineToSketch)
-                    .collect(Collectors.toList());
-            it.close();
+            List<FracMinHashSketch> sketches = this.readSketchList(input);
+
+            // sketches with different s are compared at the coarsest scale,
+            // e.g. quick screening queries against a fine reference DB
+            final int querySParameter = FracMinHashSketch.getCoarsestSParam(sketches);
+            if (querySParameter > this.sParameter) {
+                logger.info(String.format("Downsampling reference DB to s=%d...", querySParameter));
+                this.sParameter = querySParameter;
+            }
+            refSketches = this.downsample(refSketches);
+            sketches = this.downsample(sketches);
 
             logger.info("Finding closest reference genomes...");
             Set<FracMinHashSketch> resultSketchSet = new HashSet<>();
             for (FracMinHashSketch querySketch : sketches) {
-                if (this.sParameter != querySketch.getSParam() ||
-                        this.kParameter != querySketch.getKSize() ||
+                if (this.kParameter != querySketch.getKSize() ||
                         this.randomSeed != querySketch.getSeed() ||
                         this.hashedMagicNumber != querySketch.getHashedMagicNumber()) {
                     logger.severe("sketches have incompatible sketching parameters");
                     return;
                 }
+            }
 
-                for (FracMinHashSketch refSketch : refSketches) {
-                    double jaccard = Distance.calculateJaccardIndex(querySketch.getValues(),
-                            refSketch.getValues(), sParameter);
-                    double distance = Distance.jaccardToDistance(jaccard, kParameter);
-                    if (distance <= maxDistance) {
-                        resultSketchSet.add(refSketch);
+            if (Distance.jaccardToDistance(0, kParameter) <= maxDistance) {
+                // every reference is close enough, even without shared hashes
+                resultSketchSet.addAll(refSketches);
+            } else if (scanReferences) {
+                for (FracMinHashSketch querySketch : sketches) {
+                    // the intersection stops as soon as the distance cannot be
+                    // reached anymore, references that are too small or too
+                    // large are rejected without any intersection
+                    final long[] queryValues = querySketch.getValues();
+                    for (FracMinHashSketch refSketch : refSketches) {
+                        final long[] refValues = refSketch.getValues();
+                        final int minIntersectionSize = Distance.getMinIntersectionSize(
+                                queryValues.length, refValues.length, sParameter, kParameter, maxDistance);
+                        if (minIntersectionSize > Math.min(queryValues.length, refValues.length)) {
+                            continue;
+                        }
+                        if (Distance.getIntersectionSize(queryValues, refValues, minIntersectionSize) >= minIntersectionSize) {
+                            resultSketchSet.add(refSketch);
+                        }
+                    }
+                }
+            } else {
+                // only the references sharing hashes with a query are touched
+                logger.info("Indexing reference DB...");
+                SketchIndex index = new SketchIndex(refSketches);
+                logger.fine(String.format("Indexed %d distinct hashes", index.getHashCount()));
+                for (FracMinHashSketch querySketch : sketches) {
+                    final int querySize = querySketch.getValues().length;
+                    SketchIndex.Matches matches = index.getIntersectionSizes(querySketch.getValues());
+                    for (int m = 0; m < matches.size(); m++) {
+                        FracMinHashSketch refSketch = index.getSketch(matches.getId(m));
+                        final int minIntersectionSize = Distance.getMinIntersectionSize(
+                                querySize, refSketch.getValues().length, sParameter, kParameter, maxDistance);
+                        if (matches.getIntersectionSize(m) >= minIntersectionSize) {
+                            resultSketchSet.add(refSketch);
+                        }
                     }
                 }
-                resultSketchSet.add(querySketch);
             }
+            resultSketchSet.addAll(sketches);
 
             logger.info("Calculating pairwise distances...");
             List<FracMinHashSketch> resultSketchesList = new ArrayList<>(resultSketchSet);
@@ -1,8 +1,18 @@
 package org.husonlab.fmhdist.cmd;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
@@ -12,8 +22,12 @@ import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
 import org.husonlab.fmhdist.ncbi.Genome;
+import org.husonlab.fmhdist.sketch.FracMinHashSketch;
 import org.husonlab.fmhdist.sketch.GenomeSketch;
-import org.husonlab.fmhdist.util.KMerCoordinates;
+import org.husonlab.fmhdist.sketch.SketchArchive;
+import org.husonlab.fmhdist.util.CoordinateBuffer;
+import org.husonlab.fmhdist.util.CoordinateHistogram;
+import org.husonlab.fmhdist.util.HashFunctionParser;
 
 import jloda.util.ProgramExecutorService;
 import jloda.thirdparty.HexUtils;
@@ -32,24 +46,81 @@ public class SequenceSketcher {
      * that should be used.
      * @param output Path to the directory in which the FracMinHash sketches
      * should be stored
-     * @param kParameter The k-mer size for sketching
+     * @param kParameters The k-mer sizes for sketching. If there are several
+     * sizes, each genome is read once and sketched for all sizes (except with
+     * parallelRecords or saveAbundances, see below). The size is then added to
+     * the sketch file names.
      * @param sParameter The FracMinHash scaling parameters s
-     * @param hashFunction The hash function that should be applied
-     * @param randomSeed The random seed that was used to generate the hash
-     * function
+     * @param hashFunctionNames The names of the hash functions that should
+     * be applied, see HashFunctionParser
+     * @param randomSeeds The random seeds for the hash functions. Each genome
+     * is read once and sketched for all combinations of hash functions and
+     * seeds (except with parallelRecords or saveAbundances). If there are
+     * several hash functions or seeds, the name of the hash function or the
+     * seed is added to the sketch file names.
      * @param saveCoordinates If set to true, the k-mer coordinates of all
      * k-mers that are part of the sketch are also stored.
+     * @param binaryCoordinates If set to true, the coordinates are written in
+     * the binary format instead of CSV text.
+     * @param coordinateWindowSize If positive, the hashes of each sketch are
+     * counted in windows of this many positions per record and the counts are
+     * stored next to the sketch. Can not be combined with saveAbundances.
+     * @param windowComplexity If set to true, the windows also store the
+     * number of valid k-mers, the GC content and the dinucleotide entropy.
+     * @param saveAbundances If set to true, the sketches also store how often
+     * each hash value occurs. Each combination of k-mer size, hash function
+     * and seed is then calculated with a separate read of the genome and
+     * coordinates are not saved.
+     * @param minAbundance When saving abundances, only hash values that occur
+     * at least this often are part of the sketches.
+     * @param usePackedKMers If set to true, the 2-bit packed k-mer engine is
+     * used where applicable.
+     * @param parallelRecords If set to true, the genomes are sketched one
+     * after another and each genome is sketched in parallel: local uncompressed
+     * files are divided into byte ranges, other files into their records. Each
+     * combination of k-mer size, hash function and seed is then calculated
+     * with a separate read of the genome. This is not applied if coordinates
+     * or abundances are saved.
+     * @param legacyHexFormat If set to true, the sketch files are hex encoded
+     * as in older versions instead of using the compressed format.
+     * @param archiveName If not empty, all sketches are stored in a single
+     * sketch archive (see SketchArchive) with this name in the output
+     * directory instead of one file per sketch. The sketches are named like
+     * their files would be.
      */
     public void run(
             String input,
             String output,
-            int kParameter,
+            int[] kParameters,
             int sParameter,
-            LongHashFunction hashFunction,
-            int randomSeed,
-            boolean saveCoordinates) {
+            String[] hashFunctionNames,
+            int[] randomSeeds,
+            boolean saveCoordinates,
+            boolean binaryCoordinates,
+            int coordinateWindowSize,
+            boolean windowComplexity,
+            boolean saveAbundances,
+            int minAbundance,
+            boolean usePackedKMers,
+            boolean parallelRecords,
+            boolean legacyHexFormat,
+            String archiveName) {
         Logger logger = Logger.getLogger(SequenceSketcher.class.getName());
         try {
+            final int combinations = hashFunctionNames.length * randomSeeds.length;
+            final LongHashFunction[] hashFunctions = new LongHashFunction[combinations];
+            final int[] seeds = new int[combinations];
+            final Map<Long, String> hashFunctionNamesByMagicNumber = new HashMap<>();
+            for (int i = 0; i < hashFunctionNames.length; i++) {
+                for (int j = 0; j < randomSeeds.length; j++) {
+                    final int index = i * randomSeeds.length + j;
+                    hashFunctions[index] = HashFunctionParser.createHashFunction(hashFunctionNames[i], randomSeeds[j]);
+                    seeds[index] = randomSeeds[j];
+                    hashFunctionNamesByMagicNumber.put(
+                            FracMinHashSketch.getHashedMagicNumber(hashFunctions[index]), hashFunctionNames[i]);
+                }
+            }
+
             logger.info("Parsing input file...");
             FileLineIterator it = new FileLineIterator(input);
             List<Genome> sequencePaths = it.stream()
@@ -71,44 +142,137 @@ public class SequenceSketcher {
 
             logger.info("Sketching sequences...");
             try {
-                sequencePaths.forEach(genome -> executor.submit(() -> {
-                    if (exception.isNull()) {
-                        try {
-                            GenomeSketch sketch = GenomeSketch.sketch(genome, kParameter, sParameter, hashFunction,
-                                    randomSeed, saveCoordinates);
-                            sketches.add(sketch);
-                        } catch (Exception ex) {
-                            logger.warning(ex.getMessage());
-                        } catch (Throwable e) {
-                            // Somethings wrong here - no way to recover.
-                            logger.severe(e.getMessage());
-                            exception.setIfCurrentValueIsNull(e);
+                if (saveAbundances) {
+                    for (Genome genome : sequencePaths) {
+                        for (int kParameter : kParameters) {
+                            for (int i = 0; i < combinations; i++) {
+                                final int index = i;
+                                executor.submit(() -> {
+                                    try {
+                                        sketches.add(GenomeSketch.sketchWithAbundances(genome, kParameter, sParameter,
+                                                hashFunctions[index], seeds[index], minAbundance, usePackedKMers));
+                                    } catch (Exception ex) {
+                                        logger.warning(ex.getMessage());
+                                    } catch (Throwable e) {
+                                        // Somethings wrong here - no way to recover.
+                                        logger.severe(e.getMessage());
+                                        exception.setIfCurrentValueIsNull(e);
+                                    }
+                                });
+                            }
+                        }
+                    }
+                } else if (coordinateWindowSize > 0) {
+                    for (Genome genome : sequencePaths) {
+                        for (int kParameter : kParameters) {
+                            for (int i = 0; i < combinations; i++) {
+                                final int index = i;
+                                executor.submit(() -> {
+                                    try {
+                                        sketches.add(GenomeSketch.sketchWithHistogram(genome, kParameter, sParameter,
+                                                hashFunctions[index], seeds[index], saveCoordinates,
+                                                coordinateWindowSize, windowComplexity));
+                                    } catch (Exception ex) {
+                                        logger.warning(ex.getMessage());
+                                    } catch (Throwable e) {
+                                        // Somethings wrong here - no way to recover.
+                                        logger.severe(e.getMessage());
+                                        exception.setIfCurrentValueIsNull(e);
+                                    }
+                                });
+                            }
                         }
                     }
-                }));
+                } else if (parallelRecords && !saveCoordinates) {
+                    for (Genome genome : sequencePaths) {
+                        for (int kParameter : kParameters) {
+                            for (int i = 0; i < combinations; i++) {
+                                try {
+                                    sketches.add(GenomeSketch.sketchRangesInParallel(genome, kParameter, sParameter,
+                                            hashFunctions[i], seeds[i], usePackedKMers, executor,
+                                            ProgramExecutorService.getNumberOfCoresToUse()));
+                                } catch (Exception ex) {
+                                    logger.warning(ex.getMessage());
+                                }
+                            }
+                        }
+                    }
+                } else {
+                    sequencePaths.forEach(genome -> executor.submit(() -> {
+                        if (exception.isNull()) {
+                            try {
+                                sketches.addAll(GenomeSketch.sketch(genome, kParameters, sParameter, hashFunctions,
+                                        seeds, saveCoordinates, usePackedKMers));
+                            } catch (Exception ex) {
+                                logger.warning(ex.getMessage());
+                            } catch (Throwable e) {
+                                // Somethings wrong here - no way to recover.
+                                logger.severe(e.getMessage());
+                                exception.setIfCurrentValueIsNull(e);
+                            }
+                        }
+                    }));
+                }
             } finally {
                 executor.shutdown();
                 executor.awaitTermination(1000, TimeUnit.DAYS);
             }
 
             logger.info("Saving sketches...");
-            for (GenomeSketch sketch : sketches) {
-                logger.fine(String.format("Saving %s...", sketch.getGenome().getOrganismName()));
-                FileWriter writer = new FileWriter(
-                        Paths.get(output, String.format("%s.sketch", sketch.getGenome().getOrganismName())).toFile());
-                writer.write(HexUtils.encodeHexString(sketch.getSketch().getBytes()));
-                writer.close();
+            // the archive is completed even if saving fails, a null archive
+            // is not closed
+            try (SketchArchive.Writer archive = archiveName.isEmpty()
+                    ? null
+                    : new SketchArchive.Writer(Paths.get(output, archiveName))) {
+                for (GenomeSketch sketch : sketches) {
+                    logger.fine(String.format("Saving %s...", sketch.getGenome().getOrganismName()));
+                    String fileName = sketch.getGenome().getOrganismName();
+                    if (kParameters.length > 1) {
+                        fileName = String.format("%s.k%d", fileName, sketch.getSketch().getKSize());
+                    }
+                    if (hashFunctionNames.length > 1) {
+                        fileName = String.format("%s.%s", fileName,
+                                hashFunctionNamesByMagicNumber.get(sketch.getSketch().getHashedMagicNumber()));
+                    }
+                    if (randomSeeds.length > 1) {
+                        fileName = String.format("%s.rs%d", fileName, sketch.getSketch().getSeed());
+                    }
+                    Path sketchFile = Paths.get(output, String.format("%s.sketch", fileName));
+                    if (archive != null) {
+                        archive.add(fileName, sketch.getSketch());
+                    } else if (legacyHexFormat) {
+                        Files.writeString(sketchFile, HexUtils.encodeHexString(sketch.getSketch().getBytes()));
+                    } else {
+                        Files.write(sketchFile, sketch.getSketch().getCompressedBytes());
+                    }
 
-                if (saveCoordinates) {
-                    writer = new FileWriter(Paths
-                            .get(output, String.format("%s.sketch.coordinates", sketch.getGenome().getOrganismName()))
-                            .toFile());
-                    List<KMerCoordinates> coordinates = sketch.getSketch().getCoordinates();
-                    for (KMerCoordinates coord : coordinates) {
-                        writer.write(coord.toString());
-                        writer.write("\n");
+                    CoordinateHistogram histogram = sketch.getSketch().getCoordinateHistogram();
+                    if (histogram != null) {
+                        try (Writer histogramWriter = new BufferedWriter(new FileWriter(Paths
+                                .get(output, String.format("%s.sketch.windows", fileName))
+                                .toFile()))) {
+                            histogram.write(histogramWriter);
+                        }
+                    }
+
+                    if (saveCoordinates && !saveAbundances) {
+                        CoordinateBuffer coordinates = sketch.getSketch().getCoordinateBuffer();
+                        if (coordinates == null) {
+                            coordinates = new CoordinateBuffer(sketch.getSketch().getKSize());
+                        }
+                        File coordinatesFile = Paths
+                                .get(output, String.format("%s.sketch.coordinates", fileName))
+                                .toFile();
+                        if (binaryCoordinates) {
+                            try (OutputStream stream = new BufferedOutputStream(new FileOutputStream(coordinatesFile))) {
+                                coordinates.write(stream);
+                            }
+                        } else {
+                            try (Writer coordinatesWriter = new BufferedWriter(new FileWriter(coordinatesFile))) {
+                                coordinates.writeText(coordinatesWriter);
+                            }
+                        }
                     }
-                    writer.close();
                 }
             }
         } catch (Exception e) {
@@ -4,6 +4,38 @@ package org.husonlab.fmhdist.sketch;
  * Distance between to sequences based on jaccard index estimation estimation
  */
 public class Distance {
+    /**
+     * The minimal size ratio of two sketches to search the values of the
+     * smaller one in the larger one instead of merging them. Both approaches
+     * take about the same time between ratios of 32 and 64 (see
+     * IntersectionBenchmark in fmhdist-benchmark).
+     */
+    public static final int GALLOPING_RATIO = 48;
+
+    // true if the vectorized intersection can be used, see VectorIntersection
+    private static final boolean VECTOR_API_AVAILABLE = detectVectorApi();
+
+    private static boolean detectVectorApi() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return false;
+        }
+        try {
+            return VectorIntersection.isSupported();
+        } catch (LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns true if sketches of similar sizes are intersected with the
+     * Vector API. This requires the jdk.incubator.vector module, i.e. the JVM
+     * needs to be started with --add-modules jdk.incubator.vector.
+     * @return
+     */
+    public static boolean isVectorApiAvailable() {
+        return VECTOR_API_AVAILABLE;
+    }
+
     /**
      * Calculates the jaccard index of two FracMinHash sketches that are
      * represented by arrays. Includes the scaling parameter s that was applied
@@ -14,8 +46,11 @@ public class Distance {
      * @return Jaccard index between 0 and 1
      */
     public static double calculateJaccardIndex(long[] a, long[] b, int s) {
-        int intersectionSize = getIntersectionSize(a, b);
-        int unionSize = (a.length + b.length - intersectionSize);
+        return jaccardFromIntersection(getIntersectionSize(a, b), a.length, b.length, s);
+    }
+
+    private static double jaccardFromIntersection(int intersectionSize, int aSize, int bSize, int s) {
+        int unionSize = (aSize + bSize - intersectionSize);
         double jHat = (double)intersectionSize/(double)unionSize;
         double j = jHat / (1.0 - Math.pow(1.0 - (1.0 / (double)s), unionSize));
         return Math.min(1.0, j);
@@ -31,12 +66,160 @@ public class Distance {
     * @return Containment index between 0 and 1
      */
     public static double calculateContainmentIndex(long[] a, long[] b, int s) {
-        int intersectionSize = getIntersectionSize(a, b);
-        double cHat = (double)intersectionSize/(double)a.length;
-        double c = cHat/(1.0-Math.pow(1.0-(1.0/(double)s),a.length));
+        return containmentFromIntersection(getIntersectionSize(a, b), a.length, s);
+    }
+
+    private static double containmentFromIntersection(int intersectionSize, int aSize, int s) {
+        double cHat = (double)intersectionSize/(double)aSize;
+        double c = cHat/(1.0-Math.pow(1.0-(1.0/(double)s),aSize));
         return Math.min(1.0, c);
     }
 
+    /**
+     * Calculates the Jaccard index, both containment indices and the
+     * corresponding distances of two FracMinHash sketches with a single
+     * intersection of the arrays. The results are identical to calling
+     * calculateJaccardIndex() and calculateContainmentIndex() separately.
+     * @param a First sketch
+     * @param b Second sketch
+     * @param s Scaling parameter s to correct bias.
+     * @param k The k-mer size of the sketches
+     * @return
+     */
+    public static PairMetrics calculatePairMetrics(long[] a, long[] b, int s, int k) {
+        return new PairMetrics(getIntersectionSize(a, b), a.length, b.length, s, k);
+    }
+
+    /**
+     * The similarities and distances of two sketches, derived from the size
+     * of their intersection.
+     */
+    public static class PairMetrics {
+        private final int intersectionSize;
+        private final double jaccard;
+        private final double containmentA;
+        private final double containmentB;
+        private final int k;
+
+        private PairMetrics(int intersectionSize, int aSize, int bSize, int s, int k) {
+            this.intersectionSize = intersectionSize;
+            this.jaccard = jaccardFromIntersection(intersectionSize, aSize, bSize, s);
+            this.containmentA = containmentFromIntersection(intersectionSize, aSize, s);
+            this.containmentB = containmentFromIntersection(intersectionSize, bSize, s);
+            this.k = k;
+        }
+
+        public int getIntersectionSize() {
+            return this.intersectionSize;
+        }
+
+        public double getJaccardIndex() {
+            return this.jaccard;
+        }
+
+        /**
+         * Returns the containment index of the first sketch in the second one.
+         * @return
+         */
+        public double getContainmentIndexA() {
+            return this.containmentA;
+        }
+
+        /**
+         * Returns the containment index of the second sketch in the first one.
+         * @return
+         */
+        public double getContainmentIndexB() {
+            return this.containmentB;
+        }
+
+        public double getJaccardDistance() {
+            return jaccardToDistance(this.jaccard, this.k);
+        }
+
+        public double getMashDistance() {
+            return jaccardToMashDistance(this.jaccard, this.k);
+        }
+
+        public double getContainmentDistanceA() {
+            return containmentToDistance(this.containmentA, this.k);
+        }
+
+        public double getContainmentDistanceB() {
+            return containmentToDistance(this.containmentB, this.k);
+        }
+    }
+
+    /**
+     * Calculates the weighted Jaccard index of two FracMinHash sketches with
+     * abundances, i.e. the sum of the smaller abundance over the sum of the
+     * larger abundance of each hash value in either sketch.
+     * @param a First sketch
+     * @param aAbundances Abundances of the first sketch
+     * @param b Second sketch
+     * @param bAbundances Abundances of the second sketch
+     * @return Weighted jaccard index between 0 and 1
+     */
+    public static double calculateWeightedJaccardIndex(long[] a, int[] aAbundances, long[] b, int[] bAbundances) {
+        long minSum = 0;
+        long maxSum = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                maxSum += aAbundances[i++];
+            } else if (a[i] > b[j]) {
+                maxSum += bAbundances[j++];
+            } else {
+                minSum += Math.min(aAbundances[i], bAbundances[j]);
+                maxSum += Math.max(aAbundances[i], bAbundances[j]);
+                i++;
+                j++;
+            }
+        }
+        while (i < a.length) {
+            maxSum += aAbundances[i++];
+        }
+        while (j < b.length) {
+            maxSum += bAbundances[j++];
+        }
+        return maxSum == 0 ? 0 : (double)minSum / (double)maxSum;
+    }
+
+    /**
+     * Calculates the cosine similarity of the abundance vectors of two
+     * FracMinHash sketches with abundances.
+     * @param a First sketch
+     * @param aAbundances Abundances of the first sketch
+     * @param b Second sketch
+     * @param bAbundances Abundances of the second sketch
+     * @return Cosine similarity between 0 and 1
+     */
+    public static double calculateCosineSimilarity(long[] a, int[] aAbundances, long[] b, int[] bAbundances) {
+        double dotProduct = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                dotProduct += (double)aAbundances[i++] * (double)bAbundances[j++];
+            }
+        }
+        final double norm = Math.sqrt(squaredNorm(aAbundances)) * Math.sqrt(squaredNorm(bAbundances));
+        return norm == 0 ? 0 : Math.min(1.0, dotProduct / norm);
+    }
+
+    private static double squaredNorm(int[] abundances) {
+        double result = 0;
+        for (int abundance : abundances) {
+            result += (double)abundance * (double)abundance;
+        }
+        return result;
+    }
+
     /**
      * Converts the given Jaccard index into an evolutionary distance, assuming
      * each nucleotide mutates with a fixed probability.
@@ -71,12 +254,43 @@ public class Distance {
     }
 
     /**
-     * 
+     * Returns the number of values that are part of both sorted arrays. If one
+     * array is more than GALLOPING_RATIO times larger than the other one, the
+     * values of the smaller array are searched in the larger one (see
+     * getIntersectionSizeByGalloping()), otherwise both arrays are merged.
+     * The merge is vectorized if the Vector API is available (see
+     * isVectorApiAvailable()).
      * @param a sorted array
      * @param b sorted array
      * @return
      */
     public static int getIntersectionSize(long[] a, long[] b) {
+        if (a.length == 0 || b.length == 0) {
+            return 0;
+        }
+        if (a.length > GALLOPING_RATIO * (long) b.length) {
+            return getIntersectionSizeByGalloping(b, a);
+        }
+        if (b.length > GALLOPING_RATIO * (long) a.length) {
+            return getIntersectionSizeByGalloping(a, b);
+        }
+        if (VECTOR_API_AVAILABLE) {
+            return VectorIntersection.getIntersectionSize(a, b);
+        }
+        return getIntersectionSizeByMerge(a, b);
+    }
+
+    /**
+     * Returns the number of values that are part of both sorted arrays by
+     * merging them, i.e. in O(|a| + |b|).
+     * @param a sorted array
+     * @param b sorted array
+     * @return
+     */
+    public static int getIntersectionSizeByMerge(long[] a, long[] b) {
+        if (a.length == 0 || b.length == 0) {
+            return 0;
+        }
         int intersectionSize = 0;
         int i = 0;
         int j = 0;
@@ -98,4 +312,162 @@ public class Distance {
         }
         return intersectionSize;
     }
+
+    /**
+     * Returns the number of values that are part of both sorted arrays by
+     * searching each value of the smaller array in the remainder of the larger
+     * one. The search doubles its step until it passes the value and then
+     * continues with a binary search, i.e. it takes O(|small| log(|large| /
+     * |small|)).
+     * @param small sorted array, should be the smaller one
+     * @param large sorted array
+     * @return
+     */
+    public static int getIntersectionSizeByGalloping(long[] small, long[] large) {
+        return gallop(small, large, 0);
+    }
+
+    /**
+     * Galloping intersection that stops as soon as more than small.length -
+     * minIntersectionSize values of small were not found.
+     */
+    private static int gallop(long[] small, long[] large, int minIntersectionSize) {
+        int slack = small.length - minIntersectionSize;
+        int intersectionSize = 0;
+        int low = 0;
+        for (int i = 0; i < small.length && low < large.length; i++) {
+            final long value = small[i];
+            if (large[low] < value) {
+                // large[previous] < value <= large[next], if next is valid
+                int previous = low;
+                int next = low + 1;
+                int step = 1;
+                while (next < large.length && large[next] < value) {
+                    previous = next;
+                    step <<= 1;
+                    next = previous + step;
+                }
+                int high = Math.min(next, large.length);
+                low = previous + 1;
+                while (low < high) {
+                    final int middle = (low + high) >>> 1;
+                    if (large[middle] < value) {
+                        low = middle + 1;
+                    } else {
+                        high = middle;
+                    }
+                }
+            }
+            if (low < large.length && large[low] == value) {
+                intersectionSize++;
+                low++;
+            } else if (--slack < 0) {
+                return intersectionSize;
+            }
+        }
+        return intersectionSize;
+    }
+
+    /**
+     * Returns the number of values that are part of both sorted arrays, but
+     * stops as soon as the remaining values cannot reach the given minimum.
+     * Each value of a (or b) that is not part of the other array lowers the
+     * reachable intersection size by one.
+     * @param a sorted array
+     * @param b sorted array
+     * @param minIntersectionSize The intersection size of interest
+     * @return The intersection size if it is at least minIntersectionSize,
+     * otherwise some value below minIntersectionSize
+     */
+    public static int getIntersectionSize(long[] a, long[] b, int minIntersectionSize) {
+        if (minIntersectionSize <= 0) {
+            return getIntersectionSize(a, b);
+        }
+        if (a.length < minIntersectionSize || b.length < minIntersectionSize) {
+            return 0;
+        }
+        if (a.length > GALLOPING_RATIO * (long) b.length) {
+            return gallop(b, a, minIntersectionSize);
+        }
+        if (b.length > GALLOPING_RATIO * (long) a.length) {
+            return gallop(a, b, minIntersectionSize);
+        }
+        int aSlack = a.length - minIntersectionSize;
+        int bSlack = b.length - minIntersectionSize;
+        int intersectionSize = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+                if (--aSlack < 0) {
+                    break;
+                }
+            } else if (a[i] > b[j]) {
+                j++;
+                if (--bSlack < 0) {
+                    break;
+                }
+            } else {
+                intersectionSize++;
+                i++;
+                j++;
+            }
+        }
+        return intersectionSize;
+    }
+
+    /**
+     * Returns the smallest intersection size of two sketches of the given
+     * sizes for which their distance (see jaccardToDistance()) is at most
+     * maxDistance. Since the Jaccard index grows with the intersection size,
+     * pairs with a smaller intersection can be rejected, e.g. with
+     * getIntersectionSize(a, b, minIntersectionSize).
+     * @param aSize The size of the first sketch
+     * @param bSize The size of the second sketch
+     * @param s Scaling parameter s to correct bias.
+     * @param k The k-mer size of the sketches
+     * @param maxDistance The maximum distance
+     * @return The minimal intersection size, or min(aSize, bSize) + 1 if
+     * even a complete containment exceeds maxDistance
+     */
+    public static int getMinIntersectionSize(int aSize, int bSize, int s, int k, double maxDistance) {
+        final int maxIntersectionSize = Math.min(aSize, bSize);
+        if (!isWithinDistance(maxIntersectionSize, aSize, bSize, s, k, maxDistance)) {
+            // rejected by the sizes alone
+            return maxIntersectionSize + 1;
+        }
+        // without the bias correction, j = i / (aSize + bSize - i) and the
+        // minimal jaccard index follows from inverting jaccardToDistance()
+        final double t = Math.pow(1.0 - maxDistance, k);
+        final double minJaccard = t / (2.0 - t);
+        final double estimate = Math.ceil(minJaccard * (aSize + bSize) / (1.0 + minJaccard));
+        int low = 0;
+        int high = maxIntersectionSize;
+        if (estimate >= 0 && estimate <= maxIntersectionSize) {
+            final int guess = (int) estimate;
+            if (isWithinDistance(guess, aSize, bSize, s, k, maxDistance)) {
+                if (guess == 0 || !isWithinDistance(guess - 1, aSize, bSize, s, k, maxDistance)) {
+                    return guess;
+                }
+                high = guess - 1;
+            } else {
+                low = guess + 1;
+            }
+        }
+        // the first intersection size in [low, high] within the distance
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (isWithinDistance(middle, aSize, bSize, s, k, maxDistance)) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return low;
+    }
+
+    private static boolean isWithinDistance(int intersectionSize, int aSize, int bSize, int s, int k, double maxDistance) {
+        return jaccardToDistance(jaccardFromIntersection(intersectionSize, aSize, bSize, s), k) <= maxDistance;
+    }
 }
@@ -1,15 +1,27 @@
 package org.husonlab.fmhdist.sketch;
 
 import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
-import java.util.TreeSet;
 
+import org.husonlab.fmhdist.util.CoordinateBuffer;
+import org.husonlab.fmhdist.util.CoordinateHistogram;
 import org.husonlab.fmhdist.util.KMerCoordinates;
+import org.husonlab.fmhdist.util.KMerHashIterator;
 import org.husonlab.fmhdist.util.KMerIterator;
+import org.husonlab.fmhdist.util.LongArrayBuffer;
+import org.husonlab.fmhdist.util.LongIntHashMap;
+import org.husonlab.fmhdist.util.PackedKMerIterator;
+import org.husonlab.fmhdist.util.VarIntCodec;
 
 import jloda.seq.SequenceUtils;
-import jloda.util.ByteInputBuffer;
+import jloda.thirdparty.HexUtils;
 import jloda.util.ByteOutputBuffer;
 import net.openhft.hashing.LongHashFunction;
 
@@ -20,9 +32,20 @@ import net.openhft.hashing.LongHashFunction;
  * To get an insight into the composition of the sketch, users may wish to
  * obtain the set of KMerCoordinates with getCoordinates() which describes the
  * sketch in more detail (what KMers are included, where are they coming from?)
+ * The coordinates are stored in a columnar CoordinateBuffer, which is also
+ * available with getCoordinateBuffer().
  */
 public class FracMinHashSketch {
     public static final int MAGIC_INT = 1213415759; // for starters, I've just increased the number
+    // Marks the extended layout that includes the abundances
+    public static final int ABUNDANCE_MAGIC_INT = MAGIC_INT + 1;
+    // Marks the compressed file format, see getCompressedBytes()
+    public static final int COMPRESSED_MAGIC_INT = MAGIC_INT + 16;
+    public static final int COMPRESSED_VERSION = 1;
+
+    private static final int HEADER_SIZE = 4 + 8 + 4 + 4 + 4 + 4;
+    private static final int COMPRESSED_HEADER_SIZE = 4 + 4 + 4 + 8 + 4 + 4 + 4 + 4;
+    private static final int FLAG_ABUNDANCES = 1;
 
     private static final byte[] complementTable = new byte[128];
     static {
@@ -40,19 +63,42 @@ public class FracMinHashSketch {
     private final int kSize;
 
     private long[] hashValues;
+    // The number of occurrences per hash value, null if not tracked
+    private int[] abundances;
 
     private String name;
     private long hashedMagicNumber;
     private int seed;
 
-    private List<KMerCoordinates> coordinates;
+    // null if no coordinates were prepared
+    private CoordinateBuffer coordinates;
+    // null if the coordinates were not aggregated
+    private CoordinateHistogram histogram;
 
     private FracMinHashSketch(int sParam, int kSize, String name, int seed) {
         this.sParam = sParam;
         this.kSize = kSize;
         this.name = name;
         this.seed = seed;
-        this.coordinates = new ArrayList<>();
+    }
+
+    /**
+     * Creates a sketch of already sorted hash values, e.g. read from a
+     * SketchArchive. The arrays are not copied.
+     */
+    static FracMinHashSketch of(String name, int sParam, int kSize, int seed, long hashedMagicNumber, long[] hashValues, int[] abundances) {
+        final FracMinHashSketch sketch = new FracMinHashSketch(sParam, kSize, name, seed);
+        sketch.hashedMagicNumber = hashedMagicNumber;
+        sketch.hashValues = hashValues;
+        sketch.abundances = abundances;
+        return sketch;
+    }
+
+    private CoordinateBuffer prepareCoordinates() {
+        if (this.coordinates == null) {
+            this.coordinates = new CoordinateBuffer(this.kSize);
+        }
+        return this.coordinates;
     }
 
     /**
@@ -89,30 +135,494 @@ public class FracMinHashSketch {
         LongHashFunction hashFunction,
         int seed,
         boolean prepareCoordinates
+    ) {
+        return compute(name, kmers, sParam, hashFunction, seed, prepareCoordinates, 0);
+    }
+
+    /**
+     * Creates a new FracMinHash sketch of the given k-mers according to Irber
+     * et al. See above for details.
+     * @param name A name to describe the sketch, this has no impact on the
+     * algorithm
+     * @param kmers An instance of the FastKMerIterator that provides all k-mers
+     * that should be considered for the sketch
+     * @param sParam The scaling param s of the algorithm
+     * @param seed A random seed that should be used for hashing
+     * @param prepareCoordinates flag to indicate if the coordinates of k-mers
+     * that are part of the sketch should be prepared.
+     * @param genomeSize The (estimated) size of the sequence, used to reserve
+     * memory for the hash values. Values <= 0 are treated as unknown.
+     * @return A new FracMinHashSketch
+     */
+    public static FracMinHashSketch compute(
+        String name, 
+        KMerIterator kmers,
+        int sParam, 
+        LongHashFunction hashFunction,
+        int seed,
+        boolean prepareCoordinates,
+        long genomeSize
     ) {
         // Use swith on that level instead of inside the computation to remove
         // unnecessary runtime comparisons
         if (prepareCoordinates) {
-            return computeWithCoordinates(name, kmers, sParam, hashFunction, seed);
+            return computeWithCoordinates(name, kmers, sParam, hashFunction, seed, genomeSize, true, null);
         }
-        return computeWithoutCoordinates(name, kmers, sParam, hashFunction, seed);
+        return computeWithoutCoordinates(name, kmers, sParam, hashFunction, seed, genomeSize);
     }
 
-    private static FracMinHashSketch computeWithoutCoordinates(
-        String name, 
+    /**
+     * Creates a new FracMinHash sketch of the given k-mers according to Irber
+     * et al. and aggregates the positions of its k-mers into the given
+     * histogram while sketching, see CoordinateHistogram. This is much more
+     * compact than the coordinates of all k-mers of the sketch.
+     * @param name A name to describe the sketch, this has no impact on the
+     * algorithm
+     * @param kmers An instance of the FastKMerIterator that provides all k-mers
+     * that should be considered for the sketch
+     * @param sParam The scaling param s of the algorithm
+     * @param seed A random seed that should be used for hashing
+     * @param prepareCoordinates flag to indicate if the coordinates of k-mers
+     * that are part of the sketch should be prepared as well.
+     * @param genomeSize The (estimated) size of the sequence, used to reserve
+     * memory for the hash values. Values <= 0 are treated as unknown.
+     * @param histogram An empty histogram, available with
+     * getCoordinateHistogram() afterwards
+     * @return A new FracMinHashSketch
+     */
+    public static FracMinHashSketch compute(
+        String name,
         KMerIterator kmers,
         int sParam,
         LongHashFunction hashFunction,
+        int seed,
+        boolean prepareCoordinates,
+        long genomeSize,
+        CoordinateHistogram histogram
+    ) {
+        if (histogram == null) {
+            return compute(name, kmers, sParam, hashFunction, seed, prepareCoordinates, genomeSize);
+        }
+        return computeWithCoordinates(name, kmers, sParam, hashFunction, seed, genomeSize, prepareCoordinates, histogram);
+    }
+
+    /**
+     * Creates a new FracMinHash sketch of the given packed k-mers according to
+     * Irber et al.
+     *
+     * The PackedKMerIterator already selects the canonical k-mer with a single
+     * comparison of the 2-bit packed k-mer and its reverse complement. Only
+     * the canonical k-mer is unpacked for hashing, thus the resulting hashes
+     * are identical to the ones obtained by the byte based KMerIterators for
+     * sequences consisting of A, C, G, T and N. Coordinates are not supported.
+     * @param name A name to describe the sketch, this has no impact on the
+     * algorithm
+     * @param kmers An instance of the PackedKMerIterator that provides all
+     * canonical k-mers that should be considered for the sketch
+     * @param sParam The scaling param s of the algorithm
+     * @param hashFunction The hash function to apply to the canonical k-mers
+     * @param seed A random seed that should be used for hashing
+     * @return A new FracMinHashSketch
+     */
+    public static FracMinHashSketch compute(
+        String name,
+        PackedKMerIterator kmers,
+        int sParam,
+        LongHashFunction hashFunction,
         int seed
+    ) {
+        return compute(name, kmers, sParam, hashFunction, seed, 0);
+    }
+
+    /**
+     * Creates a new FracMinHash sketch of the given packed k-mers according to
+     * Irber et al. See above for details.
+     * @param name A name to describe the sketch, this has no impact on the
+     * algorithm
+     * @param kmers An instance of the PackedKMerIterator that provides all
+     * canonical k-mers that should be considered for the sketch
+     * @param sParam The scaling param s of the algorithm
+     * @param hashFunction The hash function to apply to the canonical k-mers
+     * @param seed A random seed that should be used for hashing
+     * @param genomeSize The (estimated) size of the sequence, used to reserve
+     * memory for the hash values. Values <= 0 are treated as unknown.
+     * @return A new FracMinHashSketch
+     */
+    public static FracMinHashSketch compute(
+        String name,
+        PackedKMerIterator kmers,
+        int sParam,
+        LongHashFunction hashFunction,
+        int seed,
+        long genomeSize
     ) {
         final FracMinHashSketch sketch = new FracMinHashSketch(sParam, kmers.getK(), name, seed);
-        final TreeSet<Long> sortedSet = new TreeSet<>();
-        
+        final LongArrayBuffer hashes = LongArrayBuffer.forSketch(genomeSize, sParam);
+        final double threshold = getThreshold(sParam);
+
+        final int k = kmers.getK();
+        final byte[] kMerUse = new byte[k];
+        while (kmers.hasNext()) {
+            PackedKMerIterator.unpack(kmers.next(), k, kMerUse);
+            final long hash = hashFunction.hashBytes(kMerUse);
+
+            if (hash < threshold) {
+                hashes.add(hash);
+            }
+        }
+        sketch.hashValues = hashes.toSortedArray();
+        sketch.hashedMagicNumber = hashFunction.hashInt(MAGIC_INT);
+        return sketch;
+    }
+
+    /**
+     * Creates a new FracMinHash sketch of the given k-mer hashes according to
+     * Irber et al.
+     *
+     * The KMerHashIterator already yields the hashes of the canonical k-mers,
+     * thus no k-mer needs to be materialized or compared. Coordinates are not
+     * supported.
+     * @param name A name to describe the sketch, this has no impact on the
+     * algorithm
+     * @param hashes An instance of the KMerHashIterator that provides the
+     * hashes of all canonical k-mers that should be considered for the sketch
+     * @param sParam The scaling param s of the algorithm
+     * @param seed A random seed that should be used for hashing
+     * @return A new FracMinHashSketch
+     */
+    public static FracMinHashSketch compute(
+        String name,
+        KMerHashIterator hashes,
+        int sParam,
+        int seed
+    ) {
+        return compute(name, hashes, sParam, seed, 0);
+    }
+
+    /**
+     * Creates a new FracMinHash sketch of the given k-mer hashes according to
+     * Irber et al. See above for details.
+     * @param name A name to describe the sketch, this has no impact on the
+     * algorithm
+     * @param hashes An instance of the KMerHashIterator that provides the
+     * hashes of all canonical k-mers that should be considered for the sketch
+     * @param sParam The scaling param s of the algorithm
+     * @param seed A random seed that should be used for hashing
+     * @param genomeSize The (estimated) size of the sequence, used to reserve
+     * memory for the hash values. Values <= 0 are treated as unknown.
+     * @return A new FracMinHashSketch
+     */
+    public static FracMinHashSketch compute(
+        String name,
+        KMerHashIterator hashes,
+        int sParam,
+        int seed,
+        long genomeSize
+    ) {
+        final FracMinHashSketch sketch = new FracMinHashSketch(sParam, hashes.getK(), name, seed);
+        final LongArrayBuffer retained = LongArrayBuffer.forSketch(genomeSize, sParam);
+        final double threshold = getThreshold(sParam);
+
+        while (hashes.hasNext()) {
+            final long hash = hashes.nextLong();
+            if (hash < threshold) {
+                retained.add(hash);
+            }
+        }
+        sketch.hashValues = retained.toSortedArray();
+        sketch.hashedMagicNumber = hashes.getHashFunction().hashInt(MAGIC_INT);
+        return sketch;
+    }
+
+    /**
+     * Creates a new FracMinHash sketch of the given k-mers that also stores
+     * how often each retained hash value occurs, e.g. to filter sequencing
+     * errors from read sets or to calculate weighted similarities. See above
+     * for details on the selection of the hash values. Coordinates are not
+     * supported.
+     * @param name A name to describe the sketch, this has no impact on the
+     * algorithm
+     * @param kmers An instance of the KMerIterator that provides all k-mers
+     * that should be considered for the sketch
+     * @param sParam The scaling param s of the algorithm
+     * @param hashFunction The hash function to apply to the canonical k-mers
+     * @param seed A random seed that should be used for hashing
+     * @param minAbundance Only hash values that occur at least this often are
+     * part of the sketch, e.g. 2 to drop the singleton k-mers of reads.
+     * @param genomeSize The (estimated) size of the sequence, used to reserve
+     * memory for the counts. Values <= 0 are treated as unknown.
+     * @return A new FracMinHashSketch
+     */
+    public static FracMinHashSketch computeWithAbundances(
+        String name,
+        KMerIterator kmers,
+        int sParam,
+        LongHashFunction hashFunction,
+        int seed,
+        int minAbundance,
+        long genomeSize
+    ) {
+        final FracMinHashSketch sketch = new FracMinHashSketch(sParam, kmers.getK(), name, seed);
+        final LongIntHashMap counts = LongIntHashMap.forSketch(genomeSize, sParam);
+        final double threshold = getThreshold(sParam);
+
+        byte[] kMerUse;
+        while (kmers.hasNext()) {
+            byte[] next = kmers.next();
+            if (SequenceUtils.compare(next, kmers.getReverseComplement()) > 0) {
+                kMerUse = kmers.getReverseComplement();
+            } else {
+                kMerUse = next;
+            }
+
+            final long hash = hashFunction.hashBytes(kMerUse);
+            if (hash < threshold) {
+                counts.increment(hash);
+            }
+        }
+        sketch.setAbundances(counts, minAbundance);
+        sketch.hashedMagicNumber = hashFunction.hashInt(MAGIC_INT);
+        return sketch;
+    }
+
+    /**
+     * Creates a new FracMinHash sketch of the given packed k-mers that also
+     * stores how often each retained hash value occurs. See above for details.
+     * @param name A name to describe the sketch, this has no impact on the
+     * algorithm
+     * @param kmers An instance of the PackedKMerIterator that provides all
+     * canonical k-mers that should be considered for the sketch
+     * @param sParam The scaling param s of the algorithm
+     * @param hashFunction The hash function to apply to the canonical k-mers
+     * @param seed A random seed that should be used for hashing
+     * @param minAbundance Only hash values that occur at least this often are
+     * part of the sketch.
+     * @param genomeSize The (estimated) size of the sequence, used to reserve
+     * memory for the counts. Values <= 0 are treated as unknown.
+     * @return A new FracMinHashSketch
+     */
+    public static FracMinHashSketch computeWithAbundances(
+        String name,
+        PackedKMerIterator kmers,
+        int sParam,
+        LongHashFunction hashFunction,
+        int seed,
+        int minAbundance,
+        long genomeSize
+    ) {
+        final FracMinHashSketch sketch = new FracMinHashSketch(sParam, kmers.getK(), name, seed);
+        final LongIntHashMap counts = LongIntHashMap.forSketch(genomeSize, sParam);
+        final double threshold = getThreshold(sParam);
+
+        final int k = kmers.getK();
+        final byte[] kMerUse = new byte[k];
+        while (kmers.hasNext()) {
+            PackedKMerIterator.unpack(kmers.next(), k, kMerUse);
+            final long hash = hashFunction.hashBytes(kMerUse);
+            if (hash < threshold) {
+                counts.increment(hash);
+            }
+        }
+        sketch.setAbundances(counts, minAbundance);
+        sketch.hashedMagicNumber = hashFunction.hashInt(MAGIC_INT);
+        return sketch;
+    }
+
+    /**
+     * Creates a new FracMinHash sketch of the given k-mer hashes that also
+     * stores how often each retained hash value occurs. See above for details.
+     * @param name A name to describe the sketch, this has no impact on the
+     * algorithm
+     * @param hashes An instance of the KMerHashIterator that provides the
+     * hashes of all canonical k-mers that should be considered for the sketch
+     * @param sParam The scaling param s of the algorithm
+     * @param seed A random seed that should be used for hashing
+     * @param minAbundance Only hash values that occur at least this often are
+     * part of the sketch.
+     * @param genomeSize The (estimated) size of the sequence, used to reserve
+     * memory for the counts. Values <= 0 are treated as unknown.
+     * @return A new FracMinHashSketch
+     */
+    public static FracMinHashSketch computeWithAbundances(
+        String name,
+        KMerHashIterator hashes,
+        int sParam,
+        int seed,
+        int minAbundance,
+        long genomeSize
+    ) {
+        final FracMinHashSketch sketch = new FracMinHashSketch(sParam, hashes.getK(), name, seed);
+        final LongIntHashMap counts = LongIntHashMap.forSketch(genomeSize, sParam);
+        final double threshold = getThreshold(sParam);
+
+        while (hashes.hasNext()) {
+            final long hash = hashes.nextLong();
+            if (hash < threshold) {
+                counts.increment(hash);
+            }
+        }
+        sketch.setAbundances(counts, minAbundance);
+        sketch.hashedMagicNumber = hashes.getHashFunction().hashInt(MAGIC_INT);
+        return sketch;
+    }
+
+    private void setAbundances(LongIntHashMap counts, int minAbundance) {
+        this.hashValues = counts.getSortedKeys(minAbundance);
+        this.abundances = new int[this.hashValues.length];
+        for (int i = 0; i < this.hashValues.length; i++) {
+            this.abundances[i] = counts.get(this.hashValues[i]);
+        }
+    }
+
+    /**
+     * Creates one FracMinHash sketch per given hash function of the given
+     * k-mers according to Irber et al. See above for details.
+     *
+     * The k-mers are read once and the canonical k-mer is selected once per
+     * k-mer, only the hashing is repeated for each hash function. The
+     * sketches are identical to the ones computed for the individual hash
+     * functions.
+     * @param name A name to describe the sketches, this has no impact on the
+     * algorithm
+     * @param kmers An instance of the KMerIterator that provides all k-mers
+     * that should be considered for the sketches
+     * @param sParam The scaling param s of the algorithm
+     * @param hashFunctions The hash functions to apply
+     * @param seeds The random seeds that were used to create the hash
+     * functions, one per hash function
+     * @param prepareCoordinates flag to indicate if the coordinates of k-mers
+     * that are part of the sketches should be prepared.
+     * @param genomeSize The (estimated) size of the sequence, used to reserve
+     * memory for the hash values. Values <= 0 are treated as unknown.
+     * @return The sketches in the order of the hash functions
+     */
+    public static List<FracMinHashSketch> compute(
+        String name,
+        KMerIterator kmers,
+        int sParam,
+        LongHashFunction[] hashFunctions,
+        int[] seeds,
+        boolean prepareCoordinates,
+        long genomeSize
+    ) {
+        checkSeeds(hashFunctions, seeds);
+        final FracMinHashSketch[] sketches = new FracMinHashSketch[hashFunctions.length];
+        final LongArrayBuffer[] hashes = new LongArrayBuffer[hashFunctions.length];
+        for (int i = 0; i < hashFunctions.length; i++) {
+            sketches[i] = new FracMinHashSketch(sParam, kmers.getK(), name, seeds[i]);
+            hashes[i] = LongArrayBuffer.forSketch(genomeSize, sParam);
+        }
+        final double threshold = getThreshold(sParam);
+
+        byte[] kMerUse;
+        while (kmers.hasNext()) {
+            byte[] next = kmers.next();
+            if (SequenceUtils.compare(next, kmers.getReverseComplement()) > 0) {
+                kMerUse = kmers.getReverseComplement();
+            } else {
+                kMerUse = next;
+            }
+
+            for (int i = 0; i < hashFunctions.length; i++) {
+                final long hash = hashFunctions[i].hashBytes(kMerUse);
+                if (hash < threshold) {
+                    hashes[i].add(hash);
+                    if (prepareCoordinates) {
+                        kmers.addCoordinates(sketches[i].prepareCoordinates(), hash);
+                    }
+                }
+            }
+        }
+        return finish(sketches, hashes, hashFunctions);
+    }
+
+    /**
+     * Creates one FracMinHash sketch per given hash function of the given
+     * packed k-mers according to Irber et al. Each canonical k-mer is unpacked
+     * once and hashed with each hash function. See above for details.
+     * @param name A name to describe the sketches, this has no impact on the
+     * algorithm
+     * @param kmers An instance of the PackedKMerIterator that provides all
+     * canonical k-mers that should be considered for the sketches
+     * @param sParam The scaling param s of the algorithm
+     * @param hashFunctions The hash functions to apply
+     * @param seeds The random seeds that were used to create the hash
+     * functions, one per hash function
+     * @param genomeSize The (estimated) size of the sequence, used to reserve
+     * memory for the hash values. Values <= 0 are treated as unknown.
+     * @return The sketches in the order of the hash functions
+     */
+    public static List<FracMinHashSketch> compute(
+        String name,
+        PackedKMerIterator kmers,
+        int sParam,
+        LongHashFunction[] hashFunctions,
+        int[] seeds,
+        long genomeSize
+    ) {
+        checkSeeds(hashFunctions, seeds);
+        final FracMinHashSketch[] sketches = new FracMinHashSketch[hashFunctions.length];
+        final LongArrayBuffer[] hashes = new LongArrayBuffer[hashFunctions.length];
+        for (int i = 0; i < hashFunctions.length; i++) {
+            sketches[i] = new FracMinHashSketch(sParam, kmers.getK(), name, seeds[i]);
+            hashes[i] = LongArrayBuffer.forSketch(genomeSize, sParam);
+        }
+        final double threshold = getThreshold(sParam);
+
+        final int k = kmers.getK();
+        final byte[] kMerUse = new byte[k];
+        while (kmers.hasNext()) {
+            PackedKMerIterator.unpack(kmers.next(), k, kMerUse);
+            for (int i = 0; i < hashFunctions.length; i++) {
+                final long hash = hashFunctions[i].hashBytes(kMerUse);
+                if (hash < threshold) {
+                    hashes[i].add(hash);
+                }
+            }
+        }
+        return finish(sketches, hashes, hashFunctions);
+    }
+
+    private static void checkSeeds(LongHashFunction[] hashFunctions, int[] seeds) {
+        if (hashFunctions.length == 0 || hashFunctions.length != seeds.length) {
+            throw new IllegalArgumentException("one seed per hash function is required");
+        }
+    }
+
+    private static List<FracMinHashSketch> finish(FracMinHashSketch[] sketches, LongArrayBuffer[] hashes, LongHashFunction[] hashFunctions) {
+        final List<FracMinHashSketch> result = new ArrayList<>(sketches.length);
+        for (int i = 0; i < sketches.length; i++) {
+            sketches[i].hashValues = hashes[i].toSortedArray();
+            sketches[i].hashedMagicNumber = hashFunctions[i].hashInt(MAGIC_INT);
+            result.add(sketches[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the threshold below which a hash value is part of the sketch.
+     * @param sParam The scaling param s of the algorithm
+     * @return
+     */
+    private static double getThreshold(int sParam) {
         // Irber et al define the hash function as h: o -> [0, H]. However, in
         // the case of our Java Long hashes, the range is h: o -> [-H, H-1].
         // Thus, we need to shift the threshold accordingly.
         final double fraction = Long.MAX_VALUE * (1/(double)sParam) * 2; //the complete range is 2H, thus a fraction is 2Hs
-        final double threshold = Long.MIN_VALUE + fraction;
+        return Long.MIN_VALUE + fraction;
+    }
+
+    private static FracMinHashSketch computeWithoutCoordinates(
+        String name, 
+        KMerIterator kmers,
+        int sParam,
+        LongHashFunction hashFunction,
+        int seed,
+        long genomeSize
+    ) {
+        final FracMinHashSketch sketch = new FracMinHashSketch(sParam, kmers.getK(), name, seed);
+        final LongArrayBuffer hashes = LongArrayBuffer.forSketch(genomeSize, sParam);
+        final double threshold = getThreshold(sParam);
         
         // no need to reserve memory for this - this all ensured in the coordinates.
         byte[] kMerUse;
@@ -128,15 +638,10 @@ public class FracMinHashSketch {
             final long hash = hashFunction.hashBytes(kMerUse);
             
             if (hash < threshold) {
-                sortedSet.add(hash);
+                hashes.add(hash);
             }
         }
-        sketch.hashValues = new long[sortedSet.size()];
-        int pos = 0;
-        for (Long value : sortedSet) {
-            sketch.hashValues[pos++] = value;
-        }
-        
+        sketch.hashValues = hashes.toSortedArray();
         sketch.hashedMagicNumber = hashFunction.hashInt(MAGIC_INT);
         return sketch;        
     }
@@ -146,17 +651,16 @@ public class FracMinHashSketch {
         KMerIterator kmers,
         int sParam,
         LongHashFunction hashFunction,
-        int seed
+        int seed,
+        long genomeSize,
+        boolean storeCoordinates,
+        CoordinateHistogram histogram
         ) {
         final FracMinHashSketch sketch = new FracMinHashSketch(sParam, kmers.getK(), name, seed);
-            
-        final TreeSet<Long> sortedSet = new TreeSet<>();
-
-        // Irber et al define the hash function as h: o -> [0, H]. However, in
-        // the case of our Java Long hashes, the range is h: o -> [-H, H-1].
-        // Thus, we need to shift the threshold accordingly.
-        final double fraction = Long.MAX_VALUE * (1/(double)sParam) * 2; //the complete range is 2H, thus a fraction is 2Hs
-        final double threshold = Long.MIN_VALUE + fraction;
+        final LongArrayBuffer hashes = LongArrayBuffer.forSketch(genomeSize, sParam);
+        final double threshold = getThreshold(sParam);
+        // the complexity of a window depends on all of its k-mers
+        final boolean addAllKMers = histogram != null && histogram.isTrackingComplexity();
         
         // no need to reserve memory for this - this all ensured in the coordinates.
         byte[] kMerUse;
@@ -172,21 +676,175 @@ public class FracMinHashSketch {
             final long hash = hashFunction.hashBytes(kMerUse);
 
             if (hash < threshold) {
-                KMerCoordinates coords = kmers.getCoordinates();
-                coords.setHash(hash);
-                sortedSet.add(hash);
-                sketch.coordinates.add(coords);
+                hashes.add(hash);
+                if (storeCoordinates) {
+                    kmers.addCoordinates(sketch.prepareCoordinates(), hash);
+                }
+                if (histogram != null) {
+                    kmers.addToHistogram(histogram, true);
+                }
+            } else if (addAllKMers) {
+                kmers.addToHistogram(histogram, false);
             }
         }
-        sketch.hashValues = new long[sortedSet.size()];
-        int pos = 0;
-        for (Long value : sortedSet) {
-            sketch.hashValues[pos++] = value;
+        if (histogram != null) {
+            histogram.finish();
+            sketch.histogram = histogram;
         }
+        sketch.hashValues = hashes.toSortedArray();
         sketch.hashedMagicNumber = hashFunction.hashInt(MAGIC_INT);
         return sketch;        
     }
 
+    /**
+     * Merges the given partial sketches, e.g. of the individual records of a
+     * genome, into a single sketch. As the FracMinHash sketch of a sequence
+     * set is the union of the sketches of its parts, the result is identical
+     * to sketching all parts at once. Coordinates are not merged, sketches
+     * with abundances are not supported.
+     * @param name A name to describe the merged sketch
+     * @param partials The partial sketches, all of them need to be computed
+     * with the same parameters and hash function
+     * @return A new FracMinHashSketch
+     */
+    public static FracMinHashSketch merge(String name, List<FracMinHashSketch> partials) {
+        if (partials.isEmpty()) {
+            throw new IllegalArgumentException("at least one partial sketch is required");
+        }
+        final FracMinHashSketch first = partials.get(0);
+        List<long[]> values = new ArrayList<>(partials.size());
+        for (FracMinHashSketch partial : partials) {
+            if (partial.abundances != null) {
+                throw new IllegalArgumentException("partial sketches with abundances cannot be merged");
+            }
+            if (partial.sParam != first.sParam || 
+                partial.kSize != first.kSize || 
+                partial.seed != first.seed ||
+                partial.hashedMagicNumber != first.hashedMagicNumber) {
+                throw new IllegalArgumentException("partial sketches were computed with different parameters");
+            }
+            values.add(partial.hashValues);
+        }
+
+        // merge pairwise, so that each value is copied log(n) times
+        while (values.size() > 1) {
+            List<long[]> merged = new ArrayList<>((values.size() + 1) / 2);
+            for (int i = 0; i + 1 < values.size(); i += 2) {
+                merged.add(mergeSorted(values.get(i), values.get(i + 1)));
+            }
+            if (values.size() % 2 == 1) {
+                merged.add(values.get(values.size() - 1));
+            }
+            values = merged;
+        }
+
+        final FracMinHashSketch sketch = new FracMinHashSketch(first.sParam, first.kSize, name, first.seed);
+        sketch.hashValues = values.get(0);
+        sketch.hashedMagicNumber = first.hashedMagicNumber;
+        return sketch;
+    }
+
+    /**
+     * Downsamples the sketch to the coarser scaling parameter newS. As the
+     * threshold H/newS is lower than H/s, the result is identical to
+     * sketching the same k-mers with newS. Since the hash values are sorted,
+     * this just keeps the values below the new threshold.
+     * @param newS The new scaling parameter, needs to be at least the current
+     * one.
+     * @return This sketch if newS equals the current scaling parameter, a new
+     * FracMinHashSketch otherwise
+     */
+    public FracMinHashSketch downsample(int newS) {
+        if (newS < this.sParam) {
+            throw new IllegalArgumentException(String.format(
+                "cannot downsample sketch with s=%d to the finer scale s=%d", this.sParam, newS));
+        }
+        if (newS == this.sParam) {
+            return this;
+        }
+        final double threshold = getThreshold(newS);
+        int size = 0;
+        while (size < this.hashValues.length && this.hashValues[size] < threshold) {
+            size++;
+        }
+
+        final FracMinHashSketch sketch = new FracMinHashSketch(newS, this.kSize, this.name, this.seed);
+        sketch.hashValues = Arrays.copyOf(this.hashValues, size);
+        if (this.abundances != null) {
+            sketch.abundances = Arrays.copyOf(this.abundances, size);
+        }
+        sketch.hashedMagicNumber = this.hashedMagicNumber;
+        if (this.coordinates != null) {
+            sketch.coordinates = this.coordinates.retainHashesBelow(threshold);
+        }
+        return sketch;
+    }
+
+    /**
+     * Removes the hash values that occur less than minAbundance times, e.g.
+     * to drop the k-mers of sequencing errors after the sketch was saved.
+     * @param minAbundance
+     * @return A new FracMinHashSketch
+     */
+    public FracMinHashSketch filterByAbundance(int minAbundance) {
+        if (this.abundances == null) {
+            throw new IllegalStateException("sketch does not contain abundances");
+        }
+        final FracMinHashSketch sketch = new FracMinHashSketch(this.sParam, this.kSize, this.name, this.seed);
+        sketch.hashValues = new long[this.hashValues.length];
+        sketch.abundances = new int[this.abundances.length];
+        int size = 0;
+        for (int i = 0; i < this.hashValues.length; i++) {
+            if (this.abundances[i] >= minAbundance) {
+                sketch.hashValues[size] = this.hashValues[i];
+                sketch.abundances[size] = this.abundances[i];
+                size++;
+            }
+        }
+        sketch.hashValues = Arrays.copyOf(sketch.hashValues, size);
+        sketch.abundances = Arrays.copyOf(sketch.abundances, size);
+        sketch.hashedMagicNumber = this.hashedMagicNumber;
+        return sketch;
+    }
+
+    /**
+     * Returns the coarsest, i.e. largest, scaling parameter of the given
+     * sketches. All sketches can be downsampled to this scale to compare them.
+     * @param sketches
+     * @return
+     */
+    public static int getCoarsestSParam(Collection<FracMinHashSketch> sketches) {
+        int result = 0;
+        for (FracMinHashSketch sketch : sketches) {
+            result = Math.max(result, sketch.sParam);
+        }
+        return result;
+    }
+
+    private static long[] mergeSorted(long[] a, long[] b) {
+        final long[] result = new long[a.length + b.length];
+        int i = 0;
+        int j = 0;
+        int size = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                result[size++] = a[i++];
+            } else if (a[i] > b[j]) {
+                result[size++] = b[j++];
+            } else {
+                result[size++] = a[i++];
+                j++;
+            }
+        }
+        while (i < a.length) {
+            result[size++] = a[i++];
+        }
+        while (j < b.length) {
+            result[size++] = b[j++];
+        }
+        return size == result.length ? result : Arrays.copyOf(result, size);
+    }
+
     /**
      * Returns all hash values that are part of the sketch.
      * @return
@@ -195,6 +853,23 @@ public class FracMinHashSketch {
         return this.hashValues;
     }
 
+    /**
+     * Returns true if the sketch stores the abundances of its hash values.
+     * @return
+     */
+    public boolean hasAbundances() {
+        return this.abundances != null;
+    }
+
+    /**
+     * Returns the number of occurrences of each hash value in the order of
+     * getValues(), or null if the abundances were not tracked.
+     * @return
+     */
+    public int[] getAbundances() {
+        return this.abundances;
+    }
+
     /**
      * Returns the k-mers size k that the FastKmerIterator used for the k-mer
      * decomposition.
@@ -231,11 +906,16 @@ public class FracMinHashSketch {
      * 5. Random seed (4B)
      * 6. Sketch size (4B)
      * 7. Hash values (sketch size x 8B)
+     * 
+     * Sketches with abundances start with ABUNDANCE_MAGIC_INT instead and
+     * append
+     * 
+     * 8. Abundances (sketch size x 4B)
      * @return
      */
     public byte[] getBytes() {
         ByteOutputBuffer bytes = new ByteOutputBuffer();
-        bytes.writeIntLittleEndian(MAGIC_INT);
+        bytes.writeIntLittleEndian(this.abundances == null ? MAGIC_INT : ABUNDANCE_MAGIC_INT);
         bytes.writeLongLittleEndian(this.hashedMagicNumber);
         bytes.writeIntLittleEndian(this.sParam);
         bytes.writeIntLittleEndian(this.kSize);
@@ -244,9 +924,118 @@ public class FracMinHashSketch {
         for (int i = 0; i < this.hashValues.length; i++) {
             bytes.writeLongLittleEndian(this.hashValues[i]);
         }
+        if (this.abundances != null) {
+            for (int i = 0; i < this.abundances.length; i++) {
+                bytes.writeIntLittleEndian(this.abundances[i]);
+            }
+        }
         return bytes.copyBytes();
     }
 
+    /**
+     * Converts the sketch into the compressed, versioned file format. As the
+     * hash values are sorted, they are stored as the gaps between consecutive
+     * values, each encoded with a variable number of bytes (see VarIntCodec).
+     * The fixed size values are encoded in little endian in the following
+     * order:
+     *
+     * 1. Magic Number (4B), COMPRESSED_MAGIC_INT
+     * 2. Version (4B)
+     * 3. Flags (4B), 1 if the sketch contains abundances
+     * 4. Hashed Magic Number (8B)
+     * 5. S Param (4B)
+     * 6. K Size (4B)
+     * 7. Random seed (4B)
+     * 8. Sketch size (4B)
+     * 9. Hash values, the first one relative to Long.MIN_VALUE (varints)
+     * 10. Abundances, if flagged (varints)
+     * @return
+     */
+    public byte[] getCompressedBytes() {
+        final int abundanceBytes = this.abundances == null ? 0 : 5 * this.abundances.length;
+        final ByteBuffer buffer = ByteBuffer
+            .allocate(COMPRESSED_HEADER_SIZE + VarIntCodec.MAX_LONG_BYTES * this.hashValues.length + abundanceBytes)
+            .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(COMPRESSED_MAGIC_INT);
+        buffer.putInt(COMPRESSED_VERSION);
+        buffer.putInt(this.abundances == null ? 0 : FLAG_ABUNDANCES);
+        buffer.putLong(this.hashedMagicNumber);
+        buffer.putInt(this.sParam);
+        buffer.putInt(this.kSize);
+        buffer.putInt(this.seed);
+        buffer.putInt(this.hashValues.length);
+        VarIntCodec.writeDeltas(buffer, this.hashValues);
+        if (this.abundances != null) {
+            for (int abundance : this.abundances) {
+                VarIntCodec.writeUnsigned(buffer, abundance & 0xFFFFFFFFL);
+            }
+        }
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    /**
+     * Reconstructs a sketch from the compressed file format, see
+     * getCompressedBytes().
+     * @param bytes
+     * @return
+     * @throws IOException
+     */
+    public static FracMinHashSketch parseCompressed(byte[] bytes) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            if (buffer.getInt() != COMPRESSED_MAGIC_INT) {
+                throw new IOException("Incorrect magic number");
+            }
+            final int version = buffer.getInt();
+            if (version != COMPRESSED_VERSION) {
+                throw new IOException("Unsupported sketch format version " + version);
+            }
+            final int flags = buffer.getInt();
+            final long hashedMagicNumber = buffer.getLong();
+            final int sParam = buffer.getInt();
+            final int kMerSize = buffer.getInt();
+            final int seed = buffer.getInt();
+            final int sketchSize = buffer.getInt();
+            if (sketchSize < 0 || sketchSize > buffer.remaining()) {
+                throw new IOException("Invalid sketch size");
+            }
+
+            final FracMinHashSketch sketch = new FracMinHashSketch(sParam, kMerSize, "", seed);
+            sketch.hashedMagicNumber = hashedMagicNumber;
+            sketch.hashValues = VarIntCodec.readDeltas(buffer, sketchSize);
+            if ((flags & FLAG_ABUNDANCES) != 0) {
+                sketch.abundances = new int[sketchSize];
+                for (int i = 0; i < sketchSize; i++) {
+                    sketch.abundances[i] = (int) VarIntCodec.readUnsigned(buffer);
+                }
+            }
+            return sketch;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Truncated or malformed sketch", e);
+        }
+    }
+
+    /**
+     * Reconstructs a sketch from the content of a sketch file. Besides the
+     * compressed format, this reads the legacy format, i.e. the hex encoded
+     * bytes of getBytes(), as well as the raw bytes of getBytes().
+     * @param content The content of the file
+     * @return
+     * @throws IOException
+     */
+    public static FracMinHashSketch parseFile(byte[] content) throws IOException {
+        if (content.length >= 4) {
+            final int magicNumber = ByteBuffer.wrap(content).order(ByteOrder.LITTLE_ENDIAN).getInt();
+            if (magicNumber == COMPRESSED_MAGIC_INT) {
+                return parseCompressed(content);
+            }
+            if (magicNumber == MAGIC_INT || magicNumber == ABUNDANCE_MAGIC_INT) {
+                return parse(content);
+            }
+        }
+        return parse(HexUtils.decodeHexString(new String(content, StandardCharsets.US_ASCII).trim()));
+    }
+
     /**
      * Returns the descriptive name of the sketch that was given during
      * computation.
@@ -285,32 +1074,86 @@ public class FracMinHashSketch {
      * @throws IOException
      */
     public static FracMinHashSketch parse(byte[] bytes) throws IOException {
-        final ByteInputBuffer buffer = new ByteInputBuffer(bytes);
+        return parse(ByteBuffer.wrap(bytes));
+    }
 
-        if (buffer.readIntLittleEndian() != MAGIC_INT)
+    /**
+     * Parses a FracMinHashSketch from the remaining bytes of the buffer, e.g.
+     * a direct or memory-mapped one. Instead of decoding the values one by
+     * one, the hash values and abundances are bulk-copied from little endian
+     * views of the buffer. The position of the buffer is moved behind the
+     * sketch, its byte order is not changed.
+     * @param bytes
+     * @return
+     * @throws IOException if the magic number is incorrect or the buffer is
+     * truncated
+     */
+    public static FracMinHashSketch parse(ByteBuffer bytes) throws IOException {
+        final ByteBuffer buffer = bytes.slice().order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.remaining() < HEADER_SIZE) {
+            throw new IOException("Truncated sketch");
+        }
+        final int magicNumber = buffer.getInt();
+        if (magicNumber != MAGIC_INT && magicNumber != ABUNDANCE_MAGIC_INT)
             throw new IOException("Incorrect magic number");
-        long hashedMagicNumber = buffer.readLongLittleEndian();
-        int sParam = buffer.readIntLittleEndian();
-        int kMerSize = buffer.readIntLittleEndian();
-        int seed = buffer.readIntLittleEndian();
-        int sketchSize = buffer.readIntLittleEndian();
+        long hashedMagicNumber = buffer.getLong();
+        int sParam = buffer.getInt();
+        int kMerSize = buffer.getInt();
+        int seed = buffer.getInt();
+        int sketchSize = buffer.getInt();
+        final long valueBytes = (long) sketchSize * (magicNumber == ABUNDANCE_MAGIC_INT ? 12 : 8);
+        if (sketchSize < 0 || valueBytes > buffer.remaining()) {
+            throw new IOException("Truncated sketch");
+        }
 
         final FracMinHashSketch sketch = new FracMinHashSketch(sParam, kMerSize, "", seed);
         sketch.hashValues = new long[sketchSize];
         sketch.hashedMagicNumber = hashedMagicNumber;
-        for (int i = 0; i < sketchSize; i++) {
-            sketch.hashValues[i] = buffer.readLongLittleEndian();
+        buffer.asLongBuffer().get(sketch.hashValues);
+        buffer.position(buffer.position() + 8 * sketchSize);
+        if (magicNumber == ABUNDANCE_MAGIC_INT) {
+            sketch.abundances = new int[sketchSize];
+            buffer.asIntBuffer().get(sketch.abundances);
+            buffer.position(buffer.position() + 4 * sketchSize);
         }
+        bytes.position(bytes.position() + buffer.position());
         return sketch;
     }
 
     /**
      * Returns the coordinates of a freshly computed sketch. This is not
      * applicable if the sketch was reconstructed using the parse() method, i.e.
-     * the returned list will be empty.
+     * the returned list will be empty. Each call creates new KMerCoordinates
+     * objects, prefer getCoordinateBuffer() for large sketches.
      * @return
      */
     public List<KMerCoordinates> getCoordinates() {
-        return new ArrayList<>(this.coordinates);
+        final List<KMerCoordinates> result = new ArrayList<>();
+        if (this.coordinates != null) {
+            for (int i = 0; i < this.coordinates.size(); i++) {
+                result.add(this.coordinates.get(i));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the coordinates of a freshly computed sketch in the order in
+     * which the k-mers were found, or null if no coordinates were prepared.
+     * The buffer is not copied and must not be modified.
+     * @return
+     */
+    public CoordinateBuffer getCoordinateBuffer() {
+        return this.coordinates;
+    }
+
+    /**
+     * Returns the histogram of the k-mer positions of a freshly computed
+     * sketch, or null if the positions were not aggregated. Downsampled
+     * sketches do not have a histogram.
+     * @return
+     */
+    public CoordinateHistogram getCoordinateHistogram() {
+        return this.histogram;
     }
 }
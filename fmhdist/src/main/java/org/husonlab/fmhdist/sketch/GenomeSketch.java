@@ -1,11 +1,37 @@
 package org.husonlab.fmhdist.sketch;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.logging.Logger;
 
 import org.husonlab.fmhdist.ncbi.Genome;
+import org.husonlab.fmhdist.util.BlockKMerIterator;
+import org.husonlab.fmhdist.util.ByteBlockInputStream;
+import org.husonlab.fmhdist.util.ByteBlockSource;
+import org.husonlab.fmhdist.util.ByteBufferInputStream;
+import org.husonlab.fmhdist.util.CoordinateHistogram;
+import org.husonlab.fmhdist.util.FastaRangeReader;
+import org.husonlab.fmhdist.util.FastaRecordReader;
+import org.husonlab.fmhdist.util.FastqKMerIterator;
 import org.husonlab.fmhdist.util.KMerIterator;
 import org.husonlab.fmhdist.util.LineKMerIterator;
+import org.husonlab.fmhdist.util.MappedKMerIterator;
+import org.husonlab.fmhdist.util.NtHashFunction;
+import org.husonlab.fmhdist.util.NtHashIterator;
+import org.husonlab.fmhdist.util.PackedKMerIterator;
+import org.husonlab.fmhdist.util.ReadAheadBlockSource;
 
 import net.openhft.hashing.LongHashFunction;
 
@@ -17,6 +43,12 @@ public class GenomeSketch {
     private FracMinHashSketch sketch;
     private static Logger logger = Logger.getLogger(GenomeSketch.class.getName());
 
+    // Records are combined into batches of at least this size to reduce the
+    // overhead of small contigs
+    private static final int MIN_BATCH_SIZE = 1 << 22;
+    private static final long MAX_RANGE_SIZE = 1L << 30;
+    private static final int RANGES_PER_THREAD = 4;
+
     /**
      * Creates a new GenomeSketch by calculating the FracMinHash sketch of the
      * given genome.
@@ -31,16 +63,534 @@ public class GenomeSketch {
      * @throws IOException
      */
     public static GenomeSketch sketch(Genome genome, int kSize, int sParam, LongHashFunction hashFunction, int seed, boolean prepareCoordinates) throws IOException {
+        return sketch(genome, kSize, sParam, hashFunction, seed, prepareCoordinates, false);
+    }
+
+    /**
+     * Creates a new GenomeSketch by calculating the FracMinHash sketch of the
+     * given genome.
+     * @param genome the input genome to sketch
+     * @param kSize the k-mer size to apply
+     * @param sParam the scaling parameter to apply
+     * @param hashFunction the hash function to use
+     * @param seed the random seed that was used to generate the hash function
+     * @param prepareCoordinates boolean flag to indicate if the KMerCoordinates
+     * will be exported later. 
+     * @param usePackedKMers boolean flag to indicate if the 2-bit packed k-mer
+     * engine should be used. This is only applied if kSize is at most 32 and
+     * no coordinates need to be prepared. If the hash function is ntHash and
+     * no coordinates need to be prepared, the rolling NtHashIterator is used
+     * regardless of this flag. Otherwise, local uncompressed files are
+     * memory-mapped. All other files are read ahead on a dedicated thread if
+     * enabled, see ReadAheadBlockSource. FASTQ files (see
+     * FastqKMerIterator.isFastq()) are always decomposed by the
+     * FastqKMerIterator.
+     * @return A new GenomeSketch
+     * @throws IOException
+     */
+    public static GenomeSketch sketch(Genome genome, int kSize, int sParam, LongHashFunction hashFunction, int seed, boolean prepareCoordinates, boolean usePackedKMers) throws IOException {
         logger.fine("Calculating sketch for " + genome.getAccession());
         final GenomeSketch result = new GenomeSketch(genome);
+        // the rolling and packed engines only parse FASTA
+        final boolean isFasta = !FastqKMerIterator.isFastq(genome.getFastaUrl());
+
+        if (isFasta && !prepareCoordinates && hashFunction instanceof NtHashFunction) {
+            try (NtHashIterator hashes = new NtHashIterator(kSize, ReadAheadBlockSource.openInputStream(genome.getFastaUrl()), (NtHashFunction) hashFunction)) {
+                result.sketch = FracMinHashSketch.compute(genome.getAccession(), hashes, sParam, seed, genome.getGenomeSize());
+            }
+            return result;
+        }
+
+        if (isFasta && usePackedKMers && !prepareCoordinates && kSize <= PackedKMerIterator.MAX_K) {
+            try (PackedKMerIterator kmers = new PackedKMerIterator(kSize, ReadAheadBlockSource.openInputStream(genome.getFastaUrl()))) {
+                result.sketch = FracMinHashSketch.compute(genome.getAccession(), kmers, sParam, hashFunction, seed, genome.getGenomeSize());
+            }
+            return result;
+        }
         
-        KMerIterator kmers;
-        kmers = new LineKMerIterator(kSize, genome.getFastaUrl(), true);
-        result.sketch = FracMinHashSketch.compute(genome.getAccession(), kmers, sParam, hashFunction, seed, prepareCoordinates);
+        KMerIterator kmers = openKMers(genome.getFastaUrl(), kSize);
+        result.sketch = FracMinHashSketch.compute(genome.getAccession(), kmers, sParam, hashFunction, seed, prepareCoordinates, genome.getGenomeSize());
         kmers.close();
         return result;
     }
 
+    /**
+     * Creates a new GenomeSketch by calculating the FracMinHash sketch of the
+     * given genome including the abundances of the hash values, see
+     * FracMinHashSketch.computeWithAbundances(). The engine is selected as in
+     * sketch(), coordinates are not supported.
+     * @param genome the input genome to sketch
+     * @param kSize the k-mer size to apply
+     * @param sParam the scaling parameter to apply
+     * @param hashFunction the hash function to use
+     * @param seed the random seed that was used to generate the hash function
+     * @param minAbundance the minimum number of occurrences of a hash value to
+     * be part of the sketch
+     * @param usePackedKMers boolean flag to indicate if the 2-bit packed k-mer
+     * engine should be used, see above.
+     * @return A new GenomeSketch
+     * @throws IOException
+     */
+    public static GenomeSketch sketchWithAbundances(Genome genome, int kSize, int sParam, LongHashFunction hashFunction, int seed, int minAbundance, boolean usePackedKMers) throws IOException {
+        logger.fine("Calculating sketch with abundances for " + genome.getAccession());
+        final GenomeSketch result = new GenomeSketch(genome);
+        final boolean isFasta = !FastqKMerIterator.isFastq(genome.getFastaUrl());
+
+        if (isFasta && hashFunction instanceof NtHashFunction) {
+            try (NtHashIterator hashes = new NtHashIterator(kSize, ReadAheadBlockSource.openInputStream(genome.getFastaUrl()), (NtHashFunction) hashFunction)) {
+                result.sketch = FracMinHashSketch.computeWithAbundances(genome.getAccession(), hashes, sParam, seed, minAbundance, genome.getGenomeSize());
+            }
+            return result;
+        }
+
+        if (isFasta && usePackedKMers && kSize <= PackedKMerIterator.MAX_K) {
+            try (PackedKMerIterator kmers = new PackedKMerIterator(kSize, ReadAheadBlockSource.openInputStream(genome.getFastaUrl()))) {
+                result.sketch = FracMinHashSketch.computeWithAbundances(genome.getAccession(), kmers, sParam, hashFunction, seed, minAbundance, genome.getGenomeSize());
+            }
+            return result;
+        }
+
+        try (KMerIterator kmers = openKMers(genome.getFastaUrl(), kSize)) {
+            result.sketch = FracMinHashSketch.computeWithAbundances(genome.getAccession(), kmers, sParam, hashFunction, seed, minAbundance, genome.getGenomeSize());
+        }
+        return result;
+    }
+
+    /**
+     * Creates a new GenomeSketch by calculating the FracMinHash sketch of the
+     * given genome and aggregates the positions of the k-mers of the sketch
+     * into windows, see CoordinateHistogram. As the positions are needed, the
+     * engine is selected as in sketch() with coordinates.
+     * @param genome the input genome to sketch
+     * @param kSize the k-mer size to apply
+     * @param sParam the scaling parameter to apply
+     * @param hashFunction the hash function to use
+     * @param seed the random seed that was used to generate the hash function
+     * @param prepareCoordinates boolean flag to indicate if the KMerCoordinates
+     * will be exported later as well.
+     * @param windowSize the number of positions per window
+     * @param trackComplexity boolean flag to indicate if the sequence
+     * complexity of the windows should be tracked as well
+     * @return A new GenomeSketch
+     * @throws IOException
+     */
+    public static GenomeSketch sketchWithHistogram(Genome genome, int kSize, int sParam, LongHashFunction hashFunction, int seed, boolean prepareCoordinates, int windowSize, boolean trackComplexity) throws IOException {
+        logger.fine("Calculating sketch with coordinate histogram for " + genome.getAccession());
+        final GenomeSketch result = new GenomeSketch(genome);
+        final CoordinateHistogram histogram = new CoordinateHistogram(windowSize, trackComplexity);
+        try (KMerIterator kmers = openKMers(genome.getFastaUrl(), kSize)) {
+            result.sketch = FracMinHashSketch.compute(genome.getAccession(), kmers, sParam, hashFunction, seed, prepareCoordinates, genome.getGenomeSize(), histogram);
+        }
+        return result;
+    }
+
+    /**
+     * Creates one GenomeSketch per given hash function by calculating the
+     * FracMinHash sketches of the given genome with a single pass over its
+     * k-mers. The canonical k-mers are selected once and hashed with each hash
+     * function. The sketches are identical to the ones of sketch() for the
+     * individual hash functions.
+     * @param genome the input genome to sketch
+     * @param kSize the k-mer size to apply
+     * @param sParam the scaling parameter to apply
+     * @param hashFunctions the hash functions to use
+     * @param seeds the random seeds that were used to generate the hash
+     * functions, one per hash function
+     * @param prepareCoordinates boolean flag to indicate if the KMerCoordinates
+     * will be exported later.
+     * @param usePackedKMers boolean flag to indicate if the 2-bit packed k-mer
+     * engine should be used, see above. With several hash functions, ntHash
+     * is computed per k-mer instead of rolling over the sequence.
+     * @return The GenomeSketches in the order of the hash functions
+     * @throws IOException
+     */
+    public static List<GenomeSketch> sketch(
+        Genome genome,
+        int kSize,
+        int sParam,
+        LongHashFunction[] hashFunctions,
+        int[] seeds,
+        boolean prepareCoordinates,
+        boolean usePackedKMers
+    ) throws IOException {
+        if (hashFunctions.length == 1 && seeds.length == 1) {
+            return List.of(sketch(genome, kSize, sParam, hashFunctions[0], seeds[0], prepareCoordinates, usePackedKMers));
+        }
+        logger.fine("Calculating sketches for " + genome.getAccession() + " for " + hashFunctions.length + " hash functions");
+
+        final List<FracMinHashSketch> sketches;
+        if (usePackedKMers && !prepareCoordinates && kSize <= PackedKMerIterator.MAX_K && !FastqKMerIterator.isFastq(genome.getFastaUrl())) {
+            try (PackedKMerIterator kmers = new PackedKMerIterator(kSize, ReadAheadBlockSource.openInputStream(genome.getFastaUrl()))) {
+                sketches = FracMinHashSketch.compute(genome.getAccession(), kmers, sParam, hashFunctions, seeds, genome.getGenomeSize());
+            }
+        } else {
+            try (KMerIterator kmers = openKMers(genome.getFastaUrl(), kSize)) {
+                sketches = FracMinHashSketch.compute(genome.getAccession(), kmers, sParam, hashFunctions, seeds, prepareCoordinates, genome.getGenomeSize());
+            }
+        }
+        return toGenomeSketches(genome, sketches);
+    }
+
+    private static KMerIterator openKMers(String fileName, int kSize) throws IOException {
+        if (FastqKMerIterator.isFastq(fileName)) {
+            return new FastqKMerIterator(kSize, fileName, true);
+        }
+        if (MappedKMerIterator.isMappable(fileName)) {
+            // local, uncompressed files can be scanned in place
+            return new MappedKMerIterator(kSize, fileName, true);
+        }
+        if (ReadAheadBlockSource.isEnabled()) {
+            // decompression and download run on a dedicated thread
+            return new BlockKMerIterator(kSize, ReadAheadBlockSource.open(fileName), true);
+        }
+        return new LineKMerIterator(kSize, fileName, true);
+    }
+
+    private static List<GenomeSketch> toGenomeSketches(Genome genome, List<FracMinHashSketch> sketches) {
+        final List<GenomeSketch> result = new ArrayList<>(sketches.size());
+        for (FracMinHashSketch sketch : sketches) {
+            result.add(new GenomeSketch(genome, sketch));
+        }
+        return result;
+    }
+
+    /**
+     * Creates one GenomeSketch per given k-mer size by calculating the
+     * FracMinHash sketches of the given genome with a single read of the
+     * genome file. The file is downloaded and decompressed once and its blocks
+     * are shared by one sketching thread per k-mer size. Local uncompressed
+     * files are memory-mapped by each thread, thus they are read only once
+     * from disk as well. The sketches are identical to the ones of
+     * sketch() for the individual k-mer sizes.
+     * @param genome the input genome to sketch
+     * @param kSizes the k-mer sizes to apply
+     * @param sParam the scaling parameter to apply
+     * @param hashFunction the hash function to use
+     * @param seed the random seed that was used to generate the hash function
+     * @param prepareCoordinates boolean flag to indicate if the KMerCoordinates
+     * will be exported later.
+     * @param usePackedKMers boolean flag to indicate if the 2-bit packed k-mer
+     * engine should be used, see above.
+     * @return The GenomeSketches in the order of the k-mer sizes
+     * @throws IOException
+     */
+    public static List<GenomeSketch> sketch(
+        Genome genome,
+        int[] kSizes,
+        int sParam,
+        LongHashFunction hashFunction,
+        int seed,
+        boolean prepareCoordinates,
+        boolean usePackedKMers
+    ) throws IOException {
+        return sketch(genome, kSizes, sParam, new LongHashFunction[] { hashFunction }, new int[] { seed }, prepareCoordinates, usePackedKMers);
+    }
+
+    /**
+     * Creates one GenomeSketch per combination of the given k-mer sizes and
+     * hash functions with a single read of the genome file, see above.
+     * @param genome the input genome to sketch
+     * @param kSizes the k-mer sizes to apply
+     * @param sParam the scaling parameter to apply
+     * @param hashFunctions the hash functions to use
+     * @param seeds the random seeds that were used to generate the hash
+     * functions, one per hash function
+     * @param prepareCoordinates boolean flag to indicate if the KMerCoordinates
+     * will be exported later.
+     * @param usePackedKMers boolean flag to indicate if the 2-bit packed k-mer
+     * engine should be used, see above.
+     * @return The GenomeSketches ordered by k-mer size first and hash function
+     * second
+     * @throws IOException
+     */
+    public static List<GenomeSketch> sketch(
+        Genome genome,
+        int[] kSizes,
+        int sParam,
+        LongHashFunction[] hashFunctions,
+        int[] seeds,
+        boolean prepareCoordinates,
+        boolean usePackedKMers
+    ) throws IOException {
+        if (kSizes.length == 1) {
+            return sketch(genome, kSizes[0], sParam, hashFunctions, seeds, prepareCoordinates, usePackedKMers);
+        }
+        logger.fine("Calculating sketches for " + genome.getAccession() + " for " + kSizes.length + " k-mer sizes");
+
+        final List<Callable<List<GenomeSketch>>> passes = new ArrayList<>(kSizes.length);
+        // FASTQ files, possibly several paired ones, are read per k-mer size
+        if (MappedKMerIterator.isMappable(genome.getFastaUrl()) || FastqKMerIterator.isFastq(genome.getFastaUrl())) {
+            for (int kSize : kSizes) {
+                passes.add(() -> sketch(genome, kSize, sParam, hashFunctions, seeds, prepareCoordinates, usePackedKMers));
+            }
+        } else {
+            final ByteBlockSource[] sources = ReadAheadBlockSource.openShared(genome.getFastaUrl(), kSizes.length);
+            for (int i = 0; i < kSizes.length; i++) {
+                final int kSize = kSizes[i];
+                final ByteBlockSource source = sources[i];
+                passes.add(() -> toGenomeSketches(genome, computeSketches(
+                    genome.getAccession(), source, kSize, sParam, hashFunctions, seeds, prepareCoordinates, usePackedKMers, genome.getGenomeSize()
+                )));
+            }
+        }
+        return runConcurrently(genome, passes);
+    }
+
+    /**
+     * Runs the given passes concurrently, the first one on the calling thread.
+     * All passes need to run at the same time as they might share a single
+     * read-ahead source, thus they are not run on a bounded executor.
+     * @param genome the genome that is sketched
+     * @param passes the passes to run
+     * @return The results in the order of the passes
+     * @throws IOException
+     */
+    private static List<GenomeSketch> runConcurrently(Genome genome, List<Callable<List<GenomeSketch>>> passes) throws IOException {
+        final List<FutureTask<List<GenomeSketch>>> tasks = new ArrayList<>(passes.size());
+        for (Callable<List<GenomeSketch>> pass : passes) {
+            tasks.add(new FutureTask<>(pass));
+        }
+        for (int i = 1; i < tasks.size(); i++) {
+            final Thread thread = new Thread(tasks.get(i), "sketch-pass");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        tasks.get(0).run();
+
+        final List<GenomeSketch> result = new ArrayList<>(tasks.size());
+        try {
+            for (FutureTask<List<GenomeSketch>> task : tasks) {
+                result.addAll(task.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("sketching of " + genome.getAccession() + " was interrupted");
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        }
+        return result;
+    }
+
+    private static IOException unwrap(ExecutionException e) {
+        if (e.getCause() instanceof IOException) {
+            return (IOException) e.getCause();
+        }
+        if (e.getCause() instanceof RuntimeException) {
+            throw (RuntimeException) e.getCause();
+        }
+        if (e.getCause() instanceof Error) {
+            throw (Error) e.getCause();
+        }
+        return new IOException(e.getCause());
+    }
+
+    /**
+     * Creates a new GenomeSketch by calculating the FracMinHash sketch of the
+     * given genome. The records of the genome (e.g. chromosomes or contigs)
+     * are sketched in parallel on the given executor and the partial sketches
+     * are merged afterwards. Small records are combined into batches. The
+     * result is identical to the sequential calculation. Coordinates are not
+     * supported. FASTQ files are sketched sequentially.
+     * @param genome the input genome to sketch
+     * @param kSize the k-mer size to apply
+     * @param sParam the scaling parameter to apply
+     * @param hashFunction the hash function to use
+     * @param seed the random seed that was used to generate the hash function
+     * @param usePackedKMers boolean flag to indicate if the 2-bit packed k-mer
+     * engine should be used, see above.
+     * @param executor the executor on which the records are sketched
+     * @param parallelism the number of threads of the executor, this limits
+     * the number of records that are kept in memory at the same time.
+     * @return A new GenomeSketch
+     * @throws IOException
+     */
+    public static GenomeSketch sketchRecordsInParallel(
+        Genome genome,
+        int kSize,
+        int sParam,
+        LongHashFunction hashFunction,
+        int seed,
+        boolean usePackedKMers,
+        ExecutorService executor,
+        int parallelism
+    ) throws IOException {
+        if (FastqKMerIterator.isFastq(genome.getFastaUrl())) {
+            return sketch(genome, kSize, sParam, hashFunction, seed, false, usePackedKMers);
+        }
+        logger.fine("Calculating sketch for " + genome.getAccession() + " from records in parallel");
+        try (FastaRecordReader records = new FastaRecordReader(genome.getFastaUrl())) {
+            return sketchFragmentsInParallel(genome, () -> records.nextRecords(MIN_BATCH_SIZE), kSize, sParam, hashFunction, seed, usePackedKMers, executor, parallelism);
+        }
+    }
+
+    /**
+     * Creates a new GenomeSketch by calculating the FracMinHash sketch of the
+     * given genome. The genome file is divided into byte ranges that are
+     * sketched in parallel on the given executor, thus even a single large
+     * record is distributed among the threads. Each range is extended by k - 1
+     * bases, such that each k-mer is part of exactly one range. The result is
+     * identical to the sequential calculation. Coordinates are not supported.
+     *
+     * Byte ranges require random access, if the genome is not a local
+     * uncompressed file, its records are sketched in parallel instead.
+     * @param genome the input genome to sketch
+     * @param kSize the k-mer size to apply
+     * @param sParam the scaling parameter to apply
+     * @param hashFunction the hash function to use
+     * @param seed the random seed that was used to generate the hash function
+     * @param usePackedKMers boolean flag to indicate if the 2-bit packed k-mer
+     * engine should be used, see above.
+     * @param executor the executor on which the ranges are sketched
+     * @param parallelism the number of threads of the executor, the file is
+     * divided into a multiple of this number of ranges.
+     * @return A new GenomeSketch
+     * @throws IOException
+     */
+    public static GenomeSketch sketchRangesInParallel(
+        Genome genome,
+        int kSize,
+        int sParam,
+        LongHashFunction hashFunction,
+        int seed,
+        boolean usePackedKMers,
+        ExecutorService executor,
+        int parallelism
+    ) throws IOException {
+        final String fileName = genome.getFastaUrl();
+        if (!MappedKMerIterator.isMappable(fileName) || FastqKMerIterator.isFastq(fileName)) {
+            return sketchRecordsInParallel(genome, kSize, sParam, hashFunction, seed, usePackedKMers, executor, parallelism);
+        }
+        logger.fine("Calculating sketch for " + genome.getAccession() + " from byte ranges in parallel");
+
+        // use more ranges than threads to balance the load
+        final long fileSize = Files.size(Paths.get(fileName));
+        final long ranges = (long) RANGES_PER_THREAD * Math.max(1, parallelism);
+        final long rangeSize = Math.min(MAX_RANGE_SIZE, Math.max(MIN_BATCH_SIZE, (fileSize + ranges - 1) / ranges));
+        try (FastaRangeReader fragments = new FastaRangeReader(fileName, kSize, rangeSize)) {
+            return sketchFragmentsInParallel(genome, fragments::nextRange, kSize, sParam, hashFunction, seed, usePackedKMers, executor, parallelism);
+        }
+    }
+
+    /**
+     * Source of independent FASTA fragments whose k-mers are disjoint.
+     */
+    private interface FragmentSource {
+        ByteBuffer next() throws IOException;
+    }
+
+    private static GenomeSketch sketchFragmentsInParallel(
+        Genome genome,
+        FragmentSource fragments,
+        int kSize,
+        int sParam,
+        LongHashFunction hashFunction,
+        int seed,
+        boolean usePackedKMers,
+        ExecutorService executor,
+        int parallelism
+    ) throws IOException {
+        final GenomeSketch result = new GenomeSketch(genome);
+        final String name = genome.getAccession();
+        final Semaphore slots = new Semaphore(2 * Math.max(1, parallelism));
+        final List<Future<FracMinHashSketch>> tasks = new ArrayList<>();
+
+        try {
+            ByteBuffer fragment;
+            while ((fragment = fragments.next()) != null) {
+                slots.acquire();
+                final ByteBuffer current = fragment;
+                try {
+                    tasks.add(executor.submit(() -> {
+                        try {
+                            return computeSketch(name, current, kSize, sParam, hashFunction, seed, usePackedKMers);
+                        } finally {
+                            slots.release();
+                        }
+                    }));
+                } catch (RejectedExecutionException e) {
+                    slots.release();
+                    throw e;
+                }
+            }
+
+            List<FracMinHashSketch> partials = new ArrayList<>(tasks.size());
+            for (Future<FracMinHashSketch> task : tasks) {
+                partials.add(task.get());
+            }
+            if (partials.isEmpty()) {
+                partials.add(computeSketch(name, ByteBuffer.allocate(0), kSize, sParam, hashFunction, seed, usePackedKMers));
+            }
+            result.sketch = FracMinHashSketch.merge(name, partials);
+            return result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("sketching of " + name + " was interrupted");
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        } finally {
+            for (Future<FracMinHashSketch> task : tasks) {
+                task.cancel(true);
+            }
+        }
+    }
+
+    private static FracMinHashSketch computeSketch(
+        String name,
+        ByteBuffer fasta,
+        int kSize,
+        int sParam,
+        LongHashFunction hashFunction,
+        int seed,
+        boolean usePackedKMers
+    ) throws IOException {
+        if (hashFunction instanceof NtHashFunction) {
+            try (NtHashIterator hashes = new NtHashIterator(kSize, new ByteBufferInputStream(fasta), (NtHashFunction) hashFunction)) {
+                return FracMinHashSketch.compute(name, hashes, sParam, seed, fasta.remaining());
+            }
+        }
+        if (usePackedKMers && kSize <= PackedKMerIterator.MAX_K) {
+            try (PackedKMerIterator kmers = new PackedKMerIterator(kSize, new ByteBufferInputStream(fasta))) {
+                return FracMinHashSketch.compute(name, kmers, sParam, hashFunction, seed, fasta.remaining());
+            }
+        }
+        try (KMerIterator kmers = new MappedKMerIterator(kSize, fasta, true)) {
+            return FracMinHashSketch.compute(name, kmers, sParam, hashFunction, seed, false, fasta.remaining());
+        }
+    }
+
+    /**
+     * Calculates the sketches of the FASTA content supplied by the given
+     * source with the engine that applies to the given parameters. The source
+     * is closed afterwards.
+     */
+    private static List<FracMinHashSketch> computeSketches(
+        String name,
+        ByteBlockSource source,
+        int kSize,
+        int sParam,
+        LongHashFunction[] hashFunctions,
+        int[] seeds,
+        boolean prepareCoordinates,
+        boolean usePackedKMers,
+        long genomeSize
+    ) throws IOException {
+        try (source) {
+            if (!prepareCoordinates && hashFunctions.length == 1 && hashFunctions[0] instanceof NtHashFunction) {
+                try (NtHashIterator hashes = new NtHashIterator(kSize, new ByteBlockInputStream(source), (NtHashFunction) hashFunctions[0])) {
+                    return List.of(FracMinHashSketch.compute(name, hashes, sParam, seeds[0], genomeSize));
+                }
+            }
+            if (usePackedKMers && !prepareCoordinates && kSize <= PackedKMerIterator.MAX_K) {
+                try (PackedKMerIterator kmers = new PackedKMerIterator(kSize, new ByteBlockInputStream(source))) {
+                    return FracMinHashSketch.compute(name, kmers, sParam, hashFunctions, seeds, genomeSize);
+                }
+            }
+            try (KMerIterator kmers = new BlockKMerIterator(kSize, source, true)) {
+                return FracMinHashSketch.compute(name, kmers, sParam, hashFunctions, seeds, prepareCoordinates, genomeSize);
+            }
+        }
+    }
+
     private GenomeSketch(Genome genome) {
         this.genome = genome;
     }
@@ -0,0 +1,156 @@
+package org.husonlab.fmhdist.sketch;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Schedules the comparison of all pairs of n sketches on several threads. The
+ * upper triangle of the n x n matrix (including the diagonal) is divided into
+ * square tiles of tileSize rows and columns. All pairs of a tile are compared
+ * by the same thread, so only the 2 x tileSize sketches of the tile need to be
+ * in the cache. The tiles are distributed with fork/join, i.e. idle threads
+ * steal the remaining tiles of busy ones. The tiles are numbered row by row and
+ * the row and column of a tile are derived from its number, so the tiles are
+ * never stored.
+ */
+public class PairwiseCalculator {
+    // the assumed amount of cache per thread, e.g. L2
+    private static final long TILE_CACHE_BYTES = 1 << 20;
+    private static final int MAX_TILE_SIZE = 256;
+
+    /**
+     * Callback for a single pair.
+     */
+    public interface PairConsumer {
+        /**
+         * Compares the sketches i and j with i <= j. Each pair is passed
+         * exactly once, but different pairs are passed concurrently.
+         * @param i
+         * @param j
+         */
+        void accept(int i, int j);
+    }
+
+    private PairwiseCalculator() {
+    }
+
+    /**
+     * Returns a tile size such that the sketches of a tile fit into the cache,
+     * based on their average size.
+     * @param sketches
+     * @return
+     */
+    public static int getTileSize(List<FracMinHashSketch> sketches) {
+        long totalBytes = 0;
+        for (FracMinHashSketch sketch : sketches) {
+            totalBytes += 8L * sketch.getValues().length;
+        }
+        final long averageBytes = Math.max(1, totalBytes / Math.max(1, sketches.size()));
+        return (int) Math.max(1, Math.min(MAX_TILE_SIZE, TILE_CACHE_BYTES / (2 * averageBytes)));
+    }
+
+    /**
+     * Passes all pairs (i, j) with 0 <= i <= j < count to the consumer and
+     * returns once all of them were processed.
+     * @param count The number of sketches
+     * @param tileSize The number of rows and columns per tile
+     * @param threads The number of threads
+     * @param consumer
+     */
+    public static void forEachPair(int count, int tileSize, int threads, PairConsumer consumer) {
+        if (tileSize < 1) {
+            throw new IllegalArgumentException("tile size must be positive");
+        }
+        final long tilesPerSide = (count + (long) tileSize - 1) / tileSize;
+        final long tileCount = tilesPerSide * (tilesPerSide + 1) / 2;
+
+        final ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+        try {
+            pool.invoke(new TileAction(count, tileSize, tilesPerSide, 0, tileCount, consumer));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Returns the number of tiles in the rows before the given tile row. The
+     * tiles are numbered row by row, starting with the diagonal tile of each
+     * row.
+     * @param row
+     * @param tilesPerSide
+     * @return
+     */
+    static long getTilesBeforeRow(long row, long tilesPerSide) {
+        return row * tilesPerSide - row * (row - 1) / 2;
+    }
+
+    /**
+     * Returns the row of the tile with the given number.
+     * @param tile
+     * @param tilesPerSide
+     * @return
+     */
+    static long getTileRow(long tile, long tilesPerSide) {
+        long low = 0;
+        long high = tilesPerSide - 1;
+        while (low < high) {
+            final long middle = (low + high + 1) >>> 1;
+            if (getTilesBeforeRow(middle, tilesPerSide) <= tile) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    private static class TileAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int count;
+        private final int tileSize;
+        private final long tilesPerSide;
+        private final long from;
+        private final long to;
+        private final PairConsumer consumer;
+
+        TileAction(int count, int tileSize, long tilesPerSide, long from, long to, PairConsumer consumer) {
+            this.count = count;
+            this.tileSize = tileSize;
+            this.tilesPerSide = tilesPerSide;
+            this.from = from;
+            this.to = to;
+            this.consumer = consumer;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from > 1) {
+                final long middle = (this.from + this.to) >>> 1;
+                invokeAll(
+                        new TileAction(this.count, this.tileSize, this.tilesPerSide, this.from, middle, this.consumer),
+                        new TileAction(this.count, this.tileSize, this.tilesPerSide, middle, this.to, this.consumer));
+                return;
+            }
+            long row = getTileRow(this.from, this.tilesPerSide);
+            long column = row + this.from - getTilesBeforeRow(row, this.tilesPerSide);
+            for (long tile = this.from; tile < this.to; tile++) {
+                if (column == this.tilesPerSide) {
+                    row++;
+                    column = row;
+                }
+                final int rowStart = (int) (row * this.tileSize);
+                final int rowEnd = (int) Math.min(this.count, rowStart + (long) this.tileSize);
+                final int columnStart = (int) (column * this.tileSize);
+                final int columnEnd = (int) Math.min(this.count, columnStart + (long) this.tileSize);
+                for (int i = rowStart; i < rowEnd; i++) {
+                    for (int j = Math.max(i, columnStart); j < columnEnd; j++) {
+                        this.consumer.accept(i, j);
+                    }
+                }
+                column++;
+            }
+        }
+    }
+}
@@ -1,33 +1,57 @@
 package org.husonlab.fmhdist.sketch;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
 
-import jloda.util.FileLineIterator;
+import org.husonlab.fmhdist.util.ByteLineReader;
 
 public class SequenceGrouper {
-    private int group;
+    private static final boolean[] isWhitespace = new boolean[128];
+    static {
+        isWhitespace[' '] = true;
+        isWhitespace['\t'] = true;
+        isWhitespace['\n'] = true;
+        isWhitespace[0x0B] = true;
+        isWhitespace['\f'] = true;
+        isWhitespace['\r'] = true;
+    }
+
     private List<byte[]> result;
 
     public SequenceGrouper(String path) throws IOException {
-        try (FileLineIterator it = new FileLineIterator(path)) {
-            this.result = it
-                .stream()
-                .collect(Collectors.groupingBy(line -> {
-                    if (line.startsWith(">")) {
-                        return ++group;
+        this.result = new ArrayList<>();
+        try (ByteLineReader reader = new ByteLineReader(path)) {
+            // the bytes of the current group without whitespace
+            ByteArrayOutputStream group = null;
+            while (reader.readLine()) {
+                final byte[] line = reader.getBuffer();
+                final int start = reader.getStart();
+                final int end = start + reader.getLength();
+                if (end > start && line[start] == '>') {
+                    if (group != null) {
+                        this.result.add(group.toByteArray());
+                    }
+                    group = new ByteArrayOutputStream();
+                    continue;
+                }
+                if (group == null) {
+                    group = new ByteArrayOutputStream();
+                }
+                // copy the runs between whitespace at once
+                int runStart = start;
+                for (int i = start; i < end; i++) {
+                    if (line[i] >= 0 && isWhitespace[line[i]]) {
+                        group.write(line, runStart, i - runStart);
+                        runStart = i + 1;
                     }
-                    return group;
-            })).entrySet()
-                .stream()
-                .map(l -> l.getValue()
-                    .stream()
-                    .filter(line -> !line.startsWith(">"))
-                    .map(line -> line.replaceAll("\\s+", ""))
-                    .collect(Collectors.joining())
-                    .getBytes())
-                .collect(Collectors.toList());           
+                }
+                group.write(line, runStart, end - runStart);
+            }
+            if (group != null) {
+                this.result.add(group.toByteArray());
+            }
         }
     }
 
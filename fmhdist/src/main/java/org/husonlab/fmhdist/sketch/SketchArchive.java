@@ -0,0 +1,449 @@
+package org.husonlab.fmhdist.sketch;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A single file that contains many sketches. Instead of opening, reading and
+ * decoding one file per sketch, the archive is memory-mapped and the hash
+ * values of each sketch are available as a view of the mapping.
+ *
+ * All values are encoded in little endian. The file consists of
+ *
+ * 1. Header (32B): magic number MAGIC_INT (4B), version (4B), number of
+ * sketches (4B), reserved (4B), offset of the name table (8B), offset of the
+ * index (8B)
+ * 2. Data: per sketch, the sorted hash values (size x 8B), followed by the
+ * abundances (size x 4B) if the sketch has them, padded to 8B
+ * 3. Name table: per sketch, the length (4B) and the UTF-8 bytes of the name
+ * 4. Index: per sketch, a fixed size entry (ENTRY_SIZE) with the offset of
+ * its data (8B), the hashed magic number (8B), the sketch size (4B), flags
+ * (4B, 1 if the sketch has abundances), the s param (4B), the k size (4B),
+ * the random seed (4B) and the offset of its name in the name table (4B)
+ *
+ * The tables are written after the data, so the sketches can be added one
+ * after another with the Writer.
+ */
+public class SketchArchive implements Closeable {
+    public static final int MAGIC_INT = FracMinHashSketch.MAGIC_INT + 32;
+    public static final int VERSION = 1;
+    public static final String EXTENSION = ".fmhpack";
+
+    private static final int HEADER_SIZE = 32;
+    private static final int ENTRY_SIZE = 40;
+    private static final int FLAG_ABUNDANCES = 1;
+    // the limit of a single mapping
+    private static final long MAX_MAPPING_SIZE = Integer.MAX_VALUE;
+
+    private final FileChannel channel;
+    private final String[] names;
+    private final long[] hashedMagicNumbers;
+    private final int[] sizes;
+    private final int[] flags;
+    private final int[] sParams;
+    private final int[] kSizes;
+    private final int[] seeds;
+
+    // consecutive sketches share a mapping as long as it is small enough
+    private final ByteBuffer[] mappings;
+    private final int[] mappingIndices;
+    private final int[] mappingOffsets;
+
+    private SketchArchive(FileChannel channel, int count) {
+        this.channel = channel;
+        this.names = new String[count];
+        this.hashedMagicNumbers = new long[count];
+        this.sizes = new int[count];
+        this.flags = new int[count];
+        this.sParams = new int[count];
+        this.kSizes = new int[count];
+        this.seeds = new int[count];
+        this.mappings = new ByteBuffer[count];
+        this.mappingIndices = new int[count];
+        this.mappingOffsets = new int[count];
+    }
+
+    /**
+     * Returns true if the given file starts with the magic number of an
+     * archive.
+     * @param fileName
+     * @return
+     */
+    public static boolean isArchive(String fileName) {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            final ByteBuffer magic = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            while (magic.hasRemaining() && channel.read(magic) >= 0) {
+            }
+            return !magic.hasRemaining() && magic.getInt(0) == MAGIC_INT;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Opens and memory-maps the given archive. Only the names and the index
+     * are read, the hash values stay in the mapping.
+     * @param fileName
+     * @return
+     * @throws IOException if the file is not a valid archive
+     */
+    public static SketchArchive open(String fileName) throws IOException {
+        final FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+        try {
+            return open(channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static SketchArchive open(FileChannel channel) throws IOException {
+        final long fileSize = channel.size();
+        if (fileSize < HEADER_SIZE) {
+            throw new IOException("Truncated sketch archive");
+        }
+        final ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        if (header.getInt() != MAGIC_INT) {
+            throw new IOException("Incorrect magic number");
+        }
+        final int version = header.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported sketch archive version " + version);
+        }
+        final int count = header.getInt();
+        header.getInt();
+        final long nameTableOffset = header.getLong();
+        final long indexOffset = header.getLong();
+        if (count < 0 || nameTableOffset < HEADER_SIZE || indexOffset < nameTableOffset
+                || indexOffset + (long) count * ENTRY_SIZE > fileSize
+                || indexOffset - nameTableOffset > MAX_MAPPING_SIZE
+                || (long) count * ENTRY_SIZE > MAX_MAPPING_SIZE) {
+            throw new IOException("Corrupt sketch archive header");
+        }
+
+        final SketchArchive archive = new SketchArchive(channel, count);
+        final ByteBuffer nameTable = channel
+                .map(FileChannel.MapMode.READ_ONLY, nameTableOffset, indexOffset - nameTableOffset)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        final ByteBuffer index = channel
+                .map(FileChannel.MapMode.READ_ONLY, indexOffset, (long) count * ENTRY_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+
+        final long[] dataOffsets = new long[count];
+        final long[] dataSizes = new long[count];
+        for (int i = 0; i < count; i++) {
+            dataOffsets[i] = index.getLong();
+            archive.hashedMagicNumbers[i] = index.getLong();
+            archive.sizes[i] = index.getInt();
+            archive.flags[i] = index.getInt();
+            archive.sParams[i] = index.getInt();
+            archive.kSizes[i] = index.getInt();
+            archive.seeds[i] = index.getInt();
+            final int nameOffset = index.getInt();
+
+            dataSizes[i] = getDataSize(archive.sizes[i], archive.flags[i]);
+            if (archive.sizes[i] < 0 || dataOffsets[i] < HEADER_SIZE
+                    || dataOffsets[i] + dataSizes[i] > nameTableOffset
+                    || dataSizes[i] > MAX_MAPPING_SIZE) {
+                throw new IOException("Corrupt sketch archive index");
+            }
+            if (nameOffset < 0 || nameOffset > nameTable.limit() - 4) {
+                throw new IOException("Corrupt sketch archive name table");
+            }
+            final int nameLength = nameTable.getInt(nameOffset);
+            if (nameLength < 0 || nameLength > nameTable.limit() - nameOffset - 4) {
+                throw new IOException("Corrupt sketch archive name table");
+            }
+            final byte[] name = new byte[nameLength];
+            nameTable.position(nameOffset + 4);
+            nameTable.get(name);
+            archive.names[i] = new String(name, StandardCharsets.UTF_8);
+        }
+
+        // map consecutive sketches together, each mapping is at most
+        // MAX_MAPPING_SIZE bytes
+        int mappingCount = 0;
+        int first = 0;
+        while (first < count) {
+            long start = dataOffsets[first];
+            long end = start + dataSizes[first];
+            int last = first + 1;
+            while (last < count) {
+                final long lastStart = Math.min(start, dataOffsets[last]);
+                final long lastEnd = Math.max(end, dataOffsets[last] + dataSizes[last]);
+                if (lastEnd - lastStart > MAX_MAPPING_SIZE) {
+                    break;
+                }
+                start = lastStart;
+                end = lastEnd;
+                last++;
+            }
+            final ByteBuffer mapping = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            for (int i = first; i < last; i++) {
+                archive.mappingIndices[i] = mappingCount;
+                archive.mappingOffsets[i] = (int) (dataOffsets[i] - start);
+            }
+            archive.mappings[mappingCount++] = mapping;
+            first = last;
+        }
+        return archive;
+    }
+
+    private static long getDataSize(int size, int flags) {
+        final long result = (long) size * ((flags & FLAG_ABUNDANCES) != 0 ? 12 : 8);
+        return (result + 7) & ~7L;
+    }
+
+    /**
+     * Returns the number of sketches.
+     * @return
+     */
+    public int size() {
+        return this.names.length;
+    }
+
+    public String getName(int index) {
+        return this.names[index];
+    }
+
+    /**
+     * Returns the number of hash values of the sketch.
+     * @param index
+     * @return
+     */
+    public int getSketchSize(int index) {
+        return this.sizes[index];
+    }
+
+    public boolean hasAbundances(int index) {
+        return (this.flags[index] & FLAG_ABUNDANCES) != 0;
+    }
+
+    public int getSParam(int index) {
+        return this.sParams[index];
+    }
+
+    public int getKSize(int index) {
+        return this.kSizes[index];
+    }
+
+    public int getSeed(int index) {
+        return this.seeds[index];
+    }
+
+    public long getHashedMagicNumber(int index) {
+        return this.hashedMagicNumbers[index];
+    }
+
+    private ByteBuffer getData(int index, long offset, long length) {
+        final ByteBuffer data = this.mappings[this.mappingIndices[index]].duplicate();
+        final int start = this.mappingOffsets[index] + (int) offset;
+        data.position(start);
+        data.limit(start + (int) length);
+        return data.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Returns the sorted hash values of the sketch as a read-only view of the
+     * mapped file, i.e. without copying them onto the heap.
+     * @param index
+     * @return
+     */
+    public LongBuffer getHashes(int index) {
+        return this.getData(index, 0, 8L * this.sizes[index]).asLongBuffer().asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns the abundances of the sketch as a read-only view of the mapped
+     * file.
+     * @param index
+     * @return The abundances or null if the sketch has none
+     */
+    public IntBuffer getAbundances(int index) {
+        if (!this.hasAbundances(index)) {
+            return null;
+        }
+        return this.getData(index, 8L * this.sizes[index], 4L * this.sizes[index]).asIntBuffer().asReadOnlyBuffer();
+    }
+
+    /**
+     * Copies the sketch onto the heap.
+     * @param index
+     * @return
+     */
+    public FracMinHashSketch getSketch(int index) {
+        final long[] hashValues = new long[this.sizes[index]];
+        this.getHashes(index).get(hashValues);
+        int[] abundances = null;
+        if (this.hasAbundances(index)) {
+            abundances = new int[this.sizes[index]];
+            this.getAbundances(index).get(abundances);
+        }
+        return FracMinHashSketch.of(
+                this.names[index],
+                this.sParams[index],
+                this.kSizes[index],
+                this.seeds[index],
+                this.hashedMagicNumbers[index],
+                hashValues,
+                abundances);
+    }
+
+    /**
+     * Copies all sketches onto the heap.
+     * @return
+     */
+    public List<FracMinHashSketch> getSketches() {
+        final List<FracMinHashSketch> result = new ArrayList<>(this.size());
+        for (int i = 0; i < this.size(); i++) {
+            result.add(this.getSketch(i));
+        }
+        return result;
+    }
+
+    /**
+     * Closes the file. The views returned so far stay valid until they are
+     * garbage collected.
+     */
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+    /**
+     * Writes the sketches into a new archive one after another. The archive is
+     * complete once the writer is closed.
+     */
+    public static class Writer implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        private ByteBuffer index = ByteBuffer.allocate(1024 * ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        private final List<byte[]> names = new ArrayList<>();
+        private long position = HEADER_SIZE;
+        private int nameTableSize = 0;
+        private boolean isClosed = false;
+
+        public Writer(String fileName) throws IOException {
+            this(Paths.get(fileName));
+        }
+
+        public Writer(Path file) throws IOException {
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            // the header is written when closing
+            this.write(ByteBuffer.allocate(HEADER_SIZE), 0);
+        }
+
+        private void write(ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining()) {
+                position += this.channel.write(buffer, position);
+            }
+        }
+
+        /**
+         * Returns the number of sketches that were added.
+         * @return
+         */
+        public int size() {
+            return this.names.size();
+        }
+
+        /**
+         * Appends the sketch to the archive.
+         * @param name The name of the sketch in the archive
+         * @param sketch
+         * @throws IOException
+         */
+        public void add(String name, FracMinHashSketch sketch) throws IOException {
+            if (this.isClosed) {
+                throw new IOException("Sketch archive is closed");
+            }
+            final long[] hashValues = sketch.getValues();
+            final int flags = sketch.hasAbundances() ? FLAG_ABUNDANCES : 0;
+            final long dataSize = getDataSize(hashValues.length, flags);
+            if (dataSize > MAX_MAPPING_SIZE) {
+                throw new IOException("Sketch is too large for an archive: " + name);
+            }
+            final byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+            if ((long) this.nameTableSize + 4 + nameBytes.length > MAX_MAPPING_SIZE) {
+                throw new IOException("Too many sketches for an archive");
+            }
+
+            final ByteBuffer data = ByteBuffer.allocate((int) dataSize).order(ByteOrder.LITTLE_ENDIAN);
+            data.asLongBuffer().put(hashValues);
+            if (sketch.hasAbundances()) {
+                data.position(8 * hashValues.length);
+                data.asIntBuffer().put(sketch.getAbundances());
+            }
+            data.position(0);
+            this.write(data, this.position);
+
+            if (!this.index.hasRemaining()) {
+                this.index = ByteBuffer.allocate(this.index.capacity() * 2)
+                        .order(ByteOrder.LITTLE_ENDIAN)
+                        .put(this.index.flip());
+            }
+            this.index.putLong(this.position);
+            this.index.putLong(sketch.getHashedMagicNumber());
+            this.index.putInt(hashValues.length);
+            this.index.putInt(flags);
+            this.index.putInt(sketch.getSParam());
+            this.index.putInt(sketch.getKSize());
+            this.index.putInt(sketch.getSeed());
+            this.index.putInt(this.nameTableSize);
+
+            this.names.add(nameBytes);
+            this.nameTableSize += 4 + nameBytes.length;
+            this.position += dataSize;
+        }
+
+        /**
+         * Writes the name table, the index and the header and closes the file.
+         */
+        @Override
+        public void close() throws IOException {
+            if (this.isClosed) {
+                return;
+            }
+            this.isClosed = true;
+            try {
+                final long nameTableOffset = this.position;
+                final ByteBuffer nameTable = ByteBuffer.allocate((this.nameTableSize + 7) & ~7)
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                for (byte[] name : this.names) {
+                    nameTable.putInt(name.length);
+                    nameTable.put(name);
+                }
+                nameTable.position(0);
+                this.write(nameTable, nameTableOffset);
+
+                final long indexOffset = nameTableOffset + nameTable.capacity();
+                this.index.flip();
+                this.write(this.index, indexOffset);
+
+                this.header.putInt(MAGIC_INT);
+                this.header.putInt(VERSION);
+                this.header.putInt(this.names.size());
+                this.header.putInt(0);
+                this.header.putLong(nameTableOffset);
+                this.header.putLong(indexOffset);
+                this.header.flip();
+                this.write(this.header, 0);
+            } finally {
+                this.channel.close();
+            }
+        }
+    }
+}
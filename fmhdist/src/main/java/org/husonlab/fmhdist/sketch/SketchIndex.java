@@ -0,0 +1,153 @@
+package org.husonlab.fmhdist.sketch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.husonlab.fmhdist.util.LongIntHashMap;
+
+/**
+ * Inverted index from the hash values of a collection of sketches, e.g. a
+ * reference database, to the ids of the sketches that contain them. The id of
+ * a sketch is its position in the list the index was built from.
+ *
+ * The posting lists of all hash values are stored consecutively in a single
+ * int array, ordered by hash value and, within a hash value, by id. A hash map
+ * points from each hash value to the start of its posting list. Thus,
+ * comparing a query with all sketches takes one lookup per hash value of the
+ * query and one increment per shared hash value, and sketches without any
+ * shared hash value are never touched.
+ */
+public class SketchIndex {
+    private final List<FracMinHashSketch> sketches;
+    // position of each hash value in offsets, plus one
+    private final LongIntHashMap positions;
+    private final int[] offsets;
+    private final int[] postings;
+
+    /**
+     * Builds the index of the given sketches, the sketches are not copied.
+     * @param sketches
+     * @throws IllegalArgumentException if the sketches contain more than
+     * Integer.MAX_VALUE hash values in total
+     */
+    public SketchIndex(List<FracMinHashSketch> sketches) {
+        this.sketches = new ArrayList<>(sketches);
+        long total = 0;
+        for (FracMinHashSketch sketch : this.sketches) {
+            total += sketch.getValues().length;
+        }
+        if (total > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("too many hash values for a single index");
+        }
+
+        // count the sketches per hash value to lay out the posting lists, the
+        // total is only an upper bound of the distinct hash values
+        final LongIntHashMap counts = LongIntHashMap.withCappedSize(total);
+        for (FracMinHashSketch sketch : this.sketches) {
+            for (long hash : sketch.getValues()) {
+                counts.increment(hash);
+            }
+        }
+        final long[] hashes = counts.getSortedKeys(1);
+        this.offsets = new int[hashes.length + 1];
+        for (int i = 0; i < hashes.length; i++) {
+            this.offsets[i + 1] = this.offsets[i] + counts.get(hashes[i]);
+            // the counts are not needed anymore, reuse the map
+            counts.put(hashes[i], i + 1);
+        }
+        this.positions = counts;
+
+        this.postings = new int[(int) total];
+        final int[] next = Arrays.copyOf(this.offsets, hashes.length);
+        for (int id = 0; id < this.sketches.size(); id++) {
+            for (long hash : this.sketches.get(id).getValues()) {
+                this.postings[next[this.positions.get(hash) - 1]++] = id;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of sketches.
+     * @return
+     */
+    public int size() {
+        return this.sketches.size();
+    }
+
+    public FracMinHashSketch getSketch(int id) {
+        return this.sketches.get(id);
+    }
+
+    /**
+     * Returns the number of distinct hash values of all sketches.
+     * @return
+     */
+    public int getHashCount() {
+        return this.offsets.length - 1;
+    }
+
+    /**
+     * Calculates the intersection sizes of the query with all sketches in a
+     * single pass over the hash values of the query. Only sketches that share
+     * at least one hash value with the query are part of the result.
+     * @param query The hash values of the query, need to be unique
+     * @return
+     */
+    public Matches getIntersectionSizes(long[] query) {
+        final int[] intersectionSizes = new int[this.sketches.size()];
+        int[] ids = new int[64];
+        int count = 0;
+        for (long hash : query) {
+            final int position = this.positions.get(hash);
+            if (position == 0) {
+                continue;
+            }
+            final int end = this.offsets[position];
+            for (int i = this.offsets[position - 1]; i < end; i++) {
+                final int id = this.postings[i];
+                if (intersectionSizes[id]++ == 0) {
+                    if (count == ids.length) {
+                        ids = Arrays.copyOf(ids, count * 2);
+                    }
+                    ids[count++] = id;
+                }
+            }
+        }
+        Arrays.sort(ids, 0, count);
+        final int[] sizes = new int[count];
+        for (int i = 0; i < count; i++) {
+            sizes[i] = intersectionSizes[ids[i]];
+        }
+        return new Matches(Arrays.copyOf(ids, count), sizes);
+    }
+
+    /**
+     * The sketches that share hash values with a query, ordered by id.
+     */
+    public static class Matches {
+        private final int[] ids;
+        private final int[] intersectionSizes;
+
+        private Matches(int[] ids, int[] intersectionSizes) {
+            this.ids = ids;
+            this.intersectionSizes = intersectionSizes;
+        }
+
+        /**
+         * Returns the number of matched sketches.
+         * @return
+         */
+        public int size() {
+            return this.ids.length;
+        }
+
+        public int getId(int index) {
+            return this.ids[index];
+        }
+
+        public int getIntersectionSize(int index) {
+            return this.intersectionSizes[index];
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package org.husonlab.fmhdist.sketch;
+
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Intersection of sorted arrays using the (incubating) Vector API. The class
+ * must only be loaded if the jdk.incubator.vector module is available, i.e.
+ * the JVM was started with --add-modules jdk.incubator.vector. Distance
+ * checks this with isSupported() and otherwise uses the scalar merge.
+ *
+ * Both arrays are processed in blocks of one vector. Each value of the block
+ * of a is compared with all values of the block of b at once, and the block
+ * with the smaller last value is replaced by the next one. As the values of
+ * each array are unique, every value of the block of b matches at most one
+ * value of the block of a, so the matches of a block pair are the bits of the
+ * combined comparison masks. This replaces the unpredictable branches of the
+ * merge by a single comparison per block pair.
+ */
+class VectorIntersection {
+    private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+
+    private VectorIntersection() {
+    }
+
+    /**
+     * Returns true if the platform provides vectors of at least two longs.
+     * @return
+     */
+    static boolean isSupported() {
+        return SPECIES.length() >= 2;
+    }
+
+    /**
+     * Returns the number of values that are part of both sorted arrays. The
+     * values of each array need to be unique.
+     * @param a sorted array
+     * @param b sorted array
+     * @return
+     */
+    static int getIntersectionSize(long[] a, long[] b) {
+        final int lanes = SPECIES.length();
+        final int aBound = a.length - lanes;
+        final int bBound = b.length - lanes;
+        int intersectionSize = 0;
+        int i = 0;
+        int j = 0;
+        while (i <= aBound && j <= bBound) {
+            final LongVector bBlock = LongVector.fromArray(SPECIES, b, j);
+            VectorMask<Long> matches = bBlock.eq(a[i]);
+            for (int lane = 1; lane < lanes; lane++) {
+                matches = matches.or(bBlock.eq(a[i + lane]));
+            }
+            intersectionSize += matches.trueCount();
+
+            final long aLast = a[i + lanes - 1];
+            final long bLast = b[j + lanes - 1];
+            if (aLast <= bLast) {
+                i += lanes;
+            }
+            if (bLast <= aLast) {
+                j += lanes;
+            }
+        }
+
+        // the remaining values are merged, the values before i and j were
+        // already compared with all values that they can match
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                intersectionSize++;
+                i++;
+                j++;
+            }
+        }
+        return intersectionSize;
+    }
+}
@@ -0,0 +1,317 @@
+package org.husonlab.fmhdist.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Block source that inflates a local BGZF file (e.g. compressed with bgzip) in
+ * parallel. A BGZF file consists of independent gzip members, each storing
+ * its own compressed size in the header. Thus, the members can be located
+ * without inflating them. Consecutive members are combined into batches that
+ * are inflated on a shared thread pool, and the batches are supplied in the
+ * order of the file.
+ *
+ * The number of threads of the pool can be configured globally with
+ * setNumberOfThreads(). 0 disables the parallel inflation, see isEnabled().
+ */
+public class BgzfBlockSource implements ByteBlockSource {
+    public static final int DEFAULT_NUMBER_OF_THREADS = 4;
+
+    // The compressed and uncompressed sizes of a BGZF member are limited to
+    // 64 KiB
+    private static final int MAX_MEMBER_SIZE = 1 << 16;
+    private static final int BATCH_SIZE = 1 << 20;
+    private static final int HEADER_SIZE = 12;
+    private static final int TRAILER_SIZE = 8;
+    private static final int FLAG_EXTRA = 4;
+
+    private static int numberOfThreads = DEFAULT_NUMBER_OF_THREADS;
+    private static ExecutorService executor;
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private final ExecutorService batchExecutor;
+    private final int maxPendingBatches;
+    private final ArrayDeque<Future<ByteBuffer>> pendingBatches;
+    // Start of the next batch in the file
+    private long position;
+
+    /**
+     * Creates a new BgzfBlockSource that inflates the given file on the
+     * shared thread pool.
+     * @param fileName Path to the local BGZF file
+     * @throws IOException
+     */
+    public BgzfBlockSource(String fileName) throws IOException {
+        this(fileName, getExecutor(), Math.max(1, numberOfThreads));
+    }
+
+    /**
+     * Creates a new BgzfBlockSource.
+     * @param fileName Path to the local BGZF file
+     * @param executor The executor on which the batches are inflated
+     * @param parallelism The number of threads of the executor, this limits
+     * the number of batches that are inflated ahead.
+     * @throws IOException
+     */
+    public BgzfBlockSource(String fileName, ExecutorService executor, int parallelism) throws IOException {
+        this.channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+        this.fileSize = this.channel.size();
+        this.batchExecutor = executor;
+        this.maxPendingBatches = 2 * parallelism;
+        this.pendingBatches = new ArrayDeque<>(this.maxPendingBatches);
+        this.position = 0;
+    }
+
+    public static boolean isEnabled() {
+        return getNumberOfThreads() > 0;
+    }
+
+    public static synchronized int getNumberOfThreads() {
+        return numberOfThreads;
+    }
+
+    /**
+     * Sets the number of threads that inflate BGZF files. 0 disables the
+     * parallel inflation.
+     * @param threads
+     */
+    public static synchronized void setNumberOfThreads(int threads) {
+        if (threads < 0) {
+            throw new IllegalArgumentException("number of threads must not be negative");
+        }
+        if (threads != numberOfThreads && executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+        numberOfThreads = threads;
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(Math.max(1, numberOfThreads), runnable -> {
+                Thread thread = new Thread(runnable, "bgzf-inflater");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * Checks if the given file is a local BGZF file, i.e. if its first gzip
+     * member carries the BGZF block size.
+     * @param fileName Path or URL of the file
+     * @return
+     */
+    public static boolean isBgzf(String fileName) {
+        if (fileName == null || fileName.contains("://")) {
+            return false;
+        }
+        final Path path;
+        try {
+            path = Paths.get(fileName);
+        } catch (InvalidPathException e) {
+            return false;
+        }
+        if (!Files.isRegularFile(path) || !Files.isReadable(path)) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + MAX_MEMBER_SIZE);
+            while (header.hasRemaining() && channel.read(header) >= 0);
+            return getMemberSize(header.array(), 0, header.position()) > 0;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static int readShort(byte[] content, int offset) {
+        return (content[offset] & 0xff) | (content[offset + 1] & 0xff) << 8;
+    }
+
+    private static int readInt(byte[] content, int offset) {
+        return readShort(content, offset) | readShort(content, offset + 2) << 16;
+    }
+
+    /**
+     * Returns the total size of the BGZF member starting at the given offset.
+     * @param content
+     * @param offset
+     * @param length The number of available bytes after the offset
+     * @return The size of the member or -1 if the header is incomplete
+     * @throws ZipException if there is no BGZF member at the offset
+     */
+    private static int getMemberSize(byte[] content, int offset, int length) throws ZipException {
+        if (length < HEADER_SIZE) {
+            return -1;
+        }
+        if ((content[offset] & 0xff) != 0x1f || (content[offset + 1] & 0xff) != 0x8b || content[offset + 2] != 8) {
+            throw new ZipException("not in gzip format");
+        }
+        if (content[offset + 3] != FLAG_EXTRA) {
+            throw new ZipException("not in BGZF format");
+        }
+        final int extraLength = readShort(content, offset + 10);
+        if (length < HEADER_SIZE + extraLength) {
+            return -1;
+        }
+        // look for the BC subfield holding the member size - 1
+        int field = offset + HEADER_SIZE;
+        final int extraEnd = field + extraLength;
+        while (field + 4 <= extraEnd) {
+            final int fieldLength = readShort(content, field + 2);
+            if (content[field] == 'B' && content[field + 1] == 'C' && fieldLength == 2 && field + 6 <= extraEnd) {
+                final int size = readShort(content, field + 4) + 1;
+                if (size < HEADER_SIZE + extraLength + TRAILER_SIZE) {
+                    throw new ZipException("invalid BGZF block size");
+                }
+                return size;
+            }
+            field += 4 + fieldLength;
+        }
+        throw new ZipException("not in BGZF format");
+    }
+
+    /**
+     * Inflates the consecutive members in the given content.
+     * @param content
+     * @param length
+     * @return
+     * @throws IOException
+     */
+    private static ByteBuffer inflate(byte[] content, int length) throws IOException {
+        int uncompressedSize = 0;
+        for (int offset = 0; offset < length;) {
+            final int memberSize = getMemberSize(content, offset, length - offset);
+            final int size = readInt(content, offset + memberSize - 4);
+            if (size < 0 || size > MAX_MEMBER_SIZE) {
+                throw new ZipException("invalid BGZF block size");
+            }
+            uncompressedSize += size;
+            offset += memberSize;
+        }
+
+        final byte[] result = new byte[uncompressedSize];
+        final Inflater inflater = new Inflater(true);
+        final CRC32 crc = new CRC32();
+        try {
+            int resultPosition = 0;
+            int offset = 0;
+            while (offset < length) {
+                final int memberSize = getMemberSize(content, offset, length - offset);
+                final int dataStart = offset + HEADER_SIZE + readShort(content, offset + 10);
+                final int dataEnd = offset + memberSize - TRAILER_SIZE;
+                final int expectedCrc = readInt(content, dataEnd);
+                final int expectedSize = readInt(content, dataEnd + 4);
+
+                inflater.reset();
+                inflater.setInput(content, dataStart, dataEnd - dataStart);
+                int size = 0;
+                while (!inflater.finished() && size < expectedSize) {
+                    final int inflated = inflater.inflate(result, resultPosition + size, expectedSize - size);
+                    if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    size += inflated;
+                }
+                if (size != expectedSize) {
+                    throw new ZipException("corrupt BGZF block: unexpected size");
+                }
+
+                crc.reset();
+                crc.update(result, resultPosition, size);
+                if ((int) crc.getValue() != expectedCrc) {
+                    throw new ZipException("corrupt BGZF block: CRC mismatch");
+                }
+                resultPosition += size;
+                offset += memberSize;
+            }
+        } catch (DataFormatException e) {
+            throw new ZipException("corrupt BGZF block: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+        return ByteBuffer.wrap(result);
+    }
+
+    /**
+     * Reads the next complete members and submits them for inflation.
+     * @throws IOException
+     */
+    private void submitNextBatch() throws IOException {
+        final int capacity = (int) Math.min(BATCH_SIZE, this.fileSize - this.position);
+        final ByteBuffer compressed = ByteBuffer.allocate(capacity);
+        while (compressed.hasRemaining()) {
+            if (this.channel.read(compressed, this.position + compressed.position()) < 0) {
+                throw new ZipException("unexpected end of BGZF file");
+            }
+        }
+        final byte[] content = compressed.array();
+        int length = 0;
+        int memberSize;
+        while ((memberSize = getMemberSize(content, length, capacity - length)) > 0 && length + memberSize <= capacity) {
+            length += memberSize;
+        }
+        if (length == 0) {
+            throw new ZipException("unexpected end of BGZF file");
+        }
+        this.position += length;
+
+        final int batchLength = length;
+        this.pendingBatches.add(this.batchExecutor.submit(() -> inflate(content, batchLength)));
+    }
+
+    @Override
+    public ByteBuffer nextBlock() throws IOException {
+        while (true) {
+            while (this.pendingBatches.size() < this.maxPendingBatches && this.position < this.fileSize) {
+                this.submitNextBatch();
+            }
+            final Future<ByteBuffer> batch = this.pendingBatches.poll();
+            if (batch == null) {
+                return null;
+            }
+            final ByteBuffer result;
+            try {
+                result = batch.get();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException(e.getMessage());
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            }
+            // e.g. the empty member marking the end of the file
+            if (result.hasRemaining()) {
+                return result;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Future<ByteBuffer> batch : this.pendingBatches) {
+            batch.cancel(false);
+        }
+        this.pendingBatches.clear();
+        this.channel.close();
+    }
+}
@@ -0,0 +1,281 @@
+package org.husonlab.fmhdist.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterator that produces k-mers of a fixed size for a FASTA file that is
+ * supplied as consecutive blocks of bytes. The blocks are scanned in place,
+ * thus no lines or strings are created and no charset decoding takes place.
+ * K-mers will never span multiple sequences in the FASTA, but they may span
+ * multiple blocks.
+ *
+ * The k-mers, reverse complements and coordinates are identical to the ones
+ * of the LineKMerIterator. All characters other than A, C, G and T (and N if
+ * ambiguous bases are not skipped) are treated as ambiguous bases.
+ */
+public class BlockKMerIterator implements KMerIterator {
+    private static final byte[] toUpperTable = new byte[256];
+    static {
+        toUpperTable['A'] = 'A';
+        toUpperTable['T'] = 'T';
+        toUpperTable['G'] = 'G';
+        toUpperTable['C'] = 'C';
+        toUpperTable['a'] = 'A';
+        toUpperTable['t'] = 'T';
+        toUpperTable['g'] = 'G';
+        toUpperTable['c'] = 'C';
+    }
+
+    private static final byte[] complementTable = new byte[256];
+    static {
+        complementTable['A'] = 'T';
+        complementTable['T'] = 'A';
+        complementTable['G'] = 'C';
+        complementTable['C'] = 'G';
+        complementTable['N'] = 'N';
+    }
+
+    // Characters that may occur inside of a sequence line without being an
+    // ambiguous base, e.g. due to Windows line endings.
+    private static final boolean[] isSkippableChar = new boolean[256];
+    static {
+        isSkippableChar['\t'] = true;
+        isSkippableChar['\r'] = true;
+        isSkippableChar[' '] = true;
+    }
+
+    private final byte[] baseTable;
+
+    private final int k;
+    private final byte[] kmer;
+    private final byte[] kmerReverseComplement;
+
+    private final ByteBlockSource source;
+    private ByteBuffer block;
+    private int blockPointer;
+    private int blockLimit;
+
+    // The last k bases, the oldest one is at basesPointer
+    private final byte[] bases;
+    private int basesPointer;
+    // Number of consecutive valid bases, capped at k + 1
+    private int run;
+
+    private boolean isAtLineStart;
+    private boolean isInHeader;
+    private boolean isPreloaded;
+    private boolean isEOF;
+
+    // Indices of the record that is currently scanned
+    private int recordIndexInFile = -1;
+    private int basesInRecord = 0;
+    private int kmersInRecord = 0;
+    private int kmersBeforeRecord = 0;
+    private int positionsBeforeRecord = 0;
+
+    // Indices of the k-mer returned by the last call to next()
+    private int currentRecordIndexInFile;
+    private int currentSequenceIndexInRecord;
+    private int currentSequenceIndexInFile;
+    private int currentSequenceIndexInRecordIncludingAmbiguous;
+    private int currentSequenceIndexInFileIncludingAmbiguous;
+
+    /**
+     * Creates a new BlockKMerIterator that decomposes the content of the given
+     * block source into its k-mers.
+     * @param k The k-mer size to apply
+     * @param source The source that supplies the blocks of the FASTA file
+     * @param skipN Bool flag, if set to false, k-mers containing ambiguous
+     * bases won't be skipped.
+     */
+    public BlockKMerIterator(int k, ByteBlockSource source, boolean skipN) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be positive");
+        }
+        this.k = k;
+        this.kmer = new byte[k];
+        this.kmerReverseComplement = new byte[k];
+        this.bases = new byte[k];
+
+        this.baseTable = toUpperTable.clone();
+        if (!skipN) {
+            this.baseTable['N'] = 'N';
+            this.baseTable['n'] = 'N';
+        }
+        this.source = source;
+        this.isAtLineStart = true;
+    }
+
+    private void finishRecord() {
+        // The positions of a record end at the start of the next k-mer that
+        // would have been possible.
+        if (this.run >= this.k) {
+            this.positionsBeforeRecord += this.basesInRecord - this.k + 1;
+        } else {
+            this.positionsBeforeRecord += this.basesInRecord - this.run;
+        }
+        this.kmersBeforeRecord += this.kmersInRecord;
+    }
+
+    private void startRecord() {
+        if (this.recordIndexInFile >= 0) {
+            this.finishRecord();
+        }
+        this.recordIndexInFile++;
+        this.basesInRecord = 0;
+        this.kmersInRecord = 0;
+        this.run = 0;
+    }
+
+    /**
+     * Scans the blocks until the next valid k-mer is complete or the file is
+     * exhausted.
+     */
+    private void preload() {
+        try {
+            while (true) {
+                if (this.blockPointer >= this.blockLimit) {
+                    this.block = this.source.nextBlock();
+                    if (this.block == null) {
+                        this.isEOF = true;
+                        return;
+                    }
+                    this.blockPointer = this.block.position();
+                    this.blockLimit = this.block.limit();
+                    continue;
+                }
+                final byte current = this.block.get(this.blockPointer++);
+                if (current == '\n') {
+                    this.isInHeader = false;
+                    this.isAtLineStart = true;
+                    continue;
+                }
+                if (this.isInHeader) {
+                    continue;
+                }
+                if (this.isAtLineStart && current == '>') {
+                    // New sequences only start at the beginning of a line
+                    this.isInHeader = true;
+                    this.startRecord();
+                    continue;
+                }
+                this.isAtLineStart = false;
+                if (isSkippableChar[current & 0xff]) {
+                    continue;
+                }
+                if (this.recordIndexInFile < 0) {
+                    // sequence without header
+                    this.startRecord();
+                }
+
+                this.basesInRecord++;
+                final byte base = this.baseTable[current & 0xff];
+                if (base == 0) {
+                    this.run = 0;
+                    continue;
+                }
+                this.bases[this.basesPointer] = base;
+                if (++this.basesPointer == this.k) {
+                    this.basesPointer = 0;
+                }
+                if (this.run <= this.k) {
+                    this.run++;
+                }
+                if (this.run >= this.k) {
+                    this.isPreloaded = true;
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (!this.isPreloaded && !this.isEOF) {
+            this.preload();
+        }
+        return this.isPreloaded;
+    }
+
+    @Override
+    public byte[] next() {
+        if (!this.hasNext()) {
+            throw new NoSuchElementException();
+        }
+        if (this.run > this.k) {
+            // The previous k-mer was the predecessor of this one
+            final byte last = this.bases[this.basesPointer == 0 ? this.k - 1 : this.basesPointer - 1];
+            System.arraycopy(this.kmer, 1, this.kmer, 0, this.k - 1);
+            System.arraycopy(this.kmerReverseComplement, 0, this.kmerReverseComplement, 1, this.k - 1);
+            this.kmer[this.k - 1] = last;
+            this.kmerReverseComplement[0] = complementTable[last];
+        } else {
+            for (int i = 0; i < this.k; i++) {
+                final byte base = this.bases[(this.basesPointer + i) % this.k];
+                this.kmer[i] = base;
+                this.kmerReverseComplement[this.k - i - 1] = complementTable[base];
+            }
+        }
+
+        this.currentRecordIndexInFile = this.recordIndexInFile;
+        this.currentSequenceIndexInRecord = this.kmersInRecord;
+        this.currentSequenceIndexInFile = this.kmersBeforeRecord + this.kmersInRecord;
+        this.currentSequenceIndexInRecordIncludingAmbiguous = this.basesInRecord - this.k;
+        this.currentSequenceIndexInFileIncludingAmbiguous = this.positionsBeforeRecord + this.basesInRecord - this.k;
+        this.kmersInRecord++;
+
+        this.isPreloaded = false;
+        return this.kmer;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.block = null;
+        this.source.close();
+    }
+
+    @Override
+    public int getK() {
+        return this.k;
+    }
+
+    @Override
+    public byte[] getReverseComplement() {
+        return this.kmerReverseComplement;
+    }
+
+    @Override
+    public KMerCoordinates getCoordinates() {
+        return new KMerCoordinates(
+            this.currentRecordIndexInFile,
+            this.currentSequenceIndexInFile,
+            this.currentSequenceIndexInRecord,
+            this.currentSequenceIndexInFileIncludingAmbiguous,
+            this.currentSequenceIndexInRecordIncludingAmbiguous,
+            this.kmer
+        );
+    }
+
+    @Override
+    public void addCoordinates(CoordinateBuffer coordinates, long hash) {
+        coordinates.add(
+            this.currentRecordIndexInFile,
+            this.currentSequenceIndexInFile,
+            this.currentSequenceIndexInRecord,
+            this.currentSequenceIndexInFileIncludingAmbiguous,
+            this.currentSequenceIndexInRecordIncludingAmbiguous,
+            this.kmer,
+            hash
+        );
+    }
+
+    @Override
+    public void addToHistogram(CoordinateHistogram histogram, boolean isInSketch) {
+        histogram.add(this.currentRecordIndexInFile, this.currentSequenceIndexInRecordIncludingAmbiguous, this.kmer, isInSketch);
+    }
+}
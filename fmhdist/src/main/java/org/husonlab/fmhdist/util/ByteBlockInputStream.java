@@ -0,0 +1,58 @@
+package org.husonlab.fmhdist.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * InputStream that reads the consecutive blocks of a ByteBlockSource.
+ */
+public class ByteBlockInputStream extends InputStream {
+    private final ByteBlockSource source;
+    private ByteBuffer block;
+    private boolean isEOF;
+
+    public ByteBlockInputStream(ByteBlockSource source) {
+        this.source = source;
+    }
+
+    private boolean ensureBlock() throws IOException {
+        while (!this.isEOF && (this.block == null || !this.block.hasRemaining())) {
+            this.block = this.source.nextBlock();
+            this.isEOF = this.block == null;
+        }
+        return !this.isEOF;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!this.ensureBlock()) {
+            return -1;
+        }
+        return this.block.get() & 0xff;
+    }
+
+    @Override
+    public int read(byte[] target, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (!this.ensureBlock()) {
+            return -1;
+        }
+        final int count = Math.min(length, this.block.remaining());
+        this.block.get(target, offset, count);
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return this.block == null ? 0 : this.block.remaining();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.block = null;
+        this.source.close();
+    }
+}
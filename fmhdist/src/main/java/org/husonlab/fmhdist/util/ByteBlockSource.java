@@ -0,0 +1,21 @@
+package org.husonlab.fmhdist.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Source of the consecutive blocks of a file, e.g. memory-mapped windows or
+ * decompressed chunks.
+ */
+public interface ByteBlockSource extends Closeable {
+    /**
+     * Returns the next block of the file. The content of the block lies
+     * between its position and its limit. A block may be reused by the source
+     * once the next block is requested, thus callers must not keep references
+     * to previous blocks.
+     * @return The next block, or null if the file is exhausted
+     * @throws IOException
+     */
+    public ByteBuffer nextBlock() throws IOException;
+}
@@ -0,0 +1,175 @@
+package org.husonlab.fmhdist.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import jloda.util.FileUtils;
+
+/**
+ * Reader that supplies the lines of a stream as raw bytes. Other than a
+ * BufferedReader, no charset decoding takes place and no objects are created
+ * per line: the current line is a slice of a single reusable buffer, see
+ * getBuffer(), getStart() and getLength(). The slice is only valid until the
+ * next call to readLine().
+ *
+ * As with BufferedReader.readLine(), lines are terminated by "\n" or "\r\n"
+ * and the terminator is not part of the line. The last line does not need to
+ * be terminated.
+ */
+public class ByteLineReader implements Closeable {
+    private static final int INITIAL_BUFFER_SIZE = 1 << 16;
+
+    private final InputStream stream;
+    private byte[] buffer;
+    // Number of valid bytes in the buffer
+    private int limit;
+    private int lineStart;
+    private int lineEnd;
+    // Start of the next line
+    private int position;
+    // Offset of the first byte of the buffer in the stream
+    private long bufferOffset;
+    private boolean isEOF;
+
+    /**
+     * Creates a new ByteLineReader.
+     * @param stream The stream to read from, it is closed with this reader
+     */
+    public ByteLineReader(InputStream stream) {
+        this.stream = stream;
+        this.buffer = new byte[INITIAL_BUFFER_SIZE];
+    }
+
+    /**
+     * Creates a new ByteLineReader.
+     * @param fileName Path to the file to read. This could also be a URL or a
+     * path to a zip/gzip file.
+     * @throws IOException
+     */
+    public ByteLineReader(String fileName) throws IOException {
+        this(FileUtils.getInputStreamPossiblyZIPorGZIP(fileName));
+    }
+
+    /**
+     * Advances to the next line.
+     * @return false if there are no more lines
+     * @throws IOException
+     */
+    public boolean readLine() throws IOException {
+        int scan = this.position;
+        while (true) {
+            for (; scan < this.limit; scan++) {
+                if (this.buffer[scan] == '\n') {
+                    this.setLine(this.position, scan);
+                    this.position = scan + 1;
+                    return true;
+                }
+            }
+            if (this.isEOF) {
+                if (this.position < this.limit) {
+                    this.setLine(this.position, this.limit);
+                    this.position = this.limit;
+                    return true;
+                }
+                this.lineStart = this.lineEnd = this.limit;
+                return false;
+            }
+            scan -= this.position;
+            this.fill();
+        }
+    }
+
+    private void setLine(int start, int end) {
+        this.lineStart = start;
+        this.lineEnd = end > start && this.buffer[end - 1] == '\r' ? end - 1 : end;
+    }
+
+    /**
+     * Moves the unfinished line to the front of the buffer and reads more
+     * bytes. The buffer grows if a single line does not fit.
+     * @throws IOException
+     */
+    private void fill() throws IOException {
+        final int remaining = this.limit - this.position;
+        this.bufferOffset += this.position;
+        if (this.position > 0) {
+            System.arraycopy(this.buffer, this.position, this.buffer, 0, remaining);
+        } else if (remaining == this.buffer.length) {
+            this.buffer = Arrays.copyOf(this.buffer, 2 * this.buffer.length);
+        }
+        this.position = 0;
+        this.limit = remaining;
+        final int read = this.stream.read(this.buffer, this.limit, this.buffer.length - this.limit);
+        if (read < 0) {
+            this.isEOF = true;
+        } else {
+            this.limit += read;
+        }
+    }
+
+    /**
+     * @return The buffer holding the current line
+     */
+    public byte[] getBuffer() {
+        return this.buffer;
+    }
+
+    /**
+     * @return The index of the first byte of the current line in the buffer
+     */
+    public int getStart() {
+        return this.lineStart;
+    }
+
+    /**
+     * @return The number of bytes of the current line
+     */
+    public int getLength() {
+        return this.lineEnd - this.lineStart;
+    }
+
+    /**
+     * @return The offset of the first byte of the current line in the stream
+     */
+    public long getLineOffset() {
+        return this.bufferOffset + this.lineStart;
+    }
+
+    /**
+     * @return The number of bytes of the current line including its
+     * terminator, i.e. the distance to the start of the next line
+     */
+    public int getLineWidth() {
+        return this.position - this.lineStart;
+    }
+
+    /**
+     * Copies the current line into the given array.
+     * @param target The array to copy to
+     * @return The target, or a new array if the target is too small
+     */
+    public byte[] copyLine(byte[] target) {
+        final int length = this.getLength();
+        if (target.length < length) {
+            target = new byte[Math.max(length, 2 * target.length)];
+        }
+        System.arraycopy(this.buffer, this.lineStart, target, 0, length);
+        return target;
+    }
+
+    /**
+     * @return The current line decoded as UTF-8, e.g. for short lines of
+     * configuration files
+     */
+    public String getLineAsString() {
+        return new String(this.buffer, this.lineStart, this.getLength(), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.stream.close();
+    }
+}
@@ -0,0 +1,376 @@
+package org.husonlab.fmhdist.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Growable columnar store of k-mer coordinates. Instead of one KMerCoordinates
+ * object per k-mer, each field is kept in a primitive array and the k-mers are
+ * packed with 2 bits per base. Bases other than A, C, G and T (e.g. N if
+ * ambiguous k-mers are not skipped) are marked in a separate bit mask that is
+ * only allocated once such a base occurs.
+ *
+ * The buffer can be written in a compact binary format, see write(), that is
+ * read by the CoordinateReader, or in the CSV format of
+ * KMerCoordinates.toString(), see writeText().
+ */
+public class CoordinateBuffer {
+    public static final int MAGIC_INT = 1213415761;
+    public static final int VERSION = 1;
+    // magic number, version, k, count
+    public static final int HEADER_SIZE = 4 + 4 + 4 + 8;
+
+    private static final int DEFAULT_CAPACITY = 64;
+    private static final int BASES_PER_WORD = 32;
+    private static final byte[] BASES = new byte[] { 'A', 'C', 'G', 'T' };
+    private static final byte AMBIGUOUS_BASE = 'N';
+
+    private static final byte[] baseCodes = new byte[256];
+    static {
+        Arrays.fill(baseCodes, (byte) -1);
+        baseCodes['A'] = 0;
+        baseCodes['C'] = 1;
+        baseCodes['G'] = 2;
+        baseCodes['T'] = 3;
+        baseCodes['a'] = 0;
+        baseCodes['c'] = 1;
+        baseCodes['g'] = 2;
+        baseCodes['t'] = 3;
+    }
+
+    private final int k;
+    private final int wordsPerKmer;
+    private final int maskWordsPerKmer;
+
+    private int size;
+    private int[] recordIndicesInFile;
+    private int[] sequenceIndicesInFile;
+    private int[] sequenceIndicesInRecord;
+    private int[] sequenceIndicesInFileIncludingAmbiguous;
+    private int[] sequenceIndicesInRecordIncludingAmbiguous;
+    private long[] hashes;
+    private long[] packedKmers;
+    // null as long as all k-mers consist of A, C, G and T
+    private long[] ambiguousMasks;
+
+    /**
+     * Creates a new, empty buffer.
+     * @param k The k-mer size of the coordinates
+     */
+    public CoordinateBuffer(int k) {
+        this(k, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a new, empty buffer.
+     * @param k The k-mer size of the coordinates
+     * @param initialCapacity The number of coordinates that can be added
+     * before the buffer grows
+     */
+    public CoordinateBuffer(int k, int initialCapacity) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be positive");
+        }
+        this.k = k;
+        this.wordsPerKmer = getWordsPerKmer(k);
+        this.maskWordsPerKmer = getMaskWordsPerKmer(k);
+        final int capacity = Math.max(1, initialCapacity);
+        this.recordIndicesInFile = new int[capacity];
+        this.sequenceIndicesInFile = new int[capacity];
+        this.sequenceIndicesInRecord = new int[capacity];
+        this.sequenceIndicesInFileIncludingAmbiguous = new int[capacity];
+        this.sequenceIndicesInRecordIncludingAmbiguous = new int[capacity];
+        this.hashes = new long[capacity];
+        this.packedKmers = new long[capacity * this.wordsPerKmer];
+    }
+
+    static int getWordsPerKmer(int k) {
+        return (k + BASES_PER_WORD - 1) / BASES_PER_WORD;
+    }
+
+    static int getMaskWordsPerKmer(int k) {
+        return (k + Long.SIZE - 1) / Long.SIZE;
+    }
+
+    /**
+     * Returns the size of a single coordinate in the binary format.
+     * @param k
+     * @return
+     */
+    static int getRecordSize(int k) {
+        return 5 * 4 + 8 + 8 * (getWordsPerKmer(k) + getMaskWordsPerKmer(k));
+    }
+
+    private void grow() {
+        final int capacity = this.hashes.length * 2;
+        this.recordIndicesInFile = Arrays.copyOf(this.recordIndicesInFile, capacity);
+        this.sequenceIndicesInFile = Arrays.copyOf(this.sequenceIndicesInFile, capacity);
+        this.sequenceIndicesInRecord = Arrays.copyOf(this.sequenceIndicesInRecord, capacity);
+        this.sequenceIndicesInFileIncludingAmbiguous = Arrays.copyOf(this.sequenceIndicesInFileIncludingAmbiguous, capacity);
+        this.sequenceIndicesInRecordIncludingAmbiguous = Arrays.copyOf(this.sequenceIndicesInRecordIncludingAmbiguous, capacity);
+        this.hashes = Arrays.copyOf(this.hashes, capacity);
+        this.packedKmers = Arrays.copyOf(this.packedKmers, capacity * this.wordsPerKmer);
+        if (this.ambiguousMasks != null) {
+            this.ambiguousMasks = Arrays.copyOf(this.ambiguousMasks, capacity * this.maskWordsPerKmer);
+        }
+    }
+
+    /**
+     * Adds the coordinates of a k-mer, see KMerCoordinates for the meaning of
+     * the indices.
+     * @param recordIndexInFile
+     * @param sequenceIndexInFile
+     * @param sequenceIndexInRecord
+     * @param sequenceIndexInFileIncludingAmbiguous
+     * @param sequenceIndexInRecordIncludingAmbiguous
+     * @param kmer The k-mer, it is packed, thus the array can be reused
+     * @param hash The hash value of the (canonical) k-mer
+     */
+    public void add(
+        int recordIndexInFile,
+        int sequenceIndexInFile,
+        int sequenceIndexInRecord,
+        int sequenceIndexInFileIncludingAmbiguous,
+        int sequenceIndexInRecordIncludingAmbiguous,
+        byte[] kmer,
+        long hash
+    ) {
+        if (this.size == this.hashes.length) {
+            this.grow();
+        }
+        final int index = this.size++;
+        this.recordIndicesInFile[index] = recordIndexInFile;
+        this.sequenceIndicesInFile[index] = sequenceIndexInFile;
+        this.sequenceIndicesInRecord[index] = sequenceIndexInRecord;
+        this.sequenceIndicesInFileIncludingAmbiguous[index] = sequenceIndexInFileIncludingAmbiguous;
+        this.sequenceIndicesInRecordIncludingAmbiguous[index] = sequenceIndexInRecordIncludingAmbiguous;
+        this.hashes[index] = hash;
+
+        final int offset = index * this.wordsPerKmer;
+        for (int word = 0; word < this.wordsPerKmer; word++) {
+            this.packedKmers[offset + word] = 0;
+        }
+        for (int i = 0; i < this.k; i++) {
+            int code = baseCodes[kmer[i] & 0xff];
+            if (code < 0) {
+                this.markAmbiguous(index, i);
+                code = 0;
+            }
+            this.packedKmers[offset + i / BASES_PER_WORD] |= (long) code << (2 * (i % BASES_PER_WORD));
+        }
+    }
+
+    /**
+     * Adds the given coordinates.
+     * @param coordinates
+     * @param hash The hash value of the (canonical) k-mer
+     */
+    public void add(KMerCoordinates coordinates, long hash) {
+        this.add(
+            coordinates.getRecordIndexInFile(),
+            coordinates.getSequenceIndexInFile(),
+            coordinates.getSequenceIndexInRecord(),
+            coordinates.getSequenceIndexInFileIncludingAmbiguous(),
+            coordinates.getSequenceIndexInRecordIncludingAmbiguous(),
+            coordinates.getKmer(),
+            hash
+        );
+    }
+
+    private void markAmbiguous(int index, int position) {
+        if (this.ambiguousMasks == null) {
+            this.ambiguousMasks = new long[this.hashes.length * this.maskWordsPerKmer];
+        }
+        this.ambiguousMasks[index * this.maskWordsPerKmer + position / Long.SIZE] |= 1L << (position % Long.SIZE);
+    }
+
+    public int getK() {
+        return this.k;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public int getRecordIndexInFile(int index) {
+        return this.recordIndicesInFile[index];
+    }
+
+    public int getSequenceIndexInFile(int index) {
+        return this.sequenceIndicesInFile[index];
+    }
+
+    public int getSequenceIndexInRecord(int index) {
+        return this.sequenceIndicesInRecord[index];
+    }
+
+    public int getSequenceIndexInFileIncludingAmbiguous(int index) {
+        return this.sequenceIndicesInFileIncludingAmbiguous[index];
+    }
+
+    public int getSequenceIndexInRecordIncludingAmbiguous(int index) {
+        return this.sequenceIndicesInRecordIncludingAmbiguous[index];
+    }
+
+    public long getHash(int index) {
+        return this.hashes[index];
+    }
+
+    /**
+     * Unpacks the k-mer at the given index.
+     * @param index
+     * @param target An array of at least k bytes
+     * @return The target
+     */
+    public byte[] getKmer(int index, byte[] target) {
+        unpack(this.packedKmers, index * this.wordsPerKmer, this.ambiguousMasks, index * this.maskWordsPerKmer, this.k, target);
+        return target;
+    }
+
+    static void unpack(long[] words, int offset, long[] masks, int maskOffset, int k, byte[] target) {
+        for (int i = 0; i < k; i++) {
+            target[i] = BASES[(int) (words[offset + i / BASES_PER_WORD] >>> (2 * (i % BASES_PER_WORD))) & 3];
+        }
+        if (masks != null) {
+            for (int i = 0; i < k; i++) {
+                if ((masks[maskOffset + i / Long.SIZE] & 1L << (i % Long.SIZE)) != 0) {
+                    target[i] = AMBIGUOUS_BASE;
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates a KMerCoordinates object for the coordinates at the given
+     * index, e.g. for APIs that need single objects.
+     * @param index
+     * @return
+     */
+    public KMerCoordinates get(int index) {
+        final KMerCoordinates result = new KMerCoordinates(
+            this.recordIndicesInFile[index],
+            this.sequenceIndicesInFile[index],
+            this.sequenceIndicesInRecord[index],
+            this.sequenceIndicesInFileIncludingAmbiguous[index],
+            this.sequenceIndicesInRecordIncludingAmbiguous[index],
+            this.getKmer(index, new byte[this.k])
+        );
+        result.setHash(this.hashes[index]);
+        return result;
+    }
+
+    /**
+     * Returns a new buffer with all coordinates whose hash is below the given
+     * threshold, in the same order.
+     * @param threshold
+     * @return
+     */
+    public CoordinateBuffer retainHashesBelow(double threshold) {
+        final CoordinateBuffer result = new CoordinateBuffer(this.k, this.size);
+        for (int i = 0; i < this.size; i++) {
+            if (this.hashes[i] < threshold) {
+                result.copyFrom(this, i);
+            }
+        }
+        return result;
+    }
+
+    private void copyFrom(CoordinateBuffer other, int index) {
+        if (this.size == this.hashes.length) {
+            this.grow();
+        }
+        final int target = this.size++;
+        this.recordIndicesInFile[target] = other.recordIndicesInFile[index];
+        this.sequenceIndicesInFile[target] = other.sequenceIndicesInFile[index];
+        this.sequenceIndicesInRecord[target] = other.sequenceIndicesInRecord[index];
+        this.sequenceIndicesInFileIncludingAmbiguous[target] = other.sequenceIndicesInFileIncludingAmbiguous[index];
+        this.sequenceIndicesInRecordIncludingAmbiguous[target] = other.sequenceIndicesInRecordIncludingAmbiguous[index];
+        this.hashes[target] = other.hashes[index];
+        System.arraycopy(other.packedKmers, index * this.wordsPerKmer, this.packedKmers, target * this.wordsPerKmer, this.wordsPerKmer);
+        if (other.ambiguousMasks != null) {
+            if (this.ambiguousMasks == null) {
+                this.ambiguousMasks = new long[this.hashes.length * this.maskWordsPerKmer];
+            }
+            System.arraycopy(other.ambiguousMasks, index * this.maskWordsPerKmer, this.ambiguousMasks, target * this.maskWordsPerKmer, this.maskWordsPerKmer);
+        }
+    }
+
+    /**
+     * Writes the coordinates in the binary format. All values are encoded in
+     * little endian in the following order:
+     *
+     * 1. Magic Number (4B)
+     * 2. Version (4B)
+     * 3. K Size (4B)
+     * 4. Number of coordinates (8B)
+     * 5. The coordinates, each consisting of
+     *    - the record index in the file, the sequence index in the file, the
+     *      sequence index in the record and the latter two including
+     *      ambiguous k-mers (5 x 4B)
+     *    - the hash (8B)
+     *    - the 2-bit packed k-mer, the first base in the lowest bits
+     *      (ceil(k/32) x 8B)
+     *    - the mask of ambiguous bases, the first base in the lowest bit
+     *      (ceil(k/64) x 8B)
+     *
+     * The stream is not closed.
+     * @param stream
+     * @throws IOException
+     */
+    public void write(OutputStream stream) throws IOException {
+        final int recordSize = getRecordSize(this.k);
+        final ByteBuffer buffer = ByteBuffer.allocate(Math.max(HEADER_SIZE, recordSize) * 1024).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC_INT);
+        buffer.putInt(VERSION);
+        buffer.putInt(this.k);
+        buffer.putLong(this.size);
+        for (int i = 0; i < this.size; i++) {
+            if (buffer.remaining() < recordSize) {
+                stream.write(buffer.array(), 0, buffer.position());
+                buffer.clear();
+            }
+            buffer.putInt(this.recordIndicesInFile[i]);
+            buffer.putInt(this.sequenceIndicesInFile[i]);
+            buffer.putInt(this.sequenceIndicesInRecord[i]);
+            buffer.putInt(this.sequenceIndicesInFileIncludingAmbiguous[i]);
+            buffer.putInt(this.sequenceIndicesInRecordIncludingAmbiguous[i]);
+            buffer.putLong(this.hashes[i]);
+            for (int word = 0; word < this.wordsPerKmer; word++) {
+                buffer.putLong(this.packedKmers[i * this.wordsPerKmer + word]);
+            }
+            for (int word = 0; word < this.maskWordsPerKmer; word++) {
+                buffer.putLong(this.ambiguousMasks == null ? 0 : this.ambiguousMasks[i * this.maskWordsPerKmer + word]);
+            }
+        }
+        stream.write(buffer.array(), 0, buffer.position());
+    }
+
+    /**
+     * Writes the coordinates as CSV, one line per coordinate in the format of
+     * KMerCoordinates.toString(). The writer is not closed.
+     * @param writer
+     * @throws IOException
+     */
+    public void writeText(Writer writer) throws IOException {
+        final StringBuilder line = new StringBuilder();
+        final byte[] kmer = new byte[this.k];
+        for (int i = 0; i < this.size; i++) {
+            line.setLength(0);
+            line.append(this.recordIndicesInFile[i]).append(',')
+                .append(this.sequenceIndicesInFile[i]).append(',')
+                .append(this.sequenceIndicesInRecord[i]).append(',')
+                .append(this.sequenceIndicesInFileIncludingAmbiguous[i]).append(',')
+                .append(this.sequenceIndicesInRecordIncludingAmbiguous[i]).append(',');
+            this.getKmer(i, kmer);
+            for (byte base : kmer) {
+                line.append((char) base);
+            }
+            line.append(',').append(this.hashes[i]).append(",0\n");
+            writer.append(line);
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package org.husonlab.fmhdist.util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Streaming histogram of the positions of sketch hashes. Instead of keeping
+ * the coordinates of all k-mers of the sketch, the k-mers are counted in
+ * fixed-size windows per record while sketching, i.e. a window contains the
+ * k-mers whose sequence index in the record (including ambiguous k-mers)
+ * starts in it. This is the binning of the density analysis scripts in misc.
+ *
+ * Optionally, the histogram also tracks the complexity of the windows: the
+ * number of valid k-mers, the GC content of their first bases and the Shannon
+ * entropy of their first dinucleotides, normalized to [0, 1]. Low values of
+ * the latter indicate repetitive, low complexity sequences. For this, every
+ * k-mer needs to be added, not only the ones of the sketch.
+ *
+ * The k-mers need to be added in the order of the iterator, i.e. by ascending
+ * record and position. A window is finalized as soon as a later window is
+ * reached, thus only one window keeps intermediate counts. Windows between
+ * two k-mers are added with zero counts, windows after the last k-mer of a
+ * record (and records without any k-mer) are not part of the histogram.
+ */
+public class CoordinateHistogram {
+    private static final int DEFAULT_CAPACITY = 1024;
+    private static final double MAX_DINUCLEOTIDE_ENTROPY = 4;
+
+    private static final byte[] baseCodes = new byte[256];
+    static {
+        Arrays.fill(baseCodes, (byte) -1);
+        baseCodes['A'] = 0;
+        baseCodes['C'] = 1;
+        baseCodes['G'] = 2;
+        baseCodes['T'] = 3;
+        baseCodes['a'] = 0;
+        baseCodes['c'] = 1;
+        baseCodes['g'] = 2;
+        baseCodes['t'] = 3;
+    }
+
+    private final int windowSize;
+    private final boolean trackComplexity;
+
+    // one entry per window
+    private int size;
+    private int[] records;
+    private int[] windows;
+    private int[] hashCounts;
+    private int[] kmerCounts;
+    private int[] gcCounts;
+    private float[] entropies;
+
+    // the current, not yet finalized window is the last entry
+    private boolean isOpen;
+    private final int[] dinucleotideCounts;
+
+    /**
+     * Creates a new, empty histogram.
+     * @param windowSize The number of positions per window
+     * @param trackComplexity Flag to indicate if the complexity of the
+     * windows should be tracked
+     */
+    public CoordinateHistogram(int windowSize, boolean trackComplexity) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("window size must be positive");
+        }
+        this.windowSize = windowSize;
+        this.trackComplexity = trackComplexity;
+        this.records = new int[DEFAULT_CAPACITY];
+        this.windows = new int[DEFAULT_CAPACITY];
+        this.hashCounts = new int[DEFAULT_CAPACITY];
+        if (trackComplexity) {
+            this.kmerCounts = new int[DEFAULT_CAPACITY];
+            this.gcCounts = new int[DEFAULT_CAPACITY];
+            this.entropies = new float[DEFAULT_CAPACITY];
+            this.dinucleotideCounts = new int[16];
+        } else {
+            this.dinucleotideCounts = null;
+        }
+    }
+
+    public int getWindowSize() {
+        return this.windowSize;
+    }
+
+    /**
+     * Returns true if every k-mer needs to be added to track the complexity,
+     * not only the ones of the sketch.
+     * @return
+     */
+    public boolean isTrackingComplexity() {
+        return this.trackComplexity;
+    }
+
+    /**
+     * Adds a k-mer.
+     * @param recordIndexInFile The index of the record of the k-mer
+     * @param sequenceIndexInRecordIncludingAmbiguous The start of the k-mer in
+     * the record
+     * @param kmer The k-mer, only used if the complexity is tracked
+     * @param isInSketch Flag to indicate if the hash of the k-mer is part of
+     * the sketch
+     */
+    public void add(int recordIndexInFile, int sequenceIndexInRecordIncludingAmbiguous, byte[] kmer, boolean isInSketch) {
+        this.moveTo(recordIndexInFile, sequenceIndexInRecordIncludingAmbiguous / this.windowSize);
+        final int index = this.size - 1;
+        if (isInSketch) {
+            this.hashCounts[index]++;
+        }
+        if (this.trackComplexity) {
+            this.kmerCounts[index]++;
+            final int first = baseCodes[kmer[0] & 0xff];
+            if (first == 1 || first == 2) {
+                this.gcCounts[index]++;
+            }
+            if (kmer.length > 1) {
+                final int second = baseCodes[kmer[1] & 0xff];
+                if (first >= 0 && second >= 0) {
+                    this.dinucleotideCounts[first * 4 + second]++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes the given window the current one, all windows in between are
+     * added with zero counts.
+     */
+    private void moveTo(int record, int window) {
+        if (this.isOpen) {
+            final int last = this.size - 1;
+            if (this.records[last] == record && this.windows[last] == window) {
+                return;
+            }
+            if (this.records[last] > record || (this.records[last] == record && this.windows[last] > window)) {
+                throw new IllegalArgumentException("k-mers need to be added in ascending order");
+            }
+            this.finish();
+        }
+        int next = 0;
+        if (this.size > 0 && this.records[this.size - 1] == record) {
+            next = this.windows[this.size - 1] + 1;
+        }
+        for (; next <= window; next++) {
+            this.append(record, next);
+        }
+        this.isOpen = true;
+    }
+
+    private void append(int record, int window) {
+        if (this.size == this.records.length) {
+            final int capacity = this.size * 2;
+            this.records = Arrays.copyOf(this.records, capacity);
+            this.windows = Arrays.copyOf(this.windows, capacity);
+            this.hashCounts = Arrays.copyOf(this.hashCounts, capacity);
+            if (this.trackComplexity) {
+                this.kmerCounts = Arrays.copyOf(this.kmerCounts, capacity);
+                this.gcCounts = Arrays.copyOf(this.gcCounts, capacity);
+                this.entropies = Arrays.copyOf(this.entropies, capacity);
+            }
+        }
+        this.records[this.size] = record;
+        this.windows[this.size] = window;
+        this.size++;
+    }
+
+    /**
+     * Finalizes the current window, this needs to be called after the last
+     * k-mer was added.
+     */
+    public void finish() {
+        if (!this.isOpen) {
+            return;
+        }
+        this.isOpen = false;
+        if (!this.trackComplexity) {
+            return;
+        }
+        int total = 0;
+        for (int count : this.dinucleotideCounts) {
+            total += count;
+        }
+        double entropy = 0;
+        for (int i = 0; i < this.dinucleotideCounts.length; i++) {
+            if (this.dinucleotideCounts[i] > 0) {
+                final double p = this.dinucleotideCounts[i] / (double) total;
+                entropy -= p * Math.log(p) / Math.log(2);
+            }
+            this.dinucleotideCounts[i] = 0;
+        }
+        this.entropies[this.size - 1] = (float) (entropy / MAX_DINUCLEOTIDE_ENTROPY);
+    }
+
+    /**
+     * Returns the number of windows.
+     * @return
+     */
+    public int size() {
+        return this.size;
+    }
+
+    public int getRecordIndexInFile(int index) {
+        return this.records[index];
+    }
+
+    /**
+     * Returns the first position of the window in its record.
+     * @param index
+     * @return
+     */
+    public long getWindowStart(int index) {
+        return (long) this.windows[index] * this.windowSize;
+    }
+
+    /**
+     * Returns the number of k-mers of the sketch in the window.
+     * @param index
+     * @return
+     */
+    public int getHashCount(int index) {
+        return this.hashCounts[index];
+    }
+
+    /**
+     * Returns the number of valid k-mers in the window, only available if the
+     * complexity is tracked.
+     * @param index
+     * @return
+     */
+    public int getKmerCount(int index) {
+        return this.kmerCounts[index];
+    }
+
+    /**
+     * Returns the fraction of G and C among the first bases of the k-mers in
+     * the window, only available if the complexity is tracked.
+     * @param index
+     * @return
+     */
+    public double getGCContent(int index) {
+        return this.kmerCounts[index] == 0 ? 0 : this.gcCounts[index] / (double) this.kmerCounts[index];
+    }
+
+    /**
+     * Returns the normalized dinucleotide entropy of the window, only
+     * available if the complexity is tracked.
+     * @param index
+     * @return
+     */
+    public double getEntropy(int index) {
+        return this.entropies[index];
+    }
+
+    /**
+     * Writes the histogram as tab separated values with a header line. The
+     * columns are the record index, the window start and the number of sketch
+     * hashes, followed by the number of k-mers, the GC content and the
+     * entropy if the complexity is tracked. The writer is not closed.
+     * @param writer
+     * @throws IOException
+     */
+    public void write(Writer writer) throws IOException {
+        this.finish();
+        writer.write(this.trackComplexity ? "#record\tstart\thashes\tkmers\tgc\tentropy\n" : "#record\tstart\thashes\n");
+        final StringBuilder line = new StringBuilder();
+        for (int i = 0; i < this.size; i++) {
+            line.setLength(0);
+            line.append(this.records[i]).append('\t')
+                .append(this.getWindowStart(i)).append('\t')
+                .append(this.hashCounts[i]);
+            if (this.trackComplexity) {
+                line.append('\t').append(this.kmerCounts[i])
+                    .append('\t').append(String.format(Locale.ROOT, "%.4f", this.getGCContent(i)))
+                    .append('\t').append(String.format(Locale.ROOT, "%.4f", this.getEntropy(i)));
+            }
+            line.append('\n');
+            writer.append(line);
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package org.husonlab.fmhdist.util;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import jloda.util.FileUtils;
+
+/**
+ * Streaming reader for coordinate files written by CoordinateBuffer.write().
+ * The coordinates are read one after another into reusable fields, see next()
+ * and the getters, thus even large files are read without creating an object
+ * per k-mer. This replaces parsing the CSV lines with
+ * KMerCoordinates.fromString().
+ */
+public class CoordinateReader implements Closeable {
+    private static final int RECORDS_PER_READ = 1024;
+
+    private final DataInputStream stream;
+    private final int k;
+    private final long count;
+    private final int wordsPerKmer;
+    private final int maskWordsPerKmer;
+    private final int recordSize;
+
+    private final ByteBuffer buffer;
+    private final long[] words;
+    private final long[] masks;
+    private final byte[] kmer;
+    private long remaining;
+
+    private int recordIndexInFile;
+    private int sequenceIndexInFile;
+    private int sequenceIndexInRecord;
+    private int sequenceIndexInFileIncludingAmbiguous;
+    private int sequenceIndexInRecordIncludingAmbiguous;
+    private long hash;
+
+    /**
+     * Opens a coordinate file.
+     * @param fileName Path to the file. This could also be a URL or a path to
+     * a zip/gzip file.
+     * @throws IOException if the file is not a coordinate file
+     */
+    public CoordinateReader(String fileName) throws IOException {
+        this(FileUtils.getInputStreamPossiblyZIPorGZIP(fileName));
+    }
+
+    /**
+     * Creates a reader for the given stream and reads the header.
+     * @param stream The stream to read from, it is closed with this reader
+     * @throws IOException if the stream does not contain coordinates
+     */
+    public CoordinateReader(InputStream stream) throws IOException {
+        this.stream = new DataInputStream(stream);
+        final ByteBuffer header = ByteBuffer.allocate(CoordinateBuffer.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            this.stream.readFully(header.array());
+        } catch (EOFException e) {
+            this.stream.close();
+            throw new IOException("incomplete coordinate file header", e);
+        }
+        if (header.getInt() != CoordinateBuffer.MAGIC_INT) {
+            this.stream.close();
+            throw new IOException("not a coordinate file");
+        }
+        final int version = header.getInt();
+        if (version != CoordinateBuffer.VERSION) {
+            this.stream.close();
+            throw new IOException("unsupported coordinate file version " + version);
+        }
+        this.k = header.getInt();
+        this.count = header.getLong();
+        if (this.k < 1 || this.count < 0) {
+            this.stream.close();
+            throw new IOException("invalid coordinate file header");
+        }
+        this.remaining = this.count;
+        this.wordsPerKmer = CoordinateBuffer.getWordsPerKmer(this.k);
+        this.maskWordsPerKmer = CoordinateBuffer.getMaskWordsPerKmer(this.k);
+        this.recordSize = CoordinateBuffer.getRecordSize(this.k);
+        this.buffer = ByteBuffer.allocate(this.recordSize * RECORDS_PER_READ).order(ByteOrder.LITTLE_ENDIAN);
+        this.buffer.limit(0);
+        this.words = new long[this.wordsPerKmer];
+        this.masks = new long[this.maskWordsPerKmer];
+        this.kmer = new byte[this.k];
+    }
+
+    public int getK() {
+        return this.k;
+    }
+
+    /**
+     * Returns the number of coordinates in the file.
+     * @return
+     */
+    public long getCount() {
+        return this.count;
+    }
+
+    /**
+     * Advances to the next coordinates.
+     * @return false if all coordinates have been read
+     * @throws IOException
+     */
+    public boolean next() throws IOException {
+        if (this.remaining == 0) {
+            return false;
+        }
+        if (!this.buffer.hasRemaining()) {
+            final int records = (int) Math.min(RECORDS_PER_READ, this.remaining);
+            this.buffer.clear();
+            try {
+                this.stream.readFully(this.buffer.array(), 0, records * this.recordSize);
+            } catch (EOFException e) {
+                throw new IOException("coordinate file is truncated", e);
+            }
+            this.buffer.limit(records * this.recordSize);
+        }
+        this.recordIndexInFile = this.buffer.getInt();
+        this.sequenceIndexInFile = this.buffer.getInt();
+        this.sequenceIndexInRecord = this.buffer.getInt();
+        this.sequenceIndexInFileIncludingAmbiguous = this.buffer.getInt();
+        this.sequenceIndexInRecordIncludingAmbiguous = this.buffer.getInt();
+        this.hash = this.buffer.getLong();
+        for (int i = 0; i < this.wordsPerKmer; i++) {
+            this.words[i] = this.buffer.getLong();
+        }
+        for (int i = 0; i < this.maskWordsPerKmer; i++) {
+            this.masks[i] = this.buffer.getLong();
+        }
+        CoordinateBuffer.unpack(this.words, 0, this.masks, 0, this.k, this.kmer);
+        this.remaining--;
+        return true;
+    }
+
+    public int getRecordIndexInFile() {
+        return this.recordIndexInFile;
+    }
+
+    public int getSequenceIndexInFile() {
+        return this.sequenceIndexInFile;
+    }
+
+    public int getSequenceIndexInRecord() {
+        return this.sequenceIndexInRecord;
+    }
+
+    public int getSequenceIndexInFileIncludingAmbiguous() {
+        return this.sequenceIndexInFileIncludingAmbiguous;
+    }
+
+    public int getSequenceIndexInRecordIncludingAmbiguous() {
+        return this.sequenceIndexInRecordIncludingAmbiguous;
+    }
+
+    public long getHash() {
+        return this.hash;
+    }
+
+    /**
+     * Returns the k-mer of the current coordinates. The array is overwritten
+     * with the next call to next().
+     * @return
+     */
+    public byte[] getKmer() {
+        return this.kmer;
+    }
+
+    /**
+     * Creates a KMerCoordinates object for the current coordinates.
+     * @return
+     */
+    public KMerCoordinates getCoordinates() {
+        final KMerCoordinates result = new KMerCoordinates(
+            this.recordIndexInFile,
+            this.sequenceIndexInFile,
+            this.sequenceIndexInRecord,
+            this.sequenceIndexInFileIncludingAmbiguous,
+            this.sequenceIndexInRecordIncludingAmbiguous,
+            this.kmer
+        );
+        result.setHash(this.hash);
+        return result;
+    }
+
+    /**
+     * Reads all remaining coordinates into a new buffer.
+     * @return
+     * @throws IOException
+     */
+    public CoordinateBuffer readAll() throws IOException {
+        final CoordinateBuffer result = new CoordinateBuffer(this.k, (int) Math.min(this.remaining, Integer.MAX_VALUE / 8));
+        while (this.next()) {
+            result.add(
+                this.recordIndexInFile,
+                this.sequenceIndexInFile,
+                this.sequenceIndexInRecord,
+                this.sequenceIndexInFileIncludingAmbiguous,
+                this.sequenceIndexInRecordIncludingAmbiguous,
+                this.kmer,
+                this.hash
+            );
+        }
+        return result;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.stream.close();
+    }
+}
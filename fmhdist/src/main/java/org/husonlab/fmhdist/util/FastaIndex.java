@@ -0,0 +1,405 @@
+package org.husonlab.fmhdist.util;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import jloda.util.FileUtils;
+
+/**
+ * Index of a FASTA file in the format of samtools faidx (.fai). For each
+ * record, the index holds its name, the number of bases, the byte offset of
+ * the first base and the line geometry, i.e. the number of bases per line and
+ * the number of bytes per line including the line terminator. With this, the
+ * byte offset of any position of a record is calculated in O(1), see
+ * getByteOffset(), and the neighbourhood of a k-mer can be read from the file
+ * without scanning it, see getRegion() and read().
+ *
+ * The index can be built with a Builder while the file is decomposed by a
+ * LineKMerIterator anyways, or with build(). All lines of a record except its
+ * last line need to have the same length, otherwise the record can not be
+ * indexed. The offsets refer to the uncompressed content, thus random access
+ * requires an uncompressed file.
+ */
+public class FastaIndex {
+    public static final String EXTENSION = ".fai";
+
+    private final List<String> names;
+    private final long[] lengths;
+    private final long[] offsets;
+    private final int[] lineBases;
+    private final int[] lineWidths;
+
+    private FastaIndex(List<String> names, long[] lengths, long[] offsets, int[] lineBases, int[] lineWidths) {
+        this.names = names;
+        this.lengths = lengths;
+        this.offsets = offsets;
+        this.lineBases = lineBases;
+        this.lineWidths = lineWidths;
+    }
+
+    /**
+     * Collects the records of a FASTA file from its lines, see addLine().
+     */
+    public static class Builder {
+        private final List<String> names = new ArrayList<>();
+        private final List<long[]> entries = new ArrayList<>();
+        private String error;
+
+        // the record that is currently indexed
+        private long length;
+        private long offset;
+        private int lineBases;
+        private int lineWidth;
+        private boolean hasShortLine;
+
+        /**
+         * Adds the next line of the file, including empty lines.
+         * @param buffer The buffer holding the line
+         * @param start The index of the first byte of the line in the buffer
+         * @param length The number of bytes of the line without its terminator
+         * @param offset The offset of the line in the file
+         * @param width The number of bytes of the line including its
+         * terminator
+         */
+        public void addLine(byte[] buffer, int start, int length, long offset, int width) {
+            if (length > 0 && buffer[start] == '>') {
+                this.finishRecord();
+                int end = start + 1;
+                while (end < start + length && buffer[end] != ' ' && buffer[end] != '\t') {
+                    end++;
+                }
+                this.names.add(new String(buffer, start + 1, end - start - 1, StandardCharsets.UTF_8));
+                this.length = 0;
+                this.offset = offset + width;
+                this.lineBases = 0;
+                this.lineWidth = 0;
+                this.hasShortLine = false;
+                return;
+            }
+            if (this.names.size() == this.entries.size()) {
+                if (length > 0 && this.error == null) {
+                    this.error = "sequence before the first header";
+                }
+                return;
+            }
+            if (this.lineBases == 0) {
+                if (length == 0) {
+                    // empty lines before the sequence
+                    this.offset = offset + width;
+                    return;
+                }
+                this.offset = offset;
+                this.lineBases = length;
+                this.lineWidth = width;
+            } else if (length > 0 && (this.hasShortLine || length > this.lineBases)) {
+                if (this.error == null) {
+                    this.error = String.format("record %s has lines of different lengths", this.names.get(this.names.size() - 1));
+                }
+            }
+            if (length < this.lineBases || (width != this.lineWidth && width != 0)) {
+                this.hasShortLine = true;
+            }
+            this.length += length;
+        }
+
+        private void finishRecord() {
+            if (this.entries.size() < this.names.size()) {
+                this.entries.add(new long[] { this.length, this.offset, this.lineBases, this.lineWidth });
+            }
+        }
+
+        /**
+         * Creates the index of all lines added so far.
+         * @return A new FastaIndex
+         * @throws IOException if the file can not be indexed
+         */
+        public FastaIndex build() throws IOException {
+            if (this.error != null) {
+                throw new IOException("cannot index FASTA file: " + this.error);
+            }
+            this.finishRecord();
+            final int size = this.entries.size();
+            final long[] lengths = new long[size];
+            final long[] offsets = new long[size];
+            final int[] lineBases = new int[size];
+            final int[] lineWidths = new int[size];
+            for (int i = 0; i < size; i++) {
+                final long[] entry = this.entries.get(i);
+                lengths[i] = entry[0];
+                offsets[i] = entry[1];
+                lineBases[i] = (int) entry[2];
+                lineWidths[i] = (int) entry[3];
+            }
+            return new FastaIndex(new ArrayList<>(this.names), lengths, offsets, lineBases, lineWidths);
+        }
+    }
+
+    /**
+     * Region of a record, given by positions of the record and the
+     * corresponding byte offsets in the file.
+     */
+    public static class Region {
+        private final int recordIndex;
+        private final long start;
+        private final long end;
+        private final long byteStart;
+        private final long byteEnd;
+
+        private Region(int recordIndex, long start, long end, long byteStart, long byteEnd) {
+            this.recordIndex = recordIndex;
+            this.start = start;
+            this.end = end;
+            this.byteStart = byteStart;
+            this.byteEnd = byteEnd;
+        }
+
+        public int getRecordIndex() {
+            return this.recordIndex;
+        }
+
+        /**
+         * @return The first position of the region in the record
+         */
+        public long getStart() {
+            return this.start;
+        }
+
+        /**
+         * @return The position after the region in the record
+         */
+        public long getEnd() {
+            return this.end;
+        }
+
+        /**
+         * @return The offset of the first base of the region in the file
+         */
+        public long getByteStart() {
+            return this.byteStart;
+        }
+
+        /**
+         * @return The offset after the last base of the region in the file
+         */
+        public long getByteEnd() {
+            return this.byteEnd;
+        }
+    }
+
+    /**
+     * Indexes the given FASTA file by scanning it once.
+     * @param fileName Path to the FASTA file. This could also be a URL or a
+     * path to a zip/gzip file.
+     * @return A new FastaIndex
+     * @throws IOException
+     */
+    public static FastaIndex build(String fileName) throws IOException {
+        final Builder builder = new Builder();
+        try (ByteLineReader reader = new ByteLineReader(fileName)) {
+            while (reader.readLine()) {
+                builder.addLine(reader.getBuffer(), reader.getStart(), reader.getLength(), reader.getLineOffset(), reader.getLineWidth());
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Reads the index of the given FASTA file from <fileName>.fai if it
+     * exists, otherwise the file is indexed and the index is saved.
+     * @param fileName Path to the FASTA file
+     * @return The FastaIndex
+     * @throws IOException
+     */
+    public static FastaIndex load(String fileName) throws IOException {
+        final Path indexFile = Paths.get(fileName + EXTENSION);
+        if (Files.exists(indexFile)) {
+            return read(indexFile.toString());
+        }
+        final FastaIndex index = build(fileName);
+        try (Writer writer = new BufferedWriter(new FileWriter(indexFile.toFile()))) {
+            index.write(writer);
+        }
+        return index;
+    }
+
+    /**
+     * Reads an index in the .fai format.
+     * @param indexFileName Path to the index file
+     * @return A new FastaIndex
+     * @throws IOException
+     */
+    public static FastaIndex read(String indexFileName) throws IOException {
+        final Builder entries = new Builder();
+        try (ByteLineReader reader = new ByteLineReader(FileUtils.getInputStreamPossiblyZIPorGZIP(indexFileName))) {
+            while (reader.readLine()) {
+                if (reader.getLength() == 0) {
+                    continue;
+                }
+                final String[] parts = reader.getLineAsString().split("\t");
+                if (parts.length < 5) {
+                    throw new IOException("invalid FASTA index line: " + reader.getLineAsString());
+                }
+                try {
+                    entries.names.add(parts[0]);
+                    entries.entries.add(new long[] {
+                        Long.parseLong(parts[1]), Long.parseLong(parts[2]), Integer.parseInt(parts[3]), Integer.parseInt(parts[4])
+                    });
+                } catch (NumberFormatException e) {
+                    throw new IOException("invalid FASTA index line: " + reader.getLineAsString(), e);
+                }
+            }
+        }
+        return entries.build();
+    }
+
+    /**
+     * Writes the index in the .fai format. The writer is not closed.
+     * @param writer
+     * @throws IOException
+     */
+    public void write(Writer writer) throws IOException {
+        for (int i = 0; i < this.size(); i++) {
+            writer.write(String.format("%s\t%d\t%d\t%d\t%d\n",
+                this.names.get(i), this.lengths[i], this.offsets[i], this.lineBases[i], this.lineWidths[i]));
+        }
+    }
+
+    /**
+     * @return The number of records
+     */
+    public int size() {
+        return this.names.size();
+    }
+
+    public String getName(int recordIndex) {
+        return this.names.get(recordIndex);
+    }
+
+    /**
+     * @return The number of bases of the record
+     */
+    public long getLength(int recordIndex) {
+        return this.lengths[recordIndex];
+    }
+
+    /**
+     * @return The offset of the first base of the record in the file
+     */
+    public long getOffset(int recordIndex) {
+        return this.offsets[recordIndex];
+    }
+
+    public int getLineBases(int recordIndex) {
+        return this.lineBases[recordIndex];
+    }
+
+    public int getLineWidth(int recordIndex) {
+        return this.lineWidths[recordIndex];
+    }
+
+    /**
+     * Returns the offset of a base in the file.
+     * @param recordIndex The index of the record in the file
+     * @param position The position of the base in the record, starting at 0
+     * @return
+     */
+    public long getByteOffset(int recordIndex, long position) {
+        if (position < 0 || position > this.lengths[recordIndex]) {
+            throw new IndexOutOfBoundsException(String.format(
+                "position %d is outside of record %s", position, this.names.get(recordIndex)));
+        }
+        if (position == 0) {
+            return this.offsets[recordIndex];
+        }
+        final int bases = this.lineBases[recordIndex];
+        return this.offsets[recordIndex] + position / bases * this.lineWidths[recordIndex] + position % bases;
+    }
+
+    /**
+     * Returns the region of the given positions of a record, the positions
+     * are clipped to the record.
+     * @param recordIndex The index of the record in the file
+     * @param start The first position of the region
+     * @param end The position after the region
+     * @return
+     */
+    public Region getRegion(int recordIndex, long start, long end) {
+        start = Math.max(0, Math.min(start, this.lengths[recordIndex]));
+        end = Math.max(start, Math.min(end, this.lengths[recordIndex]));
+        final long byteStart = this.getByteOffset(recordIndex, start);
+        final long byteEnd = end == start ? byteStart : this.getByteOffset(recordIndex, end - 1) + 1;
+        return new Region(recordIndex, start, end, byteStart, byteEnd);
+    }
+
+    /**
+     * Returns the region of a k-mer and its neighbourhood.
+     * @param coordinates The coordinates of the k-mer, e.g. of a sketch. The
+     * sequence index in the record including ambiguous k-mers is the position
+     * of the k-mer.
+     * @param flank The number of bases before and after the k-mer
+     * @return
+     */
+    public Region getRegion(KMerCoordinates coordinates, int flank) {
+        final long position = coordinates.getSequenceIndexInRecordIncludingAmbiguous();
+        return this.getRegion(
+            coordinates.getRecordIndexInFile(),
+            position - flank,
+            position + coordinates.getKmer().length + flank
+        );
+    }
+
+    /**
+     * Reads the bases of the given region, i.e. without line terminators.
+     * @param channel The channel of the uncompressed FASTA file
+     * @param region
+     * @return
+     * @throws IOException
+     */
+    public byte[] read(FileChannel channel, Region region) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate((int) (region.byteEnd - region.byteStart));
+        long position = region.byteStart;
+        while (buffer.hasRemaining()) {
+            final int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("FASTA file is shorter than its index");
+            }
+            position += read;
+        }
+        final byte[] bytes = buffer.array();
+        int length = 0;
+        for (byte b : bytes) {
+            if (b != '\n' && b != '\r') {
+                bytes[length++] = b;
+            }
+        }
+        if (length != region.end - region.start) {
+            throw new IOException("FASTA file does not match its index");
+        }
+        return length == bytes.length ? bytes : Arrays.copyOf(bytes, length);
+    }
+
+    /**
+     * Reads the bases of the given region, i.e. without line terminators.
+     * @param fileName Path to the uncompressed FASTA file
+     * @param region
+     * @return
+     * @throws IOException
+     */
+    public byte[] read(String fileName, Region region) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            return this.read(channel, region);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package org.husonlab.fmhdist.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reader that divides a local, uncompressed FASTA file into byte ranges of a
+ * fixed size, e.g. to process a single large record in parallel. Each range is
+ * returned as memory-mapped FASTA fragment that contains exactly the k-mers
+ * whose first base lies inside of the range:
+ *
+ * 1. If the range starts inside of a header line, the fragment starts at the
+ *    following line.
+ * 2. The fragment is extended beyond the range by k - 1 sequence characters
+ *    (skipping line breaks) unless the record ends before.
+ *
+ * Thus, decomposing all fragments independently into k-mers (with any of the
+ * KMerIterators that handle headers, line breaks and ambiguous bases) yields
+ * the same k-mers as decomposing the whole file, each of them exactly once.
+ */
+public class FastaRangeReader implements Closeable {
+    private static final int BLOCK_SIZE = 1 << 16;
+    // Some VMs reserve header words in an array
+    private static final long MAX_FRAGMENT_SIZE = Integer.MAX_VALUE - 8;
+
+    // Characters that may occur inside of a sequence line without being a
+    // base, e.g. due to Windows line endings.
+    private static final boolean[] isSkippableChar = new boolean[256];
+    static {
+        isSkippableChar['\t'] = true;
+        isSkippableChar['\r'] = true;
+        isSkippableChar[' '] = true;
+    }
+
+    private final int k;
+    private final long rangeSize;
+    private final FileChannel channel;
+    private final long fileSize;
+    private long position;
+
+    // Cache for random access during the boundary search
+    private final ByteBuffer block;
+    private long blockStart;
+
+    /**
+     * Creates a new FastaRangeReader.
+     * @param fileName Path to the local, uncompressed Fasta file to read.
+     * @param k The k-mer size that is applied on the fragments
+     * @param rangeSize The size of a single range in bytes
+     * @throws IOException
+     */
+    public FastaRangeReader(String fileName, int k, long rangeSize) throws IOException {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be positive");
+        }
+        if (rangeSize < 1 || rangeSize + k + BLOCK_SIZE > MAX_FRAGMENT_SIZE) {
+            throw new IllegalArgumentException("invalid range size");
+        }
+        this.k = k;
+        this.rangeSize = rangeSize;
+        this.channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+        this.fileSize = this.channel.size();
+        this.position = 0;
+        this.block = ByteBuffer.allocate(BLOCK_SIZE);
+        this.blockStart = -1;
+    }
+
+    /**
+     * Returns the FASTA fragment of the next range.
+     * @return The fragment, or null if the file is exhausted
+     * @throws IOException
+     */
+    public ByteBuffer nextRange() throws IOException {
+        while (this.position < this.fileSize) {
+            final long rangeStart = this.position;
+            final long rangeEnd = Math.min(this.fileSize, rangeStart + this.rangeSize);
+            this.position = rangeEnd;
+
+            final long start = this.findFragmentStart(rangeStart);
+            final long end = this.findFragmentEnd(rangeEnd);
+            if (start >= end) {
+                // the range only consists of a header
+                continue;
+            }
+            if (end - start > MAX_FRAGMENT_SIZE) {
+                throw new IOException("fasta fragment is too large");
+            }
+            return this.channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        }
+        return null;
+    }
+
+    private byte byteAt(long index) throws IOException {
+        if (this.blockStart < 0 || index < this.blockStart || index >= this.blockStart + this.block.limit()) {
+            // align the blocks to allow efficient scanning in both directions
+            this.blockStart = index - (index % BLOCK_SIZE);
+            this.block.clear();
+            while (this.block.hasRemaining()) {
+                if (this.channel.read(this.block, this.blockStart + this.block.position()) < 0) {
+                    break;
+                }
+            }
+            this.block.flip();
+        }
+        return this.block.get((int) (index - this.blockStart));
+    }
+
+    /**
+     * Returns the start of the line that contains the given index.
+     */
+    private long findLineStart(long index) throws IOException {
+        long i = index;
+        while (i > 0 && this.byteAt(i - 1) != '\n') {
+            i--;
+        }
+        return i;
+    }
+
+    /**
+     * Returns the position after the line that contains the given index.
+     */
+    private long findNextLine(long index) throws IOException {
+        long i = index;
+        while (i < this.fileSize && this.byteAt(i) != '\n') {
+            i++;
+        }
+        return Math.min(i + 1, this.fileSize);
+    }
+
+    private long findFragmentStart(long rangeStart) throws IOException {
+        if (rangeStart == 0) {
+            return 0;
+        }
+        final long lineStart = this.findLineStart(rangeStart);
+        if (lineStart < rangeStart && this.byteAt(lineStart) == '>') {
+            // skip the remaining header, a header at the start of the range
+            // is handled by the KMerIterators
+            return this.findNextLine(rangeStart);
+        }
+        return rangeStart;
+    }
+
+    private long findFragmentEnd(long rangeEnd) throws IOException {
+        if (rangeEnd >= this.fileSize || this.k == 1) {
+            return rangeEnd;
+        }
+        final long lineStart = this.findLineStart(rangeEnd);
+        if (this.byteAt(lineStart) == '>') {
+            // no k-mer of the range can span a header
+            return rangeEnd;
+        }
+
+        boolean isAtLineStart = lineStart == rangeEnd;
+        int sequenceChars = 0;
+        long i = rangeEnd;
+        while (i < this.fileSize) {
+            final byte current = this.byteAt(i);
+            if (current == '\n') {
+                isAtLineStart = true;
+                i++;
+                continue;
+            }
+            if (isAtLineStart && current == '>') {
+                return i;
+            }
+            isAtLineStart = false;
+            i++;
+            if (!isSkippableChar[current & 0xff] && ++sequenceChars == this.k - 1) {
+                return i;
+            }
+        }
+        return this.fileSize;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+}
@@ -0,0 +1,232 @@
+package org.husonlab.fmhdist.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reader that splits a FASTA file into batches of complete records (header and
+ * sequence lines), e.g. to process the records in parallel. Local uncompressed
+ * files are memory-mapped, thus the batches are views on the file and no data
+ * is copied. Otherwise, the file is streamed and each batch is copied into its
+ * own array.
+ *
+ * As records are never split, a single record must not be larger than 2 GiB.
+ */
+public class FastaRecordReader implements Closeable {
+    // Size of a single mapping, large files are mapped window by window
+    private static final long WINDOW_SIZE = 1L << 30;
+    private static final int BUFFER_SIZE = 1 << 16;
+    // Some VMs reserve header words in an array
+    private static final int MAX_BATCH_SIZE = Integer.MAX_VALUE - 8;
+
+    private static final long HEADER_BYTES = 0x3E3E3E3E3E3E3E3EL;
+    private static final long LOW_BITS = 0x0101010101010101L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+
+    // mapped mode
+    private final FileChannel channel;
+    private final long fileSize;
+    private ByteBuffer window;
+    private long windowStart;
+    private long position;
+
+    // stream mode
+    private final InputStream stream;
+    private final byte[] buffer;
+    private int bufferPointer;
+    private int bufferSize;
+    private boolean isAtLineStart;
+    private boolean isEOF;
+
+    /**
+     * Creates a new FastaRecordReader for the given file.
+     * @param fileName Path to the Fasta file to read. This could also be a URL
+     * or a path to a zip/gzip file, in which case the file is streamed.
+     * @throws IOException
+     */
+    public FastaRecordReader(String fileName) throws IOException {
+        if (MappedKMerIterator.isMappable(fileName)) {
+            this.channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+            this.fileSize = this.channel.size();
+            this.stream = null;
+            this.buffer = null;
+            if (this.fileSize > 0) {
+                this.mapWindow(0);
+            }
+        } else {
+            this.channel = null;
+            this.fileSize = -1;
+            this.stream = ReadAheadBlockSource.openInputStream(fileName);
+            this.buffer = new byte[BUFFER_SIZE];
+            this.isAtLineStart = true;
+        }
+    }
+
+    /**
+     * Creates a new FastaRecordReader that streams the given FASTA content.
+     * @param stream
+     */
+    public FastaRecordReader(InputStream stream) {
+        this.channel = null;
+        this.fileSize = -1;
+        this.stream = stream;
+        this.buffer = new byte[BUFFER_SIZE];
+        this.isAtLineStart = true;
+    }
+
+    /**
+     * Returns the next batch of complete records. Consecutive records are
+     * combined until the batch contains at least minSize bytes or the file is
+     * exhausted.
+     * @param minSize The minimal size of the batch in bytes
+     * @return The FASTA content of the batch, or null if the file is exhausted
+     * @throws IOException if a single record is too large or the file could not
+     * be read
+     */
+    public ByteBuffer nextRecords(int minSize) throws IOException {
+        if (this.channel != null) {
+            return this.nextMappedRecords(minSize);
+        }
+        return this.nextStreamedRecords(minSize);
+    }
+
+    private void mapWindow(long start) throws IOException {
+        this.windowStart = start;
+        final long length = Math.min(WINDOW_SIZE, this.fileSize - start);
+        this.window = this.channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+        this.window.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private byte getMapped(long index) throws IOException {
+        if (index < this.windowStart || index >= this.windowStart + this.window.limit()) {
+            this.mapWindow(index);
+        }
+        return this.window.get((int) (index - this.windowStart));
+    }
+
+    /**
+     * Returns the position of the next header that starts after the given
+     * position, or the file size if there is none.
+     */
+    private long findNextRecord(long from) throws IOException {
+        long index = from;
+        while (index < this.fileSize) {
+            if (index < this.windowStart || index >= this.windowStart + this.window.limit()) {
+                this.mapWindow(index);
+            }
+            final int windowLimit = this.window.limit();
+            int i = (int) (index - this.windowStart);
+            int match = -1;
+            // check 8 bytes at once, headers are rare compared to sequences
+            while (i + Long.BYTES <= windowLimit) {
+                final long word = this.window.getLong(i) ^ HEADER_BYTES;
+                final long found = (word - LOW_BITS) & ~word & HIGH_BITS;
+                if (found != 0) {
+                    match = i + (Long.numberOfTrailingZeros(found) >>> 3);
+                    break;
+                }
+                i += Long.BYTES;
+            }
+            if (match < 0) {
+                while (i < windowLimit && this.window.get(i) != '>') {
+                    i++;
+                }
+                if (i < windowLimit) {
+                    match = i;
+                }
+            }
+            if (match < 0) {
+                index = this.windowStart + windowLimit;
+                continue;
+            }
+            final long candidate = this.windowStart + match;
+            // new records only start at the beginning of a line
+            if (candidate == 0 || this.getMapped(candidate - 1) == '\n') {
+                return candidate;
+            }
+            index = candidate + 1;
+        }
+        return this.fileSize;
+    }
+
+    private ByteBuffer nextMappedRecords(int minSize) throws IOException {
+        if (this.position >= this.fileSize) {
+            return null;
+        }
+        final long start = this.position;
+        long end = start;
+        while (end < this.fileSize && (end == start || end - start < minSize)) {
+            final long next = this.findNextRecord(end + 1);
+            if (next - start > MAX_BATCH_SIZE) {
+                if (end == start) {
+                    throw new IOException("fasta record is too large");
+                }
+                // keep the batch below the maximum size
+                break;
+            }
+            end = next;
+        }
+        this.position = end;
+
+        if (start >= this.windowStart && end <= this.windowStart + this.window.limit()) {
+            final ByteBuffer result = this.window.duplicate();
+            result.position((int) (start - this.windowStart));
+            result.limit((int) (end - this.windowStart));
+            return result.slice();
+        }
+        return this.channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+    }
+
+    private ByteBuffer nextStreamedRecords(int minSize) throws IOException {
+        if (this.isEOF) {
+            return null;
+        }
+        byte[] batch = new byte[Math.max(BUFFER_SIZE, Math.min(minSize, MAX_BATCH_SIZE))];
+        int size = 0;
+        while (true) {
+            if (this.bufferPointer >= this.bufferSize) {
+                this.bufferSize = this.stream.read(this.buffer, 0, this.buffer.length);
+                this.bufferPointer = 0;
+                if (this.bufferSize <= 0) {
+                    this.isEOF = true;
+                    break;
+                }
+            }
+            final byte current = this.buffer[this.bufferPointer];
+            if (this.isAtLineStart && current == '>' && size > 0 && size >= minSize) {
+                break;
+            }
+            this.isAtLineStart = current == '\n';
+            if (size == batch.length) {
+                if (size == MAX_BATCH_SIZE) {
+                    throw new IOException("fasta record is too large");
+                }
+                batch = Arrays.copyOf(batch, (int) Math.min((long) size * 2, MAX_BATCH_SIZE));
+            }
+            batch[size++] = current;
+            this.bufferPointer++;
+        }
+        if (size == 0) {
+            return null;
+        }
+        return ByteBuffer.wrap(batch, 0, size).slice();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.window = null;
+        if (this.channel != null) {
+            this.channel.close();
+        }
+        if (this.stream != null) {
+            this.stream.close();
+        }
+    }
+}
@@ -0,0 +1,383 @@
+package org.husonlab.fmhdist.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterator that produces k-mers of a fixed size for the reads of FASTQ files.
+ * Each read consists of four lines: the "@" header, the sequence, the "+"
+ * separator and the qualities. The files are streamed line by line with a
+ * ByteLineReader, thus even large gzipped read sets are never materialized.
+ * K-mers will never span multiple reads.
+ *
+ * Bases with a Phred quality (Sanger encoding, offset 33) below the minimum
+ * quality are treated as ambiguous bases, i.e. no k-mer contains them. The
+ * default minimum quality can be configured globally with setMinQuality(), 0
+ * disables the masking.
+ *
+ * Paired files (or any other set of files) can be passed as a single file name
+ * separated by PAIRED_FILE_SEPARATOR, e.g. "reads_1.fq.gz;reads_2.fq.gz". The
+ * files are read one after another.
+ */
+public class FastqKMerIterator implements KMerIterator {
+    public static final String PAIRED_FILE_SEPARATOR = ";";
+    public static final int DEFAULT_MIN_QUALITY = 0;
+
+    private static final int QUALITY_OFFSET = 33;
+
+    private static int minQuality = DEFAULT_MIN_QUALITY;
+
+    private static final byte[] complementTable = new byte[256];
+    static {
+        complementTable['A'] = 'T';
+        complementTable['T'] = 'A';
+        complementTable['G'] = 'C';
+        complementTable['C'] = 'G';
+        complementTable['N'] = 'N';
+    }
+
+    private static final byte[] toUpperTable = new byte[256];
+    static {
+        toUpperTable['A'] = 'A';
+        toUpperTable['T'] = 'T';
+        toUpperTable['G'] = 'G';
+        toUpperTable['C'] = 'C';
+        toUpperTable['a'] = 'A';
+        toUpperTable['t'] = 'T';
+        toUpperTable['g'] = 'G';
+        toUpperTable['c'] = 'C';
+    }
+
+    private final byte[] baseTable;
+    private final byte qualityCutoff;
+
+    private final int k;
+    private final byte[] kmer;
+    private final byte[] kmerReverseComplement;
+
+    private final List<String> fileNames;
+    private int nextFileIndex;
+    private ByteLineReader reader;
+
+    // The bases of the current read, masked bases are set to 0
+    private byte[] read;
+    private int readLength;
+    private int readPointer;
+    // Number of consecutive valid bases up to the read pointer
+    private int run;
+
+    private boolean isPreloaded;
+    private boolean isEOF;
+
+    private int readIndex = -1;
+    private int kmersInRead = 0;
+    private int kmersBeforeRead = 0;
+    // Number of k-mer positions, including the ones with ambiguous bases
+    private long positionsBeforeRead = 0;
+
+    // Indices of the k-mer returned by the last call to next()
+    private int currentReadIndex;
+    private int currentSequenceIndexInRecord;
+    private int currentSequenceIndexInFile;
+    private int currentSequenceIndexInRecordIncludingAmbiguous;
+    private int currentSequenceIndexInFileIncludingAmbiguous;
+
+    /**
+     * Creates a new FastqKMerIterator with the global minimum quality, see
+     * setMinQuality().
+     * @param k The k-mer size to apply
+     * @param fileName Path to the FASTQ file. This could also be a URL or a
+     * path to a gzip file, or several of those separated by
+     * PAIRED_FILE_SEPARATOR.
+     * @param skipN Bool flag, if set to false, k-mers containing N won't be
+     * skipped.
+     * @throws IOException
+     */
+    public FastqKMerIterator(int k, String fileName, boolean skipN) throws IOException {
+        this(k, fileName, skipN, getMinQuality());
+    }
+
+    /**
+     * Creates a new FastqKMerIterator.
+     * @param k The k-mer size to apply
+     * @param fileName Path to the FASTQ file, see above.
+     * @param skipN Bool flag, if set to false, k-mers containing N won't be
+     * skipped.
+     * @param minQuality Bases with a lower Phred quality are treated as
+     * ambiguous bases. 0 disables the masking.
+     * @throws IOException
+     */
+    public FastqKMerIterator(int k, String fileName, boolean skipN, int minQuality) throws IOException {
+        this(k, Arrays.asList(fileName.split(PAIRED_FILE_SEPARATOR)), null, skipN, minQuality);
+    }
+
+    /**
+     * Creates a new FastqKMerIterator.
+     * @param k The k-mer size to apply
+     * @param stream The stream of the uncompressed FASTQ content, it is
+     * closed with this iterator
+     * @param skipN Bool flag, if set to false, k-mers containing N won't be
+     * skipped.
+     * @param minQuality Bases with a lower Phred quality are treated as
+     * ambiguous bases. 0 disables the masking.
+     */
+    public FastqKMerIterator(int k, InputStream stream, boolean skipN, int minQuality) {
+        this(k, List.of(), new ByteLineReader(stream), skipN, minQuality);
+    }
+
+    private FastqKMerIterator(int k, List<String> fileNames, ByteLineReader reader, boolean skipN, int minQuality) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be positive");
+        }
+        if (minQuality < 0 || minQuality > 127 - QUALITY_OFFSET) {
+            throw new IllegalArgumentException("invalid minimum quality");
+        }
+        this.k = k;
+        this.kmer = new byte[k];
+        this.kmerReverseComplement = new byte[k];
+        this.read = new byte[1024];
+
+        this.baseTable = toUpperTable.clone();
+        if (!skipN) {
+            this.baseTable['N'] = 'N';
+            this.baseTable['n'] = 'N';
+        }
+        this.qualityCutoff = (byte) (QUALITY_OFFSET + minQuality);
+        this.fileNames = fileNames;
+        this.reader = reader;
+    }
+
+    /**
+     * Checks if the given file name refers to FASTQ files by their extension,
+     * i.e. .fastq or .fq, optionally followed by .gz. Paired files need to be
+     * FASTQ files altogether.
+     * @param fileName
+     * @return
+     */
+    public static boolean isFastq(String fileName) {
+        if (fileName == null || fileName.isEmpty()) {
+            return false;
+        }
+        for (String name : fileName.split(PAIRED_FILE_SEPARATOR)) {
+            String lower = name.trim().toLowerCase(Locale.ROOT);
+            if (lower.endsWith(".gz")) {
+                lower = lower.substring(0, lower.length() - 3);
+            }
+            if (!lower.endsWith(".fastq") && !lower.endsWith(".fq")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static synchronized int getMinQuality() {
+        return minQuality;
+    }
+
+    /**
+     * Sets the minimum Phred quality of bases that is used by new iterators.
+     * 0 disables the masking.
+     * @param quality
+     */
+    public static synchronized void setMinQuality(int quality) {
+        if (quality < 0 || quality > 127 - QUALITY_OFFSET) {
+            throw new IllegalArgumentException("invalid minimum quality");
+        }
+        minQuality = quality;
+    }
+
+    /**
+     * Reads the next line, continuing with the next file at the end of the
+     * current one.
+     * @return false if all files are exhausted
+     * @throws IOException
+     */
+    private boolean readLine() throws IOException {
+        while (true) {
+            if (this.reader != null) {
+                if (this.reader.readLine()) {
+                    return true;
+                }
+                this.reader.close();
+                this.reader = null;
+            }
+            if (this.nextFileIndex >= this.fileNames.size()) {
+                return false;
+            }
+            final String fileName = this.fileNames.get(this.nextFileIndex++).trim();
+            this.reader = new ByteLineReader(ReadAheadBlockSource.openInputStream(fileName));
+        }
+    }
+
+    /**
+     * Loads the sequence of the next read and masks its ambiguous and low
+     * quality bases.
+     * @return false if there are no more reads
+     * @throws IOException
+     */
+    private boolean nextRead() throws IOException {
+        // skip empty lines between records, e.g. at the end of the file
+        do {
+            if (!this.readLine()) {
+                return false;
+            }
+        } while (this.reader.getLength() == 0);
+        if (this.reader.getBuffer()[this.reader.getStart()] != '@') {
+            throw new IOException("invalid FASTQ record: header does not start with '@'");
+        }
+
+        if (!this.readLine()) {
+            throw new IOException("invalid FASTQ record: missing sequence");
+        }
+        if (this.readIndex >= 0) {
+            // the previous read is completely scanned, its positions end at
+            // the start of the next k-mer that would have been possible (as
+            // in BlockKMerIterator)
+            this.kmersBeforeRead += this.kmersInRead;
+            if (this.run >= this.k) {
+                this.positionsBeforeRead += this.readLength - this.k + 1;
+            } else {
+                this.positionsBeforeRead += this.readLength - this.run;
+            }
+        }
+        this.readLength = this.reader.getLength();
+        this.read = this.reader.copyLine(this.read);
+        for (int i = 0; i < this.readLength; i++) {
+            this.read[i] = this.baseTable[this.read[i] & 0xff];
+        }
+
+        if (!this.readLine() || this.reader.getLength() == 0 || this.reader.getBuffer()[this.reader.getStart()] != '+') {
+            throw new IOException("invalid FASTQ record: missing '+' separator");
+        }
+        if (!this.readLine() || this.reader.getLength() != this.readLength) {
+            throw new IOException("invalid FASTQ record: quality and sequence lengths differ");
+        }
+        if (this.qualityCutoff > QUALITY_OFFSET) {
+            final byte[] qualities = this.reader.getBuffer();
+            final int start = this.reader.getStart();
+            for (int i = 0; i < this.readLength; i++) {
+                if (qualities[start + i] < this.qualityCutoff) {
+                    this.read[i] = 0;
+                }
+            }
+        }
+
+        this.readIndex++;
+        this.kmersInRead = 0;
+        this.readPointer = 0;
+        this.run = 0;
+        return true;
+    }
+
+    private void preload() {
+        try {
+            while (true) {
+                if (this.readPointer >= this.readLength) {
+                    if (!this.nextRead()) {
+                        this.isEOF = true;
+                        return;
+                    }
+                    continue;
+                }
+                if (this.read[this.readPointer++] == 0) {
+                    this.run = 0;
+                    continue;
+                }
+                if (++this.run >= this.k) {
+                    this.isPreloaded = true;
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (!this.isPreloaded && !this.isEOF) {
+            this.preload();
+        }
+        return this.isPreloaded;
+    }
+
+    @Override
+    public byte[] next() {
+        if (!this.hasNext()) {
+            throw new NoSuchElementException();
+        }
+        final int start = this.readPointer - this.k;
+        System.arraycopy(this.read, start, this.kmer, 0, this.k);
+        for (int i = 0; i < this.k; i++) {
+            this.kmerReverseComplement[this.k - i - 1] = complementTable[this.kmer[i]];
+        }
+
+        this.currentReadIndex = this.readIndex;
+        this.currentSequenceIndexInRecord = this.kmersInRead;
+        this.currentSequenceIndexInFile = this.kmersBeforeRead + this.kmersInRead;
+        this.currentSequenceIndexInRecordIncludingAmbiguous = start;
+        this.currentSequenceIndexInFileIncludingAmbiguous = (int) (this.positionsBeforeRead + start);
+        this.kmersInRead++;
+
+        this.isPreloaded = false;
+        return this.kmer;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.reader != null) {
+            this.reader.close();
+            this.reader = null;
+        }
+        this.nextFileIndex = this.fileNames.size();
+    }
+
+    @Override
+    public int getK() {
+        return this.k;
+    }
+
+    @Override
+    public byte[] getReverseComplement() {
+        return this.kmerReverseComplement;
+    }
+
+    /**
+     * Returns the coordinates of the last k-mer, the reads take the role of
+     * the records.
+     */
+    @Override
+    public KMerCoordinates getCoordinates() {
+        return new KMerCoordinates(
+            this.currentReadIndex,
+            this.currentSequenceIndexInFile,
+            this.currentSequenceIndexInRecord,
+            this.currentSequenceIndexInFileIncludingAmbiguous,
+            this.currentSequenceIndexInRecordIncludingAmbiguous,
+            this.kmer
+        );
+    }
+
+    @Override
+    public void addCoordinates(CoordinateBuffer coordinates, long hash) {
+        coordinates.add(
+            this.currentReadIndex,
+            this.currentSequenceIndexInFile,
+            this.currentSequenceIndexInRecord,
+            this.currentSequenceIndexInFileIncludingAmbiguous,
+            this.currentSequenceIndexInRecordIncludingAmbiguous,
+            this.kmer,
+            hash
+        );
+    }
+
+    @Override
+    public void addToHistogram(CoordinateHistogram histogram, boolean isInSketch) {
+        histogram.add(this.currentReadIndex, this.currentSequenceIndexInRecordIncludingAmbiguous, this.kmer, isInSketch);
+    }
+}
@@ -11,6 +11,7 @@ public class HashFunctionParser {
     public static final String MURMUR3_HASH_NAME="murmur3";
     public static final String METRO_HASH_NAME="metro";
     public static final String XX64_HASH_NAME="xx64";
+    public static final String NTHASH_HASH_NAME="nthash";
 
     public static List<String> getSupportedFunctions() {
         List<String> result = new ArrayList<>();
@@ -18,6 +19,7 @@ public class HashFunctionParser {
         result.add(MURMUR3_HASH_NAME);
         result.add(METRO_HASH_NAME);
         result.add(XX64_HASH_NAME);
+        result.add(NTHASH_HASH_NAME);
         return result;
     }
 
@@ -31,6 +33,8 @@ public class HashFunctionParser {
                 return LongHashFunction.metro(seed);
             case XX64_HASH_NAME:
                 return LongHashFunction.xx(seed);
+            case NTHASH_HASH_NAME:
+                return new NtHashFunction(seed);
         }
 
         throw new IllegalArgumentException("unkown hash function name");
@@ -112,6 +112,14 @@ public class KMerCoordinates {
             this.byteIndex);
     }
 
+    /**
+     * Parses a line in the format of toString().
+     * @param input
+     * @return
+     * @deprecated coordinate files are written in a binary format, use the
+     * CoordinateReader to read them.
+     */
+    @Deprecated
     public static KMerCoordinates fromString(String input) {
         String[] parts = input.split(",");
         int recordIndexInFile = Integer.parseInt(parts[0]);
@@ -0,0 +1,27 @@
+package org.husonlab.fmhdist.util;
+
+import java.io.Closeable;
+import java.util.PrimitiveIterator;
+
+import net.openhft.hashing.LongHashFunction;
+
+/**
+ * A Iterator that yields the hash values of the canonical k-mers of a
+ * sequence instead of the k-mers themselves. Implementations are expected to
+ * update the hash of the previous k-mer instead of hashing each k-mer from
+ * scratch. K-mers won't span multiple sequences inside the same FASTA file.
+ */
+public interface KMerHashIterator extends PrimitiveIterator.OfLong, Closeable {
+    /**
+     * Returns the k-mer size
+     * @return
+     */
+    public int getK();
+
+    /**
+     * Returns the hash function that yields the same hash values as this
+     * iterator when applied to the canonical k-mers.
+     * @return
+     */
+    public LongHashFunction getHashFunction();
+}
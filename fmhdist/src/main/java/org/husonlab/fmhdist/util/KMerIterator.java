@@ -29,4 +29,33 @@ public interface KMerIterator extends Iterator<byte[]>, Closeable {
      * @return
      */
     public KMerCoordinates getCoordinates();
+
+    /**
+     * Adds the coordinates of the last k-mer returned by "next()" to the given
+     * buffer. Iterators should override this to avoid creating a
+     * KMerCoordinates object for each k-mer.
+     * @param coordinates
+     * @param hash The hash value of the (canonical) k-mer
+     */
+    public default void addCoordinates(CoordinateBuffer coordinates, long hash) {
+        coordinates.add(this.getCoordinates(), hash);
+    }
+
+    /**
+     * Adds the last k-mer returned by "next()" to the given histogram.
+     * Iterators should override this to avoid creating a KMerCoordinates
+     * object for each k-mer.
+     * @param histogram
+     * @param isInSketch Flag to indicate if the hash of the k-mer is part of
+     * the sketch
+     */
+    public default void addToHistogram(CoordinateHistogram histogram, boolean isInSketch) {
+        final KMerCoordinates coordinates = this.getCoordinates();
+        histogram.add(
+            coordinates.getRecordIndexInFile(),
+            coordinates.getSequenceIndexInRecordIncludingAmbiguous(),
+            coordinates.getKmer(),
+            isInSketch
+        );
+    }
 }
@@ -2,14 +2,17 @@ package org.husonlab.fmhdist.util;
 
 import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 
 import jloda.util.FileUtils;
 
 /**
  * Iterator that produces k-mers of a fixed size for a given FASTA file. This
- * iterator is based on a buffered reader that supplies lines of the file as
- * needed. K-mers will never span multiple sequences in the FASTA.
+ * iterator is based on a ByteLineReader that supplies lines of the file as
+ * needed. The lines are copied into two reusable arrays, thus no objects are
+ * created per line. K-mers will never span multiple sequences in the FASTA.
+ * All characters other than A, C, G and T (and N if ambiguous bases are not
+ * skipped) are treated as ambiguous bases, e.g. IUPAC codes.
  */
 public class LineKMerIterator implements KMerIterator {
     private static boolean[] isLineContainingSkippableChar = new boolean[128];
@@ -31,6 +34,8 @@ public class LineKMerIterator implements KMerIterator {
         complementTable['t'] = 'a';
         complementTable['g'] = 'c';
         complementTable['c'] = 'g';
+        complementTable['N'] = 'N';
+        complementTable['n'] = 'n';
     }
 
     private static final byte[] toUpperTable = new byte[128];
@@ -57,11 +62,15 @@ public class LineKMerIterator implements KMerIterator {
 
     private byte[] nextLine;
     private byte[] currentLine;
+    private int nextLineLength;
+    private int currentLineLength;
     private int linePointer;
 
     private boolean isEOF;
     private boolean isPreloaded;
-    private BufferedReader reader;
+    private ByteLineReader reader;
+    // null if the file is not indexed on the fly
+    private final FastaIndex.Builder indexBuilder;
 
     // Indices to keep track of the origin of the _current_ k-mer. The values
     // will always be copied from the preloaded variants (see below). The values
@@ -97,7 +106,24 @@ public class LineKMerIterator implements KMerIterator {
      * bases won't be skipped.
      * @throws IOException
      */
-    public LineKMerIterator(int k, BufferedReader reader, boolean skipN) throws IOException {
+    public LineKMerIterator(int k, ByteLineReader reader, boolean skipN) throws IOException {
+        this(k, reader, skipN, null);
+    }
+
+    /**
+     * Creates a new LineKMerIterator that decomposes underlying file into its
+     * k-mers and indexes the file on the way. The index is complete once all
+     * k-mers have been iterated, see FastaIndex.Builder.build().
+     * @param k The k-mer size to apply
+     * @param reader The reader from which the lines of the FASTA file should be
+     * read
+     * @param skipN Bool flag, if set to false, k-mers containing ambiguous
+     * bases won't be skipped.
+     * @param indexBuilder The builder that receives all lines of the file
+     * @throws IOException
+     */
+    public LineKMerIterator(int k, ByteLineReader reader, boolean skipN, FastaIndex.Builder indexBuilder) throws IOException {
+        this.indexBuilder = indexBuilder;
         this.k = k;
         this.kmer = new byte[k];
         this.kmerReverseComplement = new byte[k];
@@ -107,23 +133,112 @@ public class LineKMerIterator implements KMerIterator {
         this.isEOF = false;
         this.isPreloaded = false;
 
+        // everything but A, C, G and T (and N if not skipped) is ambiguous,
+        // e.g. IUPAC codes, as in the BlockKMerIterator
+        for (int c = 0; c < this.isAmbiguousChar.length; c++) {
+            this.isAmbiguousChar[c] = !isLineContainingSkippableChar[c] && complementTable[c] == 0;
+        }
         this.isAmbiguousChar['N'] = skipN;
         this.isAmbiguousChar['n'] = skipN;
 
         this.linePointer = 0;
         this.reader = reader;
-        String current = reader.readLine();
-        String next  = reader.readLine();
-        
-        if (current == null || next == null) {
+        this.currentLine = new byte[128];
+        this.nextLine = new byte[128];
+        if (!this.readNextLine()) {
+            throw new IOException("file is too short, valid FASTA files have at least two lines");
+        }
+        this.swapLines();
+        if (!this.readNextLine()) {
             throw new IOException("file is too short, valid FASTA files have at least two lines");
         }
-        this.currentLine = current.getBytes();
-        this.nextLine = next.getBytes();
 
         this.preload();
     }
 
+    /**
+     * Creates a new LineKMerIterator that decomposes underlying stream into
+     * its k-mers.
+     * @param k The k-mer size to apply
+     * @param stream The stream holding the FASTA file
+     * @param skipN Bool flag, if set to false, k-mers containing ambiguous
+     * bases won't be skipped.
+     * @throws IOException
+     */
+    public LineKMerIterator(int k, InputStream stream, boolean skipN) throws IOException {
+        this(k, new ByteLineReader(stream), skipN);
+    }
+
+    /**
+     * Creates a new LineKMerIterator that decomposes underlying file into its
+     * k-mers.
+     * @param k The k-mer size to apply
+     * @param reader The reader from which the lines of the FASTA file should be
+     * read. The lines are encoded again while iterating.
+     * @param skipN Bool flag, if set to false, k-mers containing ambiguous
+     * bases won't be skipped.
+     * @throws IOException
+     * @deprecated Decodes and encodes each line, use the constructor accepting
+     * an InputStream instead.
+     */
+    @Deprecated
+    public LineKMerIterator(int k, BufferedReader reader, boolean skipN) throws IOException {
+        this(k, new ReaderInputStream(reader), skipN);
+    }
+
+    /**
+     * Streams the lines of a BufferedReader as bytes, one line at a time, so
+     * the deprecated constructor does not need to read the whole input.
+     */
+    private static class ReaderInputStream extends InputStream {
+        private final BufferedReader reader;
+        private byte[] line = new byte[0];
+        private int pointer = 0;
+
+        ReaderInputStream(BufferedReader reader) {
+            this.reader = reader;
+        }
+
+        private boolean fill() throws IOException {
+            while (this.pointer == this.line.length) {
+                final String next = this.reader.readLine();
+                if (next == null) {
+                    return false;
+                }
+                this.line = (next + "\n").getBytes();
+                this.pointer = 0;
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!this.fill()) {
+                return -1;
+            }
+            return this.line[this.pointer++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (!this.fill()) {
+                return -1;
+            }
+            final int count = Math.min(length, this.line.length - this.pointer);
+            System.arraycopy(this.line, this.pointer, buffer, offset, count);
+            this.pointer += count;
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.reader.close();
+        }
+    }
+
 /**
      * Creates a new LineKMerIterator that decomposes underlying file into its
      * k-mers.
@@ -135,7 +250,58 @@ public class LineKMerIterator implements KMerIterator {
      * @throws IOException
      */
     public LineKMerIterator(int k, String fileName, boolean skipN) throws IOException {
-       this(k, new BufferedReader(new InputStreamReader(FileUtils.getInputStreamPossiblyZIPorGZIP(fileName))), skipN);
+       this(k, new ByteLineReader(FileUtils.getInputStreamPossiblyZIPorGZIP(fileName)), skipN);
+    }
+
+    /**
+     * Creates a new LineKMerIterator that decomposes underlying file into its
+     * k-mers and indexes the file on the way, see above.
+     * @param k The k-mer size to apply
+     * @param fileName Path to the Fasta file to read. This could also be a URL
+     * or a path to a zip/gzip file.
+     * @param skipN Bool flag, if set to false, k-mers containing ambiguous
+     * bases won't be skipped.
+     * @param indexBuilder The builder that receives all lines of the file
+     * @throws IOException
+     */
+    public LineKMerIterator(int k, String fileName, boolean skipN, FastaIndex.Builder indexBuilder) throws IOException {
+       this(k, new ByteLineReader(FileUtils.getInputStreamPossiblyZIPorGZIP(fileName)), skipN, indexBuilder);
+    }
+
+    /**
+     * Reads the next non-empty line of the file into the nextLine array.
+     * @return false if there are no more lines
+     * @throws IOException
+     */
+    private boolean readNextLine() throws IOException {
+        do {
+            if (!this.reader.readLine()) {
+                return false;
+            }
+            if (this.indexBuilder != null) {
+                this.indexBuilder.addLine(
+                    this.reader.getBuffer(),
+                    this.reader.getStart(),
+                    this.reader.getLength(),
+                    this.reader.getLineOffset(),
+                    this.reader.getLineWidth()
+                );
+            }
+        } while (this.reader.getLength() == 0);
+        this.nextLine = this.reader.copyLine(this.nextLine);
+        this.nextLineLength = this.reader.getLength();
+        return true;
+    }
+
+    /**
+     * Makes the next line the current line, the array of the current line is
+     * reused for the next line.
+     */
+    private void swapLines() {
+        final byte[] line = this.currentLine;
+        this.currentLine = this.nextLine;
+        this.currentLineLength = this.nextLineLength;
+        this.nextLine = line;
     }
 
     private void handleSequenceStart() {
@@ -171,28 +337,25 @@ public class LineKMerIterator implements KMerIterator {
         }
 
         this.linePointer = 0;
-        this.currentLine = this.nextLine;
-        String next = reader.readLine();
-        if (next == null) {
+        this.swapLines();
+        if (!this.readNextLine()) {
             this.isEOF = true;
             return;
-        } 
-        this.nextLine = next.getBytes();
+        }
 
         // Peek at the first byte - do we start a new sequence?
         // Assumption: New sequences only occur at the beginning of a new line
         // We can remove the checks for all calls to next()!    
         // Only do this if we are not currently preloading    
         if (this.currentLine[0] == '>' && !this.isPreloaded) {
-            this.currentLine = this.nextLine;
-            next = reader.readLine();
-            if (next == null) {
-                throw new IOException("fasta file contains header without body");
-            } 
-            this.nextLine = next.getBytes();
+            this.swapLines();
             if (this.currentLine[0] == '>') {
                 throw new IOException("fasta file contains header without body");
             }
+            if (!this.readNextLine()) {
+                // the body of the last record is a single line
+                this.isEOF = true;
+            }
 
             this.handleSequenceStart();
             this.preload();            
@@ -200,7 +363,7 @@ public class LineKMerIterator implements KMerIterator {
     }
 
     private void moveCursor() throws IOException {
-        if (++this.linePointer >= this.currentLine.length) {
+        if (++this.linePointer >= this.currentLineLength) {
             this.feedLine();
         }
     }
@@ -249,7 +412,7 @@ public class LineKMerIterator implements KMerIterator {
 
     @Override
     public boolean hasNext() {
-        return !this.isEOF || this.linePointer < this.currentLine.length;
+        return !this.isEOF || this.linePointer < this.currentLineLength;
     }
 
     @Override
@@ -275,14 +438,16 @@ public class LineKMerIterator implements KMerIterator {
                 // this.feedLine() chain.
                 if (isAmbiguousChar[this.currentLine[this.linePointer]]) {
                     this.preloadedSkippedKmersInRecord += this.k;
+                    // avoid preload in feedLine, the ambiguous base may be
+                    // the last one of the record
+                    this.isPreloaded = true;
                     this.moveCursor();
-                    this.isPreloaded = true; // avoid preload in feedLine
                     this.preload();
                 }
             }
         } catch (IOException e) {
             this.isEOF = true;
-            this.linePointer = this.currentLine.length;
+            this.linePointer = this.currentLineLength;
         }
         return this.kmer;
     }
@@ -313,5 +478,22 @@ public class LineKMerIterator implements KMerIterator {
             this.kmer
         );
     }
-    
+
+    @Override
+    public void addCoordinates(CoordinateBuffer coordinates, long hash) {
+        coordinates.add(
+            this.recordIndexInFile,
+            this.sequenceIndexInRecord + this.sequencesBeforeRecord,
+            this.sequenceIndexInRecord,
+            this.sequenceIndexInRecord + this.sequencesBeforeRecord + this.skippedKmersInRecord + this.skippedBeforeRecord,
+            this.sequenceIndexInRecord + this.skippedKmersInRecord,
+            this.kmer,
+            hash
+        );
+    }
+
+    @Override
+    public void addToHistogram(CoordinateHistogram histogram, boolean isInSketch) {
+        histogram.add(this.recordIndexInFile, this.sequenceIndexInRecord + this.skippedKmersInRecord, this.kmer, isInSketch);
+    }
 }
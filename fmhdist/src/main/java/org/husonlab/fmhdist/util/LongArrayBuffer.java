@@ -0,0 +1,129 @@
+package org.husonlab.fmhdist.util;
+
+import java.util.Arrays;
+
+/**
+ * Growable buffer of primitive longs that is used to collect hash values
+ * without boxing them. Duplicates are only removed when the buffer is full
+ * (by sorting it) and when the final sorted array is requested, thus adding a
+ * value is an amortized O(1) operation without any allocation.
+ */
+public class LongArrayBuffer {
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    // Some VMs reserve header words in an array
+    private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+    // The estimate is only used up to this capacity (8 MiB), larger buffers
+    // grow on demand instead of being allocated up front
+    private static final int MAX_INITIAL_CAPACITY = 1 << 20;
+
+    private long[] values;
+    private int size;
+
+    /**
+     * Creates a new buffer with the default capacity.
+     */
+    public LongArrayBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a new buffer.
+     * @param initialCapacity The number of values that can be added before
+     * the buffer needs to be compacted or grown.
+     */
+    public LongArrayBuffer(int initialCapacity) {
+        this.values = new long[Math.max(1, initialCapacity)];
+        this.size = 0;
+    }
+
+    /**
+     * Creates a buffer that is large enough for the expected number of
+     * distinct values of a FracMinHash sketch, i.e. genomeSize / s, up to a
+     * fixed ceiling.
+     * @param genomeSize The (estimated) genome size, values <= 0 are treated
+     * as unknown
+     * @param sParam The scaling parameter s
+     * @return
+     */
+    public static LongArrayBuffer forSketch(long genomeSize, int sParam) {
+        if (genomeSize <= 0 || sParam <= 0) {
+            return new LongArrayBuffer();
+        }
+        // leave some headroom, the hash values are only uniformly distributed
+        long expected = genomeSize / sParam;
+        expected += expected / 4;
+        return new LongArrayBuffer((int) Math.max(DEFAULT_CAPACITY, Math.min(expected, MAX_INITIAL_CAPACITY)));
+    }
+
+    public void add(long value) {
+        if (this.size == this.values.length) {
+            this.makeRoom();
+        }
+        this.values[this.size++] = value;
+    }
+
+    /**
+     * Adds all values of the given array.
+     * @param other
+     */
+    public void addAll(long[] other) {
+        for (long value : other) {
+            this.add(value);
+        }
+    }
+
+    /**
+     * Returns the number of values in the buffer, including duplicates that
+     * were not removed yet.
+     * @return
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Removes all values from the buffer while keeping the capacity.
+     */
+    public void clear() {
+        this.size = 0;
+    }
+
+    private void sortAndRemoveDuplicates() {
+        if (this.size == 0) {
+            return;
+        }
+        Arrays.sort(this.values, 0, this.size);
+        int last = 0;
+        for (int i = 1; i < this.size; i++) {
+            if (this.values[i] != this.values[last]) {
+                this.values[++last] = this.values[i];
+            }
+        }
+        this.size = last + 1;
+    }
+
+    private void makeRoom() {
+        // Repetitive sequences yield a lot of duplicates, only grow if the
+        // buffer is still rather full after removing those.
+        this.sortAndRemoveDuplicates();
+        if (this.size < this.values.length / 2) {
+            return;
+        }
+        if (this.values.length == MAX_CAPACITY) {
+            throw new OutOfMemoryError("too many hash values for a single buffer");
+        }
+        int newCapacity = (int) Math.min((long) this.values.length * 2, MAX_CAPACITY);
+        this.values = Arrays.copyOf(this.values, newCapacity);
+    }
+
+    /**
+     * Returns a new array that contains all distinct values of the buffer in
+     * ascending order.
+     * @return
+     */
+    public long[] toSortedArray() {
+        this.sortAndRemoveDuplicates();
+        return Arrays.copyOf(this.values, this.size);
+    }
+}
@@ -0,0 +1,221 @@
+package org.husonlab.fmhdist.util;
+
+import java.util.Arrays;
+
+/**
+ * Map from primitive longs to primitive ints that is used to count hash
+ * values without boxing them. The map uses open addressing with linear
+ * probing in two parallel arrays, thus incrementing a count is an amortized
+ * O(1) operation without any allocation. Entries can not be removed.
+ */
+public class LongIntHashMap {
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    // The table is kept at most half full
+    private static final int MAX_CAPACITY = 1 << 30;
+    // The estimate is only used up to this many entries (24 MiB), larger
+    // maps grow on demand instead of being allocated up front
+    private static final int MAX_INITIAL_SIZE = 1 << 20;
+
+    // 0 marks an empty slot, thus the key 0 is stored separately
+    private long[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+    private boolean hasZeroKey;
+    private int zeroValue;
+
+    /**
+     * Creates a new map with the default capacity.
+     */
+    public LongIntHashMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a new map.
+     * @param expectedSize The number of entries that can be added before the
+     * map needs to grow.
+     */
+    public LongIntHashMap(int expectedSize) {
+        int capacity = 2;
+        while (capacity < 2L * expectedSize && capacity < MAX_CAPACITY) {
+            capacity <<= 1;
+        }
+        this.keys = new long[capacity];
+        this.values = new int[capacity];
+        this.mask = capacity - 1;
+        this.size = 0;
+    }
+
+    /**
+     * Creates a map that is large enough for the expected number of distinct
+     * hash values of a FracMinHash sketch, i.e. genomeSize / s, up to a fixed
+     * ceiling.
+     * @param genomeSize The (estimated) genome size, values <= 0 are treated
+     * as unknown
+     * @param sParam The scaling parameter s
+     * @return
+     */
+    public static LongIntHashMap forSketch(long genomeSize, int sParam) {
+        if (genomeSize <= 0 || sParam <= 0) {
+            return new LongIntHashMap();
+        }
+        long expected = genomeSize / sParam;
+        expected += expected / 4;
+        return withCappedSize(expected);
+    }
+
+    /**
+     * Creates a map that is large enough for the expected number of entries
+     * up to a fixed ceiling, larger maps grow on demand.
+     * @param expectedSize The (estimated) number of entries, may exceed the
+     * int range
+     * @return
+     */
+    public static LongIntHashMap withCappedSize(long expectedSize) {
+        return new LongIntHashMap((int) Math.max(DEFAULT_CAPACITY, Math.min(expectedSize, MAX_INITIAL_SIZE)));
+    }
+
+    /**
+     * Spreads the bits of the key (the finalizer of MurmurHash3). The hash
+     * values of a sketch are all small, so their high bits are nearly
+     * identical and need to be mixed into the slot index.
+     */
+    private static int slot(long key, int mask) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key & mask;
+    }
+
+    /**
+     * Increments the count of the given key by one, absent keys have a count
+     * of 0.
+     * @param key
+     * @return The new count
+     */
+    public int increment(long key) {
+        if (key == 0) {
+            if (!this.hasZeroKey) {
+                this.hasZeroKey = true;
+                this.size++;
+            }
+            return ++this.zeroValue;
+        }
+        int index = slot(key, this.mask);
+        while (this.keys[index] != 0) {
+            if (this.keys[index] == key) {
+                return ++this.values[index];
+            }
+            index = (index + 1) & this.mask;
+        }
+        this.keys[index] = key;
+        this.values[index] = 1;
+        if (++this.size > this.keys.length / 2) {
+            this.grow();
+        }
+        return 1;
+    }
+
+    /**
+     * Sets the value of the given key, e.g. to map hash values to indices.
+     * @param key
+     * @param value
+     */
+    public void put(long key, int value) {
+        if (key == 0) {
+            if (!this.hasZeroKey) {
+                this.hasZeroKey = true;
+                this.size++;
+            }
+            this.zeroValue = value;
+            return;
+        }
+        int index = slot(key, this.mask);
+        while (this.keys[index] != 0) {
+            if (this.keys[index] == key) {
+                this.values[index] = value;
+                return;
+            }
+            index = (index + 1) & this.mask;
+        }
+        this.keys[index] = key;
+        this.values[index] = value;
+        if (++this.size > this.keys.length / 2) {
+            this.grow();
+        }
+    }
+
+    /**
+     * Returns the count of the given key.
+     * @param key
+     * @return The count or 0 if the key is absent
+     */
+    public int get(long key) {
+        if (key == 0) {
+            return this.zeroValue;
+        }
+        int index = slot(key, this.mask);
+        while (this.keys[index] != 0) {
+            if (this.keys[index] == key) {
+                return this.values[index];
+            }
+            index = (index + 1) & this.mask;
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the number of distinct keys in the map.
+     * @return
+     */
+    public int size() {
+        return this.size;
+    }
+
+    private void grow() {
+        if (this.keys.length == MAX_CAPACITY) {
+            throw new OutOfMemoryError("too many keys for a single map");
+        }
+        final long[] oldKeys = this.keys;
+        final int[] oldValues = this.values;
+        this.keys = new long[oldKeys.length * 2];
+        this.values = new int[oldValues.length * 2];
+        this.mask = this.keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int index = slot(oldKeys[i], this.mask);
+                while (this.keys[index] != 0) {
+                    index = (index + 1) & this.mask;
+                }
+                this.keys[index] = oldKeys[i];
+                this.values[index] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * Returns a new array that contains all keys with a count of at least
+     * minCount in ascending order.
+     * @param minCount
+     * @return
+     */
+    public long[] getSortedKeys(int minCount) {
+        long[] result = new long[this.size];
+        int count = 0;
+        if (this.hasZeroKey && this.zeroValue >= minCount) {
+            result[count++] = 0;
+        }
+        for (int i = 0; i < this.keys.length; i++) {
+            if (this.keys[i] != 0 && this.values[i] >= minCount) {
+                result[count++] = this.keys[i];
+            }
+        }
+        result = count == result.length ? result : Arrays.copyOf(result, count);
+        Arrays.sort(result);
+        return result;
+    }
+}
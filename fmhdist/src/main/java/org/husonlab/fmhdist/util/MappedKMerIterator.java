@@ -0,0 +1,140 @@
+package org.husonlab.fmhdist.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Iterator that produces k-mers of a fixed size for a given uncompressed,
+ * local FASTA file. The file is memory-mapped and scanned in place, thus no
+ * lines or strings are created and no charset decoding takes place. Files
+ * larger than a single mapping are mapped window by window. Alternatively,
+ * the iterator scans the FASTA content of a given buffer, e.g. a single record
+ * of a larger file. K-mers will never span multiple sequences in the FASTA.
+ *
+ * The k-mers, reverse complements and coordinates are identical to the ones
+ * of the LineKMerIterator. All characters other than A, C, G and T (and N if
+ * ambiguous bases are not skipped) are treated as ambiguous bases.
+ */
+public class MappedKMerIterator extends BlockKMerIterator {
+    // Size of a single mapping, large files are mapped window by window
+    private static final long WINDOW_SIZE = 1L << 30;
+
+    /**
+     * Supplies the consecutive memory-mapped windows of a file.
+     */
+    private static class MappedBlockSource implements ByteBlockSource {
+        private final FileChannel channel;
+        private final long fileSize;
+        private long windowStart;
+
+        private MappedBlockSource(String fileName) throws IOException {
+            this.channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+            this.fileSize = this.channel.size();
+            this.windowStart = 0;
+        }
+
+        @Override
+        public ByteBuffer nextBlock() throws IOException {
+            if (this.windowStart >= this.fileSize) {
+                return null;
+            }
+            final long length = Math.min(WINDOW_SIZE, this.fileSize - this.windowStart);
+            final ByteBuffer window = this.channel.map(FileChannel.MapMode.READ_ONLY, this.windowStart, length);
+            this.windowStart += length;
+            return window;
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.channel.close();
+        }
+    }
+
+    /**
+     * Supplies a single buffer.
+     */
+    private static class SingleBlockSource implements ByteBlockSource {
+        private ByteBuffer buffer;
+
+        private SingleBlockSource(ByteBuffer buffer) {
+            this.buffer = buffer.slice();
+        }
+
+        @Override
+        public ByteBuffer nextBlock() {
+            final ByteBuffer result = this.buffer;
+            this.buffer = null;
+            return result;
+        }
+
+        @Override
+        public void close() {
+            this.buffer = null;
+        }
+    }
+
+    /**
+     * Creates a new MappedKMerIterator that decomposes underlying file into
+     * its k-mers.
+     * @param k The k-mer size to apply
+     * @param fileName Path to the local, uncompressed Fasta file to read.
+     * @param skipN Bool flag, if set to false, k-mers containing ambiguous
+     * bases won't be skipped.
+     * @throws IOException
+     */
+    public MappedKMerIterator(int k, String fileName, boolean skipN) throws IOException {
+        super(k, new MappedBlockSource(fileName), skipN);
+    }
+
+    /**
+     * Creates a new MappedKMerIterator that decomposes the FASTA content of
+     * the given buffer into its k-mers. The content between the position and
+     * the limit of the buffer is scanned, the buffer itself is not modified.
+     * @param k The k-mer size to apply
+     * @param buffer The buffer holding the FASTA content
+     * @param skipN Bool flag, if set to false, k-mers containing ambiguous
+     * bases won't be skipped.
+     */
+    public MappedKMerIterator(int k, ByteBuffer buffer, boolean skipN) {
+        super(k, new SingleBlockSource(buffer), skipN);
+    }
+
+    /**
+     * Checks if the given file can be read by the MappedKMerIterator, i.e. if
+     * it is a local regular file that is not compressed.
+     * @param fileName Path or URL of the file
+     * @return
+     */
+    public static boolean isMappable(String fileName) {
+        if (fileName == null || fileName.contains("://")) {
+            return false;
+        }
+        final Path path;
+        try {
+            path = Paths.get(fileName);
+        } catch (InvalidPathException e) {
+            return false;
+        }
+        if (!Files.isRegularFile(path) || !Files.isReadable(path)) {
+            return false;
+        }
+        // check the magic numbers instead of relying on the file extension
+        try (InputStream stream = Files.newInputStream(path)) {
+            int first = stream.read();
+            int second = stream.read();
+            boolean isGzip = first == 0x1f && second == 0x8b;
+            boolean isZip = first == 'P' && second == 'K';
+            boolean isBzip2 = first == 'B' && second == 'Z';
+            return !isGzip && !isZip && !isBzip2;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
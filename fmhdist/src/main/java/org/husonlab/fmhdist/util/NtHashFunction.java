@@ -0,0 +1,167 @@
+package org.husonlab.fmhdist.util;
+
+import net.openhft.hashing.Access;
+import net.openhft.hashing.LongHashFunction;
+
+/**
+ * Canonical ntHash (Mohamadi et al.) as a LongHashFunction. The hash of a
+ * k-mer is the sum of the ntHash values of the k-mer and its reverse
+ * complement, followed by a 64-bit finalizer to spread the XOR-based values
+ * over the whole range. As the hash is canonical, hashing a k-mer or its
+ * reverse complement yields the same value.
+ *
+ * Hashing a complete k-mer with this function yields the same value as
+ * rolling over the sequence with the NtHashIterator, which computes the hash
+ * of the next k-mer in O(1) from the previous one.
+ *
+ * Bytes other than A, C, G and T (in upper or lower case) are hashed with
+ * their own seeds and are their own complement, so any input can be hashed.
+ */
+public class NtHashFunction extends LongHashFunction {
+    private static final long serialVersionUID = 1L;
+
+    // The seeds of the original ntHash implementation
+    private static final long SEED_A = 0x3c8bfbb395c60474L;
+    private static final long SEED_C = 0x3193c18562a02b4cL;
+    private static final long SEED_G = 0x20323ed082572324L;
+    private static final long SEED_T = 0x295549f54be24456L;
+
+    private static final byte[] complementTable = new byte[256];
+    static {
+        for (int i = 0; i < complementTable.length; i++) {
+            complementTable[i] = (byte) i;
+        }
+        complementTable['A'] = 'T';
+        complementTable['T'] = 'A';
+        complementTable['G'] = 'C';
+        complementTable['C'] = 'G';
+        complementTable['a'] = 't';
+        complementTable['t'] = 'a';
+        complementTable['g'] = 'c';
+        complementTable['c'] = 'g';
+    }
+
+    private final long seed;
+    private final long[] seedTable;
+
+    /**
+     * Creates a new canonical ntHash function.
+     * @param seed The random seed that is mixed into the base seeds
+     */
+    public NtHashFunction(long seed) {
+        this.seed = seed;
+        this.seedTable = new long[256];
+        for (int i = 0; i < this.seedTable.length; i++) {
+            this.seedTable[i] = mix(seed + i);
+        }
+        long[] baseSeeds = new long[] { SEED_A, SEED_C, SEED_G, SEED_T };
+        byte[][] bases = new byte[][] { { 'A', 'a' }, { 'C', 'c' }, { 'G', 'g' }, { 'T', 't' } };
+        for (int i = 0; i < baseSeeds.length; i++) {
+            long baseSeed = mix(baseSeeds[i] ^ seed);
+            this.seedTable[bases[i][0]] = baseSeed;
+            this.seedTable[bases[i][1]] = baseSeed;
+        }
+    }
+
+    /**
+     * Returns the random seed that was used to create this function.
+     * @return
+     */
+    public long getSeed() {
+        return this.seed;
+    }
+
+    /**
+     * Returns the seeds of the nucleotides A, C, G and T (in that order), i.e.
+     * in the order of the 2-bit encoding used by the PackedKMerIterator.
+     * @return
+     */
+    long[] getNucleotideSeeds() {
+        return new long[] {
+            this.seedTable['A'],
+            this.seedTable['C'],
+            this.seedTable['G'],
+            this.seedTable['T']
+        };
+    }
+
+    /**
+     * Combines the forward and the reverse complement ntHash values to the
+     * final canonical hash value.
+     * @param forward The ntHash of the k-mer
+     * @param reverseComplement The ntHash of the reverse complement
+     * @return
+     */
+    static long combine(long forward, long reverseComplement) {
+        return mix(forward + reverseComplement);
+    }
+
+    /**
+     * The 64-bit finalizer of MurmurHash3.
+     */
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+
+    /**
+     * Hashes the lowest length bytes of value in little endian order.
+     */
+    private long hashLittleEndian(long value, int length) {
+        long forward = 0;
+        long reverseComplement = 0;
+        for (int i = 0; i < length; i++) {
+            int current = (int) ((value >>> (8 * i)) & 0xff);
+            forward = Long.rotateLeft(forward, 1) ^ this.seedTable[current];
+            reverseComplement = Long.rotateRight(reverseComplement, 1) ^ Long.rotateLeft(this.seedTable[complementTable[current] & 0xff], length - 1);
+        }
+        return combine(forward, reverseComplement);
+    }
+
+    @Override
+    public long hashLong(long input) {
+        return this.hashLittleEndian(input, 8);
+    }
+
+    @Override
+    public long hashInt(int input) {
+        return this.hashLittleEndian(input, 4);
+    }
+
+    @Override
+    public long hashShort(short input) {
+        return this.hashLittleEndian(input, 2);
+    }
+
+    @Override
+    public long hashChar(char input) {
+        return this.hashLittleEndian(input, 2);
+    }
+
+    @Override
+    public long hashByte(byte input) {
+        return this.hashLittleEndian(input, 1);
+    }
+
+    @Override
+    public long hashVoid() {
+        return combine(0, 0);
+    }
+
+    @Override
+    public <T> long hash(T input, Access<T> access, long off, long len) {
+        long forward = 0;
+        long reverseComplement = 0;
+        final int rotation = (int) ((len - 1) & 63);
+        for (long i = 0; i < len; i++) {
+            int current = access.getUnsignedByte(input, off + i);
+            forward = Long.rotateLeft(forward, 1) ^ this.seedTable[current];
+            reverseComplement = Long.rotateRight(reverseComplement, 1) ^ Long.rotateLeft(this.seedTable[complementTable[current] & 0xff], rotation);
+        }
+        return combine(forward, reverseComplement);
+    }
+}
@@ -0,0 +1,218 @@
+package org.husonlab.fmhdist.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+import jloda.util.FileUtils;
+
+/**
+ * Iterator that produces the canonical ntHash values of all k-mers of a given
+ * FASTA file. The hash of the next k-mer is derived from the previous one by
+ * removing the outgoing and adding the incoming base, thus the work per base
+ * is independent of k.
+ *
+ * K-mers containing bases other than A, C, G or T (in upper or lower case) are
+ * skipped. K-mers will never span multiple sequences in the FASTA. The values
+ * are identical to hashing the k-mers with the NtHashFunction.
+ */
+public class NtHashIterator implements KMerHashIterator {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static final byte[] encodingTable = new byte[256];
+    static {
+        Arrays.fill(encodingTable, (byte) -1);
+        encodingTable['A'] = 0;
+        encodingTable['C'] = 1;
+        encodingTable['G'] = 2;
+        encodingTable['T'] = 3;
+        encodingTable['a'] = 0;
+        encodingTable['c'] = 1;
+        encodingTable['g'] = 2;
+        encodingTable['t'] = 3;
+    }
+
+    // Characters that may occur inside of a sequence line without being an
+    // ambiguous base, e.g. due to Windows line endings.
+    private static final boolean[] isSkippableChar = new boolean[256];
+    static {
+        isSkippableChar['\t'] = true;
+        isSkippableChar['\r'] = true;
+        isSkippableChar[' '] = true;
+    }
+
+    private final int k;
+    private final NtHashFunction hashFunction;
+
+    // All tables are indexed by the 2-bit code of a base, the complement of
+    // code c is 3 - c.
+    private final long[] seeds;
+    private final long[] outgoingSeeds;
+    private final long[] outgoingComplementSeeds;
+    private final long[] incomingComplementSeeds;
+
+    private final InputStream stream;
+    private final byte[] buffer;
+    private int bufferPointer;
+    private int bufferSize;
+
+    // The last k bases to know which base leaves the window
+    private final byte[] window;
+    private int windowPointer;
+
+    private long forwardHash;
+    private long reverseComplementHash;
+    private int validBases;
+
+    private boolean isAtLineStart;
+    private boolean isInHeader;
+    private boolean isPreloaded;
+    private boolean isEOF;
+
+    /**
+     * Creates a new NtHashIterator that decomposes the underlying stream into
+     * its k-mers and hashes them.
+     * @param k The k-mer size to apply
+     * @param stream The stream from which the FASTA content is read
+     * @param hashFunction The ntHash function that provides the seeds
+     */
+    public NtHashIterator(int k, InputStream stream, NtHashFunction hashFunction) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be positive");
+        }
+        this.k = k;
+        this.hashFunction = hashFunction;
+        this.seeds = hashFunction.getNucleotideSeeds();
+        this.outgoingSeeds = new long[4];
+        this.outgoingComplementSeeds = new long[4];
+        this.incomingComplementSeeds = new long[4];
+        for (int code = 0; code < 4; code++) {
+            this.outgoingSeeds[code] = Long.rotateLeft(this.seeds[code], k);
+            this.outgoingComplementSeeds[code] = Long.rotateRight(this.seeds[3 - code], 1);
+            this.incomingComplementSeeds[code] = Long.rotateLeft(this.seeds[3 - code], k - 1);
+        }
+
+        this.stream = stream;
+        this.buffer = new byte[BUFFER_SIZE];
+        this.window = new byte[k];
+        this.isAtLineStart = true;
+    }
+
+    /**
+     * Creates a new NtHashIterator that decomposes the underlying file into its
+     * k-mers and hashes them.
+     * @param k The k-mer size to apply
+     * @param fileName Path to the Fasta file to read. This could also be a URL
+     * or a path to a zip/gzip file.
+     * @param hashFunction The ntHash function that provides the seeds
+     * @throws IOException
+     */
+    public NtHashIterator(int k, String fileName, NtHashFunction hashFunction) throws IOException {
+        this(k, FileUtils.getInputStreamPossiblyZIPorGZIP(fileName), hashFunction);
+    }
+
+    private void resetKmer() {
+        this.validBases = 0;
+        this.forwardHash = 0;
+        this.reverseComplementHash = 0;
+    }
+
+    /**
+     * Scans the stream until the next valid k-mer is complete or the stream
+     * is exhausted.
+     */
+    private void preload() {
+        try {
+            while (true) {
+                if (this.bufferPointer >= this.bufferSize) {
+                    this.bufferSize = this.stream.read(this.buffer, 0, this.buffer.length);
+                    this.bufferPointer = 0;
+                    if (this.bufferSize <= 0) {
+                        this.isEOF = true;
+                        return;
+                    }
+                }
+                final byte current = this.buffer[this.bufferPointer++];
+                if (current == '\n') {
+                    this.isInHeader = false;
+                    this.isAtLineStart = true;
+                    continue;
+                }
+                if (this.isInHeader) {
+                    continue;
+                }
+                if (this.isAtLineStart && current == '>') {
+                    // New sequences only start at the beginning of a line
+                    this.isInHeader = true;
+                    this.resetKmer();
+                    continue;
+                }
+                this.isAtLineStart = false;
+
+                final int code = encodingTable[current & 0xff];
+                if (code < 0) {
+                    if (!isSkippableChar[current & 0xff]) {
+                        this.resetKmer();
+                    }
+                    continue;
+                }
+
+                this.forwardHash = Long.rotateLeft(this.forwardHash, 1) ^ this.seeds[code];
+                this.reverseComplementHash = Long.rotateRight(this.reverseComplementHash, 1) ^ this.incomingComplementSeeds[code];
+                if (this.validBases == this.k) {
+                    // The window is full, the base at the pointer leaves it
+                    final int outgoing = this.window[this.windowPointer];
+                    this.forwardHash ^= this.outgoingSeeds[outgoing];
+                    this.reverseComplementHash ^= this.outgoingComplementSeeds[outgoing];
+                } else {
+                    this.validBases++;
+                }
+                this.window[this.windowPointer] = (byte) code;
+                if (++this.windowPointer == this.k) {
+                    this.windowPointer = 0;
+                }
+
+                if (this.validBases == this.k) {
+                    this.isPreloaded = true;
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (!this.isPreloaded && !this.isEOF) {
+            this.preload();
+        }
+        return this.isPreloaded;
+    }
+
+    @Override
+    public long nextLong() {
+        if (!this.hasNext()) {
+            throw new NoSuchElementException();
+        }
+        this.isPreloaded = false;
+        return NtHashFunction.combine(this.forwardHash, this.reverseComplementHash);
+    }
+
+    @Override
+    public int getK() {
+        return this.k;
+    }
+
+    @Override
+    public NtHashFunction getHashFunction() {
+        return this.hashFunction;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.stream.close();
+    }
+}
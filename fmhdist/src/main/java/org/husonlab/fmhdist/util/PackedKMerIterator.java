@@ -0,0 +1,225 @@
+package org.husonlab.fmhdist.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+import jloda.util.FileUtils;
+
+/**
+ * Iterator that produces the canonical k-mers of a fixed size k <= 32 for a
+ * given FASTA file. Instead of materializing each k-mer as a byte array, the
+ * iterator keeps the k-mer and its reverse complement as 2-bit packed longs
+ * (A=0, C=1, G=2, T=3) that are updated with a single shift per base. As this
+ * encoding preserves the lexicographical order of A < C < G < T, the canonical
+ * k-mer is selected with a single integer comparison.
+ *
+ * K-mers containing bases other than A, C, G or T (in upper or lower case) are
+ * skipped. K-mers will never span multiple sequences in the FASTA.
+ */
+public class PackedKMerIterator implements Closeable {
+    /**
+     * The largest k-mer size that fits into a 64 bit long.
+     */
+    public static final int MAX_K = 32;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static final byte[] encodingTable = new byte[256];
+    static {
+        Arrays.fill(encodingTable, (byte) -1);
+        encodingTable['A'] = 0;
+        encodingTable['C'] = 1;
+        encodingTable['G'] = 2;
+        encodingTable['T'] = 3;
+        encodingTable['a'] = 0;
+        encodingTable['c'] = 1;
+        encodingTable['g'] = 2;
+        encodingTable['t'] = 3;
+    }
+
+    private static final byte[] decodingTable = new byte[] { 'A', 'C', 'G', 'T' };
+
+    // Characters that may occur inside of a sequence line without being an
+    // ambiguous base, e.g. due to Windows line endings.
+    private static final boolean[] isSkippableChar = new boolean[256];
+    static {
+        isSkippableChar['\t'] = true;
+        isSkippableChar['\r'] = true;
+        isSkippableChar[' '] = true;
+    }
+
+    private final int k;
+    private final long mask;
+    private final int reverseComplementShift;
+
+    private final InputStream stream;
+    private final byte[] buffer;
+    private int bufferPointer;
+    private int bufferSize;
+
+    private long kmer;
+    private long kmerReverseComplement;
+    private int validBases;
+
+    private boolean isAtLineStart;
+    private boolean isInHeader;
+    private boolean isPreloaded;
+    private boolean isEOF;
+
+    /**
+     * Creates a new PackedKMerIterator that decomposes the underlying stream
+     * into its k-mers.
+     * @param k The k-mer size to apply, at most MAX_K
+     * @param stream The stream from which the FASTA content is read
+     */
+    public PackedKMerIterator(int k, InputStream stream) {
+        if (k < 1 || k > MAX_K) {
+            throw new IllegalArgumentException(String.format("k must be between 1 and %d", MAX_K));
+        }
+        this.k = k;
+        this.mask = k == MAX_K ? -1L : (1L << (2 * k)) - 1;
+        this.reverseComplementShift = 2 * (k - 1);
+        this.stream = stream;
+        this.buffer = new byte[BUFFER_SIZE];
+        this.isAtLineStart = true;
+    }
+
+    /**
+     * Creates a new PackedKMerIterator that decomposes the underlying file into
+     * its k-mers.
+     * @param k The k-mer size to apply, at most MAX_K
+     * @param fileName Path to the Fasta file to read. This could also be a URL
+     * or a path to a zip/gzip file.
+     * @throws IOException
+     */
+    public PackedKMerIterator(int k, String fileName) throws IOException {
+        this(k, FileUtils.getInputStreamPossiblyZIPorGZIP(fileName));
+    }
+
+    /**
+     * Scans the stream until the next valid k-mer is complete or the stream
+     * is exhausted.
+     */
+    private void preload() {
+        try {
+            while (true) {
+                if (this.bufferPointer >= this.bufferSize) {
+                    this.bufferSize = this.stream.read(this.buffer, 0, this.buffer.length);
+                    this.bufferPointer = 0;
+                    if (this.bufferSize <= 0) {
+                        this.isEOF = true;
+                        return;
+                    }
+                }
+                final byte current = this.buffer[this.bufferPointer++];
+                if (current == '\n') {
+                    this.isInHeader = false;
+                    this.isAtLineStart = true;
+                    continue;
+                }
+                if (this.isInHeader) {
+                    continue;
+                }
+                if (this.isAtLineStart && current == '>') {
+                    // New sequences only start at the beginning of a line
+                    this.isInHeader = true;
+                    this.validBases = 0;
+                    continue;
+                }
+                this.isAtLineStart = false;
+
+                final int code = encodingTable[current & 0xff];
+                if (code < 0) {
+                    if (!isSkippableChar[current & 0xff]) {
+                        this.validBases = 0;
+                    }
+                    continue;
+                }
+                this.kmer = ((this.kmer << 2) | code) & this.mask;
+                this.kmerReverseComplement = (this.kmerReverseComplement >>> 2) | ((long) (3 - code) << this.reverseComplementShift);
+                if (++this.validBases >= this.k) {
+                    // avoid an overflow for very long sequences
+                    this.validBases = this.k;
+                    this.isPreloaded = true;
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public boolean hasNext() {
+        if (!this.isPreloaded && !this.isEOF) {
+            this.preload();
+        }
+        return this.isPreloaded;
+    }
+
+    /**
+     * Returns the canonical k-mer, i.e. the lexicographically smaller one of
+     * the next k-mer and its reverse complement, in its packed representation.
+     * @return
+     */
+    public long next() {
+        if (!this.hasNext()) {
+            throw new NoSuchElementException();
+        }
+        this.isPreloaded = false;
+        // For k = 32, the highest bit is in use
+        if (Long.compareUnsigned(this.kmer, this.kmerReverseComplement) > 0) {
+            return this.kmerReverseComplement;
+        }
+        return this.kmer;
+    }
+
+    /**
+     * Returns the packed representation of the k-mer that belongs to the last
+     * call to "next()" in the order of the input sequence. The value is only
+     * valid until the next call to "hasNext()".
+     * @return
+     */
+    public long getKmer() {
+        return this.kmer;
+    }
+
+    /**
+     * Returns the packed representation of the reverse complement that belongs
+     * to the last call to "next()". The value is only valid until the next
+     * call to "hasNext()".
+     * @return
+     */
+    public long getReverseComplement() {
+        return this.kmerReverseComplement;
+    }
+
+    /**
+     * Returns the k-mer size
+     * @return
+     */
+    public int getK() {
+        return this.k;
+    }
+
+    /**
+     * Writes the upper case nucleotides of the given packed k-mer into target.
+     * @param packedKmer The k-mer in its packed representation
+     * @param k The k-mer size
+     * @param target The array to write to, needs to have at least k elements
+     */
+    public static void unpack(long packedKmer, int k, byte[] target) {
+        for (int i = k - 1; i >= 0; i--) {
+            target[i] = decodingTable[(int) (packedKmer & 3)];
+            packedKmer >>>= 2;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.stream.close();
+    }
+}
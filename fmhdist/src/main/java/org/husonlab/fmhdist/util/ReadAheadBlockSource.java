@@ -0,0 +1,328 @@
+package org.husonlab.fmhdist.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.LockSupport;
+
+import jloda.util.FileUtils;
+
+/**
+ * Block source that reads (and thereby decompresses) a stream on a dedicated
+ * thread ahead of the consumer. The blocks are passed through a bounded ring
+ * buffer with a single producer and a single consumer: the producer fills the
+ * free slots and publishes them by incrementing a counter, the consumer
+ * releases a slot by incrementing another counter once it requests the next
+ * block. Both sides only wait (without spinning) if the ring is full or empty.
+ *
+ * A stream can also be shared by several consumers, e.g. to sketch a file for
+ * multiple k-mer sizes with a single read, see share(). In that case, a slot
+ * is only reused once all consumers released it.
+ *
+ * The number and size of the blocks can be configured globally with
+ * setBlockCount() and setBlockSize(). A block count of 0 disables reading
+ * ahead, see isEnabled().
+ */
+public class ReadAheadBlockSource implements ByteBlockSource {
+    public static final int DEFAULT_BLOCK_COUNT = 4;
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+
+    private static volatile int blockCount = DEFAULT_BLOCK_COUNT;
+    private static volatile int blockSize = DEFAULT_BLOCK_SIZE;
+
+    private final InputStream stream;
+    private final byte[][] blocks;
+    // Number of valid bytes of each block, written before the block is
+    // published
+    private final int[] blockSizes;
+    private final Consumer[] consumers;
+    private final Thread producer;
+
+    // Number of blocks filled by the producer, only written by the producer
+    private volatile long published;
+
+    private volatile boolean isFinished;
+    private volatile boolean isClosed;
+    private volatile Throwable failure;
+
+    /**
+     * A single consumer of the blocks.
+     */
+    private class Consumer implements ByteBlockSource {
+        // Views on the blocks, so consumers don't share positions and limits
+        private final ByteBuffer[] views;
+        // Number of blocks that the consumer is done with, only written by
+        // the consumer. Closed consumers don't hold back the producer.
+        private volatile long released;
+        // Number of blocks handed out to the consumer
+        private long consumed;
+        private volatile Thread thread;
+        private boolean isClosed;
+
+        private Consumer() {
+            this.views = new ByteBuffer[blocks.length];
+            for (int i = 0; i < blocks.length; i++) {
+                this.views[i] = ByteBuffer.wrap(blocks[i]);
+            }
+        }
+
+        @Override
+        public ByteBuffer nextBlock() throws IOException {
+            if (this.consumed > this.released) {
+                // the previous block is not used anymore
+                this.released = this.consumed;
+                LockSupport.unpark(producer);
+            }
+            this.thread = Thread.currentThread();
+            while (published <= this.consumed) {
+                if (isFinished) {
+                    // the producer publishes all blocks before finishing
+                    if (published > this.consumed) {
+                        break;
+                    }
+                    if (failure instanceof IOException) {
+                        throw (IOException) failure;
+                    }
+                    if (failure != null) {
+                        throw new IOException(failure);
+                    }
+                    return null;
+                }
+                LockSupport.park(this);
+            }
+            final int slot = (int) (this.consumed++ % blocks.length);
+            final ByteBuffer result = this.views[slot];
+            result.clear();
+            result.limit(blockSizes[slot]);
+            return result;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (this.isClosed) {
+                return;
+            }
+            this.isClosed = true;
+            this.released = Long.MAX_VALUE;
+            consumerClosed();
+        }
+    }
+
+    /**
+     * Creates a new ReadAheadBlockSource with the globally configured number
+     * and size of blocks.
+     * @param stream The stream to read from, it is closed with this source
+     */
+    public ReadAheadBlockSource(InputStream stream) {
+        this(stream, Math.max(1, blockCount), blockSize);
+    }
+
+    /**
+     * Creates a new ReadAheadBlockSource.
+     * @param stream The stream to read from, it is closed with this source
+     * @param count The number of blocks in the ring buffer, this limits how
+     * far the producer can read ahead.
+     * @param size The size of a single block in bytes
+     */
+    public ReadAheadBlockSource(InputStream stream, int count, int size) {
+        this(stream, count, size, 1);
+    }
+
+    private ReadAheadBlockSource(InputStream stream, int count, int size, int consumerCount) {
+        if (count < 1 || size < 1) {
+            throw new IllegalArgumentException("block count and size must be positive");
+        }
+        this.stream = stream;
+        this.blocks = new byte[count][size];
+        this.blockSizes = new int[count];
+        this.consumers = new Consumer[consumerCount];
+        for (int i = 0; i < consumerCount; i++) {
+            this.consumers[i] = new Consumer();
+        }
+        this.producer = new Thread(this::produce, "read-ahead");
+        this.producer.setDaemon(true);
+        this.producer.start();
+    }
+
+    /**
+     * Opens the given file and reads it ahead. Local BGZF files are inflated
+     * in parallel by a BgzfBlockSource instead, if enabled.
+     * @param fileName Path to the file to read. This could also be a URL or a
+     * path to a zip/gzip file.
+     * @return
+     * @throws IOException
+     */
+    public static ByteBlockSource open(String fileName) throws IOException {
+        if (BgzfBlockSource.isEnabled() && BgzfBlockSource.isBgzf(fileName)) {
+            return new BgzfBlockSource(fileName);
+        }
+        return new ReadAheadBlockSource(FileUtils.getInputStreamPossiblyZIPorGZIP(fileName));
+    }
+
+    /**
+     * Opens the given file as stream that is read ahead if reading ahead is
+     * enabled.
+     * @param fileName Path to the file to read. This could also be a URL or a
+     * path to a zip/gzip file.
+     * @return
+     * @throws IOException
+     */
+    public static InputStream openInputStream(String fileName) throws IOException {
+        if (!isEnabled()) {
+            return FileUtils.getInputStreamPossiblyZIPorGZIP(fileName);
+        }
+        return new ByteBlockInputStream(open(fileName));
+    }
+
+    /**
+     * Reads the given stream ahead for several consumers. Each consumer
+     * receives all blocks of the stream. Consumers need to run concurrently,
+     * as the producer only reads ahead as far as the slowest consumer allows.
+     * The stream is closed once all consumers are closed.
+     * @param stream The stream to read from
+     * @param consumerCount The number of consumers
+     * @return The sources of the consumers
+     */
+    public static ByteBlockSource[] share(InputStream stream, int consumerCount) {
+        if (consumerCount < 1) {
+            throw new IllegalArgumentException("number of consumers must be positive");
+        }
+        final ReadAheadBlockSource source = new ReadAheadBlockSource(stream, Math.max(1, blockCount), blockSize, consumerCount);
+        return source.consumers.clone();
+    }
+
+    /**
+     * Opens the given file for several consumers, see share(). Local BGZF
+     * files are inflated in parallel, if enabled.
+     * @param fileName Path to the file to read. This could also be a URL or a
+     * path to a zip/gzip file.
+     * @param consumerCount The number of consumers
+     * @return The sources of the consumers
+     * @throws IOException
+     */
+    public static ByteBlockSource[] openShared(String fileName, int consumerCount) throws IOException {
+        if (BgzfBlockSource.isEnabled() && BgzfBlockSource.isBgzf(fileName)) {
+            return share(new ByteBlockInputStream(new BgzfBlockSource(fileName)), consumerCount);
+        }
+        return share(FileUtils.getInputStreamPossiblyZIPorGZIP(fileName), consumerCount);
+    }
+
+    public static boolean isEnabled() {
+        return blockCount > 0;
+    }
+
+    public static int getBlockCount() {
+        return blockCount;
+    }
+
+    /**
+     * Sets the number of blocks that are used by new sources. 0 disables
+     * reading ahead.
+     * @param count
+     */
+    public static void setBlockCount(int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("block count must not be negative");
+        }
+        blockCount = count;
+    }
+
+    public static int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Sets the size of the blocks in bytes that are used by new sources.
+     * @param size
+     */
+    public static void setBlockSize(int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("block size must be positive");
+        }
+        blockSize = size;
+    }
+
+    private void produce() {
+        try {
+            while (!this.isClosed) {
+                // wait for a free slot
+                while (this.published - this.getReleased() >= this.blocks.length) {
+                    if (this.isClosed) {
+                        return;
+                    }
+                    LockSupport.park(this);
+                }
+
+                final int slot = (int) (this.published % this.blocks.length);
+                final byte[] content = this.blocks[slot];
+                int size = 0;
+                int read = 0;
+                while (size < content.length && (read = this.stream.read(content, size, content.length - size)) >= 0) {
+                    size += read;
+                }
+                if (size > 0) {
+                    this.blockSizes[slot] = size;
+                    this.published++;
+                    this.unparkConsumers();
+                }
+                if (read < 0) {
+                    return;
+                }
+            }
+        } catch (Throwable e) {
+            this.failure = e;
+        } finally {
+            this.isFinished = true;
+            this.unparkConsumers();
+            try {
+                this.stream.close();
+            } catch (IOException e) {
+                // nothing left to read from
+            }
+        }
+    }
+
+    /**
+     * @return The number of blocks that all consumers are done with
+     */
+    private long getReleased() {
+        long result = Long.MAX_VALUE;
+        for (Consumer consumer : this.consumers) {
+            result = Math.min(result, consumer.released);
+        }
+        return result;
+    }
+
+    private void unparkConsumers() {
+        for (Consumer consumer : this.consumers) {
+            LockSupport.unpark(consumer.thread);
+        }
+    }
+
+    /**
+     * Stops the producer once all consumers are closed.
+     */
+    private synchronized void consumerClosed() {
+        LockSupport.unpark(this.producer);
+        if (this.getReleased() != Long.MAX_VALUE) {
+            return;
+        }
+        this.isClosed = true;
+        LockSupport.unpark(this.producer);
+        try {
+            this.producer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public ByteBuffer nextBlock() throws IOException {
+        return this.consumers[0].nextBlock();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.consumers[0].close();
+    }
+}
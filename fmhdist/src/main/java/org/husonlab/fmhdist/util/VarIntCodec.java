@@ -0,0 +1,84 @@
+package org.husonlab.fmhdist.util;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Variable length encoding of unsigned integers (LEB128): each byte holds 7
+ * bits of the value, starting with the lowest ones, and the highest bit marks
+ * if more bytes follow. Small values thus take fewer bytes, e.g. the gaps
+ * between the sorted hash values of a sketch.
+ */
+public class VarIntCodec {
+    /**
+     * The maximum number of bytes of an encoded long.
+     */
+    public static final int MAX_LONG_BYTES = 10;
+
+    private VarIntCodec() {
+    }
+
+    /**
+     * Writes the value, interpreted as unsigned.
+     * @param buffer
+     * @param value
+     */
+    public static void writeUnsigned(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Reads an unsigned value.
+     * @param buffer
+     * @return
+     * @throws IllegalArgumentException if the value is malformed
+     * @throws BufferUnderflowException if the value is truncated
+     */
+    public static long readUnsigned(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("malformed variable length integer");
+    }
+
+    /**
+     * Writes the given ascending values as gaps, each encoded with
+     * writeUnsigned(). The first value is stored relative to Long.MIN_VALUE.
+     * @param buffer
+     * @param sortedValues Values in ascending (signed) order
+     */
+    public static void writeDeltas(ByteBuffer buffer, long[] sortedValues) {
+        long previous = Long.MIN_VALUE;
+        for (long value : sortedValues) {
+            writeUnsigned(buffer, value - previous);
+            previous = value;
+        }
+    }
+
+    /**
+     * Reads values that were written with writeDeltas().
+     * @param buffer
+     * @param count The number of values
+     * @return
+     * @throws IllegalArgumentException if the values are malformed
+     * @throws BufferUnderflowException if the values are truncated
+     */
+    public static long[] readDeltas(ByteBuffer buffer, int count) {
+        final long[] result = new long[count];
+        long previous = Long.MIN_VALUE;
+        for (int i = 0; i < count; i++) {
+            previous += readUnsigned(buffer);
+            result[i] = previous;
+        }
+        return result;
+    }
+}
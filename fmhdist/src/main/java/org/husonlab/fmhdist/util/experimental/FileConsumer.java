@@ -3,6 +3,11 @@ package org.husonlab.fmhdist.util.experimental;
 import java.io.BufferedReader;
 import java.io.IOException;
 
+/**
+ * @deprecated Busy-waits for the producer, use the ReadAheadBlockSource with a
+ * BlockKMerIterator instead.
+ */
+@Deprecated
 public interface FileConsumer {
     public boolean isReady();
     public void setReady(boolean v);
@@ -3,6 +3,11 @@ package org.husonlab.fmhdist.util.experimental;
 import java.io.BufferedReader;
 import java.io.IOException;
 
+/**
+ * @deprecated Consumers busy-wait for each line, use the ReadAheadBlockSource with a
+ * BlockKMerIterator instead.
+ */
+@Deprecated
 public class FileProducer {
     private class Consumer implements FileConsumer {
         private volatile String currentLine;
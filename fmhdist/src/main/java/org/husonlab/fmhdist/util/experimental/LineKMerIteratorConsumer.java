@@ -9,6 +9,11 @@ import org.husonlab.fmhdist.util.KMerIterator;
 
 import jloda.util.FileUtils;
 
+/**
+ * @deprecated Busy-waits for the producer, use the ReadAheadBlockSource with a
+ * BlockKMerIterator instead.
+ */
+@Deprecated
 public class LineKMerIteratorConsumer implements KMerIterator {
     private static boolean[] isLineContainingSkippableChar = new boolean[128];
     static {
@@ -5,9 +5,12 @@ import static org.hamcrest.Matchers.equalTo;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 
 import org.husonlab.fmhdist.util.experimental.FastKMerIterator;
+import org.junit.Assume;
 import org.junit.Ignore;
 import org.junit.Test;
 
@@ -28,6 +31,28 @@ public class DistanceTests {
         assertThat(Distance.calculateJaccardIndex(a, b, 1), equalTo(1.0 / 3.0));
     }
 
+    @Test
+    public void testWeightedJaccardIndex() {
+        long[] a = new long[] { 1, 2, 3 };
+        int[] aAbundances = new int[] { 1, 4, 1 };
+        long[] b = new long[] { 2, 4 };
+        int[] bAbundances = new int[] { 2, 3 };
+        // min: 2 (hash 2), max: 1 + 4 + 1 + 3
+        assertThat(Distance.calculateWeightedJaccardIndex(a, aAbundances, b, bAbundances), equalTo(2.0 / 9.0));
+        assertThat(Distance.calculateWeightedJaccardIndex(a, aAbundances, a, aAbundances), equalTo(1.0));
+    }
+
+    @Test
+    public void testCosineSimilarity() {
+        long[] a = new long[] { 1, 2, 3 };
+        int[] aAbundances = new int[] { 1, 2, 2 };
+        long[] b = new long[] { 2, 4 };
+        int[] bAbundances = new int[] { 3, 4 };
+        // dot: 2 * 3, norms: 3 and 5
+        assertThat(Distance.calculateCosineSimilarity(a, aAbundances, b, bAbundances), equalTo(6.0 / 15.0));
+        assertThat(Distance.calculateCosineSimilarity(a, aAbundances, a, aAbundances), equalTo(1.0));
+    }
+
     @Test
     public void testJaccardIndexWithSelf() {
         long[] a = new long[] { 1, 2, 3 };
@@ -41,6 +66,125 @@ public class DistanceTests {
         assertThat(Distance.calculateContainmentIndex(b, a, 1), equalTo(1.0));
     }
 
+    @Test
+    public void testPairMetrics() {
+        Random random = new Random(42);
+        for (int n = 0; n < 100; n++) {
+            long[] a = random.longs(random.nextInt(200), 0, 1000).sorted().distinct().toArray();
+            long[] b = random.longs(random.nextInt(200), 0, 1000).sorted().distinct().toArray();
+            if (a.length == 0 || b.length == 0) {
+                continue;
+            }
+            Distance.PairMetrics metrics = Distance.calculatePairMetrics(a, b, 10, 21);
+            assertThat(metrics.getIntersectionSize(), equalTo(Distance.getIntersectionSize(a, b)));
+            assertThat(metrics.getJaccardIndex(), equalTo(Distance.calculateJaccardIndex(a, b, 10)));
+            assertThat(metrics.getContainmentIndexA(), equalTo(Distance.calculateContainmentIndex(a, b, 10)));
+            assertThat(metrics.getContainmentIndexB(), equalTo(Distance.calculateContainmentIndex(b, a, 10)));
+            assertThat(metrics.getJaccardDistance(), equalTo(Distance.jaccardToDistance(metrics.getJaccardIndex(), 21)));
+            assertThat(metrics.getMashDistance(), equalTo(Distance.jaccardToMashDistance(metrics.getJaccardIndex(), 21)));
+            assertThat(metrics.getContainmentDistanceA(), equalTo(Distance.containmentToDistance(metrics.getContainmentIndexA(), 21)));
+            assertThat(metrics.getContainmentDistanceB(), equalTo(Distance.containmentToDistance(metrics.getContainmentIndexB(), 21)));
+        }
+    }
+
+    @Test
+    public void testGallopingIntersectionSize() {
+        Random random = new Random(42);
+        for (int ratio : new int[] { 1, 2, 47, 48, 49, 100, 1000 }) {
+            for (int n = 0; n < 20; n++) {
+                long[] large = random.longs(2000 + random.nextInt(2000)).sorted().distinct().toArray();
+                long[] small = new long[Math.max(1, large.length / ratio)];
+                for (int i = 0; i < small.length; i++) {
+                    // about half of the values are shared
+                    small[i] = random.nextBoolean() ? large[random.nextInt(large.length)] : random.nextLong();
+                }
+                small = Arrays.stream(small).sorted().distinct().toArray();
+                int expected = Distance.getIntersectionSizeByMerge(small, large);
+                assertThat(Distance.getIntersectionSizeByGalloping(small, large), equalTo(expected));
+                assertThat(Distance.getIntersectionSizeByGalloping(large, small), equalTo(expected));
+                assertThat(Distance.getIntersectionSize(small, large), equalTo(expected));
+                assertThat(Distance.getIntersectionSize(large, small), equalTo(expected));
+            }
+        }
+        long[] a = new long[] { Long.MIN_VALUE, -1, 0, 5, Long.MAX_VALUE };
+        assertThat(Distance.getIntersectionSizeByGalloping(new long[] { Long.MIN_VALUE, Long.MAX_VALUE }, a), equalTo(2));
+        assertThat(Distance.getIntersectionSizeByGalloping(new long[] { -2, 6 }, a), equalTo(0));
+        assertThat(Distance.getIntersectionSizeByGalloping(new long[0], a), equalTo(0));
+    }
+
+    @Test
+    public void testVectorIntersectionSize() {
+        Assume.assumeTrue(Distance.isVectorApiAvailable());
+        Random random = new Random(42);
+        for (int n = 0; n < 200; n++) {
+            // small ranges to get many shared values and equal block ends
+            int range = 10 + random.nextInt(2000);
+            long[] a = random.longs(random.nextInt(300), -range, range).sorted().distinct().toArray();
+            long[] b = random.longs(random.nextInt(300), -range, range).sorted().distinct().toArray();
+            int expected = Distance.getIntersectionSizeByMerge(a, b);
+            assertThat(VectorIntersection.getIntersectionSize(a, b), equalTo(expected));
+            assertThat(VectorIntersection.getIntersectionSize(b, a), equalTo(expected));
+            assertThat(VectorIntersection.getIntersectionSize(a, a), equalTo(a.length));
+        }
+    }
+
+    @Test
+    public void testBoundedIntersectionSize() {
+        Random random = new Random(42);
+        for (int n = 0; n < 500; n++) {
+            int range = 100 + random.nextInt(5000);
+            long[] a = random.longs(1 + random.nextInt(1000), 0, range).sorted().distinct().toArray();
+            long[] b = random.longs(1 + random.nextInt(n % 10 == 0 ? 50 : 1000), 0, range).sorted().distinct().toArray();
+            int expected = Distance.getIntersectionSize(a, b);
+            for (int min : new int[] { 0, 1, expected - 1, expected, expected + 1, a.length, b.length }) {
+                int actual = Distance.getIntersectionSize(a, b, min);
+                if (expected >= min) {
+                    assertThat(actual, equalTo(expected));
+                } else {
+                    assertThat(actual < min, equalTo(true));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testMinIntersectionSize() {
+        Random random = new Random(42);
+        for (int n = 0; n < 2000; n++) {
+            int aSize = 1 + random.nextInt(n % 2 == 0 ? 100 : 100000);
+            int bSize = 1 + random.nextInt(n % 3 == 0 ? 100 : 100000);
+            int s = new int[] { 1, 10, 1000 }[random.nextInt(3)];
+            int k = new int[] { 11, 21, 31 }[random.nextInt(3)];
+            double maxDistance = random.nextDouble() * 0.5;
+            int min = Distance.getMinIntersectionSize(aSize, bSize, s, k, maxDistance);
+            // the full computation agrees at the bound
+            int[] intersectionSizes = min > 0 ? new int[] { min - 1, min } : new int[] { min };
+            for (int intersectionSize : intersectionSizes) {
+                if (intersectionSize > Math.min(aSize, bSize)) {
+                    continue;
+                }
+                long[] a = new long[aSize];
+                long[] b = new long[bSize];
+                for (int i = 0; i < aSize; i++) {
+                    a[i] = i;
+                }
+                for (int i = 0; i < bSize; i++) {
+                    b[i] = i < intersectionSize ? i : aSize + i;
+                }
+                double distance = Distance.jaccardToDistance(Distance.calculateJaccardIndex(a, b, s), k);
+                assertThat(distance <= maxDistance, equalTo(intersectionSize == min));
+            }
+        }
+        assertThat(Distance.getMinIntersectionSize(10, 10000, 1000, 21, 0.01), equalTo(11));
+        assertThat(Distance.getMinIntersectionSize(10, 20, 1, 21, 1.0), equalTo(0));
+    }
+
+    @Test
+    public void testIntersectionSizeWithEmptySketch() {
+        assertThat(Distance.getIntersectionSize(new long[0], new long[] { 1 }), equalTo(0));
+        assertThat(Distance.getIntersectionSize(new long[] { 1 }, new long[0]), equalTo(0));
+    }
+
     @Test
     public void testJaccrdDistanceWithSelf() {
         assertThat(Distance.jaccardToDistance(1, 21), equalTo(0.0));
@@ -6,15 +6,32 @@ import static org.hamcrest.Matchers.hasItems;
 import static org.hamcrest.Matchers.not;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
 
+import org.husonlab.fmhdist.ncbi.Genome;
+import org.husonlab.fmhdist.util.FastaRecordReader;
 import org.husonlab.fmhdist.util.KMerCoordinates;
 import org.husonlab.fmhdist.util.KMerIterator;
+import org.husonlab.fmhdist.util.LineKMerIterator;
+import org.husonlab.fmhdist.util.MappedKMerIterator;
+import org.husonlab.fmhdist.util.NtHashFunction;
+import org.husonlab.fmhdist.util.NtHashIterator;
+import org.husonlab.fmhdist.util.PackedKMerIterator;
 import org.husonlab.fmhdist.util.experimental.FastKMerIterator;
 import org.junit.Ignore;
 import org.junit.Test;
 
+import jloda.thirdparty.HexUtils;
 import net.openhft.hashing.LongHashFunction;
 
 public class FracMinHashSketchTests {
@@ -81,6 +98,281 @@ public class FracMinHashSketchTests {
         }
     }
 
+    @Test
+    public void packedKMersShouldGenerateIdenticalSketches() throws IOException {
+        for (String file : new String[] {"src/test/resources/virus1.fasta", "src/test/resources/fastaWithAmbSeq.fasta"}) {
+            FracMinHashSketch expected;
+            try (KMerIterator kmers = new LineKMerIterator(21, file, true)) {
+                expected = FracMinHashSketch.compute("test", kmers, 4, LongHashFunction.farmUo(42), 42, false);
+            }
+            try (PackedKMerIterator kmers = new PackedKMerIterator(21, file)) {
+                FracMinHashSketch actual = FracMinHashSketch.compute("test", kmers, 4, LongHashFunction.farmUo(42), 42);
+                assertThat(actual.getValues(), equalTo(expected.getValues()));
+                assertThat(actual.getBytes(), equalTo(expected.getBytes()));
+            }
+        }
+    }
+
+    @Test
+    public void rollingHashesShouldGenerateIdenticalSketches() throws IOException {
+        NtHashFunction hashFunction = new NtHashFunction(42);
+        FracMinHashSketch expected;
+        try (KMerIterator kmers = new LineKMerIterator(21, "src/test/resources/virus1.fasta", true)) {
+            expected = FracMinHashSketch.compute("test", kmers, 4, hashFunction, 42, false);
+        }
+        try (NtHashIterator hashes = new NtHashIterator(21, "src/test/resources/virus1.fasta", hashFunction)) {
+            FracMinHashSketch actual = FracMinHashSketch.compute("test", hashes, 4, 42);
+            assertThat(actual.getValues(), equalTo(expected.getValues()));
+            assertThat(actual.getBytes(), equalTo(expected.getBytes()));
+        }
+    }
+
+    @Test
+    public void mergedRecordSketchesShouldBeIdentical() throws IOException {
+        for (String file : new String[] {"src/test/resources/fastaWith2Seq.fasta", "src/test/resources/virus1.fasta"}) {
+            FracMinHashSketch expected;
+            try (KMerIterator kmers = new LineKMerIterator(21, file, true)) {
+                expected = FracMinHashSketch.compute("test", kmers, 4, LongHashFunction.farmUo(42), 42, false);
+            }
+            List<FracMinHashSketch> partials = new ArrayList<>();
+            try (FastaRecordReader records = new FastaRecordReader(file)) {
+                ByteBuffer record;
+                while ((record = records.nextRecords(0)) != null) {
+                    try (KMerIterator kmers = new MappedKMerIterator(21, record, true)) {
+                        partials.add(FracMinHashSketch.compute("test", kmers, 4, LongHashFunction.farmUo(42), 42, false));
+                    }
+                }
+            }
+            FracMinHashSketch actual = FracMinHashSketch.merge("test", partials);
+            assertThat(actual.getBytes(), equalTo(expected.getBytes()));
+        }
+    }
+
+    @Test
+    public void parallelSketchingShouldBeIdentical() throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            for (LongHashFunction hashFunction : new LongHashFunction[] {LongHashFunction.farmUo(42), new NtHashFunction(42)}) {
+                Genome genome = new Genome("test", "src/test/resources/fastaWith2Seq.fasta");
+                GenomeSketch expected = GenomeSketch.sketch(genome, 21, 4, hashFunction, 42, false);
+                GenomeSketch actual = GenomeSketch.sketchRecordsInParallel(genome, 21, 4, hashFunction, 42, false, executor, 2);
+                assertThat(actual.getSketch().getBytes(), equalTo(expected.getSketch().getBytes()));
+                actual = GenomeSketch.sketchRangesInParallel(genome, 21, 4, hashFunction, 42, false, executor, 2);
+                assertThat(actual.getSketch().getBytes(), equalTo(expected.getSketch().getBytes()));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void multiKSketchingShouldBeIdentical() throws IOException {
+        Path compressed = Files.createTempFile("multik", ".fasta.gz");
+        compressed.toFile().deleteOnExit();
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(compressed))) {
+            out.write(Files.readAllBytes(Path.of("src/test/resources/virus1.fasta")));
+        }
+        int[] kSizes = new int[] { 7, 15, 21, 31 };
+        for (String file : new String[] { "src/test/resources/virus1.fasta", compressed.toString() }) {
+            for (LongHashFunction hashFunction : new LongHashFunction[] {LongHashFunction.farmUo(42), new NtHashFunction(42)}) {
+                for (boolean usePackedKMers : new boolean[] { false, true }) {
+                    Genome genome = new Genome("test", file);
+                    List<GenomeSketch> actual = GenomeSketch.sketch(genome, kSizes, 4, hashFunction, 42, false, usePackedKMers);
+                    assertThat(actual.size(), equalTo(kSizes.length));
+                    for (int i = 0; i < kSizes.length; i++) {
+                        GenomeSketch expected = GenomeSketch.sketch(genome, kSizes[i], 4, hashFunction, 42, false, usePackedKMers);
+                        assertThat(actual.get(i).getSketch().getKSize(), equalTo(kSizes[i]));
+                        assertThat(actual.get(i).getSketch().getBytes(), equalTo(expected.getSketch().getBytes()));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void multiHashSketchingShouldBeIdentical() throws IOException {
+        Path compressed = Files.createTempFile("multihash", ".fasta.gz");
+        compressed.toFile().deleteOnExit();
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(compressed))) {
+            out.write(Files.readAllBytes(Path.of("src/test/resources/virus1.fasta")));
+        }
+        LongHashFunction[] hashFunctions = new LongHashFunction[] {
+            LongHashFunction.farmUo(42), LongHashFunction.farmUo(7), LongHashFunction.murmur_3(42), new NtHashFunction(42)
+        };
+        int[] seeds = new int[] { 42, 7, 42, 42 };
+        int[] kSizes = new int[] { 15, 21 };
+        for (String file : new String[] { "src/test/resources/virus1.fasta", compressed.toString() }) {
+            for (boolean usePackedKMers : new boolean[] { false, true }) {
+                for (boolean prepareCoordinates : new boolean[] { false, true }) {
+                    Genome genome = new Genome("test", file);
+                    List<GenomeSketch> actual = GenomeSketch.sketch(genome, kSizes, 10, hashFunctions, seeds, prepareCoordinates, usePackedKMers);
+                    assertThat(actual.size(), equalTo(kSizes.length * hashFunctions.length));
+                    for (int i = 0; i < kSizes.length; i++) {
+                        for (int j = 0; j < hashFunctions.length; j++) {
+                            FracMinHashSketch expected = GenomeSketch.sketch(genome, kSizes[i], 10, hashFunctions[j], seeds[j], prepareCoordinates, usePackedKMers).getSketch();
+                            FracMinHashSketch sketch = actual.get(i * hashFunctions.length + j).getSketch();
+                            assertThat(sketch.getBytes(), equalTo(expected.getBytes()));
+                            if (prepareCoordinates) {
+                                assertThat(sketch.getCoordinates().toString(), equalTo(expected.getCoordinates().toString()));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void multiHashSketchingShouldRejectMissingSeeds() throws IOException {
+        FracMinHashSketch.compute("Test", new TestKMerIterator(), 1,
+            new LongHashFunction[] { LongHashFunction.farmUo(42), LongHashFunction.farmUo(7) }, new int[] { 42 }, false, 0);
+    }
+
+    @Test
+    public void downsampledSketchShouldBeIdenticalToCoarserSketch() throws IOException {
+        Genome genome = new Genome("test", "src/test/resources/virus1.fasta");
+        for (boolean prepareCoordinates : new boolean[] { false, true }) {
+            FracMinHashSketch fine = GenomeSketch.sketch(genome, 21, 10, LongHashFunction.farmUo(42), 42, prepareCoordinates, false).getSketch();
+            assertThat(fine.downsample(10), equalTo(fine));
+            for (int s : new int[] { 11, 100, 1000 }) {
+                FracMinHashSketch expected = GenomeSketch.sketch(genome, 21, s, LongHashFunction.farmUo(42), 42, prepareCoordinates, false).getSketch();
+                FracMinHashSketch actual = fine.downsample(s);
+                assertThat(actual.getSParam(), equalTo(s));
+                assertThat(actual.getBytes(), equalTo(expected.getBytes()));
+                assertThat(actual.getCoordinates().toString(), equalTo(expected.getCoordinates().toString()));
+            }
+            assertThat(FracMinHashSketch.getCoarsestSParam(List.of(fine, fine.downsample(100))), equalTo(100));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void downsampleShouldRejectFinerScale() throws IOException {
+        FracMinHashSketch.compute("Test", new TestKMerIterator(), 10, LongHashFunction.farmNa(42), 42, false).downsample(5);
+    }
+
+    @Test
+    public void abundanceSketchShouldMatchPresenceSketch() throws IOException {
+        Genome genome = new Genome("test", "src/test/resources/virus1.fasta");
+        for (LongHashFunction hashFunction : new LongHashFunction[] {LongHashFunction.farmUo(42), new NtHashFunction(42)}) {
+            for (boolean usePackedKMers : new boolean[] { false, true }) {
+                FracMinHashSketch expected = GenomeSketch.sketch(genome, 7, 10, hashFunction, 42, false, usePackedKMers).getSketch();
+                FracMinHashSketch actual = GenomeSketch.sketchWithAbundances(genome, 7, 10, hashFunction, 42, 1, usePackedKMers).getSketch();
+                assertThat(expected.hasAbundances(), equalTo(false));
+                assertThat(actual.hasAbundances(), equalTo(true));
+                assertThat(actual.getValues(), equalTo(expected.getValues()));
+                assertThat(actual.getHashedMagicNumber(), equalTo(expected.getHashedMagicNumber()));
+
+                // k = 7 yields repeated k-mers
+                int total = 0;
+                for (int abundance : actual.getAbundances()) {
+                    assertThat(abundance >= 1, equalTo(true));
+                    total += abundance;
+                }
+                assertThat(total > actual.getValues().length, equalTo(true));
+
+                FracMinHashSketch filtered = GenomeSketch.sketchWithAbundances(genome, 7, 10, hashFunction, 42, 3, usePackedKMers).getSketch();
+                assertThat(filtered.getBytes(), equalTo(actual.filterByAbundance(3).getBytes()));
+                assertThat(filtered.getValues().length < actual.getValues().length, equalTo(true));
+            }
+        }
+    }
+
+    @Test
+    public void fastqSketchShouldMatchFastaSketch() throws IOException {
+        Genome fasta = new Genome("test", "src/test/resources/reads.fasta");
+        Genome fastq = new Genome("test", "src/test/resources/reads.fastq");
+        for (LongHashFunction hashFunction : new LongHashFunction[] {LongHashFunction.farmUo(42), new NtHashFunction(42)}) {
+            for (boolean usePackedKMers : new boolean[] { false, true }) {
+                FracMinHashSketch expected = GenomeSketch.sketch(fasta, 11, 2, hashFunction, 42, false, usePackedKMers).getSketch();
+                FracMinHashSketch actual = GenomeSketch.sketch(fastq, 11, 2, hashFunction, 42, false, usePackedKMers).getSketch();
+                assertThat(actual.getBytes(), equalTo(expected.getBytes()));
+
+                expected = GenomeSketch.sketchWithAbundances(fasta, 11, 2, hashFunction, 42, 1, usePackedKMers).getSketch();
+                actual = GenomeSketch.sketchWithAbundances(fastq, 11, 2, hashFunction, 42, 1, usePackedKMers).getSketch();
+                assertThat(actual.getBytes(), equalTo(expected.getBytes()));
+            }
+        }
+    }
+
+    @Test
+    public void abundanceSketchShouldSurviveSerialization() throws IOException {
+        Genome genome = new Genome("test", "src/test/resources/virus1.fasta");
+        FracMinHashSketch sketch = GenomeSketch.sketchWithAbundances(genome, 11, 10, LongHashFunction.farmUo(42), 42, 1, false).getSketch();
+        FracMinHashSketch parsed = FracMinHashSketch.parse(sketch.getBytes());
+        assertThat(parsed.getValues(), equalTo(sketch.getValues()));
+        assertThat(parsed.getAbundances(), equalTo(sketch.getAbundances()));
+        assertThat(parsed.getBytes(), equalTo(sketch.getBytes()));
+
+        FracMinHashSketch downsampled = sketch.downsample(100);
+        assertThat(downsampled.getAbundances().length, equalTo(downsampled.getValues().length));
+        assertThat(downsampled.getAbundances()[0], equalTo(sketch.getAbundances()[0]));
+    }
+
+    @Test
+    public void compressedSketchShouldSurviveSerialization() throws IOException {
+        Genome genome = new Genome("test", "src/test/resources/virus1.fasta");
+        for (boolean withAbundances : new boolean[] { false, true }) {
+            for (int s : new int[] { 1, 10, 1000 }) {
+                FracMinHashSketch sketch = withAbundances
+                    ? GenomeSketch.sketchWithAbundances(genome, 11, s, LongHashFunction.farmUo(42), 42, 1, false).getSketch()
+                    : GenomeSketch.sketch(genome, 21, s, LongHashFunction.farmUo(42), 42, false).getSketch();
+                byte[] compressed = sketch.getCompressedBytes();
+                byte[] hex = HexUtils.encodeHexString(sketch.getBytes()).getBytes();
+                assertThat(compressed.length < hex.length, equalTo(true));
+
+                FracMinHashSketch parsed = FracMinHashSketch.parseCompressed(compressed);
+                assertThat(parsed.getBytes(), equalTo(sketch.getBytes()));
+                assertThat(parsed.hasAbundances(), equalTo(withAbundances));
+
+                // all formats of sketch files are detected
+                assertThat(FracMinHashSketch.parseFile(compressed).getBytes(), equalTo(sketch.getBytes()));
+                assertThat(FracMinHashSketch.parseFile(sketch.getBytes()).getBytes(), equalTo(sketch.getBytes()));
+                assertThat(FracMinHashSketch.parseFile(hex).getBytes(), equalTo(sketch.getBytes()));
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedCompressedSketchShouldBeRejected() throws IOException {
+        Genome genome = new Genome("test", "src/test/resources/virus1.fasta");
+        byte[] compressed = GenomeSketch.sketch(genome, 21, 10, LongHashFunction.farmUo(42), 42, false).getSketch().getCompressedBytes();
+        FracMinHashSketch.parseCompressed(Arrays.copyOf(compressed, compressed.length - 1));
+    }
+
+    @Test
+    public void consecutiveSketchesShouldBeParsedFromBuffer() throws IOException {
+        Genome genome = new Genome("test", "src/test/resources/virus1.fasta");
+        FracMinHashSketch sketch = GenomeSketch.sketch(genome, 21, 10, LongHashFunction.farmUo(42), 42, false).getSketch();
+        FracMinHashSketch withAbundances = GenomeSketch.sketchWithAbundances(genome, 11, 10, LongHashFunction.farmUo(42), 42, 1, false).getSketch();
+        byte[] first = sketch.getBytes();
+        byte[] second = withAbundances.getBytes();
+
+        // big endian direct buffer with an offset, as e.g. a mapped file
+        ByteBuffer buffer = ByteBuffer.allocateDirect(3 + first.length + second.length);
+        buffer.position(3);
+        buffer.put(first).put(second);
+        buffer.position(3);
+        assertThat(FracMinHashSketch.parse(buffer).getBytes(), equalTo(first));
+        assertThat(buffer.position(), equalTo(3 + first.length));
+        assertThat(FracMinHashSketch.parse(buffer).getBytes(), equalTo(second));
+        assertThat(buffer.remaining(), equalTo(0));
+        assertThat(buffer.order(), equalTo(ByteOrder.BIG_ENDIAN));
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedSketchShouldBeRejected() throws IOException {
+        Genome genome = new Genome("test", "src/test/resources/virus1.fasta");
+        byte[] bytes = GenomeSketch.sketch(genome, 21, 10, LongHashFunction.farmUo(42), 42, false).getSketch().getBytes();
+        FracMinHashSketch.parse(Arrays.copyOf(bytes, bytes.length - 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void mergeShouldRejectIncompatibleSketches() throws IOException {
+        FracMinHashSketch sketch1 = FracMinHashSketch.compute("Test", new TestKMerIterator(), 1, LongHashFunction.farmNa(42), 42, false);
+        FracMinHashSketch sketch2 = FracMinHashSketch.compute("Test", new TestKMerIterator(), 1, LongHashFunction.murmur_3(42), 42, false);
+        FracMinHashSketch.merge("Test", List.of(sketch1, sketch2));
+    }
+
     @Test
     public void differentHashingFunctionsShouldGenerateIncompatibleSerializations() throws IOException{
         KMerIterator it1 = new TestKMerIterator();
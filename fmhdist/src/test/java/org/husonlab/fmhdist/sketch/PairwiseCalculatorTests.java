@@ -0,0 +1,64 @@
+package org.husonlab.fmhdist.sketch;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.husonlab.fmhdist.ncbi.Genome;
+import org.junit.Test;
+
+import net.openhft.hashing.LongHashFunction;
+
+public class PairwiseCalculatorTests {
+    @Test
+    public void shouldPassEachPairOnce() {
+        for (int count : new int[] { 0, 1, 7, 64, 100 }) {
+            for (int tileSize : new int[] { 1, 3, 16, 200 }) {
+                for (int threads : new int[] { 1, 4 }) {
+                    AtomicIntegerArray calls = new AtomicIntegerArray(count * count);
+                    PairwiseCalculator.forEachPair(count, tileSize, threads, (i, j) -> calls.incrementAndGet(i * count + j));
+                    for (int i = 0; i < count; i++) {
+                        for (int j = 0; j < count; j++) {
+                            assertThat(calls.get(i * count + j), equalTo(i <= j ? 1 : 0));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void shouldNumberTilesOfLargeMatrices() {
+        for (long tilesPerSide : new long[] { 1, 5, 100_000, Integer.MAX_VALUE }) {
+            long tileCount = tilesPerSide * (tilesPerSide + 1) / 2;
+            assertThat(PairwiseCalculator.getTilesBeforeRow(tilesPerSide, tilesPerSide), equalTo(tileCount));
+            for (long row : new long[] { 0, tilesPerSide / 2, tilesPerSide - 1 }) {
+                long first = PairwiseCalculator.getTilesBeforeRow(row, tilesPerSide);
+                long last = first + tilesPerSide - row - 1;
+                assertThat(PairwiseCalculator.getTileRow(first, tilesPerSide), equalTo(row));
+                assertThat(PairwiseCalculator.getTileRow(last, tilesPerSide), equalTo(row));
+            }
+        }
+    }
+
+    @Test
+    public void shouldFitTilesIntoCache() throws IOException {
+        Genome genome = new Genome("test", "src/test/resources/virus1.fasta");
+        FracMinHashSketch small = GenomeSketch.sketch(genome, 21, 1000, LongHashFunction.farmUo(42), 42, false).getSketch();
+        FracMinHashSketch large = GenomeSketch.sketch(genome, 21, 1, LongHashFunction.farmUo(42), 42, false).getSketch();
+        int smallTiles = PairwiseCalculator.getTileSize(List.of(small, small));
+        int largeTiles = PairwiseCalculator.getTileSize(List.of(large, large));
+        assertThat(largeTiles <= smallTiles, equalTo(true));
+        assertThat(largeTiles >= 1, equalTo(true));
+        assertThat(PairwiseCalculator.getTileSize(List.of()) >= 1, equalTo(true));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectEmptyTiles() {
+        PairwiseCalculator.forEachPair(10, 0, 1, (i, j) -> {
+        });
+    }
+}
@@ -0,0 +1,131 @@
+package org.husonlab.fmhdist.sketch;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.husonlab.fmhdist.ncbi.Genome;
+import org.junit.Test;
+
+import net.openhft.hashing.LongHashFunction;
+
+public class SketchArchiveTests {
+    private List<FracMinHashSketch> createSketches() throws IOException {
+        List<FracMinHashSketch> sketches = new ArrayList<>();
+        for (String file : new String[] { "src/test/resources/virus1.fasta", "src/test/resources/virus2.fasta" }) {
+            Genome genome = new Genome("test", file);
+            sketches.add(GenomeSketch.sketch(genome, 21, 10, LongHashFunction.farmUo(42), 42, false).getSketch());
+            sketches.add(GenomeSketch.sketchWithAbundances(genome, 11, 1, LongHashFunction.farmUo(42), 7, 1, false).getSketch());
+            sketches.add(GenomeSketch.sketch(genome, 21, 100000, LongHashFunction.murmur_3(42), 42, false).getSketch());
+        }
+        return sketches;
+    }
+
+    private Path createTempFile() throws IOException {
+        Path file = Files.createTempFile("fmhdist", SketchArchive.EXTENSION);
+        file.toFile().deleteOnExit();
+        return file;
+    }
+
+    @Test
+    public void shouldReadWrittenSketches() throws IOException {
+        List<FracMinHashSketch> sketches = this.createSketches();
+        Path file = this.createTempFile();
+        try (SketchArchive.Writer writer = new SketchArchive.Writer(file)) {
+            for (int i = 0; i < sketches.size(); i++) {
+                writer.add("sketch \u00e4" + i, sketches.get(i));
+            }
+            assertThat(writer.size(), equalTo(sketches.size()));
+        }
+
+        assertThat(SketchArchive.isArchive(file.toString()), equalTo(true));
+        try (SketchArchive archive = SketchArchive.open(file.toString())) {
+            assertThat(archive.size(), equalTo(sketches.size()));
+            for (int i = 0; i < sketches.size(); i++) {
+                FracMinHashSketch expected = sketches.get(i);
+                assertThat(archive.getName(i), equalTo("sketch \u00e4" + i));
+                assertThat(archive.getSketchSize(i), equalTo(expected.getValues().length));
+                assertThat(archive.getKSize(i), equalTo(expected.getKSize()));
+                assertThat(archive.getSParam(i), equalTo(expected.getSParam()));
+                assertThat(archive.getSeed(i), equalTo(expected.getSeed()));
+                assertThat(archive.getHashedMagicNumber(i), equalTo(expected.getHashedMagicNumber()));
+                assertThat(archive.hasAbundances(i), equalTo(expected.hasAbundances()));
+
+                LongBuffer hashes = archive.getHashes(i);
+                assertThat(hashes.isDirect(), equalTo(true));
+                assertThat(hashes.remaining(), equalTo(expected.getValues().length));
+                for (int j = 0; j < expected.getValues().length; j++) {
+                    assertThat(hashes.get(j), equalTo(expected.getValues()[j]));
+                }
+                IntBuffer abundances = archive.getAbundances(i);
+                if (expected.hasAbundances()) {
+                    int[] actual = new int[abundances.remaining()];
+                    abundances.get(actual);
+                    assertThat(actual, equalTo(expected.getAbundances()));
+                } else {
+                    assertThat(abundances, nullValue());
+                }
+
+                FracMinHashSketch sketch = archive.getSketch(i);
+                assertThat(sketch.getName(), equalTo("sketch \u00e4" + i));
+                assertThat(sketch.getBytes(), equalTo(expected.getBytes()));
+            }
+            assertThat(archive.getSketches().size(), equalTo(sketches.size()));
+        }
+    }
+
+    @Test
+    public void shouldReadEmptyArchive() throws IOException {
+        Path file = this.createTempFile();
+        new SketchArchive.Writer(file).close();
+        try (SketchArchive archive = SketchArchive.open(file.toString())) {
+            assertThat(archive.size(), equalTo(0));
+        }
+    }
+
+    @Test
+    public void shouldReadManySketches() throws IOException {
+        FracMinHashSketch sketch = this.createSketches().get(0);
+        Path file = this.createTempFile();
+        try (SketchArchive.Writer writer = new SketchArchive.Writer(file)) {
+            for (int i = 0; i < 3000; i++) {
+                writer.add(Integer.toString(i), sketch);
+            }
+        }
+        try (SketchArchive archive = SketchArchive.open(file.toString())) {
+            assertThat(archive.size(), equalTo(3000));
+            for (int i = 0; i < 3000; i += 100) {
+                assertThat(archive.getName(i), equalTo(Integer.toString(i)));
+                assertThat(archive.getSketch(i).getValues(), equalTo(sketch.getValues()));
+            }
+        }
+    }
+
+    @Test
+    public void shouldNotDetectSketchFilesAsArchive() throws IOException {
+        Path file = this.createTempFile();
+        Files.write(file, this.createSketches().get(0).getCompressedBytes());
+        assertThat(SketchArchive.isArchive(file.toString()), equalTo(false));
+        assertThat(SketchArchive.isArchive(file.toString() + ".missing"), equalTo(false));
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldRejectTruncatedArchive() throws IOException {
+        Path file = this.createTempFile();
+        try (SketchArchive.Writer writer = new SketchArchive.Writer(file)) {
+            writer.add("test", this.createSketches().get(0));
+        }
+        byte[] content = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(content, content.length - 8));
+        SketchArchive.open(file.toString());
+    }
+}
@@ -0,0 +1,76 @@
+package org.husonlab.fmhdist.sketch;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class SketchIndexTests {
+    private long[] createValues(Random random, long[] pool, int size) {
+        long[] values = new long[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = pool[random.nextInt(pool.length)];
+        }
+        return Arrays.stream(values).distinct().sorted().toArray();
+    }
+
+    @Test
+    public void shouldCountSharedHashes() {
+        Random random = new Random(42);
+        // a small pool to get many shared hashes, including the zero key
+        long[] pool = new long[5000];
+        for (int i = 1; i < pool.length; i++) {
+            pool[i] = random.nextLong();
+        }
+
+        List<FracMinHashSketch> references = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            long[] values = this.createValues(random, pool, random.nextInt(800));
+            references.add(FracMinHashSketch.of("ref" + i, 10, 21, 42, 0, values, null));
+        }
+        SketchIndex index = new SketchIndex(references);
+        assertThat(index.size(), equalTo(references.size()));
+        assertThat(index.getHashCount(), greaterThan(0));
+
+        for (int q = 0; q < 20; q++) {
+            long[] query = this.createValues(random, pool, random.nextInt(800));
+            SketchIndex.Matches matches = index.getIntersectionSizes(query);
+            int[] expected = new int[references.size()];
+            for (int i = 0; i < references.size(); i++) {
+                expected[i] = Distance.getIntersectionSize(query, references.get(i).getValues());
+            }
+            int[] actual = new int[references.size()];
+            int previous = -1;
+            for (int m = 0; m < matches.size(); m++) {
+                assertThat(matches.getId(m), greaterThan(previous));
+                assertThat(matches.getIntersectionSize(m), greaterThan(0));
+                assertThat(index.getSketch(matches.getId(m)), equalTo(references.get(matches.getId(m))));
+                actual[matches.getId(m)] = matches.getIntersectionSize(m);
+                previous = matches.getId(m);
+            }
+            assertThat(actual, equalTo(expected));
+        }
+    }
+
+    @Test
+    public void shouldNotMatchDisjointQuery() {
+        List<FracMinHashSketch> references = new ArrayList<>();
+        references.add(FracMinHashSketch.of("a", 10, 21, 42, 0, new long[] { 1, 3, 5 }, null));
+        references.add(FracMinHashSketch.of("b", 10, 21, 42, 0, new long[0], null));
+        SketchIndex index = new SketchIndex(references);
+        assertThat(index.getHashCount(), equalTo(3));
+        assertThat(index.getIntersectionSizes(new long[] { 2, 4, 6 }).size(), equalTo(0));
+        assertThat(index.getIntersectionSizes(new long[0]).size(), equalTo(0));
+
+        SketchIndex.Matches matches = index.getIntersectionSizes(new long[] { 3, 5, 7 });
+        assertThat(matches.size(), equalTo(1));
+        assertThat(matches.getId(0), equalTo(0));
+        assertThat(matches.getIntersectionSize(0), equalTo(2));
+    }
+}
@@ -0,0 +1,167 @@
+package org.husonlab.fmhdist.util;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+public class BgzfBlockSourceTests {
+    private static final byte[] EOF_MEMBER = new byte[] {
+        0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0, 'B', 'C', 2, 0,
+        0x1b, 0, 3, 0, 0, 0, 0, 0, 0, 0, 0, 0
+    };
+
+    /**
+     * Writes the content in BGZF format, as done by bgzip.
+     */
+    private static Path createBgzf(byte[] content, int memberSize) throws IOException {
+        Path file = Files.createTempFile("bgzf", ".fasta.gz");
+        file.toFile().deleteOnExit();
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        byte[] compressed = new byte[2 * memberSize + 1024];
+        for (int offset = 0; offset < content.length; offset += memberSize) {
+            int length = Math.min(memberSize, content.length - offset);
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            deflater.setInput(content, offset, length);
+            deflater.finish();
+            int compressedLength = deflater.deflate(compressed);
+            deflater.end();
+            CRC32 crc = new CRC32();
+            crc.update(content, offset, length);
+
+            ByteBuffer member = ByteBuffer.allocate(18 + compressedLength + 8).order(ByteOrder.LITTLE_ENDIAN);
+            member.put(new byte[] { 0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0, 'B', 'C', 2, 0 });
+            member.putShort((short) (member.capacity() - 1));
+            member.put(compressed, 0, compressedLength);
+            member.putInt((int) crc.getValue());
+            member.putInt(length);
+            result.write(member.array());
+        }
+        result.write(EOF_MEMBER);
+        Files.write(file, result.toByteArray());
+        return file;
+    }
+
+    private static byte[] readAll(ByteBlockSource source) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        ByteBuffer block;
+        while ((block = source.nextBlock()) != null) {
+            byte[] content = new byte[block.remaining()];
+            block.get(content);
+            result.write(content);
+        }
+        source.close();
+        return result.toByteArray();
+    }
+
+    private static byte[] createFasta(int length) {
+        Random random = new Random(42);
+        byte[] result = new byte[length];
+        byte[] bases = "ACGTACGTACGTN".getBytes();
+        for (int i = 0; i < length; i++) {
+            if (i % 1000 == 0) {
+                result[i] = '>';
+            } else if (i % 80 == 0) {
+                result[i] = '\n';
+            } else {
+                result[i] = bases[random.nextInt(bases.length)];
+            }
+        }
+        result[length - 1] = '\n';
+        return result;
+    }
+
+    @Test
+    public void shouldInflateAllMembersInOrder() throws IOException {
+        byte[] content = createFasta(3_000_000);
+        for (int memberSize : new int[] { 1, 100, 65280 }) {
+            byte[] part = memberSize == 1 ? Arrays.copyOf(content, 5000) : content;
+            Path file = createBgzf(part, memberSize);
+            assertThat(BgzfBlockSource.isBgzf(file.toString()), equalTo(true));
+            assertThat(readAll(new BgzfBlockSource(file.toString())), equalTo(part));
+        }
+    }
+
+    @Test
+    public void shouldHandleEmptyFile() throws IOException {
+        Path file = createBgzf(new byte[0], 100);
+        assertThat(BgzfBlockSource.isBgzf(file.toString()), equalTo(true));
+        assertThat(readAll(new BgzfBlockSource(file.toString())), equalTo(new byte[0]));
+    }
+
+    @Test
+    public void shouldDetectOtherFormats() throws IOException {
+        Path gzip = Files.createTempFile("gzip", ".fasta.gz");
+        gzip.toFile().deleteOnExit();
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(gzip))) {
+            out.write(createFasta(10000));
+        }
+        assertThat(BgzfBlockSource.isBgzf(gzip.toString()), equalTo(false));
+        assertThat(BgzfBlockSource.isBgzf("src/test/resources/fastaWith1Seq.fasta"), equalTo(false));
+        assertThat(BgzfBlockSource.isBgzf("https://example.org/genome.fna.gz"), equalTo(false));
+        assertThat(BgzfBlockSource.isBgzf("src/test/resources/doesNotExist.fasta.gz"), equalTo(false));
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldDetectCorruptMembers() throws IOException {
+        Path file = createBgzf(createFasta(100000), 1000);
+        byte[] content = Files.readAllBytes(file);
+        // flip a bit in the CRC of the first member
+        int firstMemberSize = (content[16] & 0xff | (content[17] & 0xff) << 8) + 1;
+        content[firstMemberSize - 8] ^= 1;
+        Files.write(file, content);
+        readAll(new BgzfBlockSource(file.toString()));
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldDetectTruncatedFiles() throws IOException {
+        Path file = createBgzf(createFasta(100000), 1000);
+        byte[] content = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(content, content.length - EOF_MEMBER.length - 10));
+        readAll(new BgzfBlockSource(file.toString()));
+    }
+
+    @Test
+    public void shouldMatchMappedKMerIterator() throws IOException {
+        String[] files = new String[] {
+            "src/test/resources/fastaWith2Seq.fasta",
+            "src/test/resources/fastaWithMultipleAmbSeq.fasta",
+            "src/test/resources/virus1.fasta",
+            "src/test/resources/fastaWithSingleLineRecords.fasta",
+            "src/test/resources/fastaWithIupacSeq.fasta"
+        };
+        for (String file : files) {
+            for (int memberSize : new int[] { 7, 1000 }) {
+                Path compressed = createBgzf(Files.readAllBytes(Path.of(file)), memberSize);
+                List<String> expected = new ArrayList<>();
+                try (KMerIterator km = new MappedKMerIterator(21, file, true)) {
+                    while (km.hasNext()) {
+                        expected.add(new String(km.next()) + " " + km.getCoordinates());
+                    }
+                }
+                List<String> actual = new ArrayList<>();
+                try (KMerIterator km = new BlockKMerIterator(21, ReadAheadBlockSource.open(compressed.toString()), true)) {
+                    while (km.hasNext()) {
+                        actual.add(new String(km.next()) + " " + km.getCoordinates());
+                    }
+                }
+                assertThat(actual, equalTo(expected));
+            }
+        }
+    }
+}
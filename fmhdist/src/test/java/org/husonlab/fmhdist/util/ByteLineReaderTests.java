@@ -0,0 +1,117 @@
+package org.husonlab.fmhdist.util;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ByteLineReaderTests {
+    private static List<String> readLines(ByteLineReader reader) throws IOException {
+        List<String> result = new ArrayList<>();
+        while (reader.readLine()) {
+            result.add(new String(reader.getBuffer(), reader.getStart(), reader.getLength()));
+        }
+        reader.close();
+        return result;
+    }
+
+    private static List<String> readLinesBuffered(String content) throws IOException {
+        List<String> result = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(content.getBytes())))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                result.add(line);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns at most the given number of bytes per read to test lines
+     * spanning multiple reads.
+     */
+    private static InputStream slowStream(String content, int bytesPerRead) {
+        return new ByteArrayInputStream(content.getBytes()) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, bytesPerRead));
+            }
+        };
+    }
+
+    @Test
+    public void shouldMatchBufferedReader() throws IOException {
+        String[] contents = new String[] {
+            "",
+            "\n",
+            "single line",
+            ">header\nACGT\nACGT\n",
+            ">header\r\nACGT\r\n\r\nACGT",
+            "\n\nA\n\n",
+            "\r\n"
+        };
+        for (String content : contents) {
+            for (int bytesPerRead : new int[] { 1, 3, 1 << 20 }) {
+                List<String> actual = readLines(new ByteLineReader(slowStream(content, bytesPerRead)));
+                assertThat(actual, equalTo(readLinesBuffered(content)));
+            }
+        }
+    }
+
+    @Test
+    public void shouldReadLinesLongerThanTheBuffer() throws IOException {
+        StringBuilder longLine = new StringBuilder();
+        for (int i = 0; i < 300000; i++) {
+            longLine.append("ACGT".charAt(i % 4));
+        }
+        String content = ">header\n" + longLine + "\n>header2\nAC";
+        List<String> actual = readLines(new ByteLineReader(slowStream(content, 1000)));
+        assertThat(actual, equalTo(List.of(">header", longLine.toString(), ">header2", "AC")));
+    }
+
+    @Test
+    public void shouldCopyLine() throws IOException {
+        ByteLineReader reader = new ByteLineReader(new ByteArrayInputStream("ACGTACGT\nAC\n".getBytes()));
+        byte[] target = new byte[4];
+        assertThat(reader.readLine(), equalTo(true));
+        target = reader.copyLine(target);
+        assertThat(new String(target, 0, reader.getLength()), equalTo("ACGTACGT"));
+        byte[] previous = target;
+        assertThat(reader.readLine(), equalTo(true));
+        target = reader.copyLine(target);
+        // large enough arrays are reused
+        assertThat(target == previous, equalTo(true));
+        assertThat(new String(target, 0, reader.getLength()), equalTo("AC"));
+        assertThat(reader.getLineAsString(), equalTo("AC"));
+        assertThat(reader.readLine(), equalTo(false));
+        reader.close();
+    }
+
+    @Test
+    public void shouldTrackLineOffsets() throws IOException {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 50000; i++) {
+            content.append(i % 7 == 0 ? ">header" : "ACGTACGTAC".substring(0, i % 10)).append(i % 3 == 0 ? "\r\n" : "\n");
+        }
+        content.append("AC");
+        String text = content.toString();
+        ByteLineReader reader = new ByteLineReader(slowStream(text, 777));
+        long offset = 0;
+        while (reader.readLine()) {
+            assertThat(reader.getLineOffset(), equalTo(offset));
+            String line = reader.getLineAsString();
+            assertThat(text.startsWith(line, (int) offset), equalTo(true));
+            offset += reader.getLineWidth();
+        }
+        assertThat(offset, equalTo((long) text.length()));
+        reader.close();
+    }
+}
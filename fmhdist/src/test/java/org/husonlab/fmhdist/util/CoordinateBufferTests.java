@@ -0,0 +1,125 @@
+package org.husonlab.fmhdist.util;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class CoordinateBufferTests {
+    private List<String> collectCoordinates(int k, CoordinateBuffer buffer) throws IOException {
+        List<String> expected = new ArrayList<>();
+        // skipN = false to get k-mers with ambiguous bases
+        try (FastqKMerIterator km = new FastqKMerIterator(k, "src/test/resources/reads.fastq", false, 0)) {
+            long hash = Long.MIN_VALUE;
+            while (km.hasNext()) {
+                km.next();
+                KMerCoordinates coordinates = km.getCoordinates();
+                coordinates.setHash(hash);
+                expected.add(coordinates.toString());
+                km.addCoordinates(buffer, hash);
+                hash += 1234567;
+            }
+        }
+        return expected;
+    }
+
+    private List<String> toStrings(CoordinateBuffer buffer) {
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < buffer.size(); i++) {
+            result.add(buffer.get(i).toString());
+        }
+        return result;
+    }
+
+    @Test
+    public void shouldStoreCoordinatesOfIterator() throws IOException {
+        for (int k : new int[] { 5, 21, 32, 33, 40 }) {
+            CoordinateBuffer buffer = new CoordinateBuffer(k, 1);
+            List<String> expected = collectCoordinates(k, buffer);
+            assertThat(expected.isEmpty(), equalTo(false));
+            assertThat(buffer.size(), equalTo(expected.size()));
+            assertThat(toStrings(buffer), equalTo(expected));
+        }
+    }
+
+    @Test
+    public void shouldReadWrittenCoordinates() throws IOException {
+        for (int k : new int[] { 5, 21, 33 }) {
+            CoordinateBuffer buffer = new CoordinateBuffer(k);
+            List<String> expected = collectCoordinates(k, buffer);
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            buffer.write(output);
+            assertThat(output.size(), equalTo(CoordinateBuffer.HEADER_SIZE + buffer.size() * CoordinateBuffer.getRecordSize(k)));
+
+            List<String> actual = new ArrayList<>();
+            try (CoordinateReader reader = new CoordinateReader(new ByteArrayInputStream(output.toByteArray()))) {
+                assertThat(reader.getK(), equalTo(k));
+                assertThat(reader.getCount(), equalTo((long) expected.size()));
+                while (reader.next()) {
+                    actual.add(reader.getCoordinates().toString());
+                }
+            }
+            assertThat(actual, equalTo(expected));
+
+            try (CoordinateReader reader = new CoordinateReader(new ByteArrayInputStream(output.toByteArray()))) {
+                assertThat(toStrings(reader.readAll()), equalTo(expected));
+            }
+        }
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void shouldWriteCoordinatesAsText() throws IOException {
+        // the text format must stay readable by the legacy parser
+        CoordinateBuffer buffer = new CoordinateBuffer(21);
+        List<String> expected = collectCoordinates(21, buffer);
+        StringWriter writer = new StringWriter();
+        buffer.writeText(writer);
+        assertThat(Arrays.asList(writer.toString().split("\n")), equalTo(expected));
+        for (String line : expected) {
+            assertThat(KMerCoordinates.fromString(line).toString(), equalTo(line));
+        }
+    }
+
+    @Test
+    public void shouldRetainHashesBelowThreshold() throws IOException {
+        CoordinateBuffer buffer = new CoordinateBuffer(21);
+        collectCoordinates(21, buffer);
+        double threshold = buffer.getHash(buffer.size() / 2);
+        CoordinateBuffer retained = buffer.retainHashesBelow(threshold);
+        assertThat(retained.size(), equalTo(buffer.size() / 2));
+        assertThat(toStrings(retained), equalTo(toStrings(buffer).subList(0, buffer.size() / 2)));
+    }
+
+    @Test(expected = IOException.class)
+    public void readerShouldRejectTextCoordinates() throws IOException {
+        CoordinateBuffer buffer = new CoordinateBuffer(21);
+        collectCoordinates(21, buffer);
+        StringWriter writer = new StringWriter();
+        buffer.writeText(writer);
+        new CoordinateReader(new ByteArrayInputStream(writer.toString().getBytes())).close();
+    }
+
+    @Test(expected = IOException.class)
+    public void readerShouldRejectTruncatedFiles() throws IOException {
+        CoordinateBuffer buffer = new CoordinateBuffer(21);
+        collectCoordinates(21, buffer);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        buffer.write(output);
+        byte[] truncated = Arrays.copyOf(output.toByteArray(), output.size() - 1);
+        try (CoordinateReader reader = new CoordinateReader(new ByteArrayInputStream(truncated))) {
+            while (reader.next()) {
+                continue;
+            }
+        }
+    }
+}
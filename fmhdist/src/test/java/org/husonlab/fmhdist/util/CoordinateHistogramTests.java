@@ -0,0 +1,137 @@
+package org.husonlab.fmhdist.util;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.husonlab.fmhdist.ncbi.Genome;
+import org.husonlab.fmhdist.sketch.FracMinHashSketch;
+import org.husonlab.fmhdist.sketch.GenomeSketch;
+import org.junit.Test;
+
+import net.openhft.hashing.LongHashFunction;
+
+public class CoordinateHistogramTests {
+    @Test
+    public void shouldCountSketchCoordinatesInWindows() throws IOException {
+        Genome genome = new Genome("test", "src/test/resources/virus1.fasta");
+        for (boolean trackComplexity : new boolean[] { false, true }) {
+            FracMinHashSketch sketch = GenomeSketch.sketchWithHistogram(genome, 21, 10, LongHashFunction.farmUo(42), 42, true, 100, trackComplexity).getSketch();
+            FracMinHashSketch expected = GenomeSketch.sketch(genome, 21, 10, LongHashFunction.farmUo(42), 42, false).getSketch();
+            assertThat(sketch.getBytes(), equalTo(expected.getBytes()));
+
+            // bin the coordinates as the density analysis scripts do
+            Map<Long, Integer> expectedCounts = new TreeMap<>();
+            CoordinateBuffer coordinates = sketch.getCoordinateBuffer();
+            for (int i = 0; i < coordinates.size(); i++) {
+                long key = ((long) coordinates.getRecordIndexInFile(i) << 32) + coordinates.getSequenceIndexInRecordIncludingAmbiguous(i) / 100;
+                expectedCounts.merge(key, 1, Integer::sum);
+            }
+
+            CoordinateHistogram histogram = sketch.getCoordinateHistogram();
+            assertThat(histogram.getWindowSize(), equalTo(100));
+            int total = 0;
+            for (int i = 0; i < histogram.size(); i++) {
+                long key = ((long) histogram.getRecordIndexInFile(i) << 32) + histogram.getWindowStart(i) / 100;
+                assertThat(histogram.getHashCount(i), equalTo(expectedCounts.getOrDefault(key, 0)));
+                if (i > 0 && histogram.getRecordIndexInFile(i) == histogram.getRecordIndexInFile(i - 1)) {
+                    assertThat(histogram.getWindowStart(i), equalTo(histogram.getWindowStart(i - 1) + 100));
+                }
+                total += histogram.getHashCount(i);
+            }
+            assertThat(total, equalTo(coordinates.size()));
+        }
+    }
+
+    @Test
+    public void shouldTrackComplexityOfAllKMers() throws IOException {
+        int kmerCount = 0;
+        try (KMerIterator kmers = new LineKMerIterator(21, "src/test/resources/virus1.fasta", true)) {
+            while (kmers.hasNext()) {
+                kmers.next();
+                kmerCount++;
+            }
+        }
+        Genome genome = new Genome("test", "src/test/resources/virus1.fasta");
+        CoordinateHistogram histogram = GenomeSketch.sketchWithHistogram(genome, 21, 10, LongHashFunction.farmUo(42), 42, false, 100, true).getSketch().getCoordinateHistogram();
+        int total = 0;
+        for (int i = 0; i < histogram.size(); i++) {
+            total += histogram.getKmerCount(i);
+            assertThat(histogram.getHashCount(i) <= histogram.getKmerCount(i), equalTo(true));
+            assertThat(histogram.getEntropy(i) >= 0 && histogram.getEntropy(i) <= 1, equalTo(true));
+        }
+        assertThat(total, equalTo(kmerCount));
+    }
+
+    @Test
+    public void shouldCalculateWindowComplexity() throws IOException {
+        CoordinateHistogram histogram = new CoordinateHistogram(4, true);
+        // a low complexity window
+        for (int i = 0; i < 4; i++) {
+            histogram.add(0, i, "AAA".getBytes(), i == 0);
+        }
+        // all dinucleotides of a window with high complexity
+        String sequence = "AACAGATCCGCTGGTTA";
+        for (int i = 0; i < 16; i++) {
+            histogram.add(1, 16 + i, sequence.substring(i, i + 2).getBytes(), false);
+        }
+        histogram.finish();
+
+        assertThat(histogram.size(), equalTo(1 + 8));
+        assertThat(histogram.getHashCount(0), equalTo(1));
+        assertThat(histogram.getKmerCount(0), equalTo(4));
+        assertThat(histogram.getEntropy(0), closeTo(0, 1e-6));
+        assertThat(histogram.getGCContent(0), closeTo(0, 1e-6));
+
+        // the windows before the first k-mer of the record are empty
+        for (int i = 1; i < 5; i++) {
+            assertThat(histogram.getRecordIndexInFile(i), equalTo(1));
+            assertThat(histogram.getWindowStart(i), equalTo((long) (i - 1) * 4));
+            assertThat(histogram.getKmerCount(i), equalTo(0));
+        }
+        int total = 0;
+        for (int i = 5; i < 9; i++) {
+            total += histogram.getKmerCount(i);
+        }
+        assertThat(total, equalTo(16));
+
+        CoordinateHistogram merged = new CoordinateHistogram(16, true);
+        for (int i = 0; i < 16; i++) {
+            merged.add(0, i, sequence.substring(i, i + 2).getBytes(), false);
+        }
+        merged.finish();
+        assertThat(merged.size(), equalTo(1));
+        assertThat(merged.getEntropy(0), closeTo(1, 1e-6));
+        assertThat(merged.getGCContent(0), closeTo(0.5, 1e-6));
+    }
+
+    @Test
+    public void shouldWriteHistogram() throws IOException {
+        CoordinateHistogram histogram = new CoordinateHistogram(10, false);
+        histogram.add(0, 3, "ACGT".getBytes(), true);
+        histogram.add(0, 25, "ACGT".getBytes(), true);
+        histogram.add(0, 27, "ACGT".getBytes(), true);
+        histogram.add(2, 5, "ACGT".getBytes(), true);
+        StringWriter writer = new StringWriter();
+        histogram.write(writer);
+        assertThat(writer.toString(), equalTo(
+            "#record\tstart\thashes\n" +
+            "0\t0\t1\n" +
+            "0\t10\t0\n" +
+            "0\t20\t2\n" +
+            "2\t0\t1\n"
+        ));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectUnorderedKMers() {
+        CoordinateHistogram histogram = new CoordinateHistogram(10, false);
+        histogram.add(1, 3, "ACGT".getBytes(), true);
+        histogram.add(0, 25, "ACGT".getBytes(), true);
+    }
+}
@@ -0,0 +1,139 @@
+package org.husonlab.fmhdist.util;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class FastaIndexTests {
+    private static final String[] NAMES = new String[] { "first", "second", "third", "fourth" };
+    private static final int[] LENGTHS = new int[] { 1000, 60, 7, 2345 };
+
+    private List<String> createRecords() {
+        Random random = new Random(42);
+        List<String> records = new ArrayList<>();
+        for (int length : LENGTHS) {
+            StringBuilder record = new StringBuilder();
+            for (int i = 0; i < length; i++) {
+                record.append("ACGTacgtN".charAt(random.nextInt(i % 100 < 90 ? 4 : 9)));
+            }
+            records.add(record.toString());
+        }
+        return records;
+    }
+
+    private Path writeFasta(List<String> records, int lineBases, String lineSeparator) throws IOException {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < records.size(); i++) {
+            content.append('>').append(NAMES[i]).append(" some description").append(lineSeparator);
+            String record = records.get(i);
+            for (int start = 0; start < record.length(); start += lineBases) {
+                content.append(record, start, Math.min(record.length(), start + lineBases)).append(lineSeparator);
+            }
+        }
+        Path file = Files.createTempFile("fmhdist", ".fasta");
+        file.toFile().deleteOnExit();
+        Files.writeString(file, content.toString());
+        return file;
+    }
+
+    @Test
+    public void shouldIndexRecords() throws IOException {
+        List<String> records = createRecords();
+        for (String lineSeparator : new String[] { "\n", "\r\n" }) {
+            Path file = writeFasta(records, 60, lineSeparator);
+            FastaIndex index = FastaIndex.build(file.toString());
+            assertThat(index.size(), equalTo(records.size()));
+            long offset = 0;
+            for (int i = 0; i < records.size(); i++) {
+                offset += (">" + NAMES[i] + " some description" + lineSeparator).length();
+                assertThat(index.getName(i), equalTo(NAMES[i]));
+                assertThat(index.getLength(i), equalTo((long) LENGTHS[i]));
+                assertThat(index.getOffset(i), equalTo(offset));
+                assertThat(index.getLineBases(i), equalTo(Math.min(60, LENGTHS[i])));
+                assertThat(index.getLineWidth(i), equalTo(Math.min(60, LENGTHS[i]) + lineSeparator.length()));
+                offset += LENGTHS[i] + (LENGTHS[i] + 59) / 60 * lineSeparator.length();
+            }
+
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                Random random = new Random(7);
+                for (int n = 0; n < 200; n++) {
+                    int record = random.nextInt(records.size());
+                    int start = random.nextInt(LENGTHS[record]);
+                    int end = start + random.nextInt(150);
+                    FastaIndex.Region region = index.getRegion(record, start, end);
+                    String expected = records.get(record).substring(start, Math.min(end, LENGTHS[record]));
+                    assertThat(new String(index.read(channel, region)), equalTo(expected));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void shouldIndexWhileIterating() throws IOException {
+        List<String> records = createRecords();
+        Path file = writeFasta(records, 70, "\n");
+        FastaIndex.Builder builder = new FastaIndex.Builder();
+        List<KMerCoordinates> coordinates = new ArrayList<>();
+        try (LineKMerIterator kmers = new LineKMerIterator(21, file.toString(), true, builder)) {
+            while (kmers.hasNext()) {
+                kmers.next();
+                coordinates.add(kmers.getCoordinates());
+            }
+        }
+        FastaIndex index = builder.build();
+        StringWriter expected = new StringWriter();
+        FastaIndex.build(file.toString()).write(expected);
+        StringWriter actual = new StringWriter();
+        index.write(actual);
+        assertThat(actual.toString(), equalTo(expected.toString()));
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            for (KMerCoordinates c : coordinates) {
+                byte[] kmer = index.read(channel, index.getRegion(c, 0));
+                assertThat(new String(kmer).toUpperCase(), equalTo(new String(c.getKmer())));
+
+                FastaIndex.Region region = index.getRegion(c, 10);
+                String record = records.get(c.getRecordIndexInFile());
+                int position = c.getSequenceIndexInRecordIncludingAmbiguous();
+                String context = record.substring(Math.max(0, position - 10), Math.min(record.length(), position + 31));
+                assertThat(new String(index.read(channel, region)), equalTo(context));
+            }
+        }
+    }
+
+    @Test
+    public void shouldReadWrittenIndex() throws IOException {
+        Path file = writeFasta(createRecords(), 60, "\n");
+        Path indexFile = Path.of(file.toString() + FastaIndex.EXTENSION);
+        indexFile.toFile().deleteOnExit();
+        StringWriter expected = new StringWriter();
+        FastaIndex.build(file.toString()).write(expected);
+
+        assertThat(Files.exists(indexFile), equalTo(false));
+        FastaIndex.load(file.toString());
+        assertThat(Files.readString(indexFile), equalTo(expected.toString()));
+
+        StringWriter actual = new StringWriter();
+        FastaIndex.load(file.toString()).write(actual);
+        assertThat(actual.toString(), equalTo(expected.toString()));
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldRejectRecordsWithDifferentLineLengths() throws IOException {
+        Path file = Files.createTempFile("fmhdist", ".fasta");
+        file.toFile().deleteOnExit();
+        Files.writeString(file, ">test\nACGTACGT\nACG\nACGTACGT\n");
+        FastaIndex.build(file.toString());
+    }
+}
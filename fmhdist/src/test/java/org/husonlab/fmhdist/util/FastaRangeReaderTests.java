@@ -0,0 +1,79 @@
+package org.husonlab.fmhdist.util;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class FastaRangeReaderTests {
+    private static List<String> decompose(KMerIterator km) throws IOException {
+        List<String> result = new ArrayList<>();
+        while (km.hasNext()) {
+            result.add(new String(km.next()));
+        }
+        km.close();
+        return result;
+    }
+
+    private static List<String> decomposeRanges(String file, int k, long rangeSize) throws IOException {
+        List<String> result = new ArrayList<>();
+        try (FastaRangeReader reader = new FastaRangeReader(file, k, rangeSize)) {
+            ByteBuffer fragment;
+            while ((fragment = reader.nextRange()) != null) {
+                result.addAll(decompose(new MappedKMerIterator(k, fragment, true)));
+            }
+        }
+        return result;
+    }
+
+    private static void assertSameKmers(String file, int k, long rangeSize) throws IOException {
+        List<String> expected = decompose(new MappedKMerIterator(k, file, true));
+        List<String> actual = decomposeRanges(file, k, rangeSize);
+        // each k-mer must be part of exactly one range
+        Collections.sort(expected);
+        Collections.sort(actual);
+        assertThat(String.format("%s, k=%d, range size=%d", file, k, rangeSize), actual, equalTo(expected));
+    }
+
+    @Test
+    public void shouldCoverEachKmerOnce() throws IOException {
+        String[] files = new String[] {
+            "src/test/resources/fastaWith1Seq.fasta",
+            "src/test/resources/fastaWith2Seq.fasta",
+            "src/test/resources/fastaWithAmbSeq.fasta",
+            "src/test/resources/fastaWithMultipleAmbSeq.fasta",
+            "src/test/resources/fastaWithSingleLineRecords.fasta",
+            "src/test/resources/fastaWithIupacSeq.fasta"
+        };
+        for (String file : files) {
+            for (int k : new int[] { 1, 3, 8, 21 }) {
+                for (long rangeSize : new long[] { 1, 7, 64, 100, 1000 }) {
+                    assertSameKmers(file, k, rangeSize);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void shouldHandleHeadersLineBreaksAndAmbiguousBases() throws IOException {
+        Path file = Files.createTempFile("ranges", ".fasta");
+        file.toFile().deleteOnExit();
+        Files.write(file, (
+            ">header1 with a rather long description\r\nACTGAC\r\nNNNACT\r\nGG\r\n" +
+            ">header2\nANNTGCA\n\n\nGCCATTAGCA\nT\nA\nC\n" +
+            ">header3\n>header4\nacgtacgtNacgt").getBytes());
+        for (int k : new int[] { 2, 3, 5, 9 }) {
+            for (long rangeSize = 1; rangeSize < 40; rangeSize++) {
+                assertSameKmers(file.toString(), k, rangeSize);
+            }
+        }
+    }
+}
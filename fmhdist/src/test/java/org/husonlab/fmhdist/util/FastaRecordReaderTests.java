@@ -0,0 +1,97 @@
+package org.husonlab.fmhdist.util;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+public class FastaRecordReaderTests {
+    private static final String FASTA = ">header1\nACTG\nNACT\n>header2 with > inside\nANNT\n>header3\nGCCA";
+
+    private static List<String> readAll(FastaRecordReader reader, int minSize) throws IOException {
+        List<String> result = new ArrayList<>();
+        ByteBuffer batch;
+        while ((batch = reader.nextRecords(minSize)) != null) {
+            byte[] content = new byte[batch.remaining()];
+            batch.get(content);
+            result.add(new String(content, StandardCharsets.US_ASCII));
+        }
+        return result;
+    }
+
+    @Test
+    public void shouldSplitStreamAtRecords() throws IOException {
+        try (FastaRecordReader reader = new FastaRecordReader(new ByteArrayInputStream(FASTA.getBytes()))) {
+            assertThat(readAll(reader, 0), contains(
+                ">header1\nACTG\nNACT\n",
+                ">header2 with > inside\nANNT\n",
+                ">header3\nGCCA"));
+        }
+    }
+
+    @Test
+    public void shouldSplitMappedFileAtRecords() throws IOException {
+        Path file = Files.createTempFile("records", ".fasta");
+        file.toFile().deleteOnExit();
+        Files.write(file, FASTA.getBytes());
+        try (FastaRecordReader reader = new FastaRecordReader(file.toString())) {
+            assertThat(readAll(reader, 0), contains(
+                ">header1\nACTG\nNACT\n",
+                ">header2 with > inside\nANNT\n",
+                ">header3\nGCCA"));
+        }
+    }
+
+    @Test
+    public void shouldCombineSmallRecords() throws IOException {
+        Path file = Files.createTempFile("records", ".fasta");
+        file.toFile().deleteOnExit();
+        Files.write(file, FASTA.getBytes());
+        try (FastaRecordReader reader = new FastaRecordReader(file.toString())) {
+            assertThat(readAll(reader, 20), contains(
+                ">header1\nACTG\nNACT\n>header2 with > inside\nANNT\n",
+                ">header3\nGCCA"));
+        }
+        try (FastaRecordReader reader = new FastaRecordReader(new ByteArrayInputStream(FASTA.getBytes()))) {
+            assertThat(readAll(reader, 20), contains(
+                ">header1\nACTG\nNACT\n>header2 with > inside\nANNT\n",
+                ">header3\nGCCA"));
+        }
+    }
+
+    @Test
+    public void shouldStreamCompressedFiles() throws IOException {
+        Path file = Files.createTempFile("records", ".fasta.gz");
+        file.toFile().deleteOnExit();
+        try (OutputStream stream = new GZIPOutputStream(Files.newOutputStream(file))) {
+            stream.write(FASTA.getBytes());
+        }
+        try (FastaRecordReader reader = new FastaRecordReader(file.toString())) {
+            assertThat(String.join("", readAll(reader, 0)), equalTo(FASTA));
+        }
+    }
+
+    @Test
+    public void shouldReturnNullForEmptyFiles() throws IOException {
+        Path file = Files.createTempFile("records", ".fasta");
+        file.toFile().deleteOnExit();
+        try (FastaRecordReader reader = new FastaRecordReader(file.toString())) {
+            assertThat(reader.nextRecords(0), equalTo(null));
+        }
+        try (FastaRecordReader reader = new FastaRecordReader(new ByteArrayInputStream(new byte[0]))) {
+            assertThat(reader.nextRecords(0), equalTo(null));
+        }
+    }
+}
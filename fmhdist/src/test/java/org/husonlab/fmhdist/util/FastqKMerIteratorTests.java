@@ -0,0 +1,97 @@
+package org.husonlab.fmhdist.util;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+public class FastqKMerIteratorTests {
+    private static List<String> decompose(KMerIterator km) throws IOException {
+        List<String> result = new ArrayList<>();
+        while (km.hasNext()) {
+            String kmer = new String(km.next());
+            KMerCoordinates coordinates = km.getCoordinates();
+            result.add(kmer + " " + new String(km.getReverseComplement()) + " "
+                + coordinates.getRecordIndexInFile() + " " + coordinates.getSequenceIndexInRecord() + " "
+                + coordinates.toString());
+        }
+        km.close();
+        return result;
+    }
+
+    private static Path gzip(String file) throws IOException {
+        Path compressed = Files.createTempFile("reads", ".fq.gz");
+        compressed.toFile().deleteOnExit();
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(compressed))) {
+            out.write(Files.readAllBytes(Path.of(file)));
+        }
+        return compressed;
+    }
+
+    @Test
+    public void shouldMatchReadsAsFastaRecords() throws IOException {
+        for (int k : new int[] { 1, 5, 11, 21, 41 }) {
+            for (boolean skipN : new boolean[] { true, false }) {
+                List<String> expected = decompose(new MappedKMerIterator(k, "src/test/resources/reads.fasta", skipN));
+                List<String> actual = decompose(new FastqKMerIterator(k, "src/test/resources/reads.fastq", skipN, 0));
+                assertThat(actual, equalTo(expected));
+            }
+        }
+    }
+
+    @Test
+    public void shouldMaskLowQualityBases() throws IOException {
+        // the fourth read has a single base with quality 2, all other bases
+        // have a quality of at least 32
+        String fasta = Files.readString(Path.of("src/test/resources/reads.fasta"));
+        String[] lines = fasta.split("\n");
+        lines[7] = lines[7].substring(0, 20) + "N" + lines[7].substring(21);
+        Path masked = Files.createTempFile("masked", ".fasta");
+        masked.toFile().deleteOnExit();
+        Files.writeString(masked, String.join("\n", lines) + "\n");
+
+        List<String> expected = decompose(new MappedKMerIterator(15, masked.toString(), true));
+        assertThat(decompose(new FastqKMerIterator(15, "src/test/resources/reads.fastq", true, 20)), equalTo(expected));
+        assertThat(decompose(new FastqKMerIterator(15, "src/test/resources/reads.fastq", true, 32)), equalTo(expected));
+    }
+
+    @Test
+    public void shouldStreamPairedCompressedFiles() throws IOException {
+        Path compressed = gzip("src/test/resources/reads.fastq");
+        String paired = compressed + FastqKMerIterator.PAIRED_FILE_SEPARATOR + "src/test/resources/reads.fastq";
+        assertThat(FastqKMerIterator.isFastq(paired), equalTo(true));
+
+        List<String> single = decompose(new FastqKMerIterator(21, compressed.toString(), true, 0));
+        List<String> actual = decompose(new FastqKMerIterator(21, paired, true, 0));
+        assertThat(actual.size(), equalTo(2 * single.size()));
+        assertThat(actual.subList(0, single.size()), equalTo(single));
+        // the reads of the second file continue the read indices
+        assertThat(actual.get(single.size()).split(" ")[2], equalTo("6"));
+    }
+
+    @Test
+    public void shouldDetectFastqFiles() {
+        assertThat(FastqKMerIterator.isFastq("reads.fastq"), equalTo(true));
+        assertThat(FastqKMerIterator.isFastq("https://example.org/reads_1.FQ.gz"), equalTo(true));
+        assertThat(FastqKMerIterator.isFastq("genome.fna.gz"), equalTo(false));
+        assertThat(FastqKMerIterator.isFastq("reads_1.fq.gz;genome.fasta"), equalTo(false));
+    }
+
+    @Test(expected = UncheckedIOException.class)
+    public void shouldRejectInvalidRecords() throws IOException {
+        byte[] content = "@read\nACGTACGT\n+\nIIII\n".getBytes();
+        try (KMerIterator km = new FastqKMerIterator(3, new ByteArrayInputStream(content), true, 0)) {
+            km.hasNext();
+        }
+    }
+}
@@ -7,6 +7,7 @@ import org.junit.Test;
 
 public class KMerCoordinatesTest {
     @Test
+    @SuppressWarnings("deprecation")
     public void itShouldParseCoordinates() {
         String input = "2901,203233312,1374,203233312,1374,ACCATTACAATGACTTTGGAT,17,0";
         KMerCoordinates coords = KMerCoordinates.fromString(input);
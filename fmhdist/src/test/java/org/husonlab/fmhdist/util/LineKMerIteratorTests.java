@@ -10,6 +10,7 @@ import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -495,6 +496,7 @@ public class LineKMerIteratorTests {
     // In this test, I will explicitey and without any loops test the functionality of the reader. 
     // The reader must work soundly!
     @Test
+    @SuppressWarnings("deprecation")
     public void testFullFunctionalit() throws IOException {
         String fasta = ">header1\nACTG\nNACT\n>header2\nANNT\nGCCA\n";
         KMerIterator km = new LineKMerIterator(3, new BufferedReader(new InputStreamReader(new ByteArrayInputStream(fasta.getBytes()))), true);
@@ -556,6 +558,7 @@ public class LineKMerIteratorTests {
     }
 
     @Test
+    @SuppressWarnings("deprecation")
     public void checkNewlineAfterPreload() throws IOException {
         // using k=4, in the second line, the preload should load precisely the
         // ACT and handle the new-line, so that next() will return the complete
@@ -579,6 +582,7 @@ public class LineKMerIteratorTests {
     }
 
     @Test
+    @SuppressWarnings("deprecation")
     public void checkAmbAfterPreload() throws IOException {
         // using k=4, the first preload should prepare ACT and check that
         // nextByte is N and thus a new k-mer needs to be preloaded
@@ -592,4 +596,63 @@ public class LineKMerIteratorTests {
     }
 
 
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void shouldStreamFromBufferedReader() throws IOException {
+        // an endless FASTA, reading it completely would never return
+        Reader endless = new Reader() {
+            private final char[] content = ">header\n".toCharArray();
+            private int position = 0;
+
+            @Override
+            public int read(char[] buffer, int offset, int length) {
+                for (int i = 0; i < length; i++) {
+                    if (this.position < this.content.length) {
+                        buffer[offset + i] = this.content[this.position++];
+                    } else {
+                        buffer[offset + i] = this.position++ % 8 == 0 ? '\n' : 'A';
+                    }
+                }
+                return length;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        try (KMerIterator km = new LineKMerIterator(3, new BufferedReader(endless, 16), true)) {
+            for (int i = 0; i < 100; i++) {
+                assertThat(km.hasNext(), equalTo(true));
+                assertThat(new String(km.next()), equalTo("AAA"));
+            }
+        }
+    }
+
+    @Test
+    public void shouldIterateSingleLineLastRecord() throws IOException {
+        for (String fasta : new String[] { ">r1\nACGTACGTACGT\n>r2\nACGTTGCAAAGT\n", ">r1\nACGTACGTACGT\n>r2\nACGTTGCAAAGT" }) {
+            List<String> kmers = new ArrayList<>();
+            try (KMerIterator km = new LineKMerIterator(5, new ByteArrayInputStream(fasta.getBytes()), true)) {
+                while (km.hasNext()) {
+                    kmers.add(new String(km.next()) + " " + km.getCoordinates().getRecordIndexInFile());
+                }
+            }
+            assertThat(kmers, hasSize(16));
+            assertThat(kmers.get(8), equalTo("ACGTT 1"));
+            assertThat(kmers.get(15), equalTo("AAAGT 1"));
+        }
+    }
+
+    @Test
+    public void shouldSkipIupacCodes() throws IOException {
+        String fasta = ">r1\nACGRACGTA\nCyTTGA\n";
+        List<String> kmers = new ArrayList<>();
+        try (KMerIterator km = new LineKMerIterator(4, new ByteArrayInputStream(fasta.getBytes()), true)) {
+            while (km.hasNext()) {
+                kmers.add(new String(km.next()));
+            }
+        }
+        assertThat(kmers, contains("ACGT", "CGTA", "GTAC", "TTGA"));
+    }
 }
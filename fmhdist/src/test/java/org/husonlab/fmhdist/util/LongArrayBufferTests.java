@@ -0,0 +1,60 @@
+package org.husonlab.fmhdist.util;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+public class LongArrayBufferTests {
+    @Test
+    public void shouldReturnSortedDistinctValues() {
+        LongArrayBuffer buffer = new LongArrayBuffer(4);
+        TreeSet<Long> expected = new TreeSet<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            long value = random.nextLong() % 5000;
+            buffer.add(value);
+            expected.add(value);
+        }
+
+        long[] actual = buffer.toSortedArray();
+        assertThat(actual.length, equalTo(expected.size()));
+        int i = 0;
+        for (long value : expected) {
+            assertThat(actual[i++], equalTo(value));
+        }
+    }
+
+    @Test
+    public void shouldNotGrowForDuplicates() {
+        LongArrayBuffer buffer = new LongArrayBuffer(16);
+        for (int i = 0; i < 100000; i++) {
+            buffer.add(i % 3);
+        }
+        assertThat(buffer.size(), lessThanOrEqualTo(16));
+        assertThat(buffer.toSortedArray(), equalTo(new long[] { 0, 1, 2 }));
+    }
+
+    @Test
+    public void shouldHandleUnknownGenomeSize() {
+        LongArrayBuffer buffer = LongArrayBuffer.forSketch(0, 1000);
+        buffer.addAll(new long[] { 3, Long.MIN_VALUE, 3, -1 });
+        assertThat(buffer.toSortedArray(), equalTo(new long[] { Long.MIN_VALUE, -1, 3 }));
+    }
+
+    @Test
+    public void shouldGrowBeyondInitialCapacityOfLargeGenome() {
+        // must not allocate a buffer for 10^12 values up front
+        LongArrayBuffer buffer = LongArrayBuffer.forSketch(1000000000000L, 1);
+        for (int i = 0; i < 3000000; i++) {
+            buffer.add(i);
+        }
+        long[] values = buffer.toSortedArray();
+        assertThat(values.length, equalTo(3000000));
+        assertThat(values[2999999], equalTo(2999999L));
+    }
+}
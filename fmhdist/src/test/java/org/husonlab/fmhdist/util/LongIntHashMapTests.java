@@ -0,0 +1,85 @@
+package org.husonlab.fmhdist.util;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+public class LongIntHashMapTests {
+    @Test
+    public void shouldCountLikeTreeMap() {
+        LongIntHashMap map = new LongIntHashMap(4);
+        TreeMap<Long, Integer> expected = new TreeMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            // small hash values, as in a sketch, and the key 0
+            long key = Long.MIN_VALUE + random.nextInt(20000);
+            if (i % 100 == 0) {
+                key = 0;
+            }
+            expected.merge(key, 1, Integer::sum);
+            assertThat(map.increment(key), equalTo(expected.get(key)));
+        }
+
+        assertThat(map.size(), equalTo(expected.size()));
+        for (Map.Entry<Long, Integer> entry : expected.entrySet()) {
+            assertThat(map.get(entry.getKey()), equalTo(entry.getValue()));
+        }
+        assertThat(map.get(42), equalTo(0));
+    }
+
+    @Test
+    public void shouldReturnSortedKeysAboveMinimum() {
+        LongIntHashMap map = new LongIntHashMap();
+        for (long key : new long[] { 5, -3, 0, 5, 7, 0, 5, -3 }) {
+            map.increment(key);
+        }
+        assertThat(map.getSortedKeys(1), equalTo(new long[] { -3, 0, 5, 7 }));
+        assertThat(map.getSortedKeys(2), equalTo(new long[] { -3, 0, 5 }));
+        assertThat(map.getSortedKeys(3), equalTo(new long[] { 5 }));
+        assertThat(map.getSortedKeys(4), equalTo(new long[0]));
+    }
+
+    @Test
+    public void shouldReplaceValues() {
+        LongIntHashMap map = new LongIntHashMap(4);
+        for (int i = 0; i < 1000; i++) {
+            map.put(Long.MIN_VALUE + i, i);
+            map.put(Long.MIN_VALUE + i, i + 1);
+        }
+        map.put(0, 7);
+        assertThat(map.size(), equalTo(1001));
+        for (int i = 0; i < 1000; i++) {
+            assertThat(map.get(Long.MIN_VALUE + i), equalTo(i + 1));
+        }
+        assertThat(map.get(0), equalTo(7));
+        assertThat(map.increment(0), equalTo(8));
+    }
+
+    @Test
+    public void shouldGrowBeyondInitialCapacityOfLargeGenome() {
+        // must not allocate a table for 10^12 entries up front
+        LongIntHashMap map = LongIntHashMap.forSketch(1000000000000L, 1);
+        for (int i = 1; i <= 3000000; i++) {
+            map.increment(i);
+        }
+        assertThat(map.size(), equalTo(3000000));
+        assertThat(map.get(3000000), equalTo(1));
+    }
+
+    @Test
+    public void shouldCapInitialSize() {
+        // e.g. the total number of hash values of a large reference database
+        LongIntHashMap map = LongIntHashMap.withCappedSize(Integer.MAX_VALUE - 8L);
+        for (int i = 1; i <= 2000000; i++) {
+            map.put(i, i);
+        }
+        assertThat(map.size(), equalTo(2000000));
+        assertThat(map.get(2000000), equalTo(2000000));
+        assertThat(LongIntHashMap.withCappedSize(0).size(), equalTo(0));
+    }
+}
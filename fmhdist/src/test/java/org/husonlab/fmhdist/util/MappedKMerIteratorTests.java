@@ -0,0 +1,185 @@
+package org.husonlab.fmhdist.util;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+public class MappedKMerIteratorTests {
+    private static String createFile(String content) throws IOException {
+        Path file = Files.createTempFile("mapped", ".fasta");
+        file.toFile().deleteOnExit();
+        Files.write(file, content.getBytes());
+        return file.toString();
+    }
+
+    @Test
+    public void shouldMatchLineKMerIterator() throws IOException {
+        String[] files = new String[] {
+            "src/test/resources/fastaWith1Seq.fasta",
+            "src/test/resources/fastaWith2Seq.fasta",
+            "src/test/resources/fastaWithAmbSeq.fasta",
+            "src/test/resources/virus1.fasta",
+            "src/test/resources/fastaWithMultipleAmbSeq.fasta",
+            "src/test/resources/fastaWithSingleLineRecords.fasta",
+            "src/test/resources/fastaWithIupacSeq.fasta"
+        };
+        for (String file : files) {
+            for (int k : new int[] { 3, 8, 21 }) {
+                List<String> expected = new ArrayList<>();
+                try (KMerIterator km = new LineKMerIterator(k, file, true)) {
+                    while (km.hasNext()) {
+                        String kmer = new String(km.next());
+                        expected.add(kmer + " " + new String(km.getReverseComplement()) + " " + km.getCoordinates());
+                    }
+                }
+                List<String> actual = new ArrayList<>();
+                try (KMerIterator km = new MappedKMerIterator(k, file, true)) {
+                    while (km.hasNext()) {
+                        String kmer = new String(km.next());
+                        actual.add(kmer + " " + new String(km.getReverseComplement()) + " " + km.getCoordinates());
+                    }
+                }
+                assertThat(actual, equalTo(expected));
+            }
+        }
+    }
+
+    @Test
+    public void shouldIterateKmersInMultipleSequences() throws IOException {
+        try (KMerIterator km = new MappedKMerIterator(21, "src/test/resources/fastaWith2Seq.fasta", true)) {
+            List<String> kmers = new ArrayList<>();
+            while (km.hasNext()) {
+                kmers.add(new String(km.next()));
+            }
+            assertThat(kmers, hasSize(800));
+        }
+    }
+
+    @Test
+    public void shouldNotCreateKmers() throws IOException {
+        try (KMerIterator km = new MappedKMerIterator(21, "src/test/resources/fastaWithTwoShortSeq.fasta", true)) {
+            assertThat(km.hasNext(), equalTo(false));
+        }
+    }
+
+    @Test
+    public void checkComplement() throws IOException {
+        try (KMerIterator km = new MappedKMerIterator(21, "src/test/resources/fastaWith1Seq.fasta", true)) {
+            assertThat(km.hasNext(), equalTo(true));
+            assertThat(new String(km.next()), equalTo("ACTCGTATGAACTTTGACTGG"));
+            assertThat(new String(km.getReverseComplement()), equalTo("CCAGTCAAAGTTCATACGAGT"));
+        }
+    }
+
+    @Test
+    public void checkDiscardAmbiguousChars() throws IOException {
+        try (KMerIterator km = new MappedKMerIterator(21, "src/test/resources/fastaWithAmbSeq.fasta", true)) {
+            int i = 0;
+            while (km.hasNext()) {
+                km.next();
+                i++;
+            }
+            assertThat(i, equalTo((70*6) - 21 + 1 - 21));
+        }
+    }
+
+    @Test
+    public void checkCoordinates() throws IOException {
+        try (KMerIterator km = new MappedKMerIterator(8, "src/test/resources/fastaWithMultipleAmbSeq.fasta", true)) {
+            int i = 0;
+            int[] ambigPos = new int[]{0, 1, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20};
+            while (km.hasNext()) {
+                km.next();
+                var c = km.getCoordinates();
+                if (i < 13) {
+                    assertThat(c.getRecordIndexInFile(), equalTo(0));
+                    assertThat(c.getSequenceIndexInRecord(), equalTo(i));
+                    assertThat(c.getSequenceIndexInRecordIncludingAmbiguous(), equalTo(ambigPos[i]));
+                } else {
+                    assertThat(c.getRecordIndexInFile(), equalTo(1));
+                    assertThat(c.getSequenceIndexInRecord(), equalTo(i-13));
+                    assertThat(c.getSequenceIndexInRecordIncludingAmbiguous(), equalTo(ambigPos[i-13]));
+                    assertThat(c.getSequenceIndexInFile(), equalTo(i));
+                    assertThat(c.getSequenceIndexInFileIncludingAmbiguous(), equalTo(21 + ambigPos[i-13]));
+                }
+                i++;
+            }
+            // in contrast to the LineKMerIterator, the last record is not
+            // dropped if the file does not end with a newline
+            assertThat(i, equalTo(26));
+        }
+    }
+
+    @Test
+    public void testFullFunctionality() throws IOException {
+        String fasta = ">header1\nACTG\nNACT\n>header2\nANNT\nGCCA\n";
+        try (KMerIterator km = new MappedKMerIterator(3, createFile(fasta), true)) {
+            List<String> kmers = new ArrayList<>();
+            List<Integer> indices = new ArrayList<>();
+            while (km.hasNext()) {
+                kmers.add(new String(km.next()) + "/" + new String(km.getReverseComplement()));
+                indices.add(km.getCoordinates().getSequenceIndexInFileIncludingAmbiguous());
+            }
+            assertThat(kmers, contains("ACT/AGT", "CTG/CAG", "ACT/AGT", "TGC/GCA", "GCC/GGC", "CCA/TGG"));
+            assertThat(indices, contains(0, 1, 5, 9, 10, 11));
+        }
+    }
+
+    @Test
+    public void checkNewlineAndLowerCase() throws IOException {
+        String fasta = ">header1\r\nACTg\r\nNACT\r\nCTG";
+        try (KMerIterator km = new MappedKMerIterator(4, createFile(fasta), true)) {
+            List<String> kmers = new ArrayList<>();
+            while (km.hasNext()) {
+                kmers.add(new String(km.next()));
+            }
+            assertThat(kmers, contains("ACTG", "ACTC", "CTCT", "TCTG"));
+        }
+    }
+
+    @Test
+    public void checkAmbAfterPreload() throws IOException {
+        String fasta = ">header1\nACTN\nNACT\nA\n";
+        try (KMerIterator km = new MappedKMerIterator(4, createFile(fasta), true)) {
+            assertThat(km.hasNext(), equalTo(true));
+            assertThat(new String(km.next()), equalTo(("ACTA")));
+            assertThat(km.hasNext(), equalTo(false));
+        }
+    }
+
+    @Test
+    public void shouldKeepAmbiguousCharsIfRequested() throws IOException {
+        String fasta = ">header1\nACNT\n";
+        try (KMerIterator km = new MappedKMerIterator(4, createFile(fasta), false)) {
+            assertThat(km.hasNext(), equalTo(true));
+            assertThat(new String(km.next()), equalTo(("ACNT")));
+            assertThat(new String(km.getReverseComplement()), equalTo(("ANGT")));
+            assertThat(km.hasNext(), equalTo(false));
+        }
+    }
+
+    @Test
+    public void shouldOnlyMapLocalPlainFiles() throws IOException {
+        assertThat(MappedKMerIterator.isMappable("src/test/resources/virus1.fasta"), equalTo(true));
+        assertThat(MappedKMerIterator.isMappable("src/test/resources/doesNotExist.fasta"), equalTo(false));
+        assertThat(MappedKMerIterator.isMappable("https://ftp.ncbi.nlm.nih.gov/genomes/all/test.fna"), equalTo(false));
+
+        Path file = Files.createTempFile("mapped", ".fasta.gz");
+        file.toFile().deleteOnExit();
+        try (OutputStream stream = new GZIPOutputStream(Files.newOutputStream(file))) {
+            stream.write(">header\nACGT\n".getBytes());
+        }
+        assertThat(MappedKMerIterator.isMappable(file.toString()), equalTo(false));
+    }
+}
@@ -0,0 +1,76 @@
+package org.husonlab.fmhdist.util;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class NtHashIteratorTests {
+    @Test
+    public void shouldBeCanonical() {
+        NtHashFunction hashFunction = new NtHashFunction(42);
+        assertThat(
+            hashFunction.hashBytes("ACTCGTATGAACTTTGACTGG".getBytes()),
+            equalTo(hashFunction.hashBytes("CCAGTCAAAGTTCATACGAGT".getBytes())));
+        assertThat(
+            hashFunction.hashBytes("ACTCGTATGAACTTTGACTGG".getBytes()),
+            not(equalTo(hashFunction.hashBytes("CTCGTATGAACTTTGACTGGT".getBytes()))));
+    }
+
+    @Test
+    public void shouldDependOnSeed() {
+        assertThat(
+            new NtHashFunction(42).hashBytes("ACTCGTATGAACTTTGACTGG".getBytes()),
+            not(equalTo(new NtHashFunction(43).hashBytes("ACTCGTATGAACTTTGACTGG".getBytes()))));
+    }
+
+    @Test
+    public void shouldMatchHashFunction() throws IOException {
+        String[] files = new String[] {
+            "src/test/resources/fastaWith1Seq.fasta",
+            "src/test/resources/fastaWith2Seq.fasta",
+            "src/test/resources/fastaWithAmbSeq.fasta",
+            "src/test/resources/fastaWithMultipleAmbSeq.fasta",
+            "src/test/resources/fastaWithSingleLineRecords.fasta",
+            "src/test/resources/fastaWithIupacSeq.fasta"
+        };
+        NtHashFunction hashFunction = new NtHashFunction(42);
+        for (String file : files) {
+            // also cover k > 32 and k > 64 to check the rotations
+            for (int k : new int[] { 8, 21, 33, 70 }) {
+                List<Long> expected = new ArrayList<>();
+                try (KMerIterator km = new LineKMerIterator(k, file, true)) {
+                    while (km.hasNext()) {
+                        expected.add(hashFunction.hashBytes(km.next()));
+                    }
+                }
+                List<Long> actual = new ArrayList<>();
+                try (KMerHashIterator km = new NtHashIterator(k, file, hashFunction)) {
+                    while (km.hasNext()) {
+                        actual.add(km.nextLong());
+                    }
+                }
+                assertThat(actual, equalTo(expected));
+            }
+        }
+    }
+
+    @Test
+    public void shouldSkipAmbiguousBasesAndHeaders() throws IOException {
+        String fasta = ">header1\nACTG\nNACT\n>header2\nANNT\nGCCA\n";
+        NtHashFunction hashFunction = new NtHashFunction(42);
+        try (KMerHashIterator km = new NtHashIterator(3, new ByteArrayInputStream(fasta.getBytes()), hashFunction)) {
+            for (String kmer : new String[] { "ACT", "CTG", "ACT", "TGC", "GCC", "CCA" }) {
+                assertThat(km.hasNext(), equalTo(true));
+                assertThat(km.nextLong(), equalTo(hashFunction.hashBytes(kmer.getBytes())));
+            }
+            assertThat(km.hasNext(), equalTo(false));
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package org.husonlab.fmhdist.util;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class PackedKMerIteratorTests {
+    private static String unpack(long packedKmer, int k) {
+        byte[] result = new byte[k];
+        PackedKMerIterator.unpack(packedKmer, k, result);
+        return new String(result);
+    }
+
+    @Test
+    public void shouldIterateCanonicalKmers() throws IOException {
+        String fasta = ">header1\nACTG\nNACT\n>header2\nANNT\nGCCA\n";
+        try (PackedKMerIterator km = new PackedKMerIterator(3, new ByteArrayInputStream(fasta.getBytes()))) {
+            List<String> kmers = new ArrayList<>();
+            while (km.hasNext()) {
+                kmers.add(unpack(km.next(), 3));
+            }
+            assertThat(kmers, contains("ACT", "CAG", "ACT", "GCA", "GCC", "CCA"));
+        }
+    }
+
+    @Test
+    public void checkComplement() throws IOException {
+        try (PackedKMerIterator km = new PackedKMerIterator(21, "src/test/resources/fastaWith1Seq.fasta")) {
+            assertThat(km.hasNext(), equalTo(true));
+            km.next();
+            assertThat(unpack(km.getKmer(), 21), equalTo("ACTCGTATGAACTTTGACTGG"));
+            assertThat(unpack(km.getReverseComplement(), 21), equalTo("CCAGTCAAAGTTCATACGAGT"));
+        }
+    }
+
+    @Test
+    public void shouldMatchLineKMerIterator() throws IOException {
+        String[] files = new String[] {
+            "src/test/resources/fastaWith1Seq.fasta",
+            "src/test/resources/fastaWith2Seq.fasta",
+            "src/test/resources/fastaWithAmbSeq.fasta",
+            "src/test/resources/fastaWithMultipleAmbSeq.fasta",
+            "src/test/resources/fastaWithSingleLineRecords.fasta",
+            "src/test/resources/fastaWithIupacSeq.fasta"
+        };
+        for (String file : files) {
+            for (int k : new int[] { 8, 21, 32 }) {
+                List<String> expected = new ArrayList<>();
+                try (KMerIterator km = new LineKMerIterator(k, file, true)) {
+                    while (km.hasNext()) {
+                        String kmer = new String(km.next());
+                        String complement = new String(km.getReverseComplement());
+                        expected.add(kmer.compareTo(complement) > 0 ? complement : kmer);
+                    }
+                }
+                List<String> actual = new ArrayList<>();
+                try (PackedKMerIterator km = new PackedKMerIterator(k, file)) {
+                    while (km.hasNext()) {
+                        actual.add(unpack(km.next(), k));
+                    }
+                }
+                assertThat(actual, equalTo(expected));
+            }
+        }
+    }
+
+    @Test
+    public void shouldIterateLastRecordWithoutTrailingNewline() throws IOException {
+        try (PackedKMerIterator km = new PackedKMerIterator(8, "src/test/resources/fastaWithMultipleAmbSeq.fasta")) {
+            int i = 0;
+            while (km.hasNext()) {
+                km.next();
+                i++;
+            }
+            assertThat(i, equalTo(26));
+        }
+    }
+
+    @Test
+    public void checkLowerCaseAndWindowsLineEndings() throws IOException {
+        String fasta = ">header1\r\nacTG\r\nTT\r\n";
+        try (PackedKMerIterator km = new PackedKMerIterator(4, new ByteArrayInputStream(fasta.getBytes()))) {
+            List<String> kmers = new ArrayList<>();
+            while (km.hasNext()) {
+                km.next();
+                kmers.add(unpack(km.getKmer(), 4));
+            }
+            assertThat(kmers, contains("ACTG", "CTGT", "TGTT"));
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package org.husonlab.fmhdist.util;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.FutureTask;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+public class ReadAheadBlockSourceTests {
+    private static byte[] readAll(ByteBlockSource source) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        ByteBuffer block;
+        while ((block = source.nextBlock()) != null) {
+            byte[] content = new byte[block.remaining()];
+            block.get(content);
+            result.write(content);
+        }
+        return result.toByteArray();
+    }
+
+    private static List<String> decompose(KMerIterator km) throws IOException {
+        List<String> result = new ArrayList<>();
+        while (km.hasNext()) {
+            String kmer = new String(km.next());
+            result.add(kmer + " " + new String(km.getReverseComplement()) + " " + km.getCoordinates());
+        }
+        km.close();
+        return result;
+    }
+
+    @Test
+    public void shouldSupplyTheWholeStream() throws IOException {
+        byte[] content = new byte[100000];
+        new Random(42).nextBytes(content);
+        for (int count : new int[] { 1, 2, 5 }) {
+            for (int size : new int[] { 1, 7, 4096, 200000 }) {
+                try (ReadAheadBlockSource source = new ReadAheadBlockSource(new ByteArrayInputStream(content), count, size)) {
+                    assertThat(readAll(source), equalTo(content));
+                    // the end of the stream is reported repeatedly
+                    assertThat(source.nextBlock(), equalTo(null));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void shouldHandleEmptyStream() throws IOException {
+        try (ReadAheadBlockSource source = new ReadAheadBlockSource(new ByteArrayInputStream(new byte[0]), 2, 16)) {
+            assertThat(source.nextBlock(), equalTo(null));
+        }
+    }
+
+    @Test
+    public void shouldBeReadableAsStream() throws IOException {
+        byte[] content = new byte[10000];
+        new Random(7).nextBytes(content);
+        try (InputStream stream = new ByteBlockInputStream(new ReadAheadBlockSource(new ByteArrayInputStream(content), 3, 100))) {
+            assertThat(stream.readAllBytes(), equalTo(content));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldPropagateReadErrors() throws IOException {
+        InputStream failing = new InputStream() {
+            private int remaining = 1000;
+
+            @Override
+            public int read() throws IOException {
+                if (this.remaining-- <= 0) {
+                    throw new IOException("broken stream");
+                }
+                return 'A';
+            }
+        };
+        try (ReadAheadBlockSource source = new ReadAheadBlockSource(failing, 2, 64)) {
+            readAll(source);
+        }
+    }
+
+    @Test
+    public void shouldStopWhenClosedEarly() throws IOException {
+        // endless stream, the producer must not keep running after close
+        InputStream endless = new InputStream() {
+            @Override
+            public int read() {
+                return 'A';
+            }
+        };
+        ReadAheadBlockSource source = new ReadAheadBlockSource(endless, 2, 64);
+        source.nextBlock();
+        source.close();
+    }
+
+    @Test
+    public void shouldSupplyAllBlocksToEachSharedConsumer() throws Exception {
+        byte[] content = new byte[200000];
+        new Random(3).nextBytes(content);
+        ReadAheadBlockSource.setBlockSize(1000);
+        ByteBlockSource[] sources;
+        try {
+            sources = ReadAheadBlockSource.share(new ByteArrayInputStream(content), 4);
+        } finally {
+            ReadAheadBlockSource.setBlockSize(ReadAheadBlockSource.DEFAULT_BLOCK_SIZE);
+        }
+        // one consumer stops early and must not block the others
+        sources[3].nextBlock();
+        sources[3].close();
+
+        List<FutureTask<byte[]>> consumers = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            final ByteBlockSource source = sources[i];
+            FutureTask<byte[]> consumer = new FutureTask<>(() -> readAll(source));
+            consumers.add(consumer);
+            new Thread(consumer).start();
+        }
+        for (FutureTask<byte[]> consumer : consumers) {
+            assertThat(consumer.get(), equalTo(content));
+        }
+        for (ByteBlockSource source : sources) {
+            source.close();
+        }
+    }
+
+    @Test
+    public void shouldMatchLineKMerIteratorForCompressedFiles() throws IOException {
+        String[] files = new String[] {
+            "src/test/resources/fastaWith1Seq.fasta",
+            "src/test/resources/fastaWith2Seq.fasta",
+            "src/test/resources/fastaWithAmbSeq.fasta",
+            "src/test/resources/virus1.fasta",
+            "src/test/resources/fastaWithMultipleAmbSeq.fasta",
+            "src/test/resources/fastaWithSingleLineRecords.fasta",
+            "src/test/resources/fastaWithIupacSeq.fasta"
+        };
+        for (String file : files) {
+            Path compressed = Files.createTempFile("readahead", ".fasta.gz");
+            compressed.toFile().deleteOnExit();
+            try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(compressed))) {
+                out.write(Files.readAllBytes(Path.of(file)));
+            }
+            for (int k : new int[] { 3, 21 }) {
+                List<String> expected = decompose(new LineKMerIterator(k, file, true));
+                // small blocks to have k-mers and lines spanning several blocks
+                for (int size : new int[] { 1, 5, 64, 1 << 16 }) {
+                    ReadAheadBlockSource source = new ReadAheadBlockSource(
+                        new GZIPInputStream(Files.newInputStream(compressed)), 3, size);
+                    List<String> actual = decompose(new BlockKMerIterator(k, source, true));
+                    assertThat(String.format("%s, k=%d, block size=%d", file, k, size), actual, equalTo(expected));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package org.husonlab.fmhdist.util;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class VarIntCodecTests {
+    @Test
+    public void shouldEncodeUnsignedValues() {
+        long[] values = new long[] { 0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE, Long.MAX_VALUE, Long.MIN_VALUE, -1 };
+        int[] sizes = new int[] { 1, 1, 1, 2, 2, 3, 5, 9, 10, 10 };
+        for (int i = 0; i < values.length; i++) {
+            ByteBuffer buffer = ByteBuffer.allocate(VarIntCodec.MAX_LONG_BYTES);
+            VarIntCodec.writeUnsigned(buffer, values[i]);
+            assertThat(buffer.position(), equalTo(sizes[i]));
+            buffer.flip();
+            assertThat(VarIntCodec.readUnsigned(buffer), equalTo(values[i]));
+            assertThat(buffer.hasRemaining(), equalTo(false));
+        }
+    }
+
+    @Test
+    public void shouldEncodeSortedValuesAsDeltas() {
+        Random random = new Random(42);
+        long[] values = new long[100000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextLong();
+        }
+        values[0] = Long.MIN_VALUE;
+        values[1] = Long.MAX_VALUE;
+        Arrays.sort(values);
+
+        ByteBuffer buffer = ByteBuffer.allocate(VarIntCodec.MAX_LONG_BYTES * values.length);
+        VarIntCodec.writeDeltas(buffer, values);
+        // the gaps of 100000 uniform values need less than 8 bytes
+        assertThat(buffer.position() < 8 * values.length, equalTo(true));
+        buffer.flip();
+        assertThat(VarIntCodec.readDeltas(buffer, values.length), equalTo(values));
+        assertThat(buffer.hasRemaining(), equalTo(false));
+    }
+
+    @Test(expected = BufferUnderflowException.class)
+    public void shouldRejectTruncatedValues() {
+        ByteBuffer buffer = ByteBuffer.allocate(VarIntCodec.MAX_LONG_BYTES);
+        VarIntCodec.writeUnsigned(buffer, Long.MAX_VALUE);
+        buffer.flip();
+        buffer.limit(buffer.limit() - 1);
+        VarIntCodec.readUnsigned(buffer);
+    }
+}
@@ -18,6 +18,8 @@ import org.junit.Test;
 
 
 
+// tests the deprecated experimental producer/consumer pipeline
+@SuppressWarnings("deprecation")
 public class LineKMerIteratorConsumerTests {
     @Test
     public void shouldIterateKmers() throws IOException {